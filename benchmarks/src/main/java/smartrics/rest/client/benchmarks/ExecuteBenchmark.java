@@ -0,0 +1,125 @@
+/*  Copyright 2008 Fabrizio Cannizzo
+ *
+ *  This file is part of RestFixture.
+ *
+ *  RestFixture (http://code.google.com/p/rest-fixture/) is free software:
+ *  you can redistribute it and/or modify it under the terms of the
+ *  GNU Lesser General Public License as published by the Free Software Foundation,
+ *  either version 3 of the License, or (at your option) any later version.
+ *
+ *  RestFixture is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with RestFixture.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ *  If you want to contact the author please leave a comment here
+ *  http://smartrics.blogspot.com/2008/08/get-fitnesse-with-some-rest.html
+ */
+package smartrics.rest.client.benchmarks;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.sun.net.httpserver.HttpServer;
+
+import smartrics.rest.client.JdkHttpTransport;
+import smartrics.rest.client.RestClient;
+import smartrics.rest.client.RestClientBuilder;
+import smartrics.rest.client.RestClientImpl;
+import smartrics.rest.client.RestRequest;
+import smartrics.rest.client.RestResponse;
+
+/**
+ * Round trip of {@code RestClient.execute} against an in-process loopback
+ * server, so that the figures are dominated by the client code rather than
+ * by the network.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ExecuteBenchmark {
+
+    static {
+        // without it the server stalls on delayed acks and every call takes ~40ms
+        System.setProperty("sun.net.httpserver.nodelay", "true");
+    }
+
+    @Param({ "httpclient3", "jdk" })
+    public String transport;
+
+    @Param({ "128", "16384" })
+    public int responseSize;
+
+    private HttpServer server;
+    private RestClient client;
+    private RestRequest get;
+    private RestRequest post;
+
+    @Setup
+    public void setUp() throws IOException {
+        final byte[] body = new byte[responseSize];
+        java.util.Arrays.fill(body, (byte) 'a');
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/", exchange -> {
+            exchange.getRequestBody().readAllBytes();
+            exchange.getResponseHeaders().add("Content-Type", "text/plain; charset=UTF-8");
+            exchange.sendResponseHeaders(200, body.length);
+            OutputStream out = exchange.getResponseBody();
+            out.write(body);
+            out.close();
+        });
+        server.setExecutor(Executors.newFixedThreadPool(4));
+        server.start();
+        String baseUrl = "http://127.0.0.1:" + server.getAddress().getPort();
+        if ("jdk".equals(transport)) {
+            client = RestClientImpl.create(JdkHttpTransport.http11());
+        } else {
+            client = new RestClientBuilder().setValidateAfterInactivity(1000).build();
+        }
+        client.setBaseUrl(baseUrl);
+        get = new RestRequest().setMethod(RestRequest.Method.Get);
+        get.setResource("/orders/123").addHeader("Accept", "text/plain");
+        post = new RestRequest().setMethod(RestRequest.Method.Post);
+        post.setResource("/orders").addHeader("Content-Type", "application/json");
+        post.setBody("{\"item\":\"book\",\"quantity\":1}");
+    }
+
+    @TearDown
+    public void tearDown() {
+        server.stop(0);
+    }
+
+    @Benchmark
+    public String get() {
+        RestResponse response = client.execute(get);
+        return response.getBody();
+    }
+
+    @Benchmark
+    public String post() {
+        RestResponse response = client.execute(post);
+        return response.getBody();
+    }
+}
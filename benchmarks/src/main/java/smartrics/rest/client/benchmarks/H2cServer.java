@@ -0,0 +1,102 @@
+/*  Copyright 2008 Fabrizio Cannizzo
+ *
+ *  This file is part of RestFixture.
+ *
+ *  RestFixture (http://code.google.com/p/rest-fixture/) is free software:
+ *  you can redistribute it and/or modify it under the terms of the
+ *  GNU Lesser General Public License as published by the Free Software Foundation,
+ *  either version 3 of the License, or (at your option) any later version.
+ *
+ *  RestFixture is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with RestFixture.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ *  If you want to contact the author please leave a comment here
+ *  http://smartrics.blogspot.com/2008/08/get-fitnesse-with-some-rest.html
+ */
+package smartrics.rest.client.benchmarks;
+
+import java.io.IOException;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.eclipse.jetty.http2.server.HTTP2CServerConnectionFactory;
+import org.eclipse.jetty.io.ConnectionStatistics;
+import org.eclipse.jetty.server.HttpConfiguration;
+import org.eclipse.jetty.server.HttpConnectionFactory;
+import org.eclipse.jetty.server.Request;
+import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.server.ServerConnector;
+import org.eclipse.jetty.server.handler.AbstractHandler;
+import org.eclipse.jetty.util.thread.QueuedThreadPool;
+
+/**
+ * A loopback server speaking HTTP/1.1 and h2c (both prior-knowledge and
+ * upgrade), standing in for a backend in the benchmarks.
+ *
+ * Each request is answered after a fixed service time with a small body.
+ */
+public class H2cServer {
+
+    private final Server server;
+    private final ServerConnector connector;
+    private final ConnectionStatistics statistics = new ConnectionStatistics();
+
+    public H2cServer(final long serviceTimeMillis) {
+        server = new Server(new QueuedThreadPool(1024));
+        HttpConfiguration config = new HttpConfiguration();
+        HTTP2CServerConnectionFactory h2c = new HTTP2CServerConnectionFactory(config);
+        h2c.setMaxConcurrentStreams(1024);
+        connector = new ServerConnector(server, new HttpConnectionFactory(config), h2c);
+        connector.setHost("127.0.0.1");
+        connector.setPort(0);
+        connector.addBean(statistics);
+        server.addConnector(connector);
+        server.setHandler(new AbstractHandler() {
+            public void handle(String target, Request baseRequest, HttpServletRequest request, HttpServletResponse response) throws IOException {
+                if (serviceTimeMillis > 0) {
+                    try {
+                        Thread.sleep(serviceTimeMillis);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+                response.setStatus(200);
+                response.setContentType("application/json; charset=UTF-8");
+                response.getOutputStream().write("{\"status\":\"ok\"}".getBytes("UTF-8"));
+                baseRequest.setHandled(true);
+            }
+        });
+    }
+
+    public void start() throws Exception {
+        server.start();
+    }
+
+    public void stop() throws Exception {
+        server.stop();
+    }
+
+    public String getBaseUrl() {
+        return "http://127.0.0.1:" + connector.getLocalPort();
+    }
+
+    /**
+     * @return the number of connections accepted since the server started
+     */
+    public long getConnectionsOpened() {
+        return statistics.getConnectionsTotal();
+    }
+
+    /**
+     * @return the maximum number of connections open at the same time
+     */
+    public long getConnectionsMax() {
+        return statistics.getConnectionsMax();
+    }
+}
@@ -0,0 +1,142 @@
+/*  Copyright 2008 Fabrizio Cannizzo
+ *
+ *  This file is part of RestFixture.
+ *
+ *  RestFixture (http://code.google.com/p/rest-fixture/) is free software:
+ *  you can redistribute it and/or modify it under the terms of the
+ *  GNU Lesser General Public License as published by the Free Software Foundation,
+ *  either version 3 of the License, or (at your option) any later version.
+ *
+ *  RestFixture is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with RestFixture.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ *  If you want to contact the author please leave a comment here
+ *  http://smartrics.blogspot.com/2008/08/get-fitnesse-with-some-rest.html
+ */
+package smartrics.rest.client.benchmarks;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+import org.apache.commons.httpclient.HttpClient;
+import org.apache.commons.httpclient.MultiThreadedHttpConnectionManager;
+
+import smartrics.rest.client.JdkHttpTransport;
+import smartrics.rest.client.RestClient;
+import smartrics.rest.client.RestClientImpl;
+import smartrics.rest.client.RestRequest;
+import smartrics.rest.client.RestResponse;
+
+/**
+ * Compares the transports at the same request rate against a local h2c
+ * server: connections opened (in total and at the same time) and latency
+ * percentiles.
+ *
+ * Requests are issued at a fixed rate (open model) and latencies are measured
+ * from the intended send time.
+ *
+ * Usage: {@code Http2Benchmark [rate/s] [duration s] [service time ms]}
+ */
+public class Http2Benchmark {
+
+    public static void main(String[] args) throws Exception {
+        int rate = args.length > 0 ? Integer.parseInt(args[0]) : 2000;
+        int seconds = args.length > 1 ? Integer.parseInt(args[1]) : 10;
+        long serviceTime = args.length > 2 ? Long.parseLong(args[2]) : 20;
+        System.out.printf("rate=%d/s duration=%ds service time=%dms%n", rate, seconds, serviceTime);
+        System.out.printf("%-14s %8s %8s %8s %8s %10s %10s %10s%n", "transport", "requests", "errors", "conns", "max open", "p50 ms", "p99 ms", "max ms");
+        run("httpclient3.1", httpClient3(), serviceTime, rate, seconds);
+        run("jdk-http/1.1", RestClientImpl.create(JdkHttpTransport.http11()), serviceTime, rate, seconds);
+        run("jdk-h2c", RestClientImpl.create(JdkHttpTransport.http2()), serviceTime, rate, seconds);
+    }
+
+    private static RestClient httpClient3() {
+        MultiThreadedHttpConnectionManager manager = new MultiThreadedHttpConnectionManager();
+        manager.getParams().setMaxTotalConnections(1000);
+        manager.getParams().setDefaultMaxConnectionsPerHost(1000);
+        return new RestClientImpl(new HttpClient(manager));
+    }
+
+    private static void run(String name, RestClient client, long serviceTime, int rate, int seconds) throws Exception {
+        H2cServer server = new H2cServer(serviceTime);
+        server.start();
+        try {
+            run(name, client, server, rate, seconds);
+        } finally {
+            server.stop();
+        }
+    }
+
+    private static void run(String name, RestClient client, H2cServer server, int rate, int seconds) throws Exception {
+        client.setBaseUrl(server.getBaseUrl());
+        // a first call on its own establishes the connection, and for h2c the upgrade,
+        // before concurrent calls start; then warm up the path at the target rate
+        client.execute((RestRequest) new RestRequest().setMethod(RestRequest.Method.Get).setResource("/"));
+        fire(client, rate, 2);
+        long[] latencies = fire(client, rate, seconds);
+        int errors = 0;
+        List<Long> ok = new ArrayList<Long>();
+        for (long l : latencies) {
+            if (l < 0) {
+                errors++;
+            } else {
+                ok.add(l);
+            }
+        }
+        long[] sorted = new long[ok.size()];
+        for (int i = 0; i < sorted.length; i++) {
+            sorted[i] = ok.get(i);
+        }
+        Arrays.sort(sorted);
+        System.out.printf("%-14s %8d %8d %8d %8d %10.2f %10.2f %10.2f%n", name, latencies.length, errors,
+                server.getConnectionsOpened(), server.getConnectionsMax(),
+                millis(percentile(sorted, 0.50)), millis(percentile(sorted, 0.99)), millis(percentile(sorted, 1.0)));
+    }
+
+    private static long[] fire(RestClient client, int rate, int seconds) throws Exception {
+        int total = rate * seconds;
+        final long[] latencies = new long[total];
+        final AtomicInteger pending = new AtomicInteger(total);
+        final CompletableFuture<Void> done = new CompletableFuture<Void>();
+        long interval = TimeUnit.SECONDS.toNanos(1) / rate;
+        long start = System.nanoTime();
+        for (int i = 0; i < total; i++) {
+            final long intended = start + i * interval;
+            long now;
+            while ((now = System.nanoTime()) < intended) {
+                LockSupport.parkNanos(intended - now);
+            }
+            final int idx = i;
+            RestRequest request = (RestRequest) new RestRequest().setMethod(RestRequest.Method.Get).setResource("/resource/" + (i % 100));
+            client.executeAsync(request).whenComplete((RestResponse response, Throwable failure) -> {
+                latencies[idx] = failure == null ? System.nanoTime() - intended : -1;
+                if (pending.decrementAndGet() == 0) {
+                    done.complete(null);
+                }
+            });
+        }
+        done.get(seconds + 60, TimeUnit.SECONDS);
+        return latencies;
+    }
+
+    private static long percentile(long[] sorted, double p) {
+        if (sorted.length == 0)
+            return 0;
+        int idx = (int) Math.ceil(p * sorted.length) - 1;
+        return sorted[Math.max(0, Math.min(idx, sorted.length - 1))];
+    }
+
+    private static double millis(long nanos) {
+        return nanos / 1000000.0;
+    }
+}
@@ -0,0 +1,140 @@
+/*  Copyright 2008 Fabrizio Cannizzo
+ *
+ *  This file is part of RestFixture.
+ *
+ *  RestFixture (http://code.google.com/p/rest-fixture/) is free software:
+ *  you can redistribute it and/or modify it under the terms of the
+ *  GNU Lesser General Public License as published by the Free Software Foundation,
+ *  either version 3 of the License, or (at your option) any later version.
+ *
+ *  RestFixture is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with RestFixture.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ *  If you want to contact the author please leave a comment here
+ *  http://smartrics.blogspot.com/2008/08/get-fitnesse-with-some-rest.html
+ */
+package smartrics.rest.client.benchmarks;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.httpclient.HttpClient;
+import org.apache.commons.httpclient.HttpMethod;
+import org.apache.commons.httpclient.URI;
+import org.apache.commons.httpclient.URIException;
+import org.apache.commons.httpclient.methods.GetMethod;
+import org.apache.commons.httpclient.methods.PostMethod;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import smartrics.rest.client.HttpClient3Transport;
+import smartrics.rest.client.RestMultipart;
+import smartrics.rest.client.RestMultipart.RestMultipartType;
+import smartrics.rest.client.RestRequest;
+
+/**
+ * Preparation of HttpClient 3.1 methods: URI building and multipart
+ * assembly, with the multipart body written to a discarding stream.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MethodConfigurationBenchmark {
+
+    private static final String HOST = "http://localhost:8080";
+
+    private Transport transport;
+    private RestRequest get;
+    private RestRequest escapedGet;
+    private RestRequest multipart;
+    private File file;
+    private final OutputStream sink = OutputStream.nullOutputStream();
+
+    @Setup
+    public void setUp() throws IOException {
+        transport = new Transport();
+        get = new RestRequest().setMethod(RestRequest.Method.Get).setQuery("page=2&size=50");
+        get.setResource("/orders/123/items/my item");
+        escapedGet = new RestRequest().setMethod(RestRequest.Method.Get);
+        escapedGet.setResource("/orders/123/items/my%20item");
+        escapedGet.setResourceUriEscaped(true);
+        file = File.createTempFile("multipart", ".txt");
+        Files.write(file.toPath(), new byte[4096]);
+        multipart = new RestRequest().setMethod(RestRequest.Method.Post);
+        multipart.setResource("/upload");
+        multipart.addMultipart("file", new RestMultipart(RestMultipartType.FILE, file.getAbsolutePath(), "text/plain", "UTF-8"));
+        multipart.addMultipart("description", new RestMultipart(RestMultipartType.STRING, "a file", "text/plain", "UTF-8"));
+    }
+
+    @TearDown
+    public void tearDown() {
+        file.delete();
+    }
+
+    @Benchmark
+    public HttpMethod configureGet() {
+        GetMethod m = new GetMethod();
+        transport.configure(m, HOST, get);
+        return m;
+    }
+
+    @Benchmark
+    public URI createUri() throws URIException {
+        return transport.createUri(HOST + "/orders/123/items/my item", false);
+    }
+
+    @Benchmark
+    public URI createEscapedUri() throws URIException {
+        return transport.createUri(HOST + "/orders/123/items/my%20item", true);
+    }
+
+    @Benchmark
+    public HttpMethod configureEscapedGet() {
+        GetMethod m = new GetMethod();
+        transport.configure(m, HOST, escapedGet);
+        return m;
+    }
+
+    @Benchmark
+    public long multipart() throws IOException {
+        PostMethod m = new PostMethod();
+        transport.configure(m, HOST, multipart);
+        m.getRequestEntity().writeRequest(sink);
+        return m.getRequestEntity().getContentLength();
+    }
+
+    private static class Transport extends HttpClient3Transport {
+        Transport() {
+            super(new HttpClient());
+        }
+
+        void configure(HttpMethod m, String hostAddr, RestRequest request) {
+            configureHttpMethod(m, hostAddr, request);
+        }
+
+        @Override
+        protected URI createUri(String uriString, boolean escaped) throws URIException {
+            return super.createUri(uriString, escaped);
+        }
+    }
+}
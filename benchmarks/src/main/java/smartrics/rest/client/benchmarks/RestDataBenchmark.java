@@ -0,0 +1,112 @@
+/*  Copyright 2008 Fabrizio Cannizzo
+ *
+ *  This file is part of RestFixture.
+ *
+ *  RestFixture (http://code.google.com/p/rest-fixture/) is free software:
+ *  you can redistribute it and/or modify it under the terms of the
+ *  GNU Lesser General Public License as published by the Free Software Foundation,
+ *  either version 3 of the License, or (at your option) any later version.
+ *
+ *  RestFixture is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with RestFixture.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ *  If you want to contact the author please leave a comment here
+ *  http://smartrics.blogspot.com/2008/08/get-fitnesse-with-some-rest.html
+ */
+package smartrics.rest.client.benchmarks;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import smartrics.rest.client.RestData.Header;
+import smartrics.rest.client.RestResponse;
+
+/**
+ * Header lookups, charset parsing and body decoding on a response carrying a
+ * typical set of headers.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RestDataBenchmark {
+
+    @Param({ "UTF-8", "ISO-8859-1" })
+    public String charset;
+
+    @Param({ "1024", "65536" })
+    public int bodySize;
+
+    private RestResponse response;
+    private byte[] rawBody;
+
+    @Setup
+    public void setUp() {
+        response = new RestResponse();
+        response.addHeader("Date", "Mon, 12 Oct 2026 10:00:00 GMT");
+        response.addHeader("Server", "loopback");
+        response.addHeader("Content-Type", "application/json; charset=" + charset);
+        response.addHeader("Content-Length", Integer.toString(bodySize));
+        response.addHeader("Cache-Control", "no-cache");
+        response.addHeader("Set-Cookie", "a=1");
+        response.addHeader("Set-Cookie", "b=2");
+        response.addHeader("X-Request-Id", "0af7651916cd43dd8448eb211c80319c");
+        char[] chars = new char[bodySize];
+        Arrays.fill(chars, 'x');
+        rawBody = new String(chars).getBytes(StandardCharsets.ISO_8859_1);
+        response.setRawBody(rawBody);
+    }
+
+    @Benchmark
+    public List<Header> getHeader() {
+        return response.getHeader("content-type");
+    }
+
+    @Benchmark
+    public String getHeaderValue() {
+        return response.getHeaderValue("X-Request-Id");
+    }
+
+    @Benchmark
+    public String getCharset() {
+        return response.getCharset();
+    }
+
+    /**
+     * Decodes the body from scratch, as for a fresh response.
+     */
+    @Benchmark
+    public String decodeBody() {
+        response.setRawBody(rawBody);
+        return response.getBody();
+    }
+
+    /**
+     * Reads the body of a response already decoded once.
+     */
+    @Benchmark
+    public String getBodyCached() {
+        return response.getBody();
+    }
+}
@@ -0,0 +1,66 @@
+/*  Copyright 2008 Fabrizio Cannizzo
+ *
+ *  This file is part of RestFixture.
+ *
+ *  RestFixture (http://code.google.com/p/rest-fixture/) is free software:
+ *  you can redistribute it and/or modify it under the terms of the
+ *  GNU Lesser General Public License as published by the Free Software Foundation,
+ *  either version 3 of the License, or (at your option) any later version.
+ *
+ *  RestFixture is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with RestFixture.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ *  If you want to contact the author please leave a comment here
+ *  http://smartrics.blogspot.com/2008/08/get-fitnesse-with-some-rest.html
+ */
+package smartrics.rest.client;
+
+/**
+ * A {@code CharSequence} view over bytes in a single byte charset
+ * (ISO-8859-1 or US-ASCII): characters are decoded as they are read, without
+ * copying the bytes.
+ */
+class ByteCharSequence implements CharSequence {
+
+    private final byte[] bytes;
+    private final int offset;
+    private final int length;
+    private final boolean ascii;
+
+    ByteCharSequence(byte[] bytes, int offset, int length, boolean ascii) {
+        this.bytes = bytes;
+        this.offset = offset;
+        this.length = length;
+        this.ascii = ascii;
+    }
+
+    public int length() {
+        return length;
+    }
+
+    public char charAt(int index) {
+        if (index < 0 || index >= length)
+            throw new IndexOutOfBoundsException("index " + index + ", length " + length);
+        int b = bytes[offset + index] & 0xff;
+        // like the US-ASCII decoder, replace bytes out of range
+        return ascii && b > 0x7f ? '\uFFFD' : (char) b;
+    }
+
+    public CharSequence subSequence(int start, int end) {
+        if (start < 0 || end > length || start > end)
+            throw new IndexOutOfBoundsException("start " + start + ", end " + end + ", length " + length);
+        return new ByteCharSequence(bytes, offset + start, end - start, ascii);
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder b = new StringBuilder(length);
+        b.append(this, 0, length);
+        return b.toString();
+    }
+}
@@ -0,0 +1,218 @@
+/*  Copyright 2008 Fabrizio Cannizzo
+ *
+ *  This file is part of RestFixture.
+ *
+ *  RestFixture (http://code.google.com/p/rest-fixture/) is free software:
+ *  you can redistribute it and/or modify it under the terms of the
+ *  GNU Lesser General Public License as published by the Free Software Foundation,
+ *  either version 3 of the License, or (at your option) any later version.
+ *
+ *  RestFixture is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with RestFixture.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ *  If you want to contact the author please leave a comment here
+ *  http://smartrics.blogspot.com/2008/08/get-fitnesse-with-some-rest.html
+ */
+package smartrics.rest.client;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A {@code RestClient} caching the responses to {@code Get} and {@code Head}
+ * requests of the client it wraps.
+ *
+ * Freshness follows {@code Cache-Control}, {@code Expires} and, for
+ * responses with a {@code Last-Modified} header only, a heuristic. Responses
+ * are matched to requests on the headers listed in {@code Vary}. Stale
+ * responses carrying an {@code ETag} or a {@code Last-Modified} header are
+ * revalidated with {@code If-None-Match}/{@code If-Modified-Since}, and a
+ * {@code 304} is turned into the cached response, with its headers updated.
+ *
+ * Requests with conditional headers of their own, and streaming requests,
+ * are passed through. Successful requests with other methods invalidate the
+ * responses cached for the same Url.
+ *
+ * <pre>
+ * RestClient client = new CachingRestClient(new RestClientImpl(new HttpClient()), 16 * 1024 * 1024);
+ * </pre>
+ *
+ * Every response returned is a copy owned by the caller.
+ */
+public class CachingRestClient implements RestClient {
+
+    private static Logger LOG = LoggerFactory.getLogger(CachingRestClient.class);
+
+    private final RestClient delegate;
+    private final RestResponseCache cache;
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong revalidations = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    /**
+     * @param delegate the client executing the requests
+     * @param maxBytes the byte budget of the cache
+     */
+    public CachingRestClient(RestClient delegate, long maxBytes) {
+        this(delegate, new RestResponseCache(maxBytes));
+    }
+
+    /**
+     * @param delegate the client executing the requests
+     * @param cache    the cache, possibly shared with other clients
+     */
+    public CachingRestClient(RestClient delegate, RestResponseCache cache) {
+        if (delegate == null)
+            throw new IllegalArgumentException("Null RestClient instance");
+        if (cache == null)
+            throw new IllegalArgumentException("Null RestResponseCache instance");
+        this.delegate = delegate;
+        this.cache = cache;
+    }
+
+    /**
+     * @return the cache of this client
+     */
+    public RestResponseCache getCache() {
+        return cache;
+    }
+
+    /**
+     * @return the number of requests served from the cache without a call
+     */
+    public long getHits() {
+        return hits.get();
+    }
+
+    /**
+     * @return the number of requests served from the cache after a {@code 304}
+     */
+    public long getRevalidations() {
+        return revalidations.get();
+    }
+
+    /**
+     * @return the number of cacheable requests not served from the cache
+     */
+    public long getMisses() {
+        return misses.get();
+    }
+
+    public void setBaseUrl(String bUrl) {
+        delegate.setBaseUrl(bUrl);
+    }
+
+    public String getBaseUrl() {
+        return delegate.getBaseUrl();
+    }
+
+    public RestResponse execute(RestRequest request) {
+        return execute(getBaseUrl(), request);
+    }
+
+    public RestResponse execute(String hostAddr, RestRequest request) {
+        if (!isCacheable(request)) {
+            return invalidate(hostAddr, request, delegate.execute(hostAddr, request));
+        }
+        Lookup lookup = lookup(hostAddr, request);
+        if (lookup.hit != null) {
+            return lookup.hit;
+        }
+        return onResponse(lookup, delegate.execute(hostAddr, lookup.sent));
+    }
+
+    public CompletableFuture<RestResponse> executeAsync(RestRequest request) {
+        return executeAsync(getBaseUrl(), request);
+    }
+
+    public CompletableFuture<RestResponse> executeAsync(final String hostAddr, final RestRequest request) {
+        if (!isCacheable(request)) {
+            return delegate.executeAsync(hostAddr, request).thenApply(r -> invalidate(hostAddr, request, r));
+        }
+        final Lookup lookup = lookup(hostAddr, request);
+        if (lookup.hit != null) {
+            return CompletableFuture.completedFuture(lookup.hit);
+        }
+        return delegate.executeAsync(hostAddr, lookup.sent).thenApply(r -> onResponse(lookup, r));
+    }
+
+    private static boolean isCacheable(RestRequest request) {
+        RestRequest.Method m = request.getMethod();
+        return (m == RestRequest.Method.Get || m == RestRequest.Method.Head)
+                && request.getResource() != null
+                && !request.isStreamingResponse()
+                && request.getHeaderValue("If-None-Match") == null
+                && request.getHeaderValue("If-Modified-Since") == null
+                && request.getHeaderValue("Range") == null
+                && !RestResponseCache.CacheControl.of(request).isNoStore();
+    }
+
+    private Lookup lookup(String hostAddr, RestRequest request) {
+        Lookup lookup = new Lookup();
+        lookup.key = RestResponseCache.key(request.getMethod(), hostAddr, request.getResource(), request.getQuery());
+        lookup.request = request;
+        lookup.sent = request;
+        RestResponseCache.Entry entry = cache.get(lookup.key);
+        if (entry != null && entry.matches(request)) {
+            if (entry.isFresh(request, System.currentTimeMillis())) {
+                hits.incrementAndGet();
+                LOG.debug("cache hit: {}", lookup.key);
+                lookup.hit = entry.toResponse(request);
+                return lookup;
+            }
+            if (entry.hasValidators()) {
+                lookup.entry = entry;
+                lookup.sent = request.copy();
+                entry.addConditions(lookup.sent);
+            }
+        }
+        lookup.requestTime = System.currentTimeMillis();
+        return lookup;
+    }
+
+    private RestResponse onResponse(Lookup lookup, RestResponse response) {
+        long responseTime = System.currentTimeMillis();
+        if (lookup.entry != null && response.getStatusCode() != null && response.getStatusCode() == 304) {
+            RestResponseCache.Entry revalidated = lookup.entry.revalidated(response, lookup.requestTime, responseTime);
+            cache.put(lookup.key, revalidated);
+            revalidations.incrementAndGet();
+            LOG.debug("cache revalidated: {}", lookup.key);
+            return revalidated.toResponse(lookup.request);
+        }
+        misses.incrementAndGet();
+        RestResponseCache.Entry entry = RestResponseCache.newEntry(lookup.request, response, lookup.requestTime, responseTime);
+        if (entry != null) {
+            cache.put(lookup.key, entry);
+        } else {
+            cache.remove(lookup.key);
+        }
+        return response;
+    }
+
+    private RestResponse invalidate(String hostAddr, RestRequest request, RestResponse response) {
+        RestRequest.Method m = request.getMethod();
+        if (m != RestRequest.Method.Get && m != RestRequest.Method.Head && m != null && request.getResource() != null
+                && response.getStatusCode() != null && response.getStatusCode() < 400) {
+            cache.remove(RestResponseCache.key(RestRequest.Method.Get, hostAddr, request.getResource(), request.getQuery()));
+            cache.remove(RestResponseCache.key(RestRequest.Method.Head, hostAddr, request.getResource(), request.getQuery()));
+        }
+        return response;
+    }
+
+    private static class Lookup {
+        private String key;
+        private RestRequest request;
+        private RestRequest sent;
+        private RestResponseCache.Entry entry;
+        private RestResponse hit;
+        private long requestTime;
+    }
+}
@@ -0,0 +1,223 @@
+/*  Copyright 2008 Fabrizio Cannizzo
+ *
+ *  This file is part of RestFixture.
+ *
+ *  RestFixture (http://code.google.com/p/rest-fixture/) is free software:
+ *  you can redistribute it and/or modify it under the terms of the
+ *  GNU Lesser General Public License as published by the Free Software Foundation,
+ *  either version 3 of the License, or (at your option) any later version.
+ *
+ *  RestFixture is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with RestFixture.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ *  If you want to contact the author please leave a comment here
+ *  http://smartrics.blogspot.com/2008/08/get-fitnesse-with-some-rest.html
+ */
+package smartrics.rest.client;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A circuit breaker guarding the calls to a host.
+ *
+ * While closed, the outcomes of the calls are recorded in a sliding window;
+ * when the failure rate or the slow call rate over the window reach their
+ * thresholds the breaker opens and calls are rejected without going over
+ * the wire. After the open duration the breaker is half open: a few trial
+ * calls are let through, and the breaker closes if they succeed or opens
+ * again otherwise.
+ *
+ * See {@link smartrics.rest.client.CircuitBreakerConfig}
+ */
+public class CircuitBreaker {
+
+    public enum State {
+        CLOSED, OPEN, HALF_OPEN
+    }
+
+    private static final byte FAILED = 1;
+    private static final byte SLOW = 2;
+
+    private final String host;
+    private final CircuitBreakerConfig config;
+    private final long slowCallNanos;
+    private final long openNanos;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final byte[] window;
+    private volatile State state = State.CLOSED;
+    private int next;
+    private int calls;
+    private int failures;
+    private int slowCalls;
+    private long openedAt;
+    private int halfOpenPermits;
+
+    public CircuitBreaker(String host, CircuitBreakerConfig config) {
+        if (config == null)
+            throw new IllegalArgumentException("Null CircuitBreakerConfig");
+        this.host = host;
+        this.config = config;
+        this.slowCallNanos = TimeUnit.MILLISECONDS.toNanos(config.getSlowCallDuration());
+        this.openNanos = TimeUnit.MILLISECONDS.toNanos(config.getOpenDuration());
+        this.window = new byte[config.getWindowSize()];
+    }
+
+    /**
+     * @return the host guarded by this breaker
+     */
+    public String getHost() {
+        return host;
+    }
+
+    /**
+     * @return the state of this breaker
+     */
+    public State getState() {
+        return state;
+    }
+
+    /**
+     * @return the percentage of failed calls in the window
+     */
+    public double getFailureRate() {
+        lock.lock();
+        try {
+            return calls == 0 ? 0 : 100.0 * failures / calls;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return the percentage of slow calls in the window
+     */
+    public double getSlowCallRate() {
+        lock.lock();
+        try {
+            return calls == 0 ? 0 : 100.0 * slowCalls / calls;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Asks permission for a call. Each permitted call must be followed by
+     * one of {@link #onSuccess(long)}, {@link #onFailure(long)} or
+     * {@link #onIgnored()}.
+     *
+     * @return whether the call can go ahead
+     */
+    public boolean tryAcquire() {
+        if (state == State.CLOSED) {
+            return true;
+        }
+        lock.lock();
+        try {
+            if (state == State.OPEN) {
+                if (System.nanoTime() - openedAt < openNanos) {
+                    return false;
+                }
+                transition(State.HALF_OPEN);
+            }
+            if (state == State.HALF_OPEN) {
+                if (halfOpenPermits == 0) {
+                    return false;
+                }
+                halfOpenPermits--;
+            }
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @param durationNanos the duration of the call
+     */
+    public void onSuccess(long durationNanos) {
+        record(durationNanos >= slowCallNanos ? SLOW : 0);
+    }
+
+    /**
+     * @param durationNanos the duration of the call
+     */
+    public void onFailure(long durationNanos) {
+        record((byte) (FAILED | (durationNanos >= slowCallNanos ? SLOW : 0)));
+    }
+
+    /**
+     * Releases the permission of a call whose outcome is not to be recorded,
+     * e.g. because it was cancelled.
+     */
+    public void onIgnored() {
+        if (state != State.HALF_OPEN) {
+            return;
+        }
+        lock.lock();
+        try {
+            if (state == State.HALF_OPEN) {
+                halfOpenPermits++;
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void record(byte outcome) {
+        lock.lock();
+        try {
+            if (state == State.OPEN) {
+                // a call started before the breaker opened
+                return;
+            }
+            if (calls == window.length) {
+                byte evicted = window[next];
+                failures -= evicted & FAILED;
+                slowCalls -= (evicted & SLOW) >> 1;
+            } else {
+                calls++;
+            }
+            window[next] = outcome;
+            next = (next + 1) % window.length;
+            failures += outcome & FAILED;
+            slowCalls += (outcome & SLOW) >> 1;
+            if (state == State.HALF_OPEN) {
+                if (calls >= Math.min(config.getHalfOpenCalls(), window.length)) {
+                    transition(isAboveThresholds() ? State.OPEN : State.CLOSED);
+                }
+            } else if (calls >= config.getMinimumCalls() && isAboveThresholds()) {
+                transition(State.OPEN);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private boolean isAboveThresholds() {
+        return 100.0 * failures / calls >= config.getFailureRateThreshold() || 100.0 * slowCalls / calls >= config.getSlowCallRateThreshold();
+    }
+
+    private void transition(State to) {
+        state = to;
+        next = 0;
+        calls = 0;
+        failures = 0;
+        slowCalls = 0;
+        if (to == State.OPEN) {
+            openedAt = System.nanoTime();
+        } else if (to == State.HALF_OPEN) {
+            halfOpenPermits = config.getHalfOpenCalls();
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "CircuitBreaker[" + host + ": " + state + "]";
+    }
+}
@@ -0,0 +1,163 @@
+/*  Copyright 2008 Fabrizio Cannizzo
+ *
+ *  This file is part of RestFixture.
+ *
+ *  RestFixture (http://code.google.com/p/rest-fixture/) is free software:
+ *  you can redistribute it and/or modify it under the terms of the
+ *  GNU Lesser General Public License as published by the Free Software Foundation,
+ *  either version 3 of the License, or (at your option) any later version.
+ *
+ *  RestFixture is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with RestFixture.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ *  If you want to contact the author please leave a comment here
+ *  http://smartrics.blogspot.com/2008/08/get-fitnesse-with-some-rest.html
+ */
+package smartrics.rest.client;
+
+/**
+ * The settings of the {@link CircuitBreaker}s of a client.
+ *
+ * A breaker opens when, over the last {@code windowSize} calls (and at least
+ * {@code minimumCalls}), the rate of failed calls or the rate of calls slower
+ * than {@code slowCallDuration} reaches its threshold. After
+ * {@code openDuration} it lets {@code halfOpenCalls} trial calls through,
+ * and closes or opens again on their outcome.
+ *
+ * Calls fail when they throw for an I/O failure or, by default, when the
+ * response status is 5xx. Other exceptions, as for invalid requests, aren't
+ * recorded.
+ */
+public class CircuitBreakerConfig {
+
+    private int windowSize = 100;
+    private int minimumCalls = 20;
+    private double failureRateThreshold = 50;
+    private double slowCallRateThreshold = 100;
+    private long slowCallDuration = 10000;
+    private long openDuration = 30000;
+    private int halfOpenCalls = 5;
+    private int failureStatusFrom = 500;
+
+    /**
+     * @param calls the number of last calls the rates are computed on
+     * @return this config
+     */
+    public CircuitBreakerConfig setWindowSize(int calls) {
+        if (calls < 1)
+            throw new IllegalArgumentException("The window size must be positive");
+        this.windowSize = calls;
+        return this;
+    }
+
+    public int getWindowSize() {
+        return windowSize;
+    }
+
+    /**
+     * @param calls the number of calls before the rates are evaluated
+     * @return this config
+     */
+    public CircuitBreakerConfig setMinimumCalls(int calls) {
+        if (calls < 1)
+            throw new IllegalArgumentException("The minimum number of calls must be positive");
+        this.minimumCalls = calls;
+        return this;
+    }
+
+    public int getMinimumCalls() {
+        return minimumCalls;
+    }
+
+    /**
+     * @param percent the failure rate opening the breaker, from 0 to 100
+     * @return this config
+     */
+    public CircuitBreakerConfig setFailureRateThreshold(double percent) {
+        this.failureRateThreshold = checkPercent(percent);
+        return this;
+    }
+
+    public double getFailureRateThreshold() {
+        return failureRateThreshold;
+    }
+
+    /**
+     * @param percent the slow call rate opening the breaker, from 0 to 100
+     * @return this config
+     */
+    public CircuitBreakerConfig setSlowCallRateThreshold(double percent) {
+        this.slowCallRateThreshold = checkPercent(percent);
+        return this;
+    }
+
+    public double getSlowCallRateThreshold() {
+        return slowCallRateThreshold;
+    }
+
+    /**
+     * @param millis the duration from which a call is slow
+     * @return this config
+     */
+    public CircuitBreakerConfig setSlowCallDuration(long millis) {
+        this.slowCallDuration = millis;
+        return this;
+    }
+
+    public long getSlowCallDuration() {
+        return slowCallDuration;
+    }
+
+    /**
+     * @param millis the time a breaker stays open before letting trial calls through
+     * @return this config
+     */
+    public CircuitBreakerConfig setOpenDuration(long millis) {
+        this.openDuration = millis;
+        return this;
+    }
+
+    public long getOpenDuration() {
+        return openDuration;
+    }
+
+    /**
+     * @param calls the number of trial calls let through by a half open breaker
+     * @return this config
+     */
+    public CircuitBreakerConfig setHalfOpenCalls(int calls) {
+        if (calls < 1)
+            throw new IllegalArgumentException("The number of half open calls must be positive");
+        this.halfOpenCalls = calls;
+        return this;
+    }
+
+    public int getHalfOpenCalls() {
+        return halfOpenCalls;
+    }
+
+    /**
+     * @param status the lowest response status counted as a failure; 600 to
+     *               count exceptions only
+     * @return this config
+     */
+    public CircuitBreakerConfig setFailureStatusFrom(int status) {
+        this.failureStatusFrom = status;
+        return this;
+    }
+
+    public int getFailureStatusFrom() {
+        return failureStatusFrom;
+    }
+
+    private static double checkPercent(double percent) {
+        if (percent <= 0 || percent > 100)
+            throw new IllegalArgumentException("Thresholds must be percentages in (0, 100]");
+        return percent;
+    }
+}
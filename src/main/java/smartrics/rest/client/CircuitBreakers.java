@@ -0,0 +1,159 @@
+/*  Copyright 2008 Fabrizio Cannizzo
+ *
+ *  This file is part of RestFixture.
+ *
+ *  RestFixture (http://code.google.com/p/rest-fixture/) is free software:
+ *  you can redistribute it and/or modify it under the terms of the
+ *  GNU Lesser General Public License as published by the Free Software Foundation,
+ *  either version 3 of the License, or (at your option) any later version.
+ *
+ *  RestFixture is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with RestFixture.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ *  If you want to contact the author please leave a comment here
+ *  http://smartrics.blogspot.com/2008/08/get-fitnesse-with-some-rest.html
+ */
+package smartrics.rest.client;
+
+import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+
+/**
+ * The circuit breakers of a client, one per target host.
+ *
+ * The breakers of base urls are cached, so that most calls skip parsing the
+ * host. The cache is bounded: base urls beyond the bound, e.g. ones carrying
+ * ids, have their host parsed on each call.
+ */
+final class CircuitBreakers {
+
+    private static final int MAX_BASE_URLS = 1024;
+
+    private final CircuitBreakerConfig config;
+    private final ConcurrentHashMap<String, CircuitBreaker> byHost = new ConcurrentHashMap<String, CircuitBreaker>();
+    private final ConcurrentHashMap<String, CircuitBreaker> byBaseUrl = new ConcurrentHashMap<String, CircuitBreaker>();
+
+    CircuitBreakers(CircuitBreakerConfig config) {
+        if (config == null)
+            throw new IllegalArgumentException("Null CircuitBreakerConfig");
+        this.config = config;
+    }
+
+    /**
+     * @return the breaker of the host of the base url
+     */
+    CircuitBreaker get(String hostAddr) {
+        String baseUrl = hostAddr == null ? "" : hostAddr;
+        CircuitBreaker b = byBaseUrl.get(baseUrl);
+        if (b == null) {
+            b = byHost.computeIfAbsent(RestBatchExecutor.hostOf(hostAddr), h -> new CircuitBreaker(h, config));
+            if (byBaseUrl.size() < MAX_BASE_URLS) {
+                byBaseUrl.putIfAbsent(baseUrl, b);
+            }
+        }
+        return b;
+    }
+
+    /**
+     * @return the number of base urls whose breaker is cached
+     */
+    int getCachedBaseUrls() {
+        return byBaseUrl.size();
+    }
+
+    RestResponse execute(String hostAddr, Supplier<RestResponse> call) {
+        CircuitBreaker b = acquire(hostAddr);
+        long start = System.nanoTime();
+        RestResponse resp;
+        try {
+            resp = call.get();
+        } catch (RuntimeException e) {
+            onException(b, e, System.nanoTime() - start);
+            throw e;
+        } catch (Error e) {
+            b.onIgnored();
+            throw e;
+        }
+        record(b, resp, System.nanoTime() - start);
+        return resp;
+    }
+
+    CompletableFuture<RestResponse> executeAsync(String hostAddr, Supplier<CompletableFuture<RestResponse>> call) {
+        CircuitBreaker b;
+        CompletableFuture<RestResponse> f;
+        try {
+            b = acquire(hostAddr);
+        } catch (CircuitBreakerOpenException e) {
+            f = new CompletableFuture<RestResponse>();
+            f.completeExceptionally(e);
+            return f;
+        }
+        long start = System.nanoTime();
+        try {
+            f = call.get();
+        } catch (RuntimeException e) {
+            onException(b, e, System.nanoTime() - start);
+            throw e;
+        }
+        f.whenComplete((resp, e) -> {
+            long duration = System.nanoTime() - start;
+            if (e == null) {
+                record(b, resp, duration);
+            } else {
+                onException(b, unwrap(e), duration);
+            }
+        });
+        return f;
+    }
+
+    private CircuitBreaker acquire(String hostAddr) {
+        CircuitBreaker b = get(hostAddr);
+        if (!b.tryAcquire()) {
+            throw new CircuitBreakerOpenException(b.getHost());
+        }
+        return b;
+    }
+
+    private void record(CircuitBreaker b, RestResponse resp, long duration) {
+        Integer status = resp == null ? null : resp.getStatusCode();
+        if (status != null && status.intValue() >= config.getFailureStatusFrom()) {
+            b.onFailure(duration);
+        } else {
+            b.onSuccess(duration);
+        }
+    }
+
+    /**
+     * Only I/O failures, as transports report them, tell of the host: calls
+     * failing before reaching it, e.g. for an invalid request, or cancelled
+     * aren't recorded.
+     */
+    private static void onException(CircuitBreaker b, Throwable e, long duration) {
+        if (isIoFailure(e)) {
+            b.onFailure(duration);
+        } else {
+            b.onIgnored();
+        }
+    }
+
+    private static boolean isIoFailure(Throwable e) {
+        for (Throwable t = e; t != null; t = t.getCause() == t ? null : t.getCause()) {
+            if (t instanceof IOException) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static Throwable unwrap(Throwable e) {
+        return e instanceof CompletionException && e.getCause() != null ? e.getCause() : e;
+    }
+}
@@ -0,0 +1,359 @@
+/*  Copyright 2008 Fabrizio Cannizzo
+ *
+ *  This file is part of RestFixture.
+ *
+ *  RestFixture (http://code.google.com/p/rest-fixture/) is free software:
+ *  you can redistribute it and/or modify it under the terms of the
+ *  GNU Lesser General Public License as published by the Free Software Foundation,
+ *  either version 3 of the License, or (at your option) any later version.
+ *
+ *  RestFixture is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with RestFixture.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ *  If you want to contact the author please leave a comment here
+ *  http://smartrics.blogspot.com/2008/08/get-fitnesse-with-some-rest.html
+ */
+package smartrics.rest.client;
+
+import java.io.ByteArrayOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PushbackInputStream;
+import java.nio.ByteBuffer;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Compression settings of a transport: the encodings advertised in
+ * {@code Accept-Encoding} and decoded while the response body is read, and
+ * the size above which request bodies are sent gzipped.
+ *
+ * <pre>
+ * transport.setCompression(new Compression().addDecoder(brotli).setRequestCompressionThreshold(4096));
+ * </pre>
+ *
+ * Decoded responses lose their {@code Content-Encoding} and
+ * {@code Content-Length} headers, which describe the encoded body.
+ * Responses with an encoding not known are returned as they are.
+ */
+public class Compression {
+
+    private static final int BUFFER_SIZE = 8192;
+
+    private final Map<String, ContentDecoder> decoders = new LinkedHashMap<String, ContentDecoder>();
+    private String acceptEncoding;
+    private long requestCompressionThreshold = -1;
+
+    /**
+     * Creates the settings decoding gzip and deflate, with request
+     * compression disabled.
+     */
+    public Compression() {
+        addDecoder(new DeflateDecoder());
+        addDecoder(new GzipDecoder());
+    }
+
+    /**
+     * Adds a decoder, advertised in {@code Accept-Encoding} before the
+     * decoders already added. A decoder replaces the one with the same
+     * encoding.
+     *
+     * @param decoder the decoder
+     * @return this compression
+     */
+    public Compression addDecoder(ContentDecoder decoder) {
+        if (decoder == null || decoder.getEncoding() == null)
+            throw new IllegalArgumentException("Null ContentDecoder or encoding");
+        Map<String, ContentDecoder> previous = new LinkedHashMap<String, ContentDecoder>(decoders);
+        String encoding = decoder.getEncoding().toLowerCase(Locale.ROOT);
+        previous.remove(encoding);
+        decoders.clear();
+        decoders.put(encoding, decoder);
+        decoders.putAll(previous);
+        acceptEncoding = String.join(", ", decoders.keySet());
+        return this;
+    }
+
+    /**
+     * @return the value of the {@code Accept-Encoding} header sent with the requests
+     */
+    public String getAcceptEncoding() {
+        return acceptEncoding;
+    }
+
+    /**
+     * Sets the size from which request bodies are gzipped. Bodies of unknown
+     * length are gzipped whenever compression is enabled.
+     *
+     * @param bytes the threshold, or a negative value to disable request compression
+     * @return this compression
+     */
+    public Compression setRequestCompressionThreshold(long bytes) {
+        this.requestCompressionThreshold = bytes;
+        return this;
+    }
+
+    /**
+     * @return the size from which request bodies are gzipped; negative if disabled
+     */
+    public long getRequestCompressionThreshold() {
+        return requestCompressionThreshold;
+    }
+
+    /**
+     * @param contentEncoding the value of a {@code Content-Encoding} header
+     * @return whether all the codings listed can be decoded
+     */
+    public boolean canDecode(String contentEncoding) {
+        if (contentEncoding == null) {
+            return false;
+        }
+        for (String coding : contentEncoding.split(",")) {
+            coding = coding.trim().toLowerCase(Locale.ROOT);
+            if (coding.length() > 0 && !coding.equals("identity") && !decoders.containsKey(coding) && !(coding.equals("x-gzip") && decoders.containsKey("gzip"))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Wraps the stream of an encoded body in the decoders of the codings
+     * listed, last applied first.
+     *
+     * @param contentEncoding the value of the {@code Content-Encoding} header
+     * @param encoded         the encoded body
+     * @return the decoding stream
+     * @throws IOException if the body cannot be decoded
+     */
+    public InputStream decode(String contentEncoding, InputStream encoded) throws IOException {
+        if (!canDecode(contentEncoding))
+            throw new IllegalArgumentException("Unsupported Content-Encoding: " + contentEncoding);
+        // empty bodies, as of responses to Head requests, are not encoded
+        PushbackInputStream in = new PushbackInputStream(encoded, 1);
+        int first = in.read();
+        if (first < 0) {
+            return in;
+        }
+        in.unread(first);
+        String[] codings = contentEncoding.split(",");
+        InputStream decoded = in;
+        for (int i = codings.length - 1; i >= 0; i--) {
+            String coding = codings[i].trim().toLowerCase(Locale.ROOT);
+            if (coding.equals("x-gzip")) {
+                coding = "gzip";
+            }
+            ContentDecoder decoder = decoders.get(coding);
+            if (decoder != null) {
+                decoded = decoder.decode(decoded);
+            }
+        }
+        return decoded;
+    }
+
+    /**
+     * @param body the request body
+     * @return whether the body is to be gzipped
+     */
+    public boolean shouldCompress(RestRequestBody body) {
+        if (requestCompressionThreshold < 0) {
+            return false;
+        }
+        long length = body.getContentLength();
+        return length < 0 || length >= requestCompressionThreshold;
+    }
+
+    /**
+     * Gzips a request body. In memory bodies are compressed eagerly; file and
+     * stream bodies are compressed as they are sent, with unknown length.
+     *
+     * @param body the body
+     * @return the gzipped body
+     */
+    public static RestRequestBody gzip(RestRequestBody body) {
+        ByteBuffer buffer = body.asByteBuffer();
+        if (buffer != null) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream(Math.max(64, buffer.remaining() / 4));
+            try {
+                GZIPOutputStream gz = new GZIPOutputStream(out, BUFFER_SIZE);
+                if (buffer.hasArray()) {
+                    gz.write(buffer.array(), buffer.arrayOffset() + buffer.position(), buffer.remaining());
+                } else {
+                    byte[] bytes = new byte[buffer.remaining()];
+                    buffer.get(bytes);
+                    gz.write(bytes);
+                }
+                gz.close();
+            } catch (IOException e) {
+                throw new IllegalStateException("Unable to gzip the request body", e);
+            }
+            return RestRequestBody.of(out.toByteArray());
+        }
+        return new GzipBody(body);
+    }
+
+    /**
+     * @return whether the header describes the encoded body, and is to be
+     *         dropped from a decoded response
+     */
+    static boolean isEncodingHeader(String name) {
+        return name.equalsIgnoreCase("Content-Encoding") || name.equalsIgnoreCase("Content-Length");
+    }
+
+    private static class GzipDecoder implements ContentDecoder {
+        public String getEncoding() {
+            return "gzip";
+        }
+
+        public InputStream decode(InputStream encoded) throws IOException {
+            return new GZIPInputStream(encoded, BUFFER_SIZE);
+        }
+    }
+
+    /**
+     * Decodes zlib wrapped deflate, as per the spec, and raw deflate, as sent
+     * by some servers.
+     */
+    private static class DeflateDecoder implements ContentDecoder {
+        public String getEncoding() {
+            return "deflate";
+        }
+
+        public InputStream decode(InputStream encoded) throws IOException {
+            PushbackInputStream in = new PushbackInputStream(encoded, 2);
+            int b0 = in.read();
+            int b1 = b0 < 0 ? -1 : in.read();
+            if (b1 >= 0) {
+                in.unread(b1);
+            }
+            if (b0 >= 0) {
+                in.unread(b0);
+            }
+            boolean zlib = b1 >= 0 && (b0 & 0x0f) == 8 && ((b0 << 8) | b1) % 31 == 0;
+            return new InflaterInputStream(in, new Inflater(!zlib), BUFFER_SIZE) {
+                @Override
+                public void close() throws IOException {
+                    super.close();
+                    inf.end();
+                }
+            };
+        }
+    }
+
+    private static class GzipBody extends RestRequestBody {
+        private final RestRequestBody body;
+
+        GzipBody(RestRequestBody body) {
+            this.body = body;
+        }
+
+        public long getContentLength() {
+            return -1;
+        }
+
+        public boolean isRepeatable() {
+            return body.isRepeatable();
+        }
+
+        public void writeTo(OutputStream out) throws IOException {
+            GZIPOutputStream gz = new GZIPOutputStream(new FilterOutputStream(out) {
+                @Override
+                public void write(byte[] b, int off, int len) throws IOException {
+                    out.write(b, off, len);
+                }
+
+                @Override
+                public void close() throws IOException {
+                    flush();
+                }
+            }, BUFFER_SIZE);
+            body.writeTo(gz);
+            gz.close();
+        }
+
+        public InputStream openStream() throws IOException {
+            return new GzipCompressingInputStream(body.openStream());
+        }
+
+        @Override
+        public String toString() {
+            return "[gzipped " + body + "]";
+        }
+    }
+
+    /**
+     * Gzips a stream as it is read.
+     */
+    private static class GzipCompressingInputStream extends InputStream {
+        private final InputStream source;
+        private final ExposedByteArrayOutputStream compressed = new ExposedByteArrayOutputStream();
+        private final GZIPOutputStream gz;
+        private final byte[] chunk = new byte[BUFFER_SIZE];
+        private int pos;
+        private boolean finished;
+
+        GzipCompressingInputStream(InputStream source) throws IOException {
+            this.source = source;
+            this.gz = new GZIPOutputStream(compressed, BUFFER_SIZE);
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] one = new byte[1];
+            int n = read(one, 0, 1);
+            return n < 0 ? -1 : one[0] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0) {
+                return 0;
+            }
+            while (pos == compressed.size()) {
+                if (finished) {
+                    return -1;
+                }
+                compressed.reset();
+                pos = 0;
+                int n = source.read(chunk);
+                if (n < 0) {
+                    gz.finish();
+                    finished = true;
+                } else {
+                    gz.write(chunk, 0, n);
+                }
+            }
+            int n = Math.min(len, compressed.size() - pos);
+            System.arraycopy(compressed.buffer(), pos, b, off, n);
+            pos += n;
+            return n;
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                source.close();
+            } finally {
+                gz.close();
+            }
+        }
+    }
+
+    private static class ExposedByteArrayOutputStream extends ByteArrayOutputStream {
+        byte[] buffer() {
+            return buf;
+        }
+    }
+}
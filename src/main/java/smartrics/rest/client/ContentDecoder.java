@@ -0,0 +1,46 @@
+/*  Copyright 2008 Fabrizio Cannizzo
+ *
+ *  This file is part of RestFixture.
+ *
+ *  RestFixture (http://code.google.com/p/rest-fixture/) is free software:
+ *  you can redistribute it and/or modify it under the terms of the
+ *  GNU Lesser General Public License as published by the Free Software Foundation,
+ *  either version 3 of the License, or (at your option) any later version.
+ *
+ *  RestFixture is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with RestFixture.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ *  If you want to contact the author please leave a comment here
+ *  http://smartrics.blogspot.com/2008/08/get-fitnesse-with-some-rest.html
+ */
+package smartrics.rest.client;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Decodes response bodies sent with a {@code Content-Encoding}.
+ *
+ * Decoders for {@code gzip} and {@code deflate} are built in; others, like
+ * {@code br}, can be plugged in via
+ * {@link smartrics.rest.client.Compression#addDecoder(ContentDecoder)}.
+ */
+public interface ContentDecoder {
+
+    /**
+     * @return the content coding, as in the {@code Content-Encoding} header, e.g. {@code br}
+     */
+    String getEncoding();
+
+    /**
+     * @param encoded the stream of the encoded body
+     * @return a stream decoding the encoded body as it is read
+     * @throws IOException if the body cannot be decoded
+     */
+    InputStream decode(InputStream encoded) throws IOException;
+}
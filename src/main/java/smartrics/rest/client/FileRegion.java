@@ -0,0 +1,291 @@
+/*  Copyright 2008 Fabrizio Cannizzo
+ *
+ *  This file is part of RestFixture.
+ *
+ *  RestFixture (http://code.google.com/p/rest-fixture/) is free software:
+ *  you can redistribute it and/or modify it under the terms of the
+ *  GNU Lesser General Public License as published by the Free Software Foundation,
+ *  either version 3 of the License, or (at your option) any later version.
+ *
+ *  RestFixture is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with RestFixture.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ *  If you want to contact the author please leave a comment here
+ *  http://smartrics.blogspot.com/2008/08/get-fitnesse-with-some-rest.html
+ */
+package smartrics.rest.client;
+
+import java.io.FileOutputStream;
+import java.io.FilterInputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * A byte range of a file, sent without copying it through the heap where the
+ * target allows it.
+ *
+ * Regions are written with {@code FileChannel.transferTo} (sendfile) when the
+ * target is a channel, such as a pooled plain http connection (see
+ * {@link ChannelOutputStream}) or a file. Other streams are fed from
+ * memory-mapped chunks of the file. The JDK transport publishes the mapped
+ * chunks themselves, see {@link MappedBodyPublisher}.
+ */
+final class FileRegion {
+
+    /**
+     * The size of the chunks of the file mapped at once.
+     */
+    static final int MAPPED_CHUNK_SIZE = 4 << 20;
+
+    private static final int COPY_BUFFER_SIZE = 64 << 10;
+
+    private final Path path;
+    private final long offset;
+    private final long length;
+
+    private FileRegion(Path path, long offset, long length) {
+        this.path = path;
+        this.offset = offset;
+        this.length = length;
+    }
+
+    /**
+     * @param path   the file
+     * @param offset the position of the first byte of the region
+     * @param length the number of bytes in the region, or -1 for all the bytes
+     *               from offset to the end of the file when it's sent
+     * @return the region
+     */
+    static FileRegion of(Path path, long offset, long length) {
+        if (path == null)
+            throw new IllegalArgumentException("Null Path");
+        if (offset < 0)
+            throw new IllegalArgumentException("Negative offset: " + offset);
+        if (length < -1)
+            throw new IllegalArgumentException("Invalid length: " + length);
+        if (!Files.isRegularFile(path))
+            throw new IllegalArgumentException("File not found: " + path);
+        long size = size(path);
+        if (offset > size || (length >= 0 && offset + length > size))
+            throw new IllegalArgumentException("Range " + offset + "+" + length + " beyond the end of " + path + " (" + size + " bytes)");
+        return new FileRegion(path, offset, length);
+    }
+
+    Path getPath() {
+        return path;
+    }
+
+    long getOffset() {
+        return offset;
+    }
+
+    /**
+     * @return the number of bytes in the region
+     */
+    long getLength() {
+        return length >= 0 ? length : Math.max(0, size(path) - offset);
+    }
+
+    boolean isWholeFile() {
+        return offset == 0 && length < 0;
+    }
+
+    /**
+     * Writes the region to the stream: transferred to the channel behind it
+     * if there's one, copied from the mapped file otherwise.
+     *
+     * @param out the stream
+     * @throws IOException if the file can't be read or the stream written
+     */
+    void writeTo(OutputStream out) throws IOException {
+        if (out instanceof MappedBodyPublisher.Segments) {
+            ((MappedBodyPublisher.Segments) out).add(this);
+        } else if (out instanceof ChannelOutputStream) {
+            out.flush();
+            transferTo(((ChannelOutputStream) out).getChannel());
+        } else if (out instanceof FileOutputStream) {
+            transferTo(((FileOutputStream) out).getChannel());
+        } else {
+            copyTo(out);
+        }
+    }
+
+    /**
+     * Transfers the region to the channel, with sendfile where the platform
+     * supports it for the channel. A transfer making no progress, as to a
+     * full non-blocking channel, falls back to a blocking copy, which fails
+     * on non-blocking channels rather than spinning.
+     *
+     * @param target the channel
+     * @throws IOException if the file can't be read or the channel written
+     */
+    void transferTo(WritableByteChannel target) throws IOException {
+        try (FileChannel channel = open()) {
+            long position = offset;
+            long end = checkedEnd(channel);
+            while (position < end) {
+                long n = channel.transferTo(position, end - position, target);
+                if (n <= 0) {
+                    checkedEnd(channel);
+                    copyTo(channel, position, end, Channels.newOutputStream(target));
+                    return;
+                }
+                position += n;
+            }
+        }
+    }
+
+    private void copyTo(OutputStream out) throws IOException {
+        try (FileChannel channel = open()) {
+            copyTo(channel, offset, checkedEnd(channel), out);
+        }
+    }
+
+    private void copyTo(FileChannel channel, long position, long end, OutputStream out) throws IOException {
+        byte[] buffer = new byte[(int) Math.min(COPY_BUFFER_SIZE, Math.max(1, end - position))];
+        while (position < end) {
+            ByteBuffer chunk = map(channel, position, end);
+            position += chunk.remaining();
+            while (chunk.hasRemaining()) {
+                int n = Math.min(buffer.length, chunk.remaining());
+                chunk.get(buffer, 0, n);
+                out.write(buffer, 0, n);
+            }
+        }
+    }
+
+    /**
+     * @return a stream with the bytes of the region
+     * @throws IOException if the file can't be opened
+     */
+    InputStream openStream() throws IOException {
+        FileChannel channel = open();
+        try {
+            long end = checkedEnd(channel);
+            channel.position(offset);
+            return new RegionInputStream(Channels.newInputStream(channel), end - offset);
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    FileChannel open() throws IOException {
+        return FileChannel.open(path, StandardOpenOption.READ);
+    }
+
+    /**
+     * @return the end of the region in the file open on the channel
+     * @throws IOException if the file is shorter than the region
+     */
+    long checkedEnd(FileChannel channel) throws IOException {
+        long size = channel.size();
+        long end = length >= 0 ? offset + length : Math.max(offset, size);
+        if (end > size)
+            throw new IOException("File " + path + " is " + size + " bytes, shorter than the range " + offset + "+" + length);
+        return end;
+    }
+
+    /**
+     * @return the read only mapping of the next chunk of the region, from
+     *         position to at most end
+     */
+    static ByteBuffer map(FileChannel channel, long position, long end) throws IOException {
+        return channel.map(FileChannel.MapMode.READ_ONLY, position, Math.min(MAPPED_CHUNK_SIZE, end - position));
+    }
+
+    private static long size(Path path) {
+        try {
+            return Files.size(path);
+        } catch (IOException e) {
+            throw new IllegalStateException("Unable to read the size of " + path, e);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return isWholeFile() ? path.toString() : path + " [" + offset + "+" + length + "]";
+    }
+
+    /**
+     * A stream to a socket with a channel; regions written to it are flushed
+     * and transferred straight to the channel.
+     */
+    static class ChannelOutputStream extends FilterOutputStream {
+        private final WritableByteChannel channel;
+
+        ChannelOutputStream(OutputStream out, WritableByteChannel channel) {
+            super(out);
+            this.channel = channel;
+        }
+
+        WritableByteChannel getChannel() {
+            return channel;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+        }
+    }
+
+    private static class RegionInputStream extends FilterInputStream {
+        private long remaining;
+
+        RegionInputStream(InputStream in, long remaining) {
+            super(in);
+            this.remaining = remaining;
+        }
+
+        @Override
+        public int read() throws IOException {
+            if (remaining <= 0)
+                return -1;
+            int b = in.read();
+            if (b >= 0)
+                remaining--;
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (remaining <= 0)
+                return -1;
+            int n = in.read(b, off, (int) Math.min(len, remaining));
+            if (n > 0)
+                remaining -= n;
+            return n;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            long skipped = in.skip(Math.min(n, remaining));
+            remaining -= skipped;
+            return skipped;
+        }
+
+        @Override
+        public int available() throws IOException {
+            return (int) Math.min(in.available(), remaining);
+        }
+
+        @Override
+        public boolean markSupported() {
+            return false;
+        }
+    }
+}
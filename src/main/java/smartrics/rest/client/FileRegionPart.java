@@ -0,0 +1,67 @@
+/*  Copyright 2008 Fabrizio Cannizzo
+ *
+ *  This file is part of RestFixture.
+ *
+ *  RestFixture (http://code.google.com/p/rest-fixture/) is free software:
+ *  you can redistribute it and/or modify it under the terms of the
+ *  GNU Lesser General Public License as published by the Free Software Foundation,
+ *  either version 3 of the License, or (at your option) any later version.
+ *
+ *  RestFixture is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with RestFixture.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ *  If you want to contact the author please leave a comment here
+ *  http://smartrics.blogspot.com/2008/08/get-fitnesse-with-some-rest.html
+ */
+package smartrics.rest.client;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+import org.apache.commons.httpclient.methods.multipart.FilePart;
+import org.apache.commons.httpclient.methods.multipart.PartSource;
+
+/**
+ * A multipart {@code FilePart} uploading a {@link FileRegion}, written with
+ * {@link FileRegion#writeTo(OutputStream)} rather than copied from a stream.
+ */
+class FileRegionPart extends FilePart {
+
+    private final FileRegion region;
+
+    FileRegionPart(String name, FileRegion region, String contentType, String charset) {
+        super(name, new RegionSource(region), contentType, charset);
+        this.region = region;
+    }
+
+    @Override
+    protected void sendData(OutputStream out) throws IOException {
+        region.writeTo(out);
+    }
+
+    private static class RegionSource implements PartSource {
+        private final FileRegion region;
+
+        RegionSource(FileRegion region) {
+            this.region = region;
+        }
+
+        public long getLength() {
+            return region.getLength();
+        }
+
+        public String getFileName() {
+            return region.getPath().getFileName().toString();
+        }
+
+        public InputStream createInputStream() throws IOException {
+            return region.openStream();
+        }
+    }
+}
@@ -0,0 +1,57 @@
+/*  Copyright 2008 Fabrizio Cannizzo
+ *
+ *  This file is part of RestFixture.
+ *
+ *  RestFixture (http://code.google.com/p/rest-fixture/) is free software:
+ *  you can redistribute it and/or modify it under the terms of the
+ *  GNU Lesser General Public License as published by the Free Software Foundation,
+ *  either version 3 of the License, or (at your option) any later version.
+ *
+ *  RestFixture is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with RestFixture.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ *  If you want to contact the author please leave a comment here
+ *  http://smartrics.blogspot.com/2008/08/get-fitnesse-with-some-rest.html
+ */
+package smartrics.rest.client;
+
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Canonical instances of Http header names.
+ *
+ * The same header names recur across every request and response; sharing a
+ * single instance per name avoids retaining copies of them, and lets most
+ * lookups match names by identity. The cache is bounded: names beyond the
+ * bound are used as they are.
+ */
+final class HeaderNames {
+
+    private static final int MAX_NAMES = 2048;
+
+    private static final ConcurrentHashMap<String, String> NAMES = new ConcurrentHashMap<String, String>();
+
+    private HeaderNames() {
+    }
+
+    /**
+     * @param name the header name
+     * @return the shared instance equal to the name
+     */
+    static String intern(String name) {
+        String n = NAMES.get(name);
+        if (n != null) {
+            return n;
+        }
+        if (NAMES.size() >= MAX_NAMES) {
+            return name;
+        }
+        n = NAMES.putIfAbsent(name, name);
+        return n == null ? name : n;
+    }
+}
@@ -0,0 +1,300 @@
+/*  Copyright 2008 Fabrizio Cannizzo
+ *
+ *  This file is part of RestFixture.
+ *
+ *  RestFixture (http://code.google.com/p/rest-fixture/) is free software:
+ *  you can redistribute it and/or modify it under the terms of the
+ *  GNU Lesser General Public License as published by the Free Software Foundation,
+ *  either version 3 of the License, or (at your option) any later version.
+ *
+ *  RestFixture is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with RestFixture.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ *  If you want to contact the author please leave a comment here
+ *  http://smartrics.blogspot.com/2008/08/get-fitnesse-with-some-rest.html
+ */
+package smartrics.rest.client;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A {@code RestClient} hedging the idempotent calls of the client it wraps:
+ * if the response hasn't arrived within the hedge delay, a second identical
+ * request is sent, optionally to an alternate base url; the first response
+ * wins and the other call is cancelled.
+ *
+ * The hedge delay is a fixed time or, once enough calls to a resource have
+ * been observed, a percentile of their latency (by default the p95), so that
+ * only the slowest calls are hedged.
+ *
+ * <pre>
+ * RestClient client = new HedgingRestClient(RestClientImpl.create(new JdkHttpTransport()))
+ *         .setHedgeDelay(50)
+ *         .setAlternateBaseUrls("http://replica:8080");
+ * </pre>
+ *
+ * Hedges of requests to the same base url must not be coalesced:
+ * don't enable {@link RestClientImpl#setRequestCoalescing(boolean)} on the
+ * wrapped client. Requests with a body that can't be sent twice are not
+ * hedged.
+ */
+public class HedgingRestClient implements RestClient {
+
+    private static Logger LOG = LoggerFactory.getLogger(HedgingRestClient.class);
+
+    private static final int WINDOW_SIZE = 256;
+
+    private static final int MAX_TRACKED_RESOURCES = 1024;
+
+    private final RestClient delegate;
+    private final ConcurrentHashMap<String, LatencyWindow> latencies = new ConcurrentHashMap<String, LatencyWindow>();
+    private final AtomicInteger nextAlternate = new AtomicInteger();
+    private final AtomicLong hedges = new AtomicLong();
+    private final AtomicLong hedgesWon = new AtomicLong();
+    private volatile long hedgeDelay = 100;
+    private volatile double percentile = 95;
+    private volatile int minSamples = 50;
+    private volatile List<String> alternateBaseUrls = Arrays.asList();
+
+    /**
+     * @param delegate the client executing the requests
+     */
+    public HedgingRestClient(RestClient delegate) {
+        if (delegate == null)
+            throw new IllegalArgumentException("Null RestClient instance");
+        this.delegate = delegate;
+    }
+
+    /**
+     * @param millis the hedge delay, used until enough latencies of a resource are observed
+     * @return this client
+     */
+    public HedgingRestClient setHedgeDelay(long millis) {
+        if (millis < 0)
+            throw new IllegalArgumentException("The hedge delay must not be negative");
+        this.hedgeDelay = millis;
+        return this;
+    }
+
+    /**
+     * @param percentile the percentile of the observed latencies of a resource
+     *                   used as hedge delay, e.g. 95; 0 to always use the fixed delay
+     * @param minSamples the number of calls to observe before using it
+     * @return this client
+     */
+    public HedgingRestClient setHedgeDelayPercentile(double percentile, int minSamples) {
+        if (percentile < 0 || percentile > 100)
+            throw new IllegalArgumentException("The percentile must be between 0 and 100");
+        this.percentile = percentile;
+        this.minSamples = Math.max(1, minSamples);
+        latencies.clear();
+        return this;
+    }
+
+    /**
+     * @param baseUrls the base urls the hedges are sent to, in turn; none to
+     *                 send them to the base url of the call
+     * @return this client
+     */
+    public HedgingRestClient setAlternateBaseUrls(String... baseUrls) {
+        this.alternateBaseUrls = Arrays.asList(baseUrls.clone());
+        return this;
+    }
+
+    /**
+     * @return the number of hedges sent
+     */
+    public long getHedges() {
+        return hedges.get();
+    }
+
+    /**
+     * @return the number of calls whose hedge responded first
+     */
+    public long getHedgesWon() {
+        return hedgesWon.get();
+    }
+
+    /**
+     * @param request the request
+     * @return the current hedge delay for the request, in millis
+     */
+    public long getHedgeDelay(RestRequest request) {
+        if (percentile > 0) {
+            LatencyWindow w = latencies.get(latencyKey(request));
+            long p = w == null ? -1 : w.get(minSamples);
+            if (p >= 0) {
+                return p;
+            }
+        }
+        return hedgeDelay;
+    }
+
+    public void setBaseUrl(String bUrl) {
+        delegate.setBaseUrl(bUrl);
+    }
+
+    public String getBaseUrl() {
+        return delegate.getBaseUrl();
+    }
+
+    public RestResponse execute(RestRequest request) {
+        return execute(getBaseUrl(), request);
+    }
+
+    public RestResponse execute(String hostAddr, RestRequest request) {
+        if (!isHedgeable(request)) {
+            return record(request, System.nanoTime(), delegate.execute(hostAddr, request));
+        }
+        try {
+            return executeAsync(hostAddr, request).join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw e;
+        }
+    }
+
+    public CompletableFuture<RestResponse> executeAsync(RestRequest request) {
+        return executeAsync(getBaseUrl(), request);
+    }
+
+    public CompletableFuture<RestResponse> executeAsync(String hostAddr, final RestRequest request) {
+        if (!isHedgeable(request)) {
+            final long start = System.nanoTime();
+            return delegate.executeAsync(hostAddr, request).thenApply(r -> record(request, start, r));
+        }
+        return new HedgedCall(hostAddr, request).start(getHedgeDelay(request));
+    }
+
+    private static boolean isHedgeable(RestRequest request) {
+        return request != null && RetryPolicy.isIdempotent(request.getMethod())
+                && (request.getBodySource() == null || request.getBodySource().isRepeatable());
+    }
+
+    private static String latencyKey(RestRequest request) {
+        return request.getMethod() + " " + request.getResource();
+    }
+
+    private RestResponse record(RestRequest request, long startNanos, RestResponse response) {
+        if (percentile > 0 && request != null && request.getResource() != null) {
+            String key = latencyKey(request);
+            LatencyWindow w = latencies.get(key);
+            if (w == null && latencies.size() < MAX_TRACKED_RESOURCES) {
+                w = latencies.computeIfAbsent(key, k -> new LatencyWindow(WINDOW_SIZE, percentile));
+            }
+            if (w != null) {
+                w.record(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos));
+            }
+        }
+        return response;
+    }
+
+    private String hedgeBaseUrl(String hostAddr) {
+        List<String> alternates = alternateBaseUrls;
+        if (alternates.isEmpty()) {
+            return hostAddr;
+        }
+        return alternates.get(Math.floorMod(nextAlternate.getAndIncrement(), alternates.size()));
+    }
+
+    /**
+     * A call and its hedge. The first response completes the result; the
+     * call still in flight is then cancelled and its response, if any,
+     * closed.
+     *
+     * The latency recorded is the one the caller saw, from the start of the
+     * call. A primary cancelled because the hedge won is recorded too, as
+     * taking at least as long: recording the fast hedges only would lower
+     * the hedge delay, and hedge ever more calls.
+     */
+    private class HedgedCall {
+        private final long start = System.nanoTime();
+        private final String hostAddr;
+        private final RestRequest request;
+        private final CompletableFuture<RestResponse> result = new CompletableFuture<RestResponse>();
+        private final AtomicInteger pending = new AtomicInteger(1);
+        private final AtomicBoolean won = new AtomicBoolean();
+        private volatile CompletableFuture<RestResponse> primary;
+        private volatile CompletableFuture<RestResponse> hedge;
+
+        HedgedCall(String hostAddr, RestRequest request) {
+            this.hostAddr = hostAddr;
+            this.request = request;
+        }
+
+        CompletableFuture<RestResponse> start(long delay) {
+            primary = send(hostAddr, request, false);
+            CompletableFuture.delayedExecutor(delay, TimeUnit.MILLISECONDS).execute(this::sendHedge);
+            result.whenComplete((r, e) -> cancel(primary));
+            result.whenComplete((r, e) -> cancel(hedge));
+            return result;
+        }
+
+        private void sendHedge() {
+            if (result.isDone() || !pending.compareAndSet(1, 2)) {
+                return;
+            }
+            hedges.incrementAndGet();
+            String target = hedgeBaseUrl(hostAddr);
+            LOG.debug("hedging {} to {}", request.getResource(), target);
+            hedge = send(target, request.copy(), true);
+            if (result.isDone()) {
+                cancel(hedge);
+            }
+        }
+
+        private CompletableFuture<RestResponse> send(String target, RestRequest r, final boolean isHedge) {
+            CompletableFuture<RestResponse> f;
+            try {
+                f = delegate.executeAsync(target, r);
+            } catch (RuntimeException e) {
+                f = new CompletableFuture<RestResponse>();
+                f.completeExceptionally(e);
+            }
+            f.whenComplete((response, failure) -> {
+                if (failure == null) {
+                    if (won.compareAndSet(false, true)) {
+                        // recorded before completing, so that callers see it
+                        record(request, start, response);
+                        if (isHedge) {
+                            record(request, start, response);
+                            hedgesWon.incrementAndGet();
+                        }
+                        if (!result.complete(response)) {
+                            response.close();
+                        }
+                    } else {
+                        response.close();
+                    }
+                } else if (pending.decrementAndGet() == 0) {
+                    result.completeExceptionally(failure instanceof CompletionException && failure.getCause() != null ? failure.getCause() : failure);
+                }
+            });
+            return f;
+        }
+
+        private void cancel(CompletableFuture<RestResponse> f) {
+            if (f != null && !f.isDone()) {
+                f.cancel(true);
+            }
+        }
+    }
+}
@@ -0,0 +1,606 @@
+/*  Copyright 2008 Fabrizio Cannizzo
+ *
+ *  This file is part of RestFixture.
+ *
+ *  RestFixture (http://code.google.com/p/rest-fixture/) is free software:
+ *  you can redistribute it and/or modify it under the terms of the
+ *  GNU Lesser General Public License as published by the Free Software Foundation,
+ *  either version 3 of the License, or (at your option) any later version.
+ *
+ *  RestFixture is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with RestFixture.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ *  If you want to contact the author please leave a comment here
+ *  http://smartrics.blogspot.com/2008/08/get-fitnesse-with-some-rest.html
+ */
+package smartrics.rest.client;
+
+import java.io.*;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.commons.httpclient.Header;
+import org.apache.commons.httpclient.HttpClient;
+import org.apache.commons.httpclient.HttpException;
+import org.apache.commons.httpclient.HttpMethod;
+import org.apache.commons.httpclient.URI;
+import org.apache.commons.httpclient.URIException;
+import org.apache.commons.httpclient.methods.EntityEnclosingMethod;
+import org.apache.commons.httpclient.methods.RequestEntity;
+import org.apache.commons.httpclient.methods.multipart.FilePart;
+import org.apache.commons.httpclient.methods.multipart.MultipartRequestEntity;
+import org.apache.commons.httpclient.methods.multipart.Part;
+import org.apache.commons.httpclient.methods.multipart.StringPart;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A {@code RestTransport} based on Apache {@code HttpClient} 3.1.
+ */
+public class HttpClient3Transport implements RestTransport {
+
+    private static Logger LOG = LoggerFactory.getLogger(HttpClient3Transport.class);
+
+    private static Executor defaultAsyncExecutor;
+
+    private final HttpClient client;
+
+    private final Executor asyncExecutor;
+
+    private volatile Compression compression;
+
+    private volatile WireTap wireTap;
+
+    /**
+     * Constructor allowing the injection of an {@code
+     * org.apache.commons.httpclient.HttpClient}.
+     *
+     * @param client the client
+     *               See {@link org.apache.commons.httpclient.HttpClient}
+     */
+    public HttpClient3Transport(HttpClient client) {
+        this(client, getDefaultAsyncExecutor());
+    }
+
+    /**
+     * Constructor allowing the injection of an {@code
+     * org.apache.commons.httpclient.HttpClient} and of the executor running
+     * asynchronous calls.
+     *
+     * @param client        the client
+     * @param asyncExecutor the executor used by {@link #executeAsync(String, RestRequest)}
+     */
+    public HttpClient3Transport(HttpClient client, Executor asyncExecutor) {
+        if (client == null)
+            throw new IllegalArgumentException("Null HttpClient instance");
+        if (asyncExecutor == null)
+            throw new IllegalArgumentException("Null Executor instance");
+        this.client = client;
+        this.asyncExecutor = asyncExecutor;
+    }
+
+    private static synchronized Executor getDefaultAsyncExecutor() {
+        if (defaultAsyncExecutor == null) {
+            defaultAsyncExecutor = Executors.newCachedThreadPool(new ThreadFactory() {
+                private final AtomicInteger count = new AtomicInteger();
+
+                public Thread newThread(Runnable r) {
+                    Thread t = new Thread(r, "RestClient-async-" + count.incrementAndGet());
+                    t.setDaemon(true);
+                    return t;
+                }
+            });
+        }
+        return defaultAsyncExecutor;
+    }
+
+    /**
+     * Returns the Http client instance used by this transport.
+     *
+     * @return the instance of HttpClient
+     * See {@link org.apache.commons.httpclient.HttpClient}
+     */
+    public HttpClient getClient() {
+        return client;
+    }
+
+    /**
+     * Returns the executor running the calls submitted via
+     * {@link #executeAsync(String, RestRequest)}.
+     *
+     * @return the executor
+     */
+    public Executor getAsyncExecutor() {
+        return asyncExecutor;
+    }
+
+    /**
+     * Enables compression: requests advertise the encodings of the
+     * compression, unless they carry an {@code Accept-Encoding} header of
+     * their own, and encoded responses are decoded as their body is read.
+     *
+     * @param compression the compression settings, or null to disable compression
+     * @return this transport
+     */
+    public HttpClient3Transport setCompression(Compression compression) {
+        this.compression = compression;
+        return this;
+    }
+
+    /**
+     * @return the compression settings, or null if compression is disabled
+     */
+    public Compression getCompression() {
+        return compression;
+    }
+
+    /**
+     * Logs a sample of the calls of this transport.
+     *
+     * @param tap the wire tap, or null for none
+     * @return this transport
+     */
+    public HttpClient3Transport setWireTap(WireTap tap) {
+        this.wireTap = tap;
+        return this;
+    }
+
+    public WireTap getWireTap() {
+        return wireTap;
+    }
+
+    /**
+     * See {@link smartrics.rest.client.RestTransport#execute(java.lang.String, smartrics.rest.client.RestRequest)}
+     */
+    public RestResponse execute(String hostAddr, final RestRequest request) {
+        return execute(hostAddr, request, null);
+    }
+
+    /**
+     * See {@link smartrics.rest.client.RestTransport#execute(java.lang.String, smartrics.rest.client.RestRequest, smartrics.rest.client.RequestTimings)}
+     *
+     * All phases are measured if the client has a {@link PooledHttpConnectionManager}.
+     */
+    public RestResponse execute(String hostAddr, final RestRequest request, RequestTimings timings) {
+        HttpMethod m = prepareHttpMethod(hostAddr, request);
+        return executeHttpMethod(m, request, timings);
+    }
+
+    /**
+     * See {@link smartrics.rest.client.RestTransport#executeAsync(java.lang.String, smartrics.rest.client.RestRequest)}
+     *
+     * HttpClient 3.1 only offers blocking I/O, so the call runs on the async
+     * executor of this transport; cancelling the future aborts the Http method.
+     */
+    public CompletableFuture<RestResponse> executeAsync(String hostAddr, final RestRequest request) {
+        return executeAsync(hostAddr, request, null);
+    }
+
+    /**
+     * See {@link smartrics.rest.client.RestTransport#executeAsync(java.lang.String, smartrics.rest.client.RestRequest, smartrics.rest.client.RequestTimings)}
+     */
+    public CompletableFuture<RestResponse> executeAsync(String hostAddr, final RestRequest request, final RequestTimings timings) {
+        final HttpMethodFuture future = new HttpMethodFuture();
+        try {
+            future.method = prepareHttpMethod(hostAddr, request);
+            asyncExecutor.execute(new Runnable() {
+                public void run() {
+                    if (future.isDone()) {
+                        return;
+                    }
+                    try {
+                        future.complete(executeHttpMethod(future.method, request, timings));
+                    } catch (RuntimeException e) {
+                        future.completeExceptionally(e);
+                    }
+                }
+            });
+        } catch (RuntimeException e) {
+            future.completeExceptionally(e);
+        }
+        return future;
+    }
+
+    private HttpMethod prepareHttpMethod(String hostAddr, RestRequest request) {
+        HttpMethod m = createHttpClientMethod(request);
+        configureHttpMethod(m, hostAddr, request);
+        Compression c = compression;
+        if (c != null) {
+            configureCompression(m, request, c);
+        }
+        return m;
+    }
+
+    private void configureCompression(HttpMethod m, RestRequest request, Compression c) {
+        if (request.getHeader("Accept-Encoding").isEmpty()) {
+            m.setRequestHeader("Accept-Encoding", c.getAcceptEncoding());
+        }
+        if (m instanceof EntityEnclosingMethod && request.getHeader("Content-Encoding").isEmpty()) {
+            EntityEnclosingMethod em = (EntityEnclosingMethod) m;
+            if (em.getRequestEntity() instanceof RestRequestBodyEntity) {
+                RestRequestBodyEntity entity = (RestRequestBodyEntity) em.getRequestEntity();
+                if (c.shouldCompress(entity.getBody())) {
+                    em.setRequestEntity(new RestRequestBodyEntity(Compression.gzip(entity.getBody()), entity.getContentType()));
+                    em.setRequestHeader("Content-Encoding", "gzip");
+                }
+            }
+        }
+    }
+
+    /**
+     * @return the stream decoding the response body, or null if the body is not encoded or compression is disabled
+     */
+    private InputStream decodingStream(HttpMethod m, Compression c) throws IOException {
+        Header encoding = c == null ? null : m.getResponseHeader("Content-Encoding");
+        if (encoding == null || !c.canDecode(encoding.getValue())) {
+            return null;
+        }
+        InputStream body = m.getResponseBodyAsStream();
+        return body == null ? null : c.decode(encoding.getValue(), body);
+    }
+
+    private RestResponse executeHttpMethod(HttpMethod m, RestRequest request, RequestTimings timings) {
+        // Debug Client
+        if (LOG.isDebugEnabled()) {
+            try {
+                LOG.debug("Http Request URI : {}", m.getURI());
+            } catch (URIException e) {
+                LOG.error("Error URIException in debug : " + e.getMessage(), e);
+            }
+            // Request Header
+            LOG.debug("Http Request Method Class : {} ",    m.getClass()  );
+            LOG.debug("Http Request Header : {} ",    Arrays.toString( m.getRequestHeaders()) );
+        }
+        // bodies are logged by the wire tap, as they stream
+        WireTap tap = wireTap;
+        if (tap != null && !tap.sample()) {
+            tap = null;
+        }
+        if (tap != null) {
+            tapRequest(m, request, tap);
+        }
+        // Prepare Response
+        RestResponse resp = new RestResponse();
+        resp.setTransactionId(request.getTransactionId());
+        resp.setResource(request.getResource());
+        boolean release = true;
+        long sent = 0;
+        long received = 0;
+        if (timings != null) {
+            timings.attach();
+            sent = System.nanoTime();
+        }
+        try {
+            client.executeMethod(m);
+            if (timings != null) {
+                received = System.nanoTime();
+                timings.headersReceived(sent, received);
+            }
+            InputStream decoded = decodingStream(m, compression);
+            for (Header h : m.getResponseHeaders()) {
+                if (decoded == null || !Compression.isEncodingHeader(h.getName())) {
+                    resp.addHeader(h.getName(), h.getValue());
+                }
+            }
+            resp.setStatusCode(m.getStatusCode());
+            resp.setStatusText(m.getStatusText());
+            WireTap.Capture capture = tap == null ? null : tap.capture(request.getTransactionId(), "<<", head(m.getStatusLine().toString(), m.getResponseHeaders()));
+            if (capture != null && decoded == null) {
+                InputStream body = m.getResponseBodyAsStream();
+                decoded = body == null ? null : new WireTap.TappingInputStream(body, capture);
+            } else if (capture != null) {
+                decoded = new WireTap.TappingInputStream(decoded, capture);
+            }
+            if (request.isStreamingResponse()) {
+                InputStream body = decoded != null ? decoded : m.getResponseBodyAsStream();
+                if (body != null) {
+                    resp.setBodyStream(new ReleasingInputStream(body, m));
+                    release = false;
+                }
+            } else if (decoded != null) {
+                try {
+                    resp.setRawBody(decoded.readAllBytes());
+                } finally {
+                    decoded.close();
+                }
+            } else {
+                resp.setRawBody(m.getResponseBody());
+            }
+            if (capture != null && release) {
+                capture.publish();
+            }
+            if (timings != null && !request.isStreamingResponse()) {
+                timings.add(RequestTimings.Phase.BODY_READ, System.nanoTime() - received);
+            }
+            // Debug
+            if (LOG.isDebugEnabled()) {
+                LOG.debug("Http Request Path : {}", m.getPath());
+                LOG.debug("Http Request Header : {} ", Arrays.toString( m.getRequestHeaders()) );
+                LOG.debug("Http Response Status : {}", m.getStatusLine() );
+            }
+
+        } catch (HttpException e) {
+            String message = "Http call failed for protocol failure";
+            throw new IllegalStateException(message, e);
+        } catch (IOException e) {
+            String message = "Http call failed for IO failure";
+            throw new IllegalStateException(message, e);
+        } finally {
+            if (timings != null) {
+                RequestTimings.detach();
+            }
+            if (release) {
+                m.releaseConnection();
+            }
+        }
+        return resp;
+    }
+
+    /**
+     * Taps the request body as it's written, or publishes the request at
+     * once if it has no body.
+     */
+    private void tapRequest(HttpMethod m, RestRequest request, WireTap tap) {
+        String uri;
+        try {
+            uri = m.getURI().toString();
+        } catch (URIException e) {
+            uri = m.getPath();
+        }
+        WireTap.Capture capture = tap.capture(request.getTransactionId(), ">>", head(m.getName() + " " + uri, m.getRequestHeaders()));
+        RequestEntity entity = m instanceof EntityEnclosingMethod ? ((EntityEnclosingMethod) m).getRequestEntity() : null;
+        if (entity == null) {
+            capture.publish();
+        } else {
+            ((EntityEnclosingMethod) m).setRequestEntity(new TappingRequestEntity(entity, capture));
+        }
+    }
+
+    private static String head(String line, Header[] headers) {
+        StringBuilder b = new StringBuilder(line);
+        for (Header h : headers) {
+            b.append('\n').append(h.getName()).append(": ").append(h.getValue());
+        }
+        return b.toString();
+    }
+
+    /**
+     * Configures the instance of HttpMethod with the data in the request and
+     * the host address.
+     *
+     * @param m        the method class to configure
+     * @param hostAddr the host address
+     * @param request  the rest request
+     */
+    protected void configureHttpMethod(HttpMethod m, String hostAddr, final RestRequest request) {
+        addHeaders(m, request);
+        setUri(m, hostAddr, request);
+        m.setQueryString(request.getQuery());
+        if (m instanceof EntityEnclosingMethod) {
+            RequestEntity requestEntity = null;
+            String fileName = request.getFileName();
+            if (fileName != null) {
+                requestEntity = configureFileUpload(fileName, request.getFileOffset(), request.getFileLength());
+            } else {
+                // Add Multipart
+                Map<String, RestMultipart> multipartFiles = request.getMultipartFileNames();
+                if ((multipartFiles != null) && (!multipartFiles.isEmpty())) {
+                    requestEntity = configureMultipartFileUpload(m, request, requestEntity, multipartFiles);
+                } else {
+                    requestEntity = new RestRequestBodyEntity(request.getEffectiveBodySource(), getContentType(request));
+                }
+            }
+            ((EntityEnclosingMethod) m).setRequestEntity(requestEntity);
+        } else {
+            m.setFollowRedirects(request.isFollowRedirect());
+        }
+
+    }
+
+
+    private RequestEntity configureMultipartFileUpload(HttpMethod m, final RestRequest request, RequestEntity requestEntity, Map<String, RestMultipart> multipartFiles) {
+        MultipartRequestEntity multipartRequestEntity = null;
+        // Current File Name reading for tracking missing file
+        String fileName = null;
+
+        List<Part> fileParts = new ArrayList<Part>(multipartFiles.size());
+        // Read File Part
+        for (Map.Entry<String, RestMultipart> multipartFile : multipartFiles.entrySet()) {
+            Part filePart = createMultipart(multipartFile.getKey(), multipartFile.getValue());
+            fileParts.add(filePart);
+        }
+        Part[] parts = fileParts.toArray(new Part[fileParts.size()]);
+        multipartRequestEntity = new MultipartRequestEntity(parts, ((EntityEnclosingMethod) m).getParams());
+
+        return multipartRequestEntity;
+    }
+
+    private Part createMultipart(String fileParamName, RestMultipart restMultipart) {
+        RestMultipart.RestMultipartType type = restMultipart.getType();
+        switch (type) {
+            case FILE:
+                String fileName = restMultipart.getValue();
+                FileRegion region = FileRegion.of(new File(fileName).toPath(), restMultipart.getOffset(), restMultipart.getLength());
+                FilePart filePart = new FileRegionPart(fileParamName, region, restMultipart.getContentType(), restMultipart.getCharset());
+                LOG.info("Configure Multipart file upload paramName={} :  ContentType={} for  file={} ", new String[]{ fileParamName,  restMultipart.getContentType(), region.toString()});
+                return filePart;
+            case STRING:
+                StringPart stringPart = new StringPart(fileParamName, restMultipart.getValue(), restMultipart.getCharset());
+                stringPart.setContentType(restMultipart.getContentType());
+                LOG.info("Configure Multipart String upload paramName={} :  ContentType={} ", fileParamName, stringPart.getContentType());
+                return stringPart;
+            default:
+                throw new IllegalArgumentException("Unknonw Multipart Type : " + type);
+        }
+
+    }
+
+
+
+    private String getContentType(RestRequest request) {
+        String v = request.getHeaderValue("Content-Type");
+        return v == null ? "text/xml" : v;
+    }
+
+    private RequestEntity configureFileUpload(String fileName, long offset, long length) {
+        final File file = new File(fileName);
+        if (!file.exists()) {
+            throw new IllegalArgumentException("File not found: " + fileName);
+        }
+        return new FileRegionEntity(FileRegion.of(file.toPath(), offset, length), "application/octet-stream");
+    }
+
+    private void setUri(HttpMethod m, String hostAddr, RestRequest request) {
+        String host = hostAddr == null ? client.getHostConfiguration().getHost() : hostAddr;
+        if (host == null)
+            throw new IllegalStateException("hostAddress is null: please config httpClient host configuration or " + "pass a valid host address or config a baseUrl on this client");
+        String uriString = host + request.getResource();
+        boolean escaped = request.isResourceUriEscaped();
+        try {
+            m.setURI(createUri(uriString, escaped));
+        } catch (URIException e) {
+            throw new IllegalStateException("Problem when building URI: " + uriString, e);
+        } catch (NullPointerException e) {
+            throw new IllegalStateException("Building URI with null string", e);
+        }
+    }
+
+    protected URI createUri(String uriString, boolean escaped) throws URIException {
+        return new URI(uriString, escaped);
+    }
+
+    /**
+     * factory method that maps a string with a HTTP method name to an
+     * implementation class in Apache HttpClient. Currently the name is mapped
+     * to <code>org.apache.commons.httpclient.methods.%sMethod</code> where
+     * <code>%s</code> is the parameter mName.
+     *
+     * @param mName the method name
+     * @return the method class
+     */
+    protected String getMethodClassnameFromMethodName(String mName) {
+        return String.format("org.apache.commons.httpclient.methods.%sMethod", mName);
+    }
+
+    /**
+     * Utility method that creates an instance of {@code
+     * org.apache.commons.httpclient.HttpMethod}.
+     *
+     * @param request the rest request
+     * @return the instance of {@code org.apache.commons.httpclient.HttpMethod}
+     * matching the method in RestRequest.
+     */
+    @SuppressWarnings("unchecked")
+    protected HttpMethod createHttpClientMethod(RestRequest request) {
+        String mName = request.getMethod().toString();
+        String className = getMethodClassnameFromMethodName(mName);
+        try {
+            Class<HttpMethod> clazz = (Class<HttpMethod>) Class.forName(className);
+            if (className.endsWith("TraceMethod")) {
+                return clazz.getConstructor(String.class).newInstance("http://dummy.com");
+            } else {
+                return clazz.getDeclaredConstructor().newInstance();
+            }
+        } catch (ClassNotFoundException e) {
+            throw new IllegalStateException(className + " not found: you may be using a too old or " + "too new version of HttpClient", e);
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("An object of type " + className + " cannot be instantiated", e);
+        } catch (RuntimeException e) {
+            throw new IllegalStateException("Exception when instantiating: " + className, e);
+        }
+    }
+
+    private void addHeaders(HttpMethod m, RestRequest request) {
+        for (RestData.Header h : request.getHeaders()) {
+            m.addRequestHeader(h.getName(), h.getValue());
+        }
+    }
+
+    /**
+     * A future that aborts the Http method when cancelled.
+     */
+    private static class HttpMethodFuture extends CompletableFuture<RestResponse> {
+        private volatile HttpMethod method;
+
+        @Override
+        public boolean cancel(boolean mayInterruptIfRunning) {
+            boolean cancelled = super.cancel(mayInterruptIfRunning);
+            HttpMethod m = method;
+            if (cancelled && m != null) {
+                m.abort();
+            }
+            return cancelled;
+        }
+    }
+
+    /**
+     * A request entity copying the body it writes to a wire tap capture.
+     */
+    private static class TappingRequestEntity implements RequestEntity {
+        private final RequestEntity entity;
+        private final WireTap.Capture capture;
+
+        TappingRequestEntity(RequestEntity entity, WireTap.Capture capture) {
+            this.entity = entity;
+            this.capture = capture;
+        }
+
+        public boolean isRepeatable() {
+            return entity.isRepeatable();
+        }
+
+        public void writeRequest(OutputStream out) throws IOException {
+            try {
+                entity.writeRequest(new WireTap.TappingOutputStream(out, capture));
+            } finally {
+                capture.publish();
+            }
+        }
+
+        public long getContentLength() {
+            return entity.getContentLength();
+        }
+
+        public String getContentType() {
+            return entity.getContentType();
+        }
+    }
+
+    /**
+     * A response body stream releasing the connection of its method when closed.
+     */
+    private static class ReleasingInputStream extends FilterInputStream {
+        private final HttpMethod method;
+        private boolean released;
+
+        ReleasingInputStream(InputStream in, HttpMethod method) {
+            super(in);
+            this.method = method;
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (released) {
+                return;
+            }
+            released = true;
+            try {
+                super.close();
+            } finally {
+                method.releaseConnection();
+            }
+        }
+    }
+}
\ No newline at end of file
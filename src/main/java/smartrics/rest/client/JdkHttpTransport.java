@@ -0,0 +1,799 @@
+/*  Copyright 2008 Fabrizio Cannizzo
+ *
+ *  This file is part of RestFixture.
+ *
+ *  RestFixture (http://code.google.com/p/rest-fixture/) is free software:
+ *  you can redistribute it and/or modify it under the terms of the
+ *  GNU Lesser General Public License as published by the Free Software Foundation,
+ *  either version 3 of the License, or (at your option) any later version.
+ *
+ *  RestFixture is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with RestFixture.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ *  If you want to contact the author please leave a comment here
+ *  http://smartrics.blogspot.com/2008/08/get-fitnesse-with-some-rest.html
+ */
+package smartrics.rest.client;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.net.http.HttpClient;
+import java.net.http.HttpHeaders;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Flow;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.net.ssl.SSLContext;
+
+import org.apache.commons.httpclient.HttpStatus;
+import org.apache.commons.httpclient.methods.multipart.Part;
+import org.apache.commons.httpclient.methods.multipart.StringPart;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A {@code RestTransport} based on the JDK {@code java.net.http.HttpClient}.
+ *
+ * The JDK client runs on a non-blocking, selector based engine, so
+ * {@link #executeAsync(String, RestRequest)} does not hold a thread for the
+ * duration of the call. Encoded bodies are the exception: decoders read their
+ * stream, so these are decoded on a thread of their own as they arrive.
+ *
+ * A transport created with {@link #http2()} speaks HTTP/2: concurrent calls to
+ * the same host are multiplexed on a single connection, negotiated via ALPN
+ * for {@code https} Urls and via the {@code h2c} upgrade for {@code http}
+ * Urls. Servers not supporting HTTP/2 are spoken to in HTTP/1.1.
+ */
+public class JdkHttpTransport implements RestTransport {
+
+    private static Logger LOG = LoggerFactory.getLogger(JdkHttpTransport.class);
+
+    /**
+     * Headers the JDK client manages itself and refuses to have set.
+     */
+    private static final Set<String> RESTRICTED_HEADERS = new HashSet<String>(Arrays.asList("connection", "content-length", "expect", "host", "upgrade"));
+
+    /**
+     * Headers JDK 11 refuses too, allowed from JDK 12: skipped where refused.
+     */
+    private static final Set<String> JDK11_RESTRICTED_HEADERS = new HashSet<String>(Arrays.asList("date", "from", "via", "warning"));
+
+    /**
+     * Headers not sent on redirects to another origin.
+     */
+    private static final Set<String> CREDENTIAL_HEADERS = new HashSet<String>(Arrays.asList("authorization", "cookie"));
+
+    private static final int MAX_REDIRECTS = 10;
+
+    private static final byte[] MULTIPART_CHARS = "-_1234567890abcdefghijklmnopqrstuvwxyzABCDEFGHIJKLMNOPQRSTUVWXYZ".getBytes(StandardCharsets.US_ASCII);
+
+    private static Executor decodingExecutor;
+
+    private final HttpClient client;
+
+    private volatile Compression compression;
+
+    private volatile WireTap wireTap;
+
+    /**
+     * Creates a transport on a default JDK Http client.
+     */
+    public JdkHttpTransport() {
+        this(HttpClient.newBuilder().followRedirects(HttpClient.Redirect.NEVER).build());
+    }
+
+    /**
+     * Creates a transport speaking HTTP/2 where the server supports it.
+     *
+     * @return the transport
+     */
+    public static JdkHttpTransport http2() {
+        return new JdkHttpTransport(newClientBuilder(HttpClient.Version.HTTP_2).build());
+    }
+
+    /**
+     * Creates a transport speaking HTTP/2 over TLS, with the protocol
+     * negotiated via ALPN.
+     *
+     * @param sslContext the TLS context
+     * @return the transport
+     */
+    public static JdkHttpTransport http2(SSLContext sslContext) {
+        if (sslContext == null)
+            throw new IllegalArgumentException("Null SSLContext instance");
+        return new JdkHttpTransport(newClientBuilder(HttpClient.Version.HTTP_2).sslContext(sslContext).build());
+    }
+
+    /**
+     * Creates a transport speaking HTTP/1.1 only: each in-flight call uses its
+     * own connection.
+     *
+     * @return the transport
+     */
+    public static JdkHttpTransport http11() {
+        return new JdkHttpTransport(newClientBuilder(HttpClient.Version.HTTP_1_1).build());
+    }
+
+    private static HttpClient.Builder newClientBuilder(HttpClient.Version version) {
+        return HttpClient.newBuilder().version(version).followRedirects(HttpClient.Redirect.NEVER);
+    }
+
+    /**
+     * Constructor allowing the injection of a {@code java.net.http.HttpClient}.
+     *
+     * Redirects are followed by this transport as per
+     * {@link smartrics.rest.client.RestRequest#isFollowRedirect()}, so the
+     * client should be configured with {@code HttpClient.Redirect.NEVER}.
+     *
+     * @param client the client
+     */
+    public JdkHttpTransport(HttpClient client) {
+        if (client == null)
+            throw new IllegalArgumentException("Null HttpClient instance");
+        this.client = client;
+    }
+
+    /**
+     * @return the JDK Http client used by this transport
+     */
+    public HttpClient getClient() {
+        return client;
+    }
+
+    /**
+     * @return the preferred Http version of this transport
+     */
+    public HttpClient.Version getVersion() {
+        return client.version();
+    }
+
+    /**
+     * Enables compression: requests advertise the encodings of the
+     * compression, unless they carry an {@code Accept-Encoding} header of
+     * their own, and encoded responses are decoded as their body is read.
+     *
+     * @param compression the compression settings, or null to disable compression
+     * @return this transport
+     */
+    public JdkHttpTransport setCompression(Compression compression) {
+        this.compression = compression;
+        return this;
+    }
+
+    /**
+     * @return the compression settings, or null if compression is disabled
+     */
+    public Compression getCompression() {
+        return compression;
+    }
+
+    /**
+     * Logs a sample of the calls of this transport.
+     *
+     * @param tap the wire tap, or null for none
+     * @return this transport
+     */
+    public JdkHttpTransport setWireTap(WireTap tap) {
+        this.wireTap = tap;
+        return this;
+    }
+
+    public WireTap getWireTap() {
+        return wireTap;
+    }
+
+    /**
+     * See {@link smartrics.rest.client.RestTransport#execute(java.lang.String, smartrics.rest.client.RestRequest)}
+     */
+    public RestResponse execute(String hostAddr, RestRequest request) {
+        return execute(hostAddr, request, null);
+    }
+
+    /**
+     * See {@link smartrics.rest.client.RestTransport#execute(java.lang.String, smartrics.rest.client.RestRequest, smartrics.rest.client.RequestTimings)}
+     *
+     * The JDK client doesn't expose its connection phases: only the time to
+     * the response headers and the body read are measured.
+     */
+    public RestResponse execute(String hostAddr, RestRequest request, RequestTimings timings) {
+        HttpRequest httpRequest = createHttpRequest(hostAddr, request);
+        WireTap tap = sample();
+        if (tap != null) {
+            httpRequest = tapRequest(httpRequest, request, tap);
+        }
+        try {
+            long sent = System.nanoTime();
+            long[] received = new long[1];
+            HttpResponse<Object> response = client.send(httpRequest, bodyHandler(request, timings, received));
+            HttpRequest hop = httpRequest;
+            int redirects = 0;
+            while (isRedirectToFollow(request, response) && redirects++ < MAX_REDIRECTS) {
+                discardBody(response);
+                hop = createRedirectRequest(hop, response);
+                response = client.send(hop, bodyHandler(request, timings, received));
+            }
+            RestResponse resp = toRestResponse(request, response, tap);
+            recordTimings(request, timings, sent, received[0]);
+            return resp;
+        } catch (IOException e) {
+            throw new IllegalStateException("Http call failed for IO failure", e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Http call interrupted", e);
+        }
+    }
+
+    /**
+     * See {@link smartrics.rest.client.RestTransport#executeAsync(java.lang.String, smartrics.rest.client.RestRequest)}
+     */
+    public CompletableFuture<RestResponse> executeAsync(String hostAddr, final RestRequest request) {
+        return executeAsync(hostAddr, request, null);
+    }
+
+    /**
+     * See {@link smartrics.rest.client.RestTransport#executeAsync(java.lang.String, smartrics.rest.client.RestRequest, smartrics.rest.client.RequestTimings)}
+     */
+    public CompletableFuture<RestResponse> executeAsync(String hostAddr, final RestRequest request, final RequestTimings timings) {
+        final CompletableFuture<RestResponse> result = new CompletableFuture<RestResponse>();
+        final HttpRequest httpRequest;
+        final WireTap tap = sample();
+        try {
+            httpRequest = tap == null ? createHttpRequest(hostAddr, request) : tapRequest(createHttpRequest(hostAddr, request), request, tap);
+        } catch (RuntimeException e) {
+            result.completeExceptionally(e);
+            return result;
+        }
+        final long sent = System.nanoTime();
+        final long[] received = new long[1];
+        final CompletableFuture<HttpResponse<Object>> call = sendAsync(httpRequest, request, timings, received, 0);
+        call.whenComplete((response, failure) -> {
+            if (failure != null) {
+                result.completeExceptionally(toRestException(failure));
+            } else if (response.body() instanceof EncodedBody) {
+                // reading blocks, which the threads of the client must not
+                getDecodingExecutor().execute(() -> complete(result, request, response, tap, timings, sent, received[0]));
+            } else {
+                complete(result, request, response, tap, timings, sent, received[0]);
+            }
+        });
+        result.whenComplete((response, failure) -> {
+            if (result.isCancelled()) {
+                call.cancel(true);
+            }
+        });
+        return result;
+    }
+
+    private void complete(CompletableFuture<RestResponse> result, RestRequest request, HttpResponse<Object> response, WireTap tap, RequestTimings timings,
+            long sent, long received) {
+        try {
+            RestResponse resp = toRestResponse(request, response, tap);
+            recordTimings(request, timings, sent, received);
+            result.complete(resp);
+        } catch (RuntimeException e) {
+            result.completeExceptionally(e);
+        }
+    }
+
+    private static synchronized Executor getDecodingExecutor() {
+        if (decodingExecutor == null) {
+            decodingExecutor = Executors.newCachedThreadPool(new ThreadFactory() {
+                private final AtomicInteger count = new AtomicInteger();
+
+                public Thread newThread(Runnable r) {
+                    Thread t = new Thread(r, "RestClient-decode-" + count.incrementAndGet());
+                    t.setDaemon(true);
+                    return t;
+                }
+            });
+        }
+        return decodingExecutor;
+    }
+
+    private CompletableFuture<HttpResponse<Object>> sendAsync(final HttpRequest httpRequest, final RestRequest request, final RequestTimings timings,
+            final long[] received, final int redirects) {
+        return client.sendAsync(httpRequest, bodyHandler(request, timings, received)).thenCompose(response -> {
+            if (isRedirectToFollow(request, response) && redirects < MAX_REDIRECTS) {
+                discardBody(response);
+                return sendAsync(createRedirectRequest(httpRequest, response), request, timings, received, redirects + 1);
+            }
+            return CompletableFuture.completedFuture(response);
+        });
+    }
+
+    /**
+     * Builds the JDK request matching the rest request and the host address.
+     *
+     * @param hostAddr the host address
+     * @param request  the rest request
+     * @return the JDK request
+     */
+    protected HttpRequest createHttpRequest(String hostAddr, RestRequest request) {
+        HttpRequest.Builder builder = HttpRequest.newBuilder(createUri(hostAddr, request));
+        for (RestData.Header h : request.getHeaders()) {
+            String name = h.getName().toLowerCase(Locale.ENGLISH);
+            if (RESTRICTED_HEADERS.contains(name)) {
+                LOG.debug("Header {} is managed by the JDK Http client: ignored", h.getName());
+                continue;
+            }
+            try {
+                builder.header(h.getName(), h.getValue());
+            } catch (IllegalArgumentException e) {
+                if (!JDK11_RESTRICTED_HEADERS.contains(name))
+                    throw e;
+                LOG.debug("Header {} is managed by the JDK Http client: ignored", h.getName());
+            }
+        }
+        Compression c = compression;
+        if (c != null && request.getHeader("Accept-Encoding").isEmpty()) {
+            builder.header("Accept-Encoding", c.getAcceptEncoding());
+        }
+        String method = request.getMethod().name().toUpperCase(Locale.ENGLISH);
+        if (isEntityEnclosing(request)) {
+            builder.method(method, createBodyPublisher(builder, request));
+        } else {
+            builder.method(method, HttpRequest.BodyPublishers.noBody());
+        }
+        return builder.build();
+    }
+
+    /**
+     * Builds the request Uri as the host address followed by the resource and
+     * the query of the request.
+     *
+     * @param hostAddr the host address
+     * @param request  the rest request
+     * @return the Uri
+     */
+    protected URI createUri(String hostAddr, RestRequest request) {
+        if (hostAddr == null)
+            throw new IllegalStateException("hostAddress is null: please pass a valid host address or config a baseUrl on this client");
+        String uriString = hostAddr + request.getResource();
+        try {
+            URI uri;
+            if (request.isResourceUriEscaped()) {
+                uri = new URI(uriString);
+                if (request.getQuery() != null) {
+                    // from the raw parts: the multi-argument constructors quote '%' again
+                    uri = new URI(uri.getScheme() + "://" + uri.getRawAuthority() + uri.getRawPath() + "?" + request.getQuery());
+                }
+            } else {
+                URI base = new URI(hostAddr);
+                String resource = request.getResource();
+                String query = request.getQuery();
+                int q = resource.indexOf('?');
+                if (q >= 0) {
+                    if (query == null)
+                        query = resource.substring(q + 1);
+                    resource = resource.substring(0, q);
+                }
+                String path = (base.getPath() == null ? "" : base.getPath()) + resource;
+                uri = new URI(base.getScheme(), base.getAuthority(), path, query, null);
+            }
+            if (uri.getScheme() == null || uri.getHost() == null)
+                throw new URISyntaxException(uriString, "scheme and host are required");
+            return uri;
+        } catch (URISyntaxException e) {
+            throw new IllegalStateException("Problem when building URI: " + uriString, e);
+        } catch (IllegalArgumentException e) {
+            throw new IllegalStateException("Problem when building URI: " + uriString, e);
+        }
+    }
+
+    private boolean isEntityEnclosing(RestRequest request) {
+        return request.getMethod() == RestRequest.Method.Post || request.getMethod() == RestRequest.Method.Put;
+    }
+
+    private HttpRequest.BodyPublisher createBodyPublisher(HttpRequest.Builder builder, RestRequest request) {
+        String fileName = request.getFileName();
+        if (fileName != null) {
+            File file = new File(fileName);
+            if (!file.exists())
+                throw new IllegalArgumentException("File not found: " + fileName);
+            setDefaultContentType(builder, request, "application/octet-stream");
+            return MappedBodyPublisher.of(FileRegion.of(file.toPath(), request.getFileOffset(), request.getFileLength()));
+        }
+        Map<String, RestMultipart> multipartFiles = request.getMultipartFileNames();
+        if (multipartFiles != null && !multipartFiles.isEmpty()) {
+            return createMultipartPublisher(builder, multipartFiles);
+        }
+        setDefaultContentType(builder, request, "text/xml");
+        RestRequestBody body = request.getEffectiveBodySource();
+        Compression c = compression;
+        if (c != null && request.getHeader("Content-Encoding").isEmpty() && c.shouldCompress(body)) {
+            body = Compression.gzip(body);
+            builder.header("Content-Encoding", "gzip");
+        }
+        return createBodyPublisher(body);
+    }
+
+    private HttpRequest.BodyPublisher createBodyPublisher(final RestRequestBody body) {
+        if (body.getFileRegion() != null) {
+            return MappedBodyPublisher.of(body.getFileRegion());
+        }
+        ByteBuffer buffer = body.asByteBuffer();
+        if (buffer != null && buffer.hasArray()) {
+            return HttpRequest.BodyPublishers.ofByteArray(buffer.array(), buffer.arrayOffset() + buffer.position(), buffer.remaining());
+        }
+        HttpRequest.BodyPublisher stream = HttpRequest.BodyPublishers.ofInputStream(() -> {
+            try {
+                return body.openStream();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        });
+        long length = body.getContentLength();
+        return length < 0 ? stream : HttpRequest.BodyPublishers.fromPublisher(stream, length);
+    }
+
+    private void setDefaultContentType(HttpRequest.Builder builder, RestRequest request, String contentType) {
+        if (request.getHeader("Content-Type").isEmpty()) {
+            builder.header("Content-Type", contentType);
+        }
+    }
+
+    private HttpRequest.BodyPublisher createMultipartPublisher(HttpRequest.Builder builder, Map<String, RestMultipart> multipartFiles) {
+        List<Part> parts = new ArrayList<Part>(multipartFiles.size());
+        for (Map.Entry<String, RestMultipart> e : multipartFiles.entrySet()) {
+            parts.add(createMultipart(e.getKey(), e.getValue()));
+        }
+        byte[] boundary = generateMultipartBoundary();
+        // file parts are collected as regions, published from the mapped files
+        MappedBodyPublisher.Segments out = new MappedBodyPublisher.Segments();
+        try {
+            Part.sendParts(out, parts.toArray(new Part[parts.size()]), boundary);
+        } catch (IOException e) {
+            throw new IllegalStateException("Unable to assemble multipart body", e);
+        }
+        builder.setHeader("Content-Type", "multipart/form-data; boundary=" + new String(boundary));
+        return out.toPublisher();
+    }
+
+    /**
+     * @return a random boundary of 30 to 40 characters, as the HttpClient 3.1
+     *         multipart entity uses
+     */
+    private static byte[] generateMultipartBoundary() {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        byte[] boundary = new byte[random.nextInt(30, 41)];
+        for (int i = 0; i < boundary.length; i++) {
+            boundary[i] = MULTIPART_CHARS[random.nextInt(MULTIPART_CHARS.length)];
+        }
+        return boundary;
+    }
+
+    private Part createMultipart(String paramName, RestMultipart restMultipart) {
+        switch (restMultipart.getType()) {
+            case FILE:
+                FileRegion region = FileRegion.of(new File(restMultipart.getValue()).toPath(), restMultipart.getOffset(), restMultipart.getLength());
+                return new FileRegionPart(paramName, region, restMultipart.getContentType(), restMultipart.getCharset());
+            case STRING:
+                StringPart stringPart = new StringPart(paramName, restMultipart.getValue(), restMultipart.getCharset());
+                stringPart.setContentType(restMultipart.getContentType());
+                return stringPart;
+            default:
+                throw new IllegalArgumentException("Unknonw Multipart Type : " + restMultipart.getType());
+        }
+    }
+
+    private boolean isRedirectToFollow(RestRequest request, HttpResponse<?> response) {
+        if (!request.isFollowRedirect() || isEntityEnclosing(request))
+            return false;
+        int sc = response.statusCode();
+        return (sc == 301 || sc == 302 || sc == 303 || sc == 307 || sc == 308) && response.headers().firstValue("Location").isPresent();
+    }
+
+    /**
+     * Credentials are only sent again to the same scheme, host and port.
+     */
+    private HttpRequest createRedirectRequest(HttpRequest previous, HttpResponse<?> response) {
+        URI location = response.uri().resolve(response.headers().firstValue("Location").get());
+        HttpRequest.Builder builder = HttpRequest.newBuilder(location).method(previous.method(), HttpRequest.BodyPublishers.noBody());
+        previous.timeout().ifPresent(builder::timeout);
+        boolean sameOrigin = isSameOrigin(previous.uri(), location);
+        for (Map.Entry<String, List<String>> e : previous.headers().map().entrySet()) {
+            if (!sameOrigin && CREDENTIAL_HEADERS.contains(e.getKey().toLowerCase(Locale.ENGLISH))) {
+                LOG.debug("Header {} not sent on the redirect to {}", e.getKey(), location);
+                continue;
+            }
+            for (String v : e.getValue()) {
+                builder.header(e.getKey(), v);
+            }
+        }
+        return builder.build();
+    }
+
+    private static boolean isSameOrigin(URI a, URI b) {
+        return b.getHost() != null && a.getScheme().equalsIgnoreCase(b.getScheme()) && a.getHost().equalsIgnoreCase(b.getHost()) && port(a) == port(b);
+    }
+
+    private static int port(URI uri) {
+        if (uri.getPort() >= 0) {
+            return uri.getPort();
+        }
+        return uri.getScheme().equalsIgnoreCase("https") ? 443 : 80;
+    }
+
+    /**
+     * Streamed responses keep the body on the connection, and are decoded as
+     * they are read. The others are read in full: by the JDK client if not
+     * encoded, so that the call completes with the body at hand, else by the
+     * transport, decoding the body as it arrives.
+     */
+    @SuppressWarnings({ "unchecked", "rawtypes" })
+    private HttpResponse.BodyHandler<Object> bodyHandler(RestRequest request) {
+        if (request.isStreamingResponse()) {
+            return (HttpResponse.BodyHandler) HttpResponse.BodyHandlers.ofInputStream();
+        }
+        final Compression c = compression;
+        if (c == null) {
+            return (HttpResponse.BodyHandler) HttpResponse.BodyHandlers.ofByteArray();
+        }
+        return info -> {
+            final String encoding = info.headers().firstValue("Content-Encoding").orElse(null);
+            if (c.canDecode(encoding)) {
+                return (HttpResponse.BodySubscriber) HttpResponse.BodySubscribers.mapping(HttpResponse.BodySubscribers.ofInputStream(), EncodedBody::new);
+            }
+            return (HttpResponse.BodySubscriber) HttpResponse.BodySubscribers.ofByteArray();
+        };
+    }
+
+    /**
+     * @return the handler marking the arrival of the response headers when timings are recorded
+     */
+    private HttpResponse.BodyHandler<Object> bodyHandler(RestRequest request, RequestTimings timings, final long[] received) {
+        final HttpResponse.BodyHandler<Object> handler = bodyHandler(request);
+        if (timings == null) {
+            return handler;
+        }
+        return info -> {
+            received[0] = System.nanoTime();
+            return handler.apply(info);
+        };
+    }
+
+    private static void recordTimings(RestRequest request, RequestTimings timings, long sent, long received) {
+        if (timings != null && received != 0) {
+            timings.headersReceived(sent, received);
+            if (!request.isStreamingResponse()) {
+                timings.add(RequestTimings.Phase.BODY_READ, System.nanoTime() - received);
+            }
+        }
+    }
+
+    private void discardBody(HttpResponse<Object> response) {
+        Object body = response.body() instanceof EncodedBody ? ((EncodedBody) response.body()).encoded : response.body();
+        if (body instanceof InputStream) {
+            try {
+                ((InputStream) body).close();
+            } catch (IOException e) {
+                LOG.debug("Unable to close the body of a redirect response", e);
+            }
+        }
+    }
+
+    /**
+     * @return the tap if the call is to be tapped, else null
+     */
+    private WireTap sample() {
+        WireTap tap = wireTap;
+        return tap != null && tap.sample() ? tap : null;
+    }
+
+    /**
+     * @return the request with its body tapped as it's published; requests
+     *         without body are tapped at once
+     */
+    private HttpRequest tapRequest(HttpRequest r, RestRequest request, WireTap tap) {
+        final WireTap.Capture capture = tap.capture(request.getTransactionId(), ">>", head(r.method() + " " + r.uri(), r.headers()));
+        HttpRequest.BodyPublisher publisher = r.bodyPublisher().orElse(null);
+        if (publisher == null || publisher.contentLength() == 0) {
+            capture.publish();
+            return r;
+        }
+        HttpRequest.Builder builder = HttpRequest.newBuilder(r.uri()).expectContinue(r.expectContinue());
+        r.timeout().ifPresent(builder::timeout);
+        r.version().ifPresent(builder::version);
+        for (Map.Entry<String, List<String>> e : r.headers().map().entrySet()) {
+            for (String v : e.getValue()) {
+                builder.header(e.getKey(), v);
+            }
+        }
+        return builder.method(r.method(), new TappingBodyPublisher(publisher, capture)).build();
+    }
+
+    private static String head(String line, HttpHeaders headers) {
+        StringBuilder b = new StringBuilder(line);
+        for (Map.Entry<String, List<String>> e : headers.map().entrySet()) {
+            for (String v : e.getValue()) {
+                b.append('\n').append(e.getKey()).append(": ").append(v);
+            }
+        }
+        return b.toString();
+    }
+
+    private RestResponse toRestResponse(RestRequest request, HttpResponse<Object> response, WireTap tap) {
+        RestResponse resp = new RestResponse();
+        resp.setTransactionId(request.getTransactionId());
+        resp.setResource(request.getResource());
+        Compression c = compression;
+        String encoding = response.headers().firstValue("Content-Encoding").orElse(null);
+        boolean decode = response.body() instanceof EncodedBody || (c != null && response.body() instanceof InputStream && c.canDecode(encoding));
+        for (Map.Entry<String, List<String>> e : response.headers().map().entrySet()) {
+            if (decode && Compression.isEncodingHeader(e.getKey())) {
+                continue;
+            }
+            for (String v : e.getValue()) {
+                resp.addHeader(e.getKey(), v);
+            }
+        }
+        resp.setStatusCode(response.statusCode());
+        resp.setStatusText(HttpStatus.getStatusText(response.statusCode()));
+        WireTap.Capture capture = tap == null ? null
+                : tap.capture(request.getTransactionId(), "<<", head(response.statusCode() + " " + resp.getStatusText(), response.headers()));
+        if (response.body() instanceof InputStream) {
+            // only streamed responses come as a stream: nothing is read here
+            InputStream body = (InputStream) response.body();
+            if (decode) {
+                body = new DecodingInputStream(c, encoding, body);
+            }
+            if (capture != null) {
+                body = new WireTap.TappingInputStream(body, capture);
+            }
+            resp.setBodyStream(body);
+        } else {
+            byte[] body = response.body() instanceof EncodedBody ? ((EncodedBody) response.body()).decode(c, encoding) : (byte[]) response.body();
+            resp.setRawBody(body);
+            if (capture != null) {
+                if (body != null) {
+                    capture.write(body, 0, body.length);
+                }
+                capture.publish();
+            }
+        }
+        return resp;
+    }
+
+    /**
+     * Copies the buffers published to a capture.
+     */
+    private static class TappingBodyPublisher implements HttpRequest.BodyPublisher {
+        private final HttpRequest.BodyPublisher publisher;
+        private final WireTap.Capture capture;
+
+        TappingBodyPublisher(HttpRequest.BodyPublisher publisher, WireTap.Capture capture) {
+            this.publisher = publisher;
+            this.capture = capture;
+        }
+
+        public long contentLength() {
+            return publisher.contentLength();
+        }
+
+        public void subscribe(final Flow.Subscriber<? super ByteBuffer> subscriber) {
+            publisher.subscribe(new Flow.Subscriber<ByteBuffer>() {
+                public void onSubscribe(Flow.Subscription subscription) {
+                    subscriber.onSubscribe(subscription);
+                }
+
+                public void onNext(ByteBuffer item) {
+                    capture.write(item);
+                    subscriber.onNext(item);
+                }
+
+                public void onError(Throwable throwable) {
+                    capture.publish();
+                    subscriber.onError(throwable);
+                }
+
+                public void onComplete() {
+                    capture.publish();
+                    subscriber.onComplete();
+                }
+            });
+        }
+    }
+
+    /**
+     * The body of a buffered response, still to be read and decoded.
+     */
+    private static class EncodedBody {
+        private final InputStream encoded;
+
+        EncodedBody(InputStream encoded) {
+            this.encoded = encoded;
+        }
+
+        byte[] decode(Compression c, String encoding) {
+            try (InputStream decoded = new DecodingInputStream(c, encoding, encoded)) {
+                return decoded.readAllBytes();
+            } catch (IOException e) {
+                throw new IllegalStateException("Http call failed for IO failure", e);
+            }
+        }
+    }
+
+    /**
+     * Decodes a streamed body from its first read, as the decoders read the
+     * head of the body when created.
+     */
+    private static class DecodingInputStream extends InputStream {
+        private final Compression compression;
+        private final String encoding;
+        private final InputStream encoded;
+        private InputStream decoded;
+
+        DecodingInputStream(Compression compression, String encoding, InputStream encoded) {
+            this.compression = compression;
+            this.encoding = encoding;
+            this.encoded = encoded;
+        }
+
+        private InputStream decoded() throws IOException {
+            if (decoded == null) {
+                decoded = compression.decode(encoding, encoded);
+            }
+            return decoded;
+        }
+
+        @Override
+        public int read() throws IOException {
+            return decoded().read();
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            return decoded().read(b, off, len);
+        }
+
+        @Override
+        public int available() throws IOException {
+            return decoded == null ? 0 : decoded.available();
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (decoded != null) {
+                decoded.close();
+            } else {
+                encoded.close();
+            }
+        }
+    }
+
+    private RuntimeException toRestException(Throwable failure) {
+        Throwable cause = failure instanceof CompletionException && failure.getCause() != null ? failure.getCause() : failure;
+        if (cause instanceof IOException) {
+            return new IllegalStateException("Http call failed for IO failure", cause);
+        }
+        if (cause instanceof RuntimeException) {
+            return (RuntimeException) cause;
+        }
+        return new IllegalStateException("Http call failed", cause);
+    }
+}
@@ -0,0 +1,347 @@
+/*  Copyright 2008 Fabrizio Cannizzo
+ *
+ *  This file is part of RestFixture.
+ *
+ *  RestFixture (http://code.google.com/p/rest-fixture/) is free software:
+ *  you can redistribute it and/or modify it under the terms of the
+ *  GNU Lesser General Public License as published by the Free Software Foundation,
+ *  either version 3 of the License, or (at your option) any later version.
+ *
+ *  RestFixture is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with RestFixture.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ *  If you want to contact the author please leave a comment here
+ *  http://smartrics.blogspot.com/2008/08/get-fitnesse-with-some-rest.html
+ */
+package smartrics.rest.client;
+
+import java.io.ByteArrayOutputStream;
+import java.util.Base64;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * A histogram of values recorded with a fixed relative precision, in the
+ * manner of HdrHistogram: values are counted in buckets whose width grows
+ * with the value, so that the error on any value, and so on any percentile,
+ * is within {@code 10^-significantDigits} of it.
+ *
+ * Recording is lock free and safe from any number of threads. Values are in
+ * whatever unit the caller chooses; {@link LatencyRecorder} records
+ * microseconds.
+ *
+ * Histograms can be merged with {@link #add(LatencyHistogram)} and
+ * exchanged between processes as compressed strings via {@link #encode()}
+ * and {@link #decode(String)}.
+ */
+public class LatencyHistogram {
+
+    private static final int ENCODING_VERSION = 1;
+
+    private final long highestTrackableValue;
+    private final int significantDigits;
+    private final int subBucketHalfCountMagnitude;
+    private final int subBucketHalfCount;
+    private final long subBucketMask;
+    private final int leadingZeroCountBase;
+    private final AtomicLongArray counts;
+
+    /**
+     * @param highestTrackableValue the largest value recorded; larger values
+     *                              are recorded as this one
+     * @param significantDigits     the decimal digits of precision, from 1 to 4
+     */
+    public LatencyHistogram(long highestTrackableValue, int significantDigits) {
+        if (significantDigits < 1 || significantDigits > 4)
+            throw new IllegalArgumentException("Significant digits must be between 1 and 4");
+        if (highestTrackableValue < 2)
+            throw new IllegalArgumentException("The highest trackable value must be at least 2");
+        this.highestTrackableValue = highestTrackableValue;
+        this.significantDigits = significantDigits;
+        long largestSingleUnitResolution = 2 * (long) Math.pow(10, significantDigits);
+        int subBucketCountMagnitude = 64 - Long.numberOfLeadingZeros(largestSingleUnitResolution - 1);
+        this.subBucketHalfCountMagnitude = subBucketCountMagnitude - 1;
+        this.subBucketHalfCount = 1 << subBucketHalfCountMagnitude;
+        this.subBucketMask = (1L << subBucketCountMagnitude) - 1;
+        this.leadingZeroCountBase = 64 - subBucketHalfCountMagnitude - 1;
+        int bucketCount = 1;
+        for (long trackable = 1L << subBucketCountMagnitude; trackable <= highestTrackableValue && bucketCount < 64 - subBucketCountMagnitude; trackable <<= 1) {
+            bucketCount++;
+        }
+        this.counts = new AtomicLongArray((bucketCount + 1) * subBucketHalfCount);
+    }
+
+    public long getHighestTrackableValue() {
+        return highestTrackableValue;
+    }
+
+    public int getSignificantDigits() {
+        return significantDigits;
+    }
+
+    /**
+     * @param value the value to record; negative values are recorded as 0
+     */
+    public void record(long value) {
+        record(value, 1);
+    }
+
+    /**
+     * @param value the value to record
+     * @param count the number of times it occurred
+     */
+    public void record(long value, long count) {
+        counts.addAndGet(indexOf(Math.max(0, Math.min(value, highestTrackableValue))), count);
+    }
+
+    /**
+     * @return the number of values recorded
+     */
+    public long getCount() {
+        long total = 0;
+        for (int i = 0; i < counts.length(); i++) {
+            total += counts.get(i);
+        }
+        return total;
+    }
+
+    /**
+     * @return the smallest value recorded, within the precision, or 0 if none
+     */
+    public long getMin() {
+        for (int i = 0; i < counts.length(); i++) {
+            if (counts.get(i) > 0) {
+                return lowestEquivalentValue(i);
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * @return the largest value recorded, within the precision, or 0 if none
+     */
+    public long getMax() {
+        for (int i = counts.length() - 1; i >= 0; i--) {
+            if (counts.get(i) > 0) {
+                return highestEquivalentValue(i);
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * @return the mean of the values recorded, within the precision
+     */
+    public double getMean() {
+        long total = 0;
+        double sum = 0;
+        for (int i = 0; i < counts.length(); i++) {
+            long c = counts.get(i);
+            if (c > 0) {
+                total += c;
+                sum += c * (double) (lowestEquivalentValue(i) + highestEquivalentValue(i)) / 2;
+            }
+        }
+        return total == 0 ? 0 : sum / total;
+    }
+
+    /**
+     * @param percentile the percentile, from 0 to 100
+     * @return the value at or below which the percentile of the values
+     *         recorded fall, within the precision, or 0 if none
+     */
+    public long getValueAtPercentile(double percentile) {
+        long[] snapshot = new long[counts.length()];
+        long total = 0;
+        for (int i = 0; i < snapshot.length; i++) {
+            snapshot[i] = counts.get(i);
+            total += snapshot[i];
+        }
+        if (total == 0) {
+            return 0;
+        }
+        long target = Math.max(1, (long) Math.ceil(Math.min(100, Math.max(0, percentile)) / 100 * total));
+        long cumulated = 0;
+        for (int i = 0; i < snapshot.length; i++) {
+            cumulated += snapshot[i];
+            if (cumulated >= target) {
+                return highestEquivalentValue(i);
+            }
+        }
+        return getMax();
+    }
+
+    /**
+     * Adds the counts of another histogram to this one.
+     *
+     * @param other the histogram to add
+     * @return this histogram
+     */
+    public LatencyHistogram add(LatencyHistogram other) {
+        for (int i = 0; i < other.counts.length(); i++) {
+            long c = other.counts.get(i);
+            if (c > 0) {
+                record(other.lowestEquivalentValue(i), c);
+            }
+        }
+        return this;
+    }
+
+    /**
+     * @return a copy of this histogram
+     */
+    public LatencyHistogram copy() {
+        return new LatencyHistogram(highestTrackableValue, significantDigits).add(this);
+    }
+
+    /**
+     * Moves the counts recorded so far to a new histogram, leaving this one
+     * empty: successive snapshots cover successive intervals. Values recorded
+     * concurrently go to either interval, and are never lost.
+     *
+     * @return the values recorded since the previous snapshot
+     */
+    public LatencyHistogram intervalSnapshot() {
+        LatencyHistogram snapshot = new LatencyHistogram(highestTrackableValue, significantDigits);
+        for (int i = 0; i < counts.length(); i++) {
+            if (counts.get(i) > 0) {
+                snapshot.counts.set(i, counts.getAndSet(i, 0));
+            }
+        }
+        return snapshot;
+    }
+
+    /**
+     * @return the counts of this histogram, compressed and Base64 encoded
+     */
+    public String encode() {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        writeVarLong(out, ENCODING_VERSION);
+        writeVarLong(out, significantDigits);
+        writeVarLong(out, highestTrackableValue);
+        int previous = 0;
+        for (int i = 0; i < counts.length(); i++) {
+            long c = counts.get(i);
+            if (c > 0) {
+                writeVarLong(out, i - previous);
+                writeVarLong(out, c);
+                previous = i;
+            }
+        }
+        Deflater deflater = new Deflater();
+        try {
+            deflater.setInput(out.toByteArray());
+            deflater.finish();
+            ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+            byte[] buffer = new byte[1024];
+            while (!deflater.finished()) {
+                compressed.write(buffer, 0, deflater.deflate(buffer));
+            }
+            return Base64.getEncoder().encodeToString(compressed.toByteArray());
+        } finally {
+            deflater.end();
+        }
+    }
+
+    /**
+     * @param encoded a histogram encoded by {@link #encode()}
+     * @return the histogram
+     */
+    public static LatencyHistogram decode(String encoded) {
+        byte[] data;
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(Base64.getDecoder().decode(encoded.trim()));
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[1024];
+            while (!inflater.finished()) {
+                int n = inflater.inflate(buffer);
+                if (n == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    throw new IllegalArgumentException("Truncated histogram");
+                }
+                out.write(buffer, 0, n);
+            }
+            data = out.toByteArray();
+        } catch (DataFormatException e) {
+            throw new IllegalArgumentException("Invalid histogram: " + e.getMessage(), e);
+        } finally {
+            inflater.end();
+        }
+        int[] pos = new int[1];
+        if (readVarLong(data, pos) != ENCODING_VERSION)
+            throw new IllegalArgumentException("Unsupported histogram encoding");
+        long significantDigits = readVarLong(data, pos);
+        if (significantDigits < 1 || significantDigits > 4)
+            throw new IllegalArgumentException("Invalid histogram: " + significantDigits + " significant digits");
+        long highestTrackableValue = readVarLong(data, pos);
+        LatencyHistogram h = new LatencyHistogram(highestTrackableValue, (int) significantDigits);
+        long index = 0;
+        while (pos[0] < data.length) {
+            long delta = readVarLong(data, pos);
+            index += delta;
+            if (delta < 0 || index >= h.counts.length())
+                throw new IllegalArgumentException("Invalid histogram: bucket index out of range");
+            long count = readVarLong(data, pos);
+            if (count < 0)
+                throw new IllegalArgumentException("Invalid histogram: negative count");
+            h.counts.addAndGet((int) index, count);
+        }
+        return h;
+    }
+
+    private int indexOf(long value) {
+        int bucketIndex = leadingZeroCountBase - Long.numberOfLeadingZeros(value | subBucketMask);
+        int subBucketIndex = (int) (value >>> bucketIndex);
+        return ((bucketIndex + 1) << subBucketHalfCountMagnitude) + (subBucketIndex - subBucketHalfCount);
+    }
+
+    private long lowestEquivalentValue(int index) {
+        int bucketIndex = (index >> subBucketHalfCountMagnitude) - 1;
+        int subBucketIndex = (index & (subBucketHalfCount - 1)) + subBucketHalfCount;
+        if (bucketIndex < 0) {
+            subBucketIndex -= subBucketHalfCount;
+            bucketIndex = 0;
+        }
+        return ((long) subBucketIndex) << bucketIndex;
+    }
+
+    private long highestEquivalentValue(int index) {
+        int bucketIndex = Math.max(0, (index >> subBucketHalfCountMagnitude) - 1);
+        return lowestEquivalentValue(index) + (1L << bucketIndex) - 1;
+    }
+
+    private static void writeVarLong(ByteArrayOutputStream out, long value) {
+        while ((value & ~0x7FL) != 0) {
+            out.write((int) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        out.write((int) value);
+    }
+
+    private static long readVarLong(byte[] data, int[] pos) {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            if (pos[0] >= data.length)
+                throw new IllegalArgumentException("Truncated histogram");
+            byte b = data[pos[0]++];
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IllegalArgumentException("Invalid histogram");
+    }
+
+    @Override
+    public String toString() {
+        return String.format("count=%d p50=%d p99=%d p99.9=%d max=%d", getCount(), getValueAtPercentile(50), getValueAtPercentile(99),
+                getValueAtPercentile(99.9), getMax());
+    }
+}
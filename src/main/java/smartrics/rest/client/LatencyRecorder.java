@@ -0,0 +1,238 @@
+/*  Copyright 2008 Fabrizio Cannizzo
+ *
+ *  This file is part of RestFixture.
+ *
+ *  RestFixture (http://code.google.com/p/rest-fixture/) is free software:
+ *  you can redistribute it and/or modify it under the terms of the
+ *  GNU Lesser General Public License as published by the Free Software Foundation,
+ *  either version 3 of the License, or (at your option) any later version.
+ *
+ *  RestFixture is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with RestFixture.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ *  If you want to contact the author please leave a comment here
+ *  http://smartrics.blogspot.com/2008/08/get-fitnesse-with-some-rest.html
+ */
+package smartrics.rest.client;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.util.Collections;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import java.util.regex.Pattern;
+
+/**
+ * A {@link RestClientListener} recording the latency of the calls, in
+ * microseconds, in a {@link LatencyHistogram} per method, resource template
+ * and status class, e.g. {@code "Get /users/{id} 2xx"}; failed calls have
+ * status class {@code "failed"}.
+ *
+ * <pre>
+ * LatencyRecorder latencies = new LatencyRecorder();
+ * client.addListener(latencies);
+ * ...
+ * System.out.println(latencies.report());
+ * </pre>
+ *
+ * The histograms of several clients or processes can be merged through the
+ * log written by {@link #writeLog(Appendable)}: one line per histogram, with
+ * tab separated key, interval start and end in epoch milliseconds and
+ * encoded histogram.
+ */
+public class LatencyRecorder implements RestClientListener {
+
+    /**
+     * One hour, in microseconds.
+     */
+    public static final long DEFAULT_HIGHEST_TRACKABLE_VALUE = TimeUnit.HOURS.toMicros(1);
+
+    private static final Pattern ID_SEGMENT = Pattern.compile("[0-9]+|[0-9a-fA-F]{8}-[0-9a-fA-F]{4}-[0-9a-fA-F]{4}-[0-9a-fA-F]{4}-[0-9a-fA-F]{12}|[0-9a-fA-F]{16,}");
+
+    private final ConcurrentHashMap<String, LatencyHistogram> histograms = new ConcurrentHashMap<String, LatencyHistogram>();
+    private final long highestTrackableValue;
+    private final int significantDigits;
+    private volatile Function<String, String> resourceTemplate = LatencyRecorder::defaultTemplate;
+    private volatile long intervalStart = System.currentTimeMillis();
+
+    /**
+     * Records up to an hour with 2 significant digits.
+     */
+    public LatencyRecorder() {
+        this(DEFAULT_HIGHEST_TRACKABLE_VALUE, 2);
+    }
+
+    /**
+     * @param highestTrackableValue the largest latency recorded, in microseconds
+     * @param significantDigits     the decimal digits of precision
+     */
+    public LatencyRecorder(long highestTrackableValue, int significantDigits) {
+        // fails on invalid arguments
+        new LatencyHistogram(highestTrackableValue, significantDigits);
+        this.highestTrackableValue = highestTrackableValue;
+        this.significantDigits = significantDigits;
+    }
+
+    /**
+     * Sets the function mapping resources to the templates histograms are
+     * keyed on. By default the query is dropped and numeric, UUID and long
+     * hexadecimal path segments are replaced by {@code {id}}.
+     *
+     * @param template the function
+     * @return this recorder
+     */
+    public LatencyRecorder setResourceTemplate(Function<String, String> template) {
+        if (template == null)
+            throw new IllegalArgumentException("Null resource template");
+        this.resourceTemplate = template;
+        return this;
+    }
+
+    /**
+     * @param resource a resource
+     * @return the resource without query and with identifiers replaced by {@code {id}}
+     */
+    public static String defaultTemplate(String resource) {
+        if (resource == null) {
+            return "";
+        }
+        int q = resource.indexOf('?');
+        String path = q < 0 ? resource : resource.substring(0, q);
+        StringBuilder b = new StringBuilder(path.length());
+        int start = 0;
+        while (start <= path.length()) {
+            int end = path.indexOf('/', start);
+            if (end < 0) {
+                end = path.length();
+            }
+            String segment = path.substring(start, end);
+            b.append(ID_SEGMENT.matcher(segment).matches() ? "{id}" : segment);
+            if (end < path.length()) {
+                b.append('/');
+            }
+            start = end + 1;
+        }
+        return b.toString();
+    }
+
+    public void requestCompleted(RestClientEvent event) {
+        String status = event.getStatusCode() == null ? "failed" : (event.getStatusCode() / 100) + "xx";
+        String key = event.getMethod() + " " + resourceTemplate.apply(event.getResource()) + " " + status;
+        record(key.replace('\t', ' ').replace('\n', ' '), TimeUnit.NANOSECONDS.toMicros(event.getTimings().getTotal()));
+    }
+
+    /**
+     * @param key   the histogram key
+     * @param micros the latency
+     */
+    public void record(String key, long micros) {
+        LatencyHistogram h = histograms.get(key);
+        if (h == null) {
+            h = histograms.computeIfAbsent(key, k -> new LatencyHistogram(highestTrackableValue, significantDigits));
+        }
+        h.record(micros);
+    }
+
+    /**
+     * @return the histograms recorded since the creation of the recorder or
+     *         the last interval snapshot, by key
+     */
+    public Map<String, LatencyHistogram> getHistograms() {
+        return Collections.unmodifiableMap(histograms);
+    }
+
+    /**
+     * @return the histograms of the values recorded since the previous
+     *         snapshot, by key; the recorder starts a new interval
+     */
+    public Map<String, LatencyHistogram> intervalSnapshot() {
+        intervalStart = System.currentTimeMillis();
+        Map<String, LatencyHistogram> snapshot = new TreeMap<String, LatencyHistogram>();
+        for (Map.Entry<String, LatencyHistogram> e : histograms.entrySet()) {
+            LatencyHistogram h = e.getValue().intervalSnapshot();
+            if (h.getCount() > 0) {
+                snapshot.put(e.getKey(), h);
+            }
+        }
+        return snapshot;
+    }
+
+    /**
+     * Writes the interval snapshot of each histogram to a log.
+     *
+     * @param out the log
+     * @throws IOException if the log can't be written
+     */
+    public void writeLog(Appendable out) throws IOException {
+        long start = intervalStart;
+        Map<String, LatencyHistogram> snapshot = intervalSnapshot();
+        long end = intervalStart;
+        for (Map.Entry<String, LatencyHistogram> e : snapshot.entrySet()) {
+            out.append(e.getKey()).append('\t').append(String.valueOf(start)).append('\t').append(String.valueOf(end)).append('\t');
+            out.append(e.getValue().encode()).append('\n');
+        }
+    }
+
+    /**
+     * Reads logs written by {@link #writeLog(Appendable)}, merging the
+     * histograms with the same key.
+     *
+     * @param in the log
+     * @return the histograms by key
+     * @throws IOException if the log can't be read
+     */
+    public static Map<String, LatencyHistogram> readLog(Reader in) throws IOException {
+        Map<String, LatencyHistogram> result = new TreeMap<String, LatencyHistogram>();
+        BufferedReader reader = in instanceof BufferedReader ? (BufferedReader) in : new BufferedReader(in);
+        String line;
+        while ((line = reader.readLine()) != null) {
+            if (line.trim().isEmpty() || line.startsWith("#")) {
+                continue;
+            }
+            String[] fields = line.split("\t");
+            if (fields.length != 4)
+                throw new IllegalArgumentException("Invalid histogram log line: " + line);
+            LatencyHistogram h = LatencyHistogram.decode(fields[3]);
+            LatencyHistogram merged = result.get(fields[0]);
+            if (merged == null) {
+                result.put(fields[0], h);
+            } else {
+                merged.add(h);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * @return a table of the count and p50, p99, p99.9 and max latencies in
+     *         milliseconds of each histogram
+     */
+    public String report() {
+        return report(new TreeMap<String, LatencyHistogram>(histograms));
+    }
+
+    /**
+     * @param histograms latency histograms in microseconds by key
+     * @return a table of the count and p50, p99, p99.9 and max latencies in
+     *         milliseconds of each histogram
+     */
+    public static String report(Map<String, LatencyHistogram> histograms) {
+        StringBuilder b = new StringBuilder();
+        b.append(String.format("%-48s %10s %10s %10s %10s %10s%n", "request", "count", "p50", "p99", "p99.9", "max"));
+        for (Map.Entry<String, LatencyHistogram> e : histograms.entrySet()) {
+            LatencyHistogram h = e.getValue();
+            b.append(String.format("%-48s %10d %10.3f %10.3f %10.3f %10.3f%n", e.getKey(), h.getCount(), h.getValueAtPercentile(50) / 1000.0,
+                    h.getValueAtPercentile(99) / 1000.0, h.getValueAtPercentile(99.9) / 1000.0, h.getMax() / 1000.0));
+        }
+        return b.toString();
+    }
+}
@@ -0,0 +1,267 @@
+/*  Copyright 2008 Fabrizio Cannizzo
+ *
+ *  This file is part of RestFixture.
+ *
+ *  RestFixture (http://code.google.com/p/rest-fixture/) is free software:
+ *  you can redistribute it and/or modify it under the terms of the
+ *  GNU Lesser General Public License as published by the Free Software Foundation,
+ *  either version 3 of the License, or (at your option) any later version.
+ *
+ *  RestFixture is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with RestFixture.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ *  If you want to contact the author please leave a comment here
+ *  http://smartrics.blogspot.com/2008/08/get-fitnesse-with-some-rest.html
+ */
+package smartrics.rest.client;
+
+import java.io.FileInputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Drives a {@code RestClient} at the arrival rates of a
+ * {@link LoadScenario} and reports throughput and latency percentiles.
+ *
+ * Calls are sent at their scheduled times whatever their response times (an
+ * open model): a slow server builds up a queue instead of slowing the load
+ * down. Only when the maximum number of calls of the scenario is in flight
+ * does the generator wait for one to complete before sending the next.
+ * Latencies are measured from the scheduled time of each call, so that
+ * delays in sending it, e.g. while the generator waited or was paused, are
+ * counted rather than omitted; the latencies from the actual send time are
+ * reported too for comparison. Calls still in flight once the drain timeout
+ * has passed at the end of the run are counted as unfinished, with the time
+ * since they were scheduled as their latency.
+ *
+ * Usage:
+ *
+ * <pre>
+ * mvn exec:java -Dexec.mainClass=smartrics.rest.client.LoadGenerator -Dexec.args="scenario.txt [base url]"
+ * </pre>
+ */
+public class LoadGenerator {
+
+    private static Logger LOG = LoggerFactory.getLogger(LoadGenerator.class);
+
+    private final RestClient client;
+    private final LoadScenario scenario;
+    private final Random random = new Random();
+    private long drainNanos = TimeUnit.SECONDS.toNanos(60);
+    private long seq;
+
+    /**
+     * @param client   the client sending the calls, with its base Url set
+     * @param scenario the scenario
+     */
+    public LoadGenerator(RestClient client, LoadScenario scenario) {
+        if (client == null)
+            throw new IllegalArgumentException("Null RestClient instance");
+        if (scenario == null || scenario.getSteps().isEmpty() || scenario.getTemplates().isEmpty())
+            throw new IllegalArgumentException("The scenario must have rates and requests");
+        this.client = client;
+        this.scenario = scenario;
+    }
+
+    /**
+     * Sets the time to wait for the calls in flight at the end of the run,
+     * and for a call to complete when the maximum number of calls is in
+     * flight. Defaults to 60 seconds.
+     *
+     * @param timeout the timeout
+     * @param unit    the unit of the timeout
+     * @return this generator
+     */
+    public LoadGenerator setDrainTimeout(long timeout, TimeUnit unit) {
+        if (timeout <= 0)
+            throw new IllegalArgumentException("The drain timeout must be positive");
+        this.drainNanos = unit.toNanos(timeout);
+        return this;
+    }
+
+    /**
+     * Runs the scenario, then waits for the calls in flight.
+     *
+     * @return the report
+     * @throws InterruptedException if interrupted while running
+     * @throws IllegalStateException if no call completes within the drain
+     *             timeout while the maximum number of calls is in flight
+     */
+    public LoadReport run() throws InterruptedException {
+        LoadReport report = new LoadReport();
+        if (scenario.getWarmupSeconds() > 0) {
+            // warm-up calls have their own budget, and are left out of the report
+            Calls warmup = new Calls();
+            LoadScenario.Step first = scenario.getSteps().get(0);
+            run(new LoadReport().addStep(new LoadScenario.Step(first.getRate(), scenario.getWarmupSeconds())), warmup);
+            drain(warmup);
+        }
+        Calls calls = new Calls();
+        for (LoadScenario.Step step : scenario.getSteps()) {
+            LOG.info("running {}", step);
+            run(report.addStep(step), calls);
+        }
+        drain(calls);
+        int unfinished = calls.abandon(System.nanoTime());
+        if (unfinished > 0) {
+            LOG.warn("{} calls still in flight at the end of the run: counted as unfinished", unfinished);
+        }
+        return report;
+    }
+
+    private void run(final LoadReport.StepResult result, final Calls calls) throws InterruptedException {
+        LoadScenario.Step step = result.getStep();
+        double interval = TimeUnit.SECONDS.toNanos(1) / step.getRate();
+        long total = (long) (step.getRate() * step.getSeconds());
+        long start = System.nanoTime();
+        for (long i = 0; i < total; i++) {
+            final long intended = start + (long) (i * interval);
+            long now;
+            while ((now = System.nanoTime()) < intended) {
+                LockSupport.parkNanos(intended - now);
+                if (Thread.interrupted())
+                    throw new InterruptedException();
+            }
+            if (calls.inFlight.get() >= scenario.getMaxInFlight()) {
+                result.overloaded();
+                awaitSlot(calls);
+            }
+            final Long id = seq++;
+            RestRequest request = scenario.pick(random).newRequest(id, random);
+            calls.inFlight.incrementAndGet();
+            calls.pending.put(id, new Call(intended, result));
+            result.sent();
+            final long sentAt = System.nanoTime();
+            try {
+                client.executeAsync(request).whenComplete((response, failure) -> {
+                    // abandoned calls are already reported as unfinished
+                    if (calls.pending.remove(id) != null) {
+                        if (failure == null) {
+                            result.completed(intended, sentAt, System.nanoTime(), response);
+                        } else {
+                            result.failed();
+                            LOG.debug("call failed", failure);
+                        }
+                    }
+                    if (response != null) {
+                        response.close();
+                    }
+                    calls.inFlight.decrementAndGet();
+                });
+            } catch (RuntimeException e) {
+                calls.pending.remove(id);
+                result.failed();
+                calls.inFlight.decrementAndGet();
+                LOG.debug("call failed", e);
+            }
+        }
+    }
+
+    private void awaitSlot(Calls calls) throws InterruptedException {
+        long deadline = System.nanoTime() + drainNanos;
+        while (calls.inFlight.get() >= scenario.getMaxInFlight()) {
+            if (System.nanoTime() - deadline > 0)
+                throw new IllegalStateException("No call completed in " + TimeUnit.NANOSECONDS.toMillis(drainNanos) + "ms with " + calls.inFlight.get()
+                        + " calls in flight");
+            LockSupport.parkNanos(TimeUnit.MICROSECONDS.toNanos(100));
+            if (Thread.interrupted())
+                throw new InterruptedException();
+        }
+    }
+
+    private void drain(Calls calls) throws InterruptedException {
+        long deadline = System.nanoTime() + drainNanos;
+        while (calls.inFlight.get() > 0 && System.nanoTime() - deadline < 0) {
+            Thread.sleep(10);
+        }
+    }
+
+    /**
+     * The calls of a run, warm-up or measured.
+     */
+    private static class Calls {
+        private final AtomicInteger inFlight = new AtomicInteger();
+        /**
+         * The calls not reported yet, by sequence number.
+         */
+        private final Map<Long, Call> pending = new ConcurrentHashMap<Long, Call>();
+
+        /**
+         * Reports the calls still in flight as unfinished.
+         *
+         * @return the number of calls reported
+         */
+        int abandon(long now) {
+            int n = 0;
+            for (Map.Entry<Long, Call> e : pending.entrySet()) {
+                if (pending.remove(e.getKey()) != null) {
+                    e.getValue().result.unfinished(e.getValue().intended, now);
+                    n++;
+                }
+            }
+            return n;
+        }
+    }
+
+    private static class Call {
+        private final long intended;
+        private final LoadReport.StepResult result;
+
+        Call(long intended, LoadReport.StepResult result) {
+            this.intended = intended;
+            this.result = result;
+        }
+    }
+
+    /**
+     * @param scenario the scenario
+     * @return a client with the transport and base Url of the scenario
+     */
+    public static RestClient newClient(LoadScenario scenario) {
+        RestClientImpl client;
+        if ("jdk".equals(scenario.getTransport())) {
+            client = RestClientImpl.create(JdkHttpTransport.http11());
+        } else if ("jdk-h2".equals(scenario.getTransport())) {
+            client = RestClientImpl.create(JdkHttpTransport.http2());
+        } else {
+            int connections = Math.min(scenario.getMaxInFlight(), 1000);
+            client = new RestClientBuilder().setMaxTotalConnections(connections).setMaxConnectionsPerRoute(connections).build();
+        }
+        client.setBaseUrl(scenario.getBaseUrl());
+        return client;
+    }
+
+    public static void main(String[] args) throws Exception {
+        if (args.length < 1 || args.length > 2) {
+            System.err.println("Usage: LoadGenerator <scenario file> [base url]");
+            System.exit(1);
+        }
+        LoadScenario scenario;
+        try (Reader in = new InputStreamReader(new FileInputStream(args[0]), StandardCharsets.UTF_8)) {
+            scenario = LoadScenario.parse(in);
+        }
+        if (args.length == 2) {
+            scenario.setBaseUrl(args[1]);
+        }
+        if (scenario.getBaseUrl() == null) {
+            System.err.println("No base url in the scenario or on the command line");
+            System.exit(1);
+        }
+        System.out.println(new LoadGenerator(newClient(scenario), scenario).run());
+    }
+}
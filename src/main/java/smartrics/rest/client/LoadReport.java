@@ -0,0 +1,175 @@
+/*  Copyright 2008 Fabrizio Cannizzo
+ *
+ *  This file is part of RestFixture.
+ *
+ *  RestFixture (http://code.google.com/p/rest-fixture/) is free software:
+ *  you can redistribute it and/or modify it under the terms of the
+ *  GNU Lesser General Public License as published by the Free Software Foundation,
+ *  either version 3 of the License, or (at your option) any later version.
+ *
+ *  RestFixture is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with RestFixture.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ *  If you want to contact the author please leave a comment here
+ *  http://smartrics.blogspot.com/2008/08/get-fitnesse-with-some-rest.html
+ */
+package smartrics.rest.client;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * The outcome of a {@link LoadGenerator} run: throughput and latency
+ * percentiles per step of the scenario.
+ */
+public class LoadReport {
+
+    private final List<StepResult> steps = new ArrayList<StepResult>();
+
+    /**
+     * The calls of a step. Latencies are in microseconds; corrected
+     * latencies are measured from the time the call was due to be sent,
+     * uncorrected ones from the time it was actually sent. Unfinished calls
+     * have a corrected latency only, up to the end of the run.
+     */
+    public static class StepResult {
+        private final LoadScenario.Step step;
+        private final LatencyHistogram corrected = new LatencyHistogram(LatencyRecorder.DEFAULT_HIGHEST_TRACKABLE_VALUE, 3);
+        private final LatencyHistogram uncorrected = new LatencyHistogram(LatencyRecorder.DEFAULT_HIGHEST_TRACKABLE_VALUE, 3);
+        private final AtomicLongArray statusClasses = new AtomicLongArray(6);
+        private final AtomicLong sent = new AtomicLong();
+        private final AtomicLong failed = new AtomicLong();
+        private final AtomicLong overloaded = new AtomicLong();
+        private final AtomicLong unfinished = new AtomicLong();
+
+        StepResult(LoadScenario.Step step) {
+            this.step = step;
+        }
+
+        void sent() {
+            sent.incrementAndGet();
+        }
+
+        void overloaded() {
+            overloaded.incrementAndGet();
+        }
+
+        void completed(long intended, long sentAt, long now, RestResponse response) {
+            corrected.record(TimeUnit.NANOSECONDS.toMicros(now - intended));
+            uncorrected.record(TimeUnit.NANOSECONDS.toMicros(now - sentAt));
+            Integer status = response == null ? null : response.getStatusCode();
+            int statusClass = status == null ? 0 : status.intValue() / 100;
+            statusClasses.incrementAndGet(statusClass > 0 && statusClass < 6 ? statusClass : 0);
+        }
+
+        void failed() {
+            failed.incrementAndGet();
+        }
+
+        void unfinished(long intended, long now) {
+            unfinished.incrementAndGet();
+            corrected.record(TimeUnit.NANOSECONDS.toMicros(now - intended));
+        }
+
+        public LoadScenario.Step getStep() {
+            return step;
+        }
+
+        /**
+         * @return the calls sent
+         */
+        public long getSent() {
+            return sent.get();
+        }
+
+        /**
+         * @return the calls that got a response
+         */
+        public long getCompleted() {
+            return uncorrected.getCount();
+        }
+
+        /**
+         * @return the calls that failed without a response
+         */
+        public long getFailed() {
+            return failed.get();
+        }
+
+        /**
+         * @return the calls sent late because too many were in flight
+         */
+        public long getOverloaded() {
+            return overloaded.get();
+        }
+
+        /**
+         * @return the calls still in flight at the end of the run
+         */
+        public long getUnfinished() {
+            return unfinished.get();
+        }
+
+        /**
+         * @param statusClass the first digit of the status codes, from 1 to 5
+         * @return the responses with a status of the class
+         */
+        public long getResponses(int statusClass) {
+            return statusClasses.get(statusClass);
+        }
+
+        /**
+         * @return the responses per second over the step
+         */
+        public double getThroughput() {
+            return getCompleted() / (double) step.getSeconds();
+        }
+
+        public LatencyHistogram getCorrected() {
+            return corrected;
+        }
+
+        public LatencyHistogram getUncorrected() {
+            return uncorrected;
+        }
+    }
+
+    StepResult addStep(LoadScenario.Step step) {
+        StepResult r = new StepResult(step);
+        steps.add(r);
+        return r;
+    }
+
+    public List<StepResult> getSteps() {
+        return Collections.unmodifiableList(steps);
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder b = new StringBuilder();
+        b.append(String.format("%-10s %8s %8s %6s %6s %6s %9s %6s %6s %9s %9s %9s %9s %9s %9s%n", "rate/s", "sent", "ok", "failed", "overl",
+                "unfin", "thrput/s", "4xx", "5xx", "p50 ms", "p90 ms", "p99 ms", "p99.9 ms", "max ms", "raw p99"));
+        for (StepResult r : steps) {
+            LatencyHistogram h = r.getCorrected();
+            b.append(String.format("%-10.1f %8d %8d %6d %6d %6d %9.1f %6d %6d %9.3f %9.3f %9.3f %9.3f %9.3f %9.3f%n", r.getStep().getRate(), r.getSent(),
+                    r.getCompleted(), r.getFailed(), r.getOverloaded(), r.getUnfinished(), r.getThroughput(), r.getResponses(4), r.getResponses(5),
+                    millis(h.getValueAtPercentile(50)), millis(h.getValueAtPercentile(90)), millis(h.getValueAtPercentile(99)),
+                    millis(h.getValueAtPercentile(99.9)), millis(h.getMax()), millis(r.getUncorrected().getValueAtPercentile(99))));
+        }
+        b.append("latencies from the intended send time; raw p99 from the actual send time");
+        return b.toString();
+    }
+
+    private static double millis(long micros) {
+        return micros / 1000.0;
+    }
+}
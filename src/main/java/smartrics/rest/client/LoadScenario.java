@@ -0,0 +1,353 @@
+/*  Copyright 2008 Fabrizio Cannizzo
+ *
+ *  This file is part of RestFixture.
+ *
+ *  RestFixture (http://code.google.com/p/rest-fixture/) is free software:
+ *  you can redistribute it and/or modify it under the terms of the
+ *  GNU Lesser General Public License as published by the Free Software Foundation,
+ *  either version 3 of the License, or (at your option) any later version.
+ *
+ *  RestFixture is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with RestFixture.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ *  If you want to contact the author please leave a comment here
+ *  http://smartrics.blogspot.com/2008/08/get-fitnesse-with-some-rest.html
+ */
+package smartrics.rest.client;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import smartrics.rest.client.RestData.Header;
+
+/**
+ * The scenario run by a {@link LoadGenerator}: the arrival rate over time
+ * and the requests to send.
+ *
+ * Scenarios are read from text files with one directive per line; blank
+ * lines and lines starting with {@code #} are ignored:
+ *
+ * <pre>
+ * base-url http://localhost:8080
+ * # httpclient (default), jdk or jdk-h2
+ * transport httpclient
+ * # seconds at the rate of the first step, not reported
+ * warmup 5
+ * # requests per second for a number of seconds; several lines make steps
+ * rate 100 30
+ * rate 200 30
+ * # calls in flight at which new calls wait for one to complete
+ * max-in-flight 10000
+ * # method, resource (with query) and optional weight
+ * request Get /users/{random:1000}?verbose=true 3
+ * header Accept: application/json
+ * request Post /users
+ * header Content-Type: application/json
+ * body {"name": "user{seq}"}
+ * </pre>
+ *
+ * {@code header} and {@code body} apply to the request above them. In
+ * resources, queries, headers and bodies {@code {seq}} is replaced by the
+ * sequence number of the call and {@code {random:N}} by a random number
+ * from 0 to N - 1.
+ */
+public class LoadScenario {
+
+    private static final Pattern PLACEHOLDER = Pattern.compile("\\{(seq|random:([0-9]+))\\}");
+
+    private String baseUrl;
+    private String transport = "httpclient";
+    private int warmupSeconds;
+    private int maxInFlight = 10000;
+    private final List<Step> steps = new ArrayList<Step>();
+    private final List<Template> templates = new ArrayList<Template>();
+    private int totalWeight;
+
+    /**
+     * A constant arrival rate for a duration.
+     */
+    public static class Step {
+        private final double rate;
+        private final int seconds;
+
+        public Step(double rate, int seconds) {
+            if (rate <= 0)
+                throw new IllegalArgumentException("The rate must be positive");
+            if (seconds <= 0)
+                throw new IllegalArgumentException("The duration must be positive");
+            this.rate = rate;
+            this.seconds = seconds;
+        }
+
+        /**
+         * @return the requests per second
+         */
+        public double getRate() {
+            return rate;
+        }
+
+        public int getSeconds() {
+            return seconds;
+        }
+
+        @Override
+        public String toString() {
+            return rate + "/s for " + seconds + "s";
+        }
+    }
+
+    /**
+     * A request to send, with placeholders.
+     */
+    public static class Template {
+        private final RestRequest.Method method;
+        private final String resource;
+        private final String query;
+        private final int weight;
+        private final List<Header> headers = new ArrayList<Header>();
+        private String body;
+
+        public Template(RestRequest.Method method, String resource, int weight) {
+            if (method == null)
+                throw new IllegalArgumentException("Null method");
+            if (resource == null)
+                throw new IllegalArgumentException("Null resource");
+            if (weight < 1)
+                throw new IllegalArgumentException("The weight must be positive");
+            checkPlaceholders(resource);
+            int q = resource.indexOf('?');
+            this.method = method;
+            this.resource = q < 0 ? resource : resource.substring(0, q);
+            this.query = q < 0 ? null : resource.substring(q + 1);
+            this.weight = weight;
+        }
+
+        public Template addHeader(String name, String value) {
+            Header header = new Header(name, value);
+            checkPlaceholders(value);
+            headers.add(header);
+            return this;
+        }
+
+        public Template setBody(String body) {
+            if (body != null)
+                checkPlaceholders(body);
+            this.body = body;
+            return this;
+        }
+
+        public RestRequest.Method getMethod() {
+            return method;
+        }
+
+        public String getResource() {
+            return resource;
+        }
+
+        public int getWeight() {
+            return weight;
+        }
+
+        /**
+         * @param seq    the sequence number of the call
+         * @param random the source of random numbers
+         * @return the request for the call
+         */
+        public RestRequest newRequest(long seq, Random random) {
+            RestRequest request = new RestRequest();
+            request.setMethod(method);
+            request.setResource(expand(resource, seq, random));
+            if (query != null) {
+                request.setQuery(expand(query, seq, random));
+            }
+            for (Header h : headers) {
+                request.addHeader(h.getName(), expand(h.getValue(), seq, random));
+            }
+            if (body != null) {
+                request.setBody(expand(body, seq, random));
+            }
+            return request;
+        }
+
+        @Override
+        public String toString() {
+            return method + " " + resource + (query == null ? "" : "?" + query);
+        }
+    }
+
+    /**
+     * Reads a scenario.
+     *
+     * @param in the scenario text
+     * @return the scenario
+     * @throws IOException if the scenario can't be read
+     */
+    public static LoadScenario parse(Reader in) throws IOException {
+        LoadScenario s = new LoadScenario();
+        BufferedReader reader = in instanceof BufferedReader ? (BufferedReader) in : new BufferedReader(in);
+        Template last = null;
+        String line;
+        int n = 0;
+        while ((line = reader.readLine()) != null) {
+            n++;
+            String trimmed = line.trim();
+            if (trimmed.isEmpty() || trimmed.startsWith("#")) {
+                continue;
+            }
+            int sp = trimmed.indexOf(' ');
+            String directive = sp < 0 ? trimmed : trimmed.substring(0, sp);
+            String value = sp < 0 ? "" : trimmed.substring(sp + 1).trim();
+            String[] args = value.isEmpty() ? new String[0] : value.split("\\s+");
+            try {
+                if ("base-url".equals(directive)) {
+                    s.setBaseUrl(value);
+                } else if ("transport".equals(directive)) {
+                    s.setTransport(value);
+                } else if ("warmup".equals(directive)) {
+                    s.setWarmupSeconds(Integer.parseInt(value));
+                } else if ("max-in-flight".equals(directive)) {
+                    s.setMaxInFlight(Integer.parseInt(value));
+                } else if ("rate".equals(directive) && args.length == 2) {
+                    s.addStep(new Step(Double.parseDouble(args[0]), Integer.parseInt(args[1])));
+                } else if ("request".equals(directive) && (args.length == 2 || args.length == 3)) {
+                    last = new Template(RestRequest.Method.valueOf(args[0]), args[1], args.length == 3 ? Integer.parseInt(args[2]) : 1);
+                    s.addTemplate(last);
+                } else if ("header".equals(directive) && last != null && value.indexOf(':') > 0) {
+                    int colon = value.indexOf(':');
+                    last.addHeader(value.substring(0, colon).trim(), value.substring(colon + 1).trim());
+                } else if ("body".equals(directive) && last != null) {
+                    last.setBody(value);
+                } else {
+                    throw new IllegalArgumentException("unknown or incomplete directive");
+                }
+            } catch (IllegalArgumentException e) {
+                throw new IllegalArgumentException("Invalid scenario line " + n + " '" + line + "': " + e.getMessage(), e);
+            }
+        }
+        return s;
+    }
+
+    public String getBaseUrl() {
+        return baseUrl;
+    }
+
+    public LoadScenario setBaseUrl(String baseUrl) {
+        this.baseUrl = baseUrl;
+        return this;
+    }
+
+    /**
+     * @return the transport: httpclient, jdk or jdk-h2
+     */
+    public String getTransport() {
+        return transport;
+    }
+
+    public LoadScenario setTransport(String transport) {
+        if (!"httpclient".equals(transport) && !"jdk".equals(transport) && !"jdk-h2".equals(transport))
+            throw new IllegalArgumentException("Unknown transport " + transport);
+        this.transport = transport;
+        return this;
+    }
+
+    public int getWarmupSeconds() {
+        return warmupSeconds;
+    }
+
+    public LoadScenario setWarmupSeconds(int seconds) {
+        if (seconds < 0)
+            throw new IllegalArgumentException("The warmup can't be negative");
+        this.warmupSeconds = seconds;
+        return this;
+    }
+
+    public int getMaxInFlight() {
+        return maxInFlight;
+    }
+
+    public LoadScenario setMaxInFlight(int calls) {
+        if (calls < 1)
+            throw new IllegalArgumentException("The calls in flight must be positive");
+        this.maxInFlight = calls;
+        return this;
+    }
+
+    public LoadScenario addStep(Step step) {
+        steps.add(step);
+        return this;
+    }
+
+    public List<Step> getSteps() {
+        return Collections.unmodifiableList(steps);
+    }
+
+    public LoadScenario addTemplate(Template template) {
+        templates.add(template);
+        totalWeight += template.getWeight();
+        return this;
+    }
+
+    public List<Template> getTemplates() {
+        return Collections.unmodifiableList(templates);
+    }
+
+    /**
+     * @param random the source of random numbers
+     * @return a template picked as per the weights
+     */
+    public Template pick(Random random) {
+        if (templates.isEmpty())
+            throw new IllegalStateException("The scenario has no requests");
+        int r = random.nextInt(totalWeight);
+        for (Template t : templates) {
+            r -= t.getWeight();
+            if (r < 0) {
+                return t;
+            }
+        }
+        return templates.get(templates.size() - 1);
+    }
+
+    private static void checkPlaceholders(String text) {
+        Matcher m = PLACEHOLDER.matcher(text);
+        while (m.find()) {
+            if (m.group(2) == null) {
+                continue;
+            }
+            int bound;
+            try {
+                bound = Integer.parseInt(m.group(2));
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("The bound of " + m.group() + " is too large", e);
+            }
+            if (bound < 1)
+                throw new IllegalArgumentException("The bound of " + m.group() + " must be positive");
+        }
+    }
+
+    private static String expand(String text, long seq, Random random) {
+        if (text.indexOf('{') < 0) {
+            return text;
+        }
+        Matcher m = PLACEHOLDER.matcher(text);
+        StringBuffer b = new StringBuffer(text.length() + 8);
+        while (m.find()) {
+            String v = m.group(2) == null ? String.valueOf(seq) : String.valueOf(random.nextInt(Integer.parseInt(m.group(2))));
+            m.appendReplacement(b, v);
+        }
+        m.appendTail(b);
+        return b.toString();
+    }
+}
@@ -0,0 +1,208 @@
+/*  Copyright 2008 Fabrizio Cannizzo
+ *
+ *  This file is part of RestFixture.
+ *
+ *  RestFixture (http://code.google.com/p/rest-fixture/) is free software:
+ *  you can redistribute it and/or modify it under the terms of the
+ *  GNU Lesser General Public License as published by the Free Software Foundation,
+ *  either version 3 of the License, or (at your option) any later version.
+ *
+ *  RestFixture is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with RestFixture.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ *  If you want to contact the author please leave a comment here
+ *  http://smartrics.blogspot.com/2008/08/get-fitnesse-with-some-rest.html
+ */
+package smartrics.rest.client;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.http.HttpRequest;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Flow;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A JDK {@code BodyPublisher} of in memory bytes and file regions, publishing
+ * the regions as read only memory-mapped chunks.
+ *
+ * Mapped chunks are direct buffers, written to the connection by the client
+ * without copying them through the heap. Each subscription maps the file
+ * again, so the body can be sent more than once.
+ */
+class MappedBodyPublisher implements HttpRequest.BodyPublisher {
+
+    private final List<Object> segments;
+    private final long contentLength;
+
+    private MappedBodyPublisher(List<Object> segments, long contentLength) {
+        this.segments = segments;
+        this.contentLength = contentLength;
+    }
+
+    static MappedBodyPublisher of(FileRegion region) {
+        return new MappedBodyPublisher(Collections.<Object>singletonList(region), region.getLength());
+    }
+
+    public long contentLength() {
+        return contentLength;
+    }
+
+    public void subscribe(Flow.Subscriber<? super ByteBuffer> subscriber) {
+        Subscription subscription = new Subscription(subscriber);
+        subscriber.onSubscribe(subscription);
+    }
+
+    /**
+     * A stream collecting the bytes written to it and the file regions
+     * written with {@link FileRegion#writeTo(OutputStream)}, to publish them
+     * without reading the files.
+     */
+    static class Segments extends OutputStream {
+        private final List<Object> segments = new ArrayList<Object>();
+        private ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        private long length;
+
+        @Override
+        public void write(int b) {
+            bytes.write(b);
+            length++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            bytes.write(b, off, len);
+            length += len;
+        }
+
+        void add(FileRegion region) {
+            addBytes();
+            segments.add(region);
+            length += region.getLength();
+        }
+
+        MappedBodyPublisher toPublisher() {
+            addBytes();
+            return new MappedBodyPublisher(new ArrayList<Object>(segments), length);
+        }
+
+        private void addBytes() {
+            if (bytes.size() > 0) {
+                segments.add(ByteBuffer.wrap(bytes.toByteArray()).asReadOnlyBuffer());
+                bytes = new ByteArrayOutputStream();
+            }
+        }
+    }
+
+    private class Subscription implements Flow.Subscription {
+        private final Flow.Subscriber<? super ByteBuffer> subscriber;
+        private final AtomicLong demand = new AtomicLong();
+        private final AtomicInteger wip = new AtomicInteger();
+        private volatile boolean done;
+        private int index;
+        private FileChannel channel;
+        private long position;
+        private long end;
+
+        Subscription(Flow.Subscriber<? super ByteBuffer> subscriber) {
+            this.subscriber = subscriber;
+        }
+
+        public void request(long n) {
+            if (n <= 0) {
+                fail(new IllegalArgumentException("Non positive request: " + n));
+                return;
+            }
+            demand.getAndAccumulate(n, (d, r) -> d + r < 0 ? Long.MAX_VALUE : d + r);
+            drain();
+        }
+
+        public void cancel() {
+            done = true;
+            drain();
+        }
+
+        private void drain() {
+            if (wip.getAndIncrement() != 0)
+                return;
+            int missed = 1;
+            do {
+                while (!done && demand.get() > 0) {
+                    ByteBuffer next;
+                    try {
+                        next = next();
+                    } catch (IOException | RuntimeException e) {
+                        done = true;
+                        close();
+                        subscriber.onError(e);
+                        break;
+                    }
+                    if (next == null) {
+                        done = true;
+                        subscriber.onComplete();
+                        break;
+                    }
+                    demand.decrementAndGet();
+                    subscriber.onNext(next);
+                }
+                if (done)
+                    close();
+                missed = wip.addAndGet(-missed);
+            } while (missed != 0);
+        }
+
+        private ByteBuffer next() throws IOException {
+            while (index < segments.size()) {
+                Object segment = segments.get(index);
+                if (segment instanceof ByteBuffer) {
+                    index++;
+                    return ((ByteBuffer) segment).duplicate();
+                }
+                FileRegion region = (FileRegion) segment;
+                if (channel == null) {
+                    channel = region.open();
+                    position = region.getOffset();
+                    end = region.checkedEnd(channel);
+                }
+                if (position < end) {
+                    ByteBuffer chunk = FileRegion.map(channel, position, end);
+                    position += chunk.remaining();
+                    return chunk;
+                }
+                close();
+                index++;
+            }
+            return null;
+        }
+
+        private void fail(Throwable t) {
+            if (!done) {
+                done = true;
+                subscriber.onError(t);
+            }
+            drain();
+        }
+
+        private void close() {
+            if (channel != null) {
+                try {
+                    channel.close();
+                } catch (IOException e) {
+                    // the chunks stay mapped after the channel is closed
+                }
+                channel = null;
+            }
+        }
+    }
+}
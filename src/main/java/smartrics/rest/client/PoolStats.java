@@ -0,0 +1,106 @@
+/*  Copyright 2008 Fabrizio Cannizzo
+ *
+ *  This file is part of RestFixture.
+ *
+ *  RestFixture (http://code.google.com/p/rest-fixture/) is free software:
+ *  you can redistribute it and/or modify it under the terms of the
+ *  GNU Lesser General Public License as published by the Free Software Foundation,
+ *  either version 3 of the License, or (at your option) any later version.
+ *
+ *  RestFixture is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with RestFixture.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ *  If you want to contact the author please leave a comment here
+ *  http://smartrics.blogspot.com/2008/08/get-fitnesse-with-some-rest.html
+ */
+package smartrics.rest.client;
+
+/**
+ * A snapshot of the statistics of a connection pool.
+ */
+public class PoolStats {
+    private final int leased;
+    private final int available;
+    private final int pending;
+    private final int max;
+    private final long acquisitions;
+    private final long totalWaitNanos;
+    private final long maxWaitNanos;
+
+    public PoolStats(int leased, int available, int pending, int max, long acquisitions, long totalWaitNanos, long maxWaitNanos) {
+        this.leased = leased;
+        this.available = available;
+        this.pending = pending;
+        this.max = max;
+        this.acquisitions = acquisitions;
+        this.totalWaitNanos = totalWaitNanos;
+        this.maxWaitNanos = maxWaitNanos;
+    }
+
+    /**
+     * @return the number of connections in use
+     */
+    public int getLeased() {
+        return leased;
+    }
+
+    /**
+     * @return the number of idle connections ready to be reused
+     */
+    public int getAvailable() {
+        return available;
+    }
+
+    /**
+     * @return the number of callers waiting for a connection
+     */
+    public int getPending() {
+        return pending;
+    }
+
+    /**
+     * @return the maximum number of connections
+     */
+    public int getMax() {
+        return max;
+    }
+
+    /**
+     * @return the number of connections handed out since the pool was created
+     */
+    public long getAcquisitions() {
+        return acquisitions;
+    }
+
+    /**
+     * @return the total time callers waited for a connection, in millis
+     */
+    public double getTotalWaitMillis() {
+        return totalWaitNanos / 1e6;
+    }
+
+    /**
+     * @return the average time callers waited for a connection, in millis
+     */
+    public double getAverageWaitMillis() {
+        return acquisitions == 0 ? 0 : totalWaitNanos / 1e6 / acquisitions;
+    }
+
+    /**
+     * @return the longest time a caller waited for a connection, in millis
+     */
+    public double getMaxWaitMillis() {
+        return maxWaitNanos / 1e6;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("[leased: %d; available: %d; pending: %d; max: %d; acquisitions: %d; avg wait: %.3fms; max wait: %.3fms]",
+                leased, available, pending, max, acquisitions, getAverageWaitMillis(), getMaxWaitMillis());
+    }
+}
@@ -0,0 +1,622 @@
+/*  Copyright 2008 Fabrizio Cannizzo
+ *
+ *  This file is part of RestFixture.
+ *
+ *  RestFixture (http://code.google.com/p/rest-fixture/) is free software:
+ *  you can redistribute it and/or modify it under the terms of the
+ *  GNU Lesser General Public License as published by the Free Software Foundation,
+ *  either version 3 of the License, or (at your option) any later version.
+ *
+ *  RestFixture is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with RestFixture.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ *  If you want to contact the author please leave a comment here
+ *  http://smartrics.blogspot.com/2008/08/get-fitnesse-with-some-rest.html
+ */
+package smartrics.rest.client;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.ref.WeakReference;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import javax.net.ssl.SSLSocket;
+
+import org.apache.commons.httpclient.ConnectionPoolTimeoutException;
+import org.apache.commons.httpclient.HostConfiguration;
+import org.apache.commons.httpclient.HttpConnection;
+import org.apache.commons.httpclient.HttpConnectionManager;
+import org.apache.commons.httpclient.HttpException;
+import org.apache.commons.httpclient.params.HttpConnectionManagerParams;
+import org.apache.commons.httpclient.params.HttpConnectionParams;
+import org.apache.commons.httpclient.protocol.DefaultProtocolSocketFactory;
+import org.apache.commons.httpclient.protocol.Protocol;
+import org.apache.commons.httpclient.protocol.ProtocolSocketFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A pooling {@code HttpConnectionManager} for HttpClient 3.1, safe to share
+ * across threads.
+ *
+ * The limits on the number of connections, in total and per host, are read
+ * from the {@code HttpConnectionManagerParams}. On top of those, the pool
+ * can:
+ * <ul>
+ * <li>evict connections idle for longer than a timeout, in the background;</li>
+ * <li>check for staleness only the connections idle for longer than a
+ * threshold, instead of before every request;</li>
+ * <li>close connections older than a time to live when they are released.</li>
+ * </ul>
+ * No lock is held while doing socket I/O. Statistics are available via
+ * {@link #getStats()}.
+ *
+ * When a call records {@link RequestTimings}, the pool reports the wait for
+ * a connection, and its connections the DNS lookup, connect, TLS handshake,
+ * request write and time to first byte.
+ *
+ * Plain http connections are opened on socket channels, so file uploads can
+ * be transferred to the socket with sendfile (see {@link FileRegion}).
+ */
+public class PooledHttpConnectionManager implements HttpConnectionManager {
+
+    private static Logger LOG = LoggerFactory.getLogger(PooledHttpConnectionManager.class);
+
+    private static ScheduledExecutorService evictor;
+
+    private static final ProtocolSocketFactory CHANNEL_SOCKETS = new ChannelSocketFactory();
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition released = lock.newCondition();
+    private final Map<HostConfiguration, HostPool> pools = new HashMap<HostConfiguration, HostPool>();
+    private final Map<HttpConnection, Entry> leasedEntries = new IdentityHashMap<HttpConnection, Entry>();
+    private HttpConnectionManagerParams params = new HttpConnectionManagerParams();
+    private int total;
+    private int leased;
+    private int pending;
+    private long acquisitions;
+    private long totalWaitNanos;
+    private long maxWaitNanos;
+    private boolean shutdown;
+
+    private volatile long timeToLiveMillis = -1;
+    private volatile long validateAfterInactivityMillis = -1;
+    private ScheduledFuture<?> eviction;
+
+    /**
+     * Sets the maximum age of a connection: older connections are closed
+     * when released, or when found idle.
+     *
+     * @param ttlMillis the time to live, in millis; non positive for no limit
+     */
+    public void setTimeToLive(long ttlMillis) {
+        this.timeToLiveMillis = ttlMillis;
+    }
+
+    /**
+     * @return the maximum age of a connection, in millis; non positive for no limit
+     */
+    public long getTimeToLive() {
+        return timeToLiveMillis;
+    }
+
+    /**
+     * Sets the inactivity after which a pooled connection is checked for
+     * staleness before being reused. When set, the per request stale check of
+     * HttpClient is disabled.
+     *
+     * @param millis the inactivity, in millis; negative to use the stale
+     *               checking of the connection parameters
+     */
+    public void setValidateAfterInactivity(long millis) {
+        this.validateAfterInactivityMillis = millis;
+        if (millis >= 0) {
+            params.setStaleCheckingEnabled(false);
+        }
+    }
+
+    /**
+     * @return the inactivity after which a pooled connection is checked for staleness
+     */
+    public long getValidateAfterInactivity() {
+        return validateAfterInactivityMillis;
+    }
+
+    /**
+     * Starts closing, in the background, the connections idle for longer
+     * than the timeout.
+     *
+     * @param idleTimeoutMillis the idle timeout, in millis; non positive to stop the eviction
+     */
+    public void setIdleConnectionTimeout(final long idleTimeoutMillis) {
+        lock.lock();
+        try {
+            if (eviction != null) {
+                eviction.cancel(false);
+                eviction = null;
+            }
+            if (idleTimeoutMillis > 0 && !shutdown) {
+                long period = Math.max(100, Math.min(idleTimeoutMillis / 2, 5000));
+                Eviction task = new Eviction(this, idleTimeoutMillis);
+                eviction = getEvictor().scheduleWithFixedDelay(task, period, period, TimeUnit.MILLISECONDS);
+                task.future = eviction;
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private static synchronized ScheduledExecutorService getEvictor() {
+        if (evictor == null) {
+            evictor = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread t = new Thread(r, "RestClient-pool-evictor");
+                t.setDaemon(true);
+                return t;
+            });
+        }
+        return evictor;
+    }
+
+    /**
+     * @return a snapshot of the statistics of this pool
+     */
+    public PoolStats getStats() {
+        lock.lock();
+        try {
+            return new PoolStats(leased, total - leased, pending, params.getMaxTotalConnections(), acquisitions, totalWaitNanos, maxWaitNanos);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @param hostConfiguration the host
+     * @return a snapshot of the statistics of the connections to the host
+     */
+    public PoolStats getStats(HostConfiguration hostConfiguration) {
+        lock.lock();
+        try {
+            HostPool hp = pools.get(hostConfiguration);
+            int hostLeased = hp == null ? 0 : hp.leased;
+            int hostAvailable = hp == null ? 0 : hp.idle.size();
+            int hostPending = hp == null ? 0 : hp.pending;
+            return new PoolStats(hostLeased, hostAvailable, hostPending, params.getMaxConnectionsPerHost(hostConfiguration), acquisitions, totalWaitNanos, maxWaitNanos);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public HttpConnection getConnection(HostConfiguration hostConfiguration) {
+        try {
+            return getConnectionWithTimeout(hostConfiguration, 0);
+        } catch (ConnectionPoolTimeoutException e) {
+            throw new IllegalStateException("Unexpected timeout with no timeout set", e);
+        }
+    }
+
+    /**
+     * @deprecated use {@link #getConnectionWithTimeout(HostConfiguration, long)}
+     */
+    @Deprecated
+    public HttpConnection getConnection(HostConfiguration hostConfiguration, long timeout) throws HttpException {
+        try {
+            return getConnectionWithTimeout(hostConfiguration, timeout);
+        } catch (ConnectionPoolTimeoutException e) {
+            throw new HttpException(e.getMessage(), e);
+        }
+    }
+
+    public HttpConnection getConnectionWithTimeout(HostConfiguration hostConfiguration, long timeout) throws ConnectionPoolTimeoutException {
+        if (hostConfiguration == null)
+            throw new IllegalArgumentException("Null HostConfiguration");
+        HostConfiguration key = new HostConfiguration(hostConfiguration);
+        long start = System.nanoTime();
+        long deadline = timeout > 0 ? start + TimeUnit.MILLISECONDS.toNanos(timeout) : 0;
+        List<HttpConnection> toClose = new ArrayList<HttpConnection>();
+        Entry entry = null;
+        lock.lock();
+        try {
+            while (entry == null) {
+                if (shutdown)
+                    throw new IllegalStateException("Connection manager has been shut down");
+                HostPool hp = pool(key);
+                entry = takeIdle(hp, toClose);
+                if (entry == null && hp.total < params.getMaxConnectionsPerHost(key)) {
+                    if (total >= params.getMaxTotalConnections()) {
+                        closeOldestIdle(toClose);
+                    }
+                    if (total < params.getMaxTotalConnections()) {
+                        entry = newEntry(key, hp);
+                    }
+                }
+                if (entry == null) {
+                    await(hp, deadline);
+                }
+            }
+            entry.pool.leased++;
+            leased++;
+            leasedEntries.put(entry.connection, entry);
+            long waited = System.nanoTime() - start;
+            acquisitions++;
+            totalWaitNanos += waited;
+            maxWaitNanos = Math.max(maxWaitNanos, waited);
+        } finally {
+            lock.unlock();
+            close(toClose);
+        }
+        RequestTimings timings = RequestTimings.current();
+        if (timings != null) {
+            timings.add(RequestTimings.Phase.POOL_WAIT, System.nanoTime() - start);
+        }
+        validate(entry);
+        return entry.connection;
+    }
+
+    private HostPool pool(HostConfiguration key) {
+        HostPool hp = pools.get(key);
+        if (hp == null) {
+            hp = new HostPool();
+            pools.put(key, hp);
+        }
+        return hp;
+    }
+
+    private Entry takeIdle(HostPool hp, List<HttpConnection> toClose) {
+        long now = System.currentTimeMillis();
+        Entry e;
+        while ((e = hp.idle.pollLast()) != null) {
+            if (!isExpired(e, now)) {
+                return e;
+            }
+            discard(e, toClose);
+        }
+        return null;
+    }
+
+    private Entry newEntry(HostConfiguration key, HostPool hp) {
+        HttpConnection connection = new TimedHttpConnection(key);
+        connection.getParams().setDefaults(params);
+        connection.setHttpConnectionManager(this);
+        hp.total++;
+        total++;
+        return new Entry(connection, hp);
+    }
+
+    private void closeOldestIdle(List<HttpConnection> toClose) {
+        Entry oldest = null;
+        for (HostPool hp : pools.values()) {
+            Entry e = hp.idle.peekFirst();
+            if (e != null && (oldest == null || e.lastUsed < oldest.lastUsed)) {
+                oldest = e;
+            }
+        }
+        if (oldest != null) {
+            oldest.pool.idle.remove(oldest);
+            discard(oldest, toClose);
+        }
+    }
+
+    private void await(HostPool hp, long deadline) throws ConnectionPoolTimeoutException {
+        pending++;
+        hp.pending++;
+        try {
+            if (deadline == 0) {
+                released.await();
+            } else {
+                long remaining = deadline - System.nanoTime();
+                if (remaining <= 0 || !released.await(remaining, TimeUnit.NANOSECONDS) && System.nanoTime() >= deadline)
+                    throw new ConnectionPoolTimeoutException("Timeout waiting for connection");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for a connection", e);
+        } finally {
+            pending--;
+            hp.pending--;
+        }
+    }
+
+    private void validate(Entry entry) {
+        long threshold = validateAfterInactivityMillis;
+        if (threshold < 0 || entry.lastUsed == 0 || System.currentTimeMillis() - entry.lastUsed <= threshold) {
+            return;
+        }
+        try {
+            if (entry.connection.closeIfStale()) {
+                LOG.debug("Closed stale connection to {}", entry.connection.getHost());
+            }
+        } catch (IOException e) {
+            entry.connection.close();
+        }
+    }
+
+    public void releaseConnection(HttpConnection connection) {
+        finishLastResponse(connection);
+        HttpConnection toClose = null;
+        lock.lock();
+        try {
+            Entry e = leasedEntries.remove(connection);
+            if (e == null) {
+                return;
+            }
+            e.pool.leased--;
+            leased--;
+            e.lastUsed = System.currentTimeMillis();
+            if (shutdown || isExpired(e, e.lastUsed)) {
+                e.pool.total--;
+                total--;
+                toClose = connection;
+            } else {
+                e.pool.idle.addLast(e);
+            }
+            released.signalAll();
+        } finally {
+            lock.unlock();
+        }
+        if (toClose != null) {
+            toClose.close();
+        }
+    }
+
+    private static void finishLastResponse(HttpConnection connection) {
+        InputStream lastResponse = connection.getLastResponseInputStream();
+        if (lastResponse != null) {
+            connection.setLastResponseInputStream(null);
+            try {
+                lastResponse.close();
+            } catch (IOException e) {
+                connection.close();
+            }
+        }
+    }
+
+    public void closeIdleConnections(long idleTimeout) {
+        List<HttpConnection> toClose = new ArrayList<HttpConnection>();
+        lock.lock();
+        try {
+            long now = System.currentTimeMillis();
+            for (HostPool hp : pools.values()) {
+                for (Iterator<Entry> it = hp.idle.iterator(); it.hasNext();) {
+                    Entry e = it.next();
+                    if (now - e.lastUsed > idleTimeout || isExpired(e, now)) {
+                        it.remove();
+                        discard(e, toClose);
+                    }
+                }
+            }
+            if (!toClose.isEmpty()) {
+                released.signalAll();
+            }
+        } finally {
+            lock.unlock();
+        }
+        close(toClose);
+    }
+
+    /**
+     * Closes all the idle connections and stops pooling; connections in use
+     * are closed when released.
+     */
+    public void shutdown() {
+        List<HttpConnection> toClose = new ArrayList<HttpConnection>();
+        lock.lock();
+        try {
+            shutdown = true;
+            if (eviction != null) {
+                eviction.cancel(false);
+                eviction = null;
+            }
+            for (HostPool hp : pools.values()) {
+                Entry e;
+                while ((e = hp.idle.pollFirst()) != null) {
+                    discard(e, toClose);
+                }
+            }
+            released.signalAll();
+        } finally {
+            lock.unlock();
+        }
+        close(toClose);
+    }
+
+    private boolean isExpired(Entry e, long now) {
+        long ttl = timeToLiveMillis;
+        return ttl > 0 && now - e.created > ttl;
+    }
+
+    private void discard(Entry e, List<HttpConnection> toClose) {
+        e.pool.total--;
+        total--;
+        toClose.add(e.connection);
+    }
+
+    private static void close(List<HttpConnection> connections) {
+        for (HttpConnection c : connections) {
+            c.close();
+        }
+    }
+
+    public HttpConnectionManagerParams getParams() {
+        return params;
+    }
+
+    public void setParams(HttpConnectionManagerParams params) {
+        if (params == null)
+            throw new IllegalArgumentException("Null HttpConnectionManagerParams");
+        this.params = params;
+    }
+
+    /**
+     * Reports the phases of the calls recording {@link RequestTimings}.
+     */
+    private static class TimedHttpConnection extends HttpConnection {
+
+        TimedHttpConnection(HostConfiguration hostConfiguration) {
+            super(hostConfiguration);
+            Protocol protocol = getProtocol();
+            if (protocol.getSocketFactory().getClass() == DefaultProtocolSocketFactory.class) {
+                setProtocol(new Protocol(protocol.getScheme(), CHANNEL_SOCKETS, protocol.getDefaultPort()));
+            }
+        }
+
+        /**
+         * Exposes the socket channel of the connection to request entities,
+         * unless the request is wire logged.
+         */
+        @Override
+        public OutputStream getRequestOutputStream() throws IOException {
+            OutputStream out = super.getRequestOutputStream();
+            Socket socket = getSocket();
+            SocketChannel channel = socket == null ? null : socket.getChannel();
+            if (channel == null || out.getClass() != BufferedOutputStream.class) {
+                return out;
+            }
+            return new FileRegion.ChannelOutputStream(out, channel);
+        }
+
+        @Override
+        public void open() throws IOException {
+            RequestTimings timings = RequestTimings.current();
+            if (timings == null) {
+                super.open();
+                return;
+            }
+            long start = System.nanoTime();
+            // the lookup is cached, so the socket factory doesn't repeat it
+            InetAddress.getByName(getProxyHost() != null ? getProxyHost() : getHost());
+            long resolved = System.nanoTime();
+            timings.add(RequestTimings.Phase.DNS, resolved - start);
+            super.open();
+            long connected = System.nanoTime();
+            timings.add(RequestTimings.Phase.CONNECT, connected - resolved);
+            Socket socket = getSocket();
+            if (socket instanceof SSLSocket) {
+                ((SSLSocket) socket).startHandshake();
+                timings.add(RequestTimings.Phase.TLS, System.nanoTime() - connected);
+            }
+        }
+
+        @Override
+        public void print(String data, String charset) throws IOException {
+            RequestTimings timings = RequestTimings.current();
+            if (timings != null) {
+                timings.writing();
+            }
+            super.print(data, charset);
+        }
+
+        @Override
+        public void flushRequestOutputStream() throws IOException {
+            super.flushRequestOutputStream();
+            RequestTimings timings = RequestTimings.current();
+            if (timings != null) {
+                timings.flushed();
+            }
+        }
+
+        @Override
+        public String readLine(String charset) throws IOException {
+            String line = super.readLine(charset);
+            RequestTimings timings = RequestTimings.current();
+            if (timings != null) {
+                timings.lineRead();
+            }
+            return line;
+        }
+    }
+
+    /**
+     * Opens plain sockets on blocking socket channels.
+     */
+    private static class ChannelSocketFactory implements ProtocolSocketFactory {
+
+        public Socket createSocket(String host, int port) throws IOException {
+            return createSocket(host, port, null, 0, null);
+        }
+
+        public Socket createSocket(String host, int port, InetAddress localAddress, int localPort) throws IOException {
+            return createSocket(host, port, localAddress, localPort, null);
+        }
+
+        public Socket createSocket(String host, int port, InetAddress localAddress, int localPort, HttpConnectionParams params) throws IOException {
+            Socket socket = SocketChannel.open().socket();
+            try {
+                if (localAddress != null || localPort != 0) {
+                    socket.bind(new InetSocketAddress(localAddress, localPort));
+                }
+                socket.connect(new InetSocketAddress(host, port), params == null ? 0 : params.getConnectionTimeout());
+                return socket;
+            } catch (IOException e) {
+                socket.close();
+                throw e;
+            }
+        }
+    }
+
+    /**
+     * Evicts the idle connections of a pool it only weakly refers to, so the
+     * shared evictor doesn't keep unreachable pools alive; it cancels itself
+     * once the pool is collected.
+     */
+    private static class Eviction implements Runnable {
+        private final WeakReference<PooledHttpConnectionManager> manager;
+        private final long idleTimeoutMillis;
+        private volatile ScheduledFuture<?> future;
+
+        Eviction(PooledHttpConnectionManager manager, long idleTimeoutMillis) {
+            this.manager = new WeakReference<PooledHttpConnectionManager>(manager);
+            this.idleTimeoutMillis = idleTimeoutMillis;
+        }
+
+        public void run() {
+            PooledHttpConnectionManager m = manager.get();
+            if (m != null) {
+                m.closeIdleConnections(idleTimeoutMillis);
+            } else if (future != null) {
+                future.cancel(false);
+            }
+        }
+    }
+
+    private static class HostPool {
+        private final ArrayDeque<Entry> idle = new ArrayDeque<Entry>();
+        private int total;
+        private int leased;
+        private int pending;
+    }
+
+    private static class Entry {
+        private final HttpConnection connection;
+        private final HostPool pool;
+        private final long created = System.currentTimeMillis();
+        private long lastUsed;
+
+        Entry(HttpConnection connection, HostPool pool) {
+            this.connection = connection;
+            this.pool = pool;
+        }
+    }
+}
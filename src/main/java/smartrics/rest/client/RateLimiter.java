@@ -0,0 +1,147 @@
+/*  Copyright 2008 Fabrizio Cannizzo
+ *
+ *  This file is part of RestFixture.
+ *
+ *  RestFixture (http://code.google.com/p/rest-fixture/) is free software:
+ *  you can redistribute it and/or modify it under the terms of the
+ *  GNU Lesser General Public License as published by the Free Software Foundation,
+ *  either version 3 of the License, or (at your option) any later version.
+ *
+ *  RestFixture is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with RestFixture.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ *  If you want to contact the author please leave a comment here
+ *  http://smartrics.blogspot.com/2008/08/get-fitnesse-with-some-rest.html
+ */
+package smartrics.rest.client;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * A token bucket: permits are added at a fixed rate up to the burst size,
+ * and each call takes one.
+ *
+ * The bucket is kept as the theoretical time of the next permit, updated
+ * with a compare-and-set, so acquiring a permit never takes a lock.
+ * Waiting callers reserve their permit before waiting, so they are served
+ * in order.
+ */
+public class RateLimiter {
+
+    private final double permitsPerSecond;
+    private final int burst;
+    private final long interval;
+    private final long tolerance;
+    private final AtomicLong next;
+
+    /**
+     * @param permitsPerSecond the rate permits are added at
+     * @param burst            the number of permits available at once
+     */
+    public RateLimiter(double permitsPerSecond, int burst) {
+        if (permitsPerSecond <= 0)
+            throw new IllegalArgumentException("The rate must be positive");
+        if (burst < 1)
+            throw new IllegalArgumentException("The burst must be positive");
+        this.permitsPerSecond = permitsPerSecond;
+        this.burst = burst;
+        this.interval = Math.max(1, (long) (TimeUnit.SECONDS.toNanos(1) / permitsPerSecond));
+        this.tolerance = interval * (burst - 1);
+        this.next = new AtomicLong(System.nanoTime());
+    }
+
+    public double getPermitsPerSecond() {
+        return permitsPerSecond;
+    }
+
+    public int getBurst() {
+        return burst;
+    }
+
+    /**
+     * @return whether a permit was available and taken
+     */
+    public boolean tryAcquire() {
+        return reserve(0) == 0;
+    }
+
+    /**
+     * Waits up to the timeout for a permit.
+     *
+     * @param timeout the maximum wait
+     * @param unit    the unit of the timeout
+     * @return whether a permit was taken
+     */
+    public boolean tryAcquire(long timeout, TimeUnit unit) {
+        long wait = reserve(unit.toNanos(timeout));
+        if (wait < 0) {
+            return false;
+        }
+        park(wait);
+        return true;
+    }
+
+    /**
+     * Waits for a permit.
+     *
+     * @return the nanoseconds waited
+     */
+    public long acquire() {
+        long wait = reserve(Long.MAX_VALUE);
+        park(wait);
+        return wait;
+    }
+
+    /**
+     * Takes a permit available within the wait given, without waiting.
+     *
+     * @return the nanoseconds until the permit is available, or -1 if it
+     *         isn't available within the maximum wait
+     */
+    long reserve(long maxWaitNanos) {
+        while (true) {
+            long now = System.nanoTime();
+            long current = next.get();
+            long from = current - now > 0 ? current : now;
+            long wait = from - now - tolerance;
+            if (wait < 0) {
+                wait = 0;
+            } else if (wait > maxWaitNanos) {
+                return -1;
+            }
+            if (next.compareAndSet(current, from + interval)) {
+                return wait;
+            }
+        }
+    }
+
+    /**
+     * Gives back a permit taken with {@link #reserve(long)} and not used.
+     */
+    void release() {
+        next.addAndGet(-interval);
+    }
+
+    static void park(long nanos) {
+        long deadline = System.nanoTime() + nanos;
+        for (long left = nanos; left > 0; left = deadline - System.nanoTime()) {
+            LockSupport.parkNanos(left);
+            if (Thread.interrupted()) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("Interrupted while waiting for a permit");
+            }
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "RateLimiter[" + permitsPerSecond + "/s, burst " + burst + "]";
+    }
+}
@@ -0,0 +1,259 @@
+/*  Copyright 2008 Fabrizio Cannizzo
+ *
+ *  This file is part of RestFixture.
+ *
+ *  RestFixture (http://code.google.com/p/rest-fixture/) is free software:
+ *  you can redistribute it and/or modify it under the terms of the
+ *  GNU Lesser General Public License as published by the Free Software Foundation,
+ *  either version 3 of the License, or (at your option) any later version.
+ *
+ *  RestFixture is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with RestFixture.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ *  If you want to contact the author please leave a comment here
+ *  http://smartrics.blogspot.com/2008/08/get-fitnesse-with-some-rest.html
+ */
+package smartrics.rest.client;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Pattern;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A {@code RestClient} pacing the calls of the client it wraps with token
+ * buckets, so that request quotas of the servers aren't exceeded.
+ *
+ * Limits are set per host of a base Url and, optionally, per resource
+ * pattern within the host; a call takes a permit from every limit it
+ * matches. Calls to hosts without limits go through unpaced.
+ *
+ * <pre>
+ * RestClient client = new RateLimitingRestClient(new RestClientImpl(httpClient))
+ *         .setRateLimit("http://api:8080", 100, 10)
+ *         .setRateLimit("http://api:8080", "/search.*", 5, 1);
+ * </pre>
+ *
+ * By default calls wait for their permits; see {@link #setMaxWait(long)}.
+ * Asynchronous calls wait without holding a thread.
+ */
+public class RateLimitingRestClient implements RestClient {
+
+    private static Logger LOG = LoggerFactory.getLogger(RateLimitingRestClient.class);
+
+    private final RestClient delegate;
+    private final ConcurrentHashMap<String, Limits> byHost = new ConcurrentHashMap<String, Limits>();
+    private final ConcurrentHashMap<String, Limits> byBaseUrl = new ConcurrentHashMap<String, Limits>();
+    private final AtomicLong delayed = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+    private volatile long maxWaitNanos = Long.MAX_VALUE;
+
+    /**
+     * @param delegate the client executing the requests
+     */
+    public RateLimitingRestClient(RestClient delegate) {
+        if (delegate == null)
+            throw new IllegalArgumentException("Null RestClient instance");
+        this.delegate = delegate;
+    }
+
+    /**
+     * Limits the calls to the host of a base Url.
+     *
+     * @param baseUrl          the base Url
+     * @param permitsPerSecond the sustained rate of calls
+     * @param burst            the number of calls allowed at once
+     * @return this client
+     */
+    public RateLimitingRestClient setRateLimit(String baseUrl, double permitsPerSecond, int burst) {
+        limits(baseUrl).host = new RateLimiter(permitsPerSecond, burst);
+        return this;
+    }
+
+    /**
+     * Limits the calls to the resources of the host of a base Url matching
+     * a pattern.
+     *
+     * @param baseUrl          the base Url
+     * @param resourcePattern  a regular expression matching the whole resource
+     * @param permitsPerSecond the sustained rate of calls
+     * @param burst            the number of calls allowed at once
+     * @return this client
+     */
+    public RateLimitingRestClient setRateLimit(String baseUrl, String resourcePattern, double permitsPerSecond, int burst) {
+        if (resourcePattern == null)
+            throw new IllegalArgumentException("Null resource pattern");
+        limits(baseUrl).resources.add(new ResourceLimit(Pattern.compile(resourcePattern), new RateLimiter(permitsPerSecond, burst)));
+        return this;
+    }
+
+    /**
+     * Sets how long calls wait for their permits; calls that would wait
+     * longer fail with a {@link RateLimitExceededException} instead. Zero
+     * never waits, a negative value waits as long as needed (the default).
+     *
+     * @param millis the maximum wait
+     * @return this client
+     */
+    public RateLimitingRestClient setMaxWait(long millis) {
+        this.maxWaitNanos = millis < 0 ? Long.MAX_VALUE : TimeUnit.MILLISECONDS.toNanos(millis);
+        return this;
+    }
+
+    /**
+     * @param baseUrl the base Url
+     * @return the limiter of the host of the base Url, or null if not limited
+     */
+    public RateLimiter getRateLimiter(String baseUrl) {
+        Limits l = byHost.get(RestBatchExecutor.hostOf(baseUrl));
+        return l == null ? null : l.host;
+    }
+
+    /**
+     * @return the number of calls that waited for a permit
+     */
+    public long getDelayed() {
+        return delayed.get();
+    }
+
+    /**
+     * @return the number of calls rejected for exceeding the maximum wait
+     */
+    public long getRejected() {
+        return rejected.get();
+    }
+
+    public void setBaseUrl(String bUrl) {
+        delegate.setBaseUrl(bUrl);
+    }
+
+    public String getBaseUrl() {
+        return delegate.getBaseUrl();
+    }
+
+    public RestResponse execute(RestRequest request) {
+        return execute(getBaseUrl(), request);
+    }
+
+    public RestResponse execute(String hostAddr, RestRequest request) {
+        RateLimiter.park(reserve(hostAddr, request));
+        return delegate.execute(hostAddr, request);
+    }
+
+    public CompletableFuture<RestResponse> executeAsync(RestRequest request) {
+        return executeAsync(getBaseUrl(), request);
+    }
+
+    public CompletableFuture<RestResponse> executeAsync(String hostAddr, RestRequest request) {
+        long wait;
+        try {
+            wait = reserve(hostAddr, request);
+        } catch (RateLimitExceededException e) {
+            CompletableFuture<RestResponse> failed = new CompletableFuture<RestResponse>();
+            failed.completeExceptionally(e);
+            return failed;
+        }
+        if (wait == 0) {
+            return delegate.executeAsync(hostAddr, request);
+        }
+        CompletableFuture<RestResponse> result = new CompletableFuture<RestResponse>();
+        CompletableFuture.runAsync(() -> {
+            if (result.isDone()) {
+                return;
+            }
+            CompletableFuture<RestResponse> call = delegate.executeAsync(hostAddr, request);
+            result.whenComplete((r, e) -> {
+                if (result.isCancelled()) {
+                    call.cancel(true);
+                }
+            });
+            call.whenComplete((r, e) -> {
+                if (e != null) {
+                    result.completeExceptionally(e);
+                } else if (!result.complete(r) && r != null) {
+                    r.close();
+                }
+            });
+        }, CompletableFuture.delayedExecutor(wait, TimeUnit.NANOSECONDS));
+        return result;
+    }
+
+    /**
+     * Takes the permits of a call.
+     *
+     * @return the nanoseconds to wait before calling
+     */
+    private long reserve(String hostAddr, RestRequest request) {
+        Limits l = byBaseUrl.get(hostAddr == null ? "" : hostAddr);
+        if (l == null) {
+            l = byHost.get(RestBatchExecutor.hostOf(hostAddr));
+            if (l == null) {
+                return 0;
+            }
+            byBaseUrl.putIfAbsent(hostAddr == null ? "" : hostAddr, l);
+        }
+        String resource = request == null ? null : request.getResource();
+        List<RateLimiter> limiters = new ArrayList<RateLimiter>(2);
+        if (resource != null) {
+            for (ResourceLimit r : l.resources) {
+                if (r.pattern.matcher(resource).matches()) {
+                    limiters.add(r.limiter);
+                }
+            }
+        }
+        if (l.host != null) {
+            limiters.add(l.host);
+        }
+        long wait = 0;
+        for (int i = 0; i < limiters.size(); i++) {
+            long w = limiters.get(i).reserve(maxWaitNanos);
+            if (w < 0) {
+                // the call isn't made: give back the permits taken for it
+                for (int j = 0; j < i; j++) {
+                    limiters.get(j).release();
+                }
+                rejected.incrementAndGet();
+                throw new RateLimitExceededException("Rate limit exceeded for " + hostAddr + resource + " (" + limiters.get(i) + ")");
+            }
+            wait = Math.max(wait, w);
+        }
+        if (wait > 0) {
+            delayed.incrementAndGet();
+            LOG.debug("delaying {} by {}ns", resource, wait);
+        }
+        return wait;
+    }
+
+    private Limits limits(String baseUrl) {
+        if (baseUrl == null)
+            throw new IllegalArgumentException("Null base url");
+        return byHost.computeIfAbsent(RestBatchExecutor.hostOf(baseUrl), h -> new Limits());
+    }
+
+    private static class Limits {
+        private volatile RateLimiter host;
+        private final List<ResourceLimit> resources = new CopyOnWriteArrayList<ResourceLimit>();
+    }
+
+    private static class ResourceLimit {
+        private final Pattern pattern;
+        private final RateLimiter limiter;
+
+        private ResourceLimit(Pattern pattern, RateLimiter limiter) {
+            this.pattern = pattern;
+            this.limiter = limiter;
+        }
+    }
+}
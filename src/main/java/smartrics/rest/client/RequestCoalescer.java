@@ -0,0 +1,249 @@
+/*  Copyright 2008 Fabrizio Cannizzo
+ *
+ *  This file is part of RestFixture.
+ *
+ *  RestFixture (http://code.google.com/p/rest-fixture/) is free software:
+ *  you can redistribute it and/or modify it under the terms of the
+ *  GNU Lesser General Public License as published by the Free Software Foundation,
+ *  either version 3 of the License, or (at your option) any later version.
+ *
+ *  RestFixture is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with RestFixture.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ *  If you want to contact the author please leave a comment here
+ *  http://smartrics.blogspot.com/2008/08/get-fitnesse-with-some-rest.html
+ */
+package smartrics.rest.client;
+
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+import smartrics.rest.client.RestData.Header;
+
+/**
+ * Coalesces identical {@code Get} requests in flight at the same time: the
+ * first caller executes the call, the others wait for its response and get a
+ * copy of it.
+ *
+ * Requests are identical if they have the same base url, resource, query and
+ * headers. Streaming requests and requests with a body are never coalesced.
+ *
+ * Cancelling the future of an asynchronous request, leader or follower, only
+ * gives up on that request: the call is aborted once every request waiting
+ * for it has been cancelled.
+ */
+final class RequestCoalescer {
+
+    private final ConcurrentHashMap<String, Call> inFlight = new ConcurrentHashMap<String, Call>();
+    private final AtomicLong coalesced = new AtomicLong();
+
+    /**
+     * @return the key of the request, or null if the request can't be coalesced
+     */
+    static String key(String hostAddr, RestRequest request) {
+        if (request.getMethod() != RestRequest.Method.Get || request.isStreamingResponse() || request.getBodySource() != null
+                || request.getRawBody() != null) {
+            return null;
+        }
+        StringBuilder b = new StringBuilder(128);
+        b.append(hostAddr).append(' ').append(request.getResource());
+        b.append(request.isResourceUriEscaped() ? " e" : " u");
+        if (request.getQuery() != null) {
+            b.append('?').append(request.getQuery());
+        }
+        for (Header h : request.getHeaders()) {
+            b.append('\n').append(h.getName()).append(':').append(h.getValue());
+        }
+        return b.toString();
+    }
+
+    /**
+     * @return the number of requests served with the response of another call
+     */
+    long getCoalesced() {
+        return coalesced.get();
+    }
+
+    /**
+     * @return the number of distinct calls in flight
+     */
+    int getInFlight() {
+        return inFlight.size();
+    }
+
+    RestResponse execute(String key, RestRequest request, Supplier<RestResponse> call) {
+        Call leader = new Call();
+        Call existing = join(key, leader);
+        if (existing != null) {
+            try {
+                return follow(existing, request).join();
+            } catch (CompletionException e) {
+                throw unwrap(e);
+            }
+        }
+        RestResponse response;
+        try {
+            response = call.get();
+        } catch (Throwable e) {
+            // errors too: a leader never completed would hang its followers
+            leader.fail(key, e);
+            throw e;
+        }
+        leader.complete(key, response);
+        return response;
+    }
+
+    CompletableFuture<RestResponse> executeAsync(final String key, RestRequest request, Supplier<CompletableFuture<RestResponse>> call) {
+        final Call leader = new Call();
+        Call existing = join(key, leader);
+        if (existing != null) {
+            CompletableFuture<RestResponse> f = follow(existing, request);
+            f.whenComplete((r, e) -> {
+                if (e instanceof CancellationException) {
+                    existing.cancelled(key);
+                }
+            });
+            return f;
+        }
+        final CompletableFuture<RestResponse> result;
+        try {
+            result = call.get();
+        } catch (Throwable e) {
+            leader.fail(key, e);
+            throw e;
+        }
+        leader.setCall(result);
+        // the leader gets its own future, so that cancelling it leaves the
+        // followers with the outcome of the call
+        final CompletableFuture<RestResponse> own = new CompletableFuture<RestResponse>();
+        result.whenComplete((r, e) -> {
+            if (e != null) {
+                leader.fail(key, e);
+                own.completeExceptionally(e);
+            } else {
+                leader.complete(key, r);
+                if (!own.complete(r)) {
+                    r.close();
+                }
+            }
+        });
+        own.whenComplete((r, e) -> {
+            if (e instanceof CancellationException) {
+                leader.cancelled(key);
+            }
+        });
+        return own;
+    }
+
+    /**
+     * Registers the call as the leader for the key, or joins the call in
+     * flight for it.
+     *
+     * @return the call joined, or null if the given call is the leader
+     */
+    private Call join(String key, Call call) {
+        while (true) {
+            Call existing = inFlight.putIfAbsent(key, call);
+            if (existing == null) {
+                return null;
+            }
+            if (existing.addFollower()) {
+                return existing;
+            }
+            inFlight.remove(key, existing);
+        }
+    }
+
+    private CompletableFuture<RestResponse> follow(Call leader, final RestRequest request) {
+        coalesced.incrementAndGet();
+        return leader.future.thenApply(r -> {
+            RestResponse copy = r.copy();
+            copy.setTransactionId(request.getTransactionId());
+            return copy;
+        });
+    }
+
+    /**
+     * A call in flight. Once completed it accepts no more followers, so that
+     * the response handed to the leader is never read by other threads.
+     */
+    private class Call {
+        private final CompletableFuture<RestResponse> future = new CompletableFuture<RestResponse>();
+        private CompletableFuture<RestResponse> call;
+        private int followers;
+        // the leader and the followers not cancelled
+        private int waiting = 1;
+        private boolean done;
+
+        synchronized boolean addFollower() {
+            if (done) {
+                return false;
+            }
+            followers++;
+            waiting++;
+            return true;
+        }
+
+        synchronized void setCall(CompletableFuture<RestResponse> call) {
+            this.call = call;
+        }
+
+        void complete(String key, RestResponse response) {
+            int n;
+            synchronized (this) {
+                done = true;
+                n = followers;
+            }
+            inFlight.remove(key, this);
+            if (n > 0) {
+                future.complete(response.copy());
+            }
+        }
+
+        void fail(String key, Throwable e) {
+            synchronized (this) {
+                done = true;
+            }
+            inFlight.remove(key, this);
+            future.completeExceptionally(e);
+        }
+
+        /**
+         * Aborts the call if nobody is waiting for it any more.
+         */
+        void cancelled(String key) {
+            CompletableFuture<RestResponse> c;
+            synchronized (this) {
+                if (done || --waiting > 0) {
+                    return;
+                }
+                done = true;
+                c = call;
+            }
+            inFlight.remove(key, this);
+            if (c != null) {
+                c.cancel(true);
+            }
+        }
+    }
+
+    private static RuntimeException unwrap(CompletionException e) {
+        Throwable cause = e.getCause();
+        if (cause instanceof RuntimeException) {
+            return (RuntimeException) cause;
+        }
+        if (cause instanceof Error) {
+            throw (Error) cause;
+        }
+        return e;
+    }
+}
@@ -0,0 +1,187 @@
+/*  Copyright 2008 Fabrizio Cannizzo
+ *
+ *  This file is part of RestFixture.
+ *
+ *  RestFixture (http://code.google.com/p/rest-fixture/) is free software:
+ *  you can redistribute it and/or modify it under the terms of the
+ *  GNU Lesser General Public License as published by the Free Software Foundation,
+ *  either version 3 of the License, or (at your option) any later version.
+ *
+ *  RestFixture is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with RestFixture.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ *  If you want to contact the author please leave a comment here
+ *  http://smartrics.blogspot.com/2008/08/get-fitnesse-with-some-rest.html
+ */
+package smartrics.rest.client;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The durations of the phases of a call, in nanoseconds.
+ *
+ * Phases an engine can't observe are {@code -1}:
+ * <ul>
+ * <li>{@code POOL_WAIT}, {@code DNS}, {@code CONNECT}, {@code TLS} and
+ * {@code WRITE} are only measured by the HttpClient 3.1 transport on a
+ * {@link PooledHttpConnectionManager}; connection phases are only there for
+ * calls that opened a connection.</li>
+ * <li>{@code FIRST_BYTE} is the time from the end of the write to the
+ * response status line; where the write isn't observed, it's the time from
+ * the start of the call to the response headers.</li>
+ * <li>{@code BODY_READ} is the time to read the response body after its
+ * headers; not measured for streamed responses.</li>
+ * </ul>
+ *
+ * Transports record the phases they observe with {@link #add(Phase, long)}
+ * and {@link #headersReceived(long, long)}. A transport whose connections run
+ * on the calling thread can {@link #attach()} the timings for the duration of
+ * the call, and have its connection classes mark the write and the response
+ * on the {@link #current()} timings.
+ */
+public final class RequestTimings {
+
+    public enum Phase {
+        POOL_WAIT, DNS, CONNECT, TLS, WRITE, FIRST_BYTE, BODY_READ
+    }
+
+    private static final ThreadLocal<RequestTimings> CURRENT = new ThreadLocal<RequestTimings>();
+
+    /**
+     * Set when timings are first recorded, so that the connection classes
+     * don't look up the thread local until then.
+     */
+    private static volatile boolean active;
+
+    private final long[] phases = new long[Phase.values().length];
+    private final long start;
+    private long total = -1;
+    private long writeStart;
+    private long flushed;
+
+    /**
+     * Starts the timings of a call: the total runs from now.
+     */
+    public RequestTimings() {
+        Arrays.fill(phases, -1);
+        this.start = System.nanoTime();
+        active = true;
+    }
+
+    /**
+     * @param phase the phase
+     * @return its duration in nanoseconds, or -1 if not measured
+     */
+    public long get(Phase phase) {
+        return phases[phase.ordinal()];
+    }
+
+    /**
+     * @return the duration of the whole call in nanoseconds
+     */
+    public long getTotal() {
+        return total;
+    }
+
+    /**
+     * Adds a duration to a phase; a phase observed more than once, as the
+     * connection phases of followed redirects, sums its durations.
+     *
+     * @param phase the phase
+     * @param nanos the duration in nanoseconds
+     */
+    public void add(Phase phase, long nanos) {
+        int i = phase.ordinal();
+        phases[i] = phases[i] < 0 ? nanos : phases[i] + nanos;
+    }
+
+    void end() {
+        total = System.nanoTime() - start;
+    }
+
+    /**
+     * Marks the start of a request write on the connection.
+     */
+    public void writing() {
+        if (writeStart == 0) {
+            writeStart = System.nanoTime();
+        }
+    }
+
+    /**
+     * Marks a flush of the request on the connection.
+     */
+    public void flushed() {
+        long now = System.nanoTime();
+        if (writeStart != 0) {
+            add(Phase.WRITE, now - writeStart);
+            writeStart = 0;
+        }
+        flushed = now;
+    }
+
+    /**
+     * Marks a response line read from the connection.
+     */
+    public void lineRead() {
+        if (flushed != 0) {
+            add(Phase.FIRST_BYTE, System.nanoTime() - flushed);
+            flushed = 0;
+        }
+    }
+
+    /**
+     * Records the time to the response headers if the connection didn't.
+     *
+     * @param sent     the {@code System.nanoTime()} the request was sent at
+     * @param received the {@code System.nanoTime()} the headers arrived at
+     */
+    public void headersReceived(long sent, long received) {
+        if (get(Phase.FIRST_BYTE) < 0) {
+            add(Phase.FIRST_BYTE, received - sent);
+        }
+    }
+
+    /**
+     * Makes these timings visible to the connection classes of the current
+     * thread, until {@link #detach()}.
+     */
+    public void attach() {
+        CURRENT.set(this);
+    }
+
+    /**
+     * Clears the timings of the current thread.
+     */
+    public static void detach() {
+        CURRENT.remove();
+    }
+
+    /**
+     * @return the timings of the call in progress on the current thread, if any
+     */
+    public static RequestTimings current() {
+        return active ? CURRENT.get() : null;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder b = new StringBuilder("total=").append(millis(total));
+        for (Phase p : Phase.values()) {
+            if (phases[p.ordinal()] >= 0) {
+                b.append(' ').append(p.name().toLowerCase()).append('=').append(millis(phases[p.ordinal()]));
+            }
+        }
+        return b.toString();
+    }
+
+    private static String millis(long nanos) {
+        return String.format("%.3fms", nanos / (double) TimeUnit.MILLISECONDS.toNanos(1));
+    }
+}
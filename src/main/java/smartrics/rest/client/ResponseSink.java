@@ -0,0 +1,104 @@
+/*  Copyright 2008 Fabrizio Cannizzo
+ *
+ *  This file is part of RestFixture.
+ *
+ *  RestFixture (http://code.google.com/p/rest-fixture/) is free software:
+ *  you can redistribute it and/or modify it under the terms of the
+ *  GNU Lesser General Public License as published by the Free Software Foundation,
+ *  either version 3 of the License, or (at your option) any later version.
+ *
+ *  RestFixture is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with RestFixture.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ *  If you want to contact the author please leave a comment here
+ *  http://smartrics.blogspot.com/2008/08/get-fitnesse-with-some-rest.html
+ */
+package smartrics.rest.client;
+
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * The destination of the body of a response, written as it's read from the
+ * connection.
+ *
+ * See {@link RestClient#execute(RestRequest, WritableByteChannel)}
+ */
+abstract class ResponseSink {
+
+    static ResponseSink of(final WritableByteChannel channel) {
+        if (channel == null)
+            throw new IllegalArgumentException("Null WritableByteChannel");
+        return new ResponseSink() {
+            void write(RestResponse response) throws IOException {
+                response.transferBodyTo(channel);
+            }
+        };
+    }
+
+    static ResponseSink of(final OutputStream out) {
+        if (out == null)
+            throw new IllegalArgumentException("Null OutputStream");
+        return new ResponseSink() {
+            void write(RestResponse response) throws IOException {
+                if (out instanceof FileOutputStream) {
+                    response.transferBodyTo(((FileOutputStream) out).getChannel());
+                } else {
+                    response.transferBodyTo(Channels.newChannel(out));
+                    out.flush();
+                }
+            }
+        };
+    }
+
+    static ResponseSink of(final Path path) {
+        if (path == null)
+            throw new IllegalArgumentException("Null Path");
+        return new ResponseSink() {
+            void write(RestResponse response) throws IOException {
+                try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+                    response.transferBodyTo(channel);
+                }
+            }
+        };
+    }
+
+    abstract void write(RestResponse response) throws IOException;
+
+    /**
+     * Executes the request streaming the response, and writes the body of a
+     * successful response to this sink. The bodies of other responses are
+     * read in the response as usual.
+     *
+     * @param client  the client executing the request
+     * @param request the request, left unchanged
+     * @return the response, without its body if successful
+     */
+    RestResponse execute(RestClient client, RestRequest request) {
+        RestResponse response = client.execute(request.copy().setStreamingResponse(true));
+        Integer sc = response.getStatusCode();
+        if (sc == null || sc < 200 || sc >= 300) {
+            response.getRawBody();
+            return response;
+        }
+        try {
+            write(response);
+        } catch (IOException e) {
+            throw new IllegalStateException("Unable to transfer the response body", e);
+        } finally {
+            response.setRawBody(null);
+        }
+        return response;
+    }
+}
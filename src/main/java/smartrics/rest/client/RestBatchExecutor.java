@@ -0,0 +1,342 @@
+/*  Copyright 2008 Fabrizio Cannizzo
+ *
+ *  This file is part of RestFixture.
+ *
+ *  RestFixture (http://code.google.com/p/rest-fixture/) is free software:
+ *  you can redistribute it and/or modify it under the terms of the
+ *  GNU Lesser General Public License as published by the Free Software Foundation,
+ *  either version 3 of the License, or (at your option) any later version.
+ *
+ *  RestFixture is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with RestFixture.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ *  If you want to contact the author please leave a comment here
+ *  http://smartrics.blogspot.com/2008/08/get-fitnesse-with-some-rest.html
+ */
+package smartrics.rest.client;
+
+import java.net.URI;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+
+import org.apache.commons.httpclient.HttpConnectionManager;
+import org.apache.commons.httpclient.MultiThreadedHttpConnectionManager;
+import org.apache.commons.httpclient.params.HttpConnectionManagerParams;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Executes many requests on a {@code RestClient} with a bounded number of
+ * calls in flight, in total and per host.
+ *
+ * Requests over the limits wait, in submission order, for a call to
+ * complete. The failure of a call does not affect the others. An executor
+ * can be shared: the limits apply to all the requests submitted to it.
+ */
+public class RestBatchExecutor {
+
+    private static Logger LOG = LoggerFactory.getLogger(RestBatchExecutor.class);
+
+    /**
+     * Default maximum number of calls in flight.
+     */
+    public static final int DEFAULT_MAX_CONCURRENCY = 64;
+
+    /**
+     * Default maximum number of calls in flight per host.
+     */
+    public static final int DEFAULT_MAX_CONCURRENCY_PER_HOST = 16;
+
+    private final RestClient client;
+    private final int maxConcurrency;
+    private final int maxConcurrencyPerHost;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final ArrayDeque<Task> pending = new ArrayDeque<Task>();
+    private final Map<String, Integer> inFlightByHost = new HashMap<String, Integer>();
+    private final AtomicInteger dispatches = new AtomicInteger();
+    private int inFlight;
+
+    /**
+     * Creates an executor whose limits match the connection pool of the
+     * client, if it runs on a pooled HttpClient 3.1, or the default limits.
+     *
+     * @param client the client
+     */
+    public RestBatchExecutor(RestClient client) {
+        this(client, poolLimit(client, true), poolLimit(client, false));
+    }
+
+    /**
+     * @param client                the client
+     * @param maxConcurrency        the maximum number of calls in flight
+     * @param maxConcurrencyPerHost the maximum number of calls in flight to the same host
+     */
+    public RestBatchExecutor(RestClient client, int maxConcurrency, int maxConcurrencyPerHost) {
+        if (client == null)
+            throw new IllegalArgumentException("Null RestClient instance");
+        if (maxConcurrency < 1 || maxConcurrencyPerHost < 1)
+            throw new IllegalArgumentException("Concurrency limits must be positive");
+        this.client = client;
+        this.maxConcurrency = maxConcurrency;
+        this.maxConcurrencyPerHost = maxConcurrencyPerHost;
+    }
+
+    private static int poolLimit(RestClient client, boolean total) {
+        if (client instanceof RestClientImpl && ((RestClientImpl) client).getClient() != null) {
+            HttpConnectionManager manager = ((RestClientImpl) client).getClient().getHttpConnectionManager();
+            if (manager instanceof MultiThreadedHttpConnectionManager || manager instanceof PooledHttpConnectionManager) {
+                HttpConnectionManagerParams p = manager.getParams();
+                return total ? p.getMaxTotalConnections() : p.getDefaultMaxConnectionsPerHost();
+            }
+        }
+        return total ? DEFAULT_MAX_CONCURRENCY : DEFAULT_MAX_CONCURRENCY_PER_HOST;
+    }
+
+    /**
+     * @return the maximum number of calls in flight
+     */
+    public int getMaxConcurrency() {
+        return maxConcurrency;
+    }
+
+    /**
+     * @return the maximum number of calls in flight to the same host
+     */
+    public int getMaxConcurrencyPerHost() {
+        return maxConcurrencyPerHost;
+    }
+
+    /**
+     * Executes the requests against the base Url of the client.
+     *
+     * @param requests the requests
+     * @return the results, in the order of the requests
+     */
+    public List<RestBatchResult> executeAll(Collection<RestRequest> requests) {
+        return executeAll(client.getBaseUrl(), requests, null);
+    }
+
+    /**
+     * Executes the requests against the base Url.
+     *
+     * @param baseUrl  the base Url
+     * @param requests the requests
+     * @return the results, in the order of the requests
+     */
+    public List<RestBatchResult> executeAll(String baseUrl, Collection<RestRequest> requests) {
+        return executeAll(baseUrl, requests, null);
+    }
+
+    /**
+     * Executes the requests against the base Url, notifying each result as
+     * soon as its call completes.
+     *
+     * @param baseUrl    the base Url
+     * @param requests   the requests
+     * @param onComplete notified with each result, in completion order; may be null
+     * @return the results, in the order of the requests
+     */
+    public List<RestBatchResult> executeAll(String baseUrl, Collection<RestRequest> requests, final Consumer<RestBatchResult> onComplete) {
+        List<CompletableFuture<RestBatchResult>> futures = new ArrayList<CompletableFuture<RestBatchResult>>(requests.size());
+        int index = 0;
+        for (Iterator<RestRequest> it = requests.iterator(); it.hasNext(); index++) {
+            final int i = index;
+            final RestRequest request = it.next();
+            CompletableFuture<RestBatchResult> result = submit(baseUrl, request).handle((response, failure) -> {
+                RestBatchResult r = new RestBatchResult(i, request, response, unwrap(failure));
+                notify(onComplete, r);
+                return r;
+            });
+            futures.add(result);
+        }
+        List<RestBatchResult> results = new ArrayList<RestBatchResult>(futures.size());
+        for (CompletableFuture<RestBatchResult> f : futures) {
+            results.add(f.join());
+        }
+        return results;
+    }
+
+    private void notify(Consumer<RestBatchResult> onComplete, RestBatchResult r) {
+        if (onComplete == null) {
+            return;
+        }
+        try {
+            onComplete.accept(r);
+        } catch (RuntimeException e) {
+            LOG.warn("Batch result listener failed on " + r, e);
+        }
+    }
+
+    /**
+     * Submits a request, to be executed when the limits allow it.
+     *
+     * @param baseUrl the base Url
+     * @param request the request
+     * @return the future response; cancelling it removes a waiting request or aborts the call
+     */
+    public CompletableFuture<RestResponse> submit(String baseUrl, RestRequest request) {
+        Task task = new Task(baseUrl, request);
+        lock.lock();
+        try {
+            pending.add(task);
+        } finally {
+            lock.unlock();
+        }
+        dispatch();
+        return task.result;
+    }
+
+    /**
+     * @return the number of calls in flight
+     */
+    public int getInFlight() {
+        lock.lock();
+        try {
+            return inFlight;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return the number of requests waiting for the limits to allow their call
+     */
+    public int getPending() {
+        lock.lock();
+        try {
+            return pending.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Starts the pending requests the limits allow. Calls completing while
+     * the requests are started, possibly synchronously, only mark the queue
+     * to be drained again by the thread already dispatching, so dispatches
+     * don't nest.
+     */
+    private void dispatch() {
+        if (dispatches.getAndIncrement() != 0) {
+            return;
+        }
+        int missed = 1;
+        do {
+            for (Task t : takeReady()) {
+                start(t);
+            }
+            missed = dispatches.addAndGet(-missed);
+        } while (missed != 0);
+    }
+
+    private List<Task> takeReady() {
+        List<Task> ready = new ArrayList<Task>();
+        lock.lock();
+        try {
+            Iterator<Task> it = pending.iterator();
+            while (inFlight < maxConcurrency && it.hasNext()) {
+                Task t = it.next();
+                if (t.result.isDone()) {
+                    it.remove();
+                    continue;
+                }
+                Integer n = inFlightByHost.get(t.host);
+                int hostInFlight = n == null ? 0 : n.intValue();
+                if (hostInFlight < maxConcurrencyPerHost) {
+                    it.remove();
+                    inFlightByHost.put(t.host, hostInFlight + 1);
+                    inFlight++;
+                    ready.add(t);
+                }
+            }
+        } finally {
+            lock.unlock();
+        }
+        return ready;
+    }
+
+    private void start(final Task t) {
+        CompletableFuture<RestResponse> started;
+        try {
+            started = client.executeAsync(t.baseUrl, t.request);
+        } catch (RuntimeException e) {
+            started = new CompletableFuture<RestResponse>();
+            started.completeExceptionally(e);
+        }
+        final CompletableFuture<RestResponse> call = started;
+        t.result.whenComplete((r, f) -> {
+            if (t.result.isCancelled()) {
+                call.cancel(true);
+            }
+        });
+        call.whenComplete((response, failure) -> {
+            lock.lock();
+            try {
+                inFlight--;
+                int n = inFlightByHost.get(t.host) - 1;
+                if (n == 0) {
+                    inFlightByHost.remove(t.host);
+                } else {
+                    inFlightByHost.put(t.host, n);
+                }
+            } finally {
+                lock.unlock();
+            }
+            if (failure != null) {
+                t.result.completeExceptionally(unwrap(failure));
+            } else {
+                t.result.complete(response);
+            }
+            dispatch();
+        });
+    }
+
+    private static Throwable unwrap(Throwable failure) {
+        if (failure instanceof CompletionException && failure.getCause() != null) {
+            return failure.getCause();
+        }
+        return failure;
+    }
+
+    static String hostOf(String baseUrl) {
+        if (baseUrl == null) {
+            return "";
+        }
+        try {
+            String authority = URI.create(baseUrl).getAuthority();
+            return authority == null ? baseUrl : authority.toLowerCase(Locale.ENGLISH);
+        } catch (IllegalArgumentException e) {
+            return baseUrl;
+        }
+    }
+
+    private static class Task {
+        private final String baseUrl;
+        private final String host;
+        private final RestRequest request;
+        private final CompletableFuture<RestResponse> result = new CompletableFuture<RestResponse>();
+
+        Task(String baseUrl, RestRequest request) {
+            this.baseUrl = baseUrl;
+            this.host = hostOf(baseUrl);
+            this.request = request;
+        }
+    }
+}
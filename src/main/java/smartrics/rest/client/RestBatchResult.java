@@ -0,0 +1,80 @@
+/*  Copyright 2008 Fabrizio Cannizzo
+ *
+ *  This file is part of RestFixture.
+ *
+ *  RestFixture (http://code.google.com/p/rest-fixture/) is free software:
+ *  you can redistribute it and/or modify it under the terms of the
+ *  GNU Lesser General Public License as published by the Free Software Foundation,
+ *  either version 3 of the License, or (at your option) any later version.
+ *
+ *  RestFixture is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with RestFixture.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ *  If you want to contact the author please leave a comment here
+ *  http://smartrics.blogspot.com/2008/08/get-fitnesse-with-some-rest.html
+ */
+package smartrics.rest.client;
+
+/**
+ * The outcome of a request executed by a {@code RestBatchExecutor}: either
+ * a response or the failure of the call.
+ */
+public class RestBatchResult {
+    private final int index;
+    private final RestRequest request;
+    private final RestResponse response;
+    private final Throwable failure;
+
+    public RestBatchResult(int index, RestRequest request, RestResponse response, Throwable failure) {
+        this.index = index;
+        this.request = request;
+        this.response = response;
+        this.failure = failure;
+    }
+
+    /**
+     * @return the position of the request in the batch
+     */
+    public int getIndex() {
+        return index;
+    }
+
+    /**
+     * @return the request
+     */
+    public RestRequest getRequest() {
+        return request;
+    }
+
+    /**
+     * @return the response, or null if the call failed
+     */
+    public RestResponse getResponse() {
+        return response;
+    }
+
+    /**
+     * @return the failure, or null if the call succeeded
+     */
+    public Throwable getFailure() {
+        return failure;
+    }
+
+    /**
+     * @return whether the call returned a response
+     */
+    public boolean isSuccess() {
+        return failure == null;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("[%d] %s -> %s", index, request == null ? null : request.getMethod() + " " + request.getResource(),
+                isSuccess() ? (response == null ? null : response.getStatusCode()) : failure);
+    }
+}
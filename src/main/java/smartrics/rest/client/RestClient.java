@@ -20,6 +20,11 @@
  */
 package smartrics.rest.client;
 
+import java.io.OutputStream;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Path;
+import java.util.concurrent.CompletableFuture;
+
 /**
  * A Rest Client offers a simplified interface to an underlying implementation of an Http client.
  *
@@ -75,4 +80,88 @@ public interface RestClient {
 	 */
 	RestResponse execute(String baseUrl, RestRequest request);
 
+	/**
+	 * Executes a rest request asynchronously, using the base Url set on this client.
+	 *
+	 * The returned future completes with the response, or exceptionally with the
+	 * same exception {@link #execute(RestRequest)} would throw.
+	 *
+	 * By default the request runs with {@link #execute(RestRequest)} on the common
+	 * fork join pool, and cancelling the future doesn't abort the call;
+	 * {@link RestClientImpl} aborts the underlying Http call instead.
+	 *
+	 * @param request
+	 *            the request to be executed
+	 * @return the future response of the rest request
+	 */
+	default CompletableFuture<RestResponse> executeAsync(RestRequest request) {
+		return CompletableFuture.supplyAsync(() -> execute(request));
+	}
+
+	/**
+	 * Executes a rest request asynchronously.
+	 *
+	 * This method offers the possibility to override the base Url set on this client.
+	 *
+	 * @param baseUrl
+	 *            the base Url
+	 * @param request
+	 *            the request to be executed
+	 * @return the future response of the rest request.
+	 * See {@link smartrics.rest.client.RestClient#executeAsync(RestRequest)}
+	 */
+	default CompletableFuture<RestResponse> executeAsync(String baseUrl, RestRequest request) {
+		return CompletableFuture.supplyAsync(() -> execute(baseUrl, request));
+	}
+
+	/**
+	 * Executes a rest request, writing the body of a successful (2xx) response
+	 * to the channel as it's read from the connection, through a fixed size
+	 * buffer.
+	 *
+	 * The returned response carries the status and headers only. The body of
+	 * any other response is read in the response as usual and the channel
+	 * is left untouched. The request isn't modified.
+	 *
+	 * @param request
+	 *            the request to be executed
+	 * @param sink
+	 *            the channel receiving the response body, not closed
+	 * @return the response of the rest request
+	 */
+	default RestResponse execute(RestRequest request, WritableByteChannel sink) {
+		return ResponseSink.of(sink).execute(this, request);
+	}
+
+	/**
+	 * Executes a rest request, writing the body of a successful (2xx) response
+	 * to the stream.
+	 *
+	 * @param request
+	 *            the request to be executed
+	 * @param sink
+	 *            the stream receiving the response body, flushed but not closed
+	 * @return the response of the rest request
+	 * See {@link #execute(RestRequest, WritableByteChannel)}
+	 */
+	default RestResponse execute(RestRequest request, OutputStream sink) {
+		return ResponseSink.of(sink).execute(this, request);
+	}
+
+	/**
+	 * Executes a rest request, writing the body of a successful (2xx) response
+	 * to the file. The file is created or truncated only if the response is
+	 * successful; a transfer failing half way leaves it incomplete.
+	 *
+	 * @param request
+	 *            the request to be executed
+	 * @param sink
+	 *            the file receiving the response body
+	 * @return the response of the rest request
+	 * See {@link #execute(RestRequest, WritableByteChannel)}
+	 */
+	default RestResponse execute(RestRequest request, Path sink) {
+		return ResponseSink.of(sink).execute(this, request);
+	}
+
 }
\ No newline at end of file
@@ -0,0 +1,223 @@
+/*  Copyright 2008 Fabrizio Cannizzo
+ *
+ *  This file is part of RestFixture.
+ *
+ *  RestFixture (http://code.google.com/p/rest-fixture/) is free software:
+ *  you can redistribute it and/or modify it under the terms of the
+ *  GNU Lesser General Public License as published by the Free Software Foundation,
+ *  either version 3 of the License, or (at your option) any later version.
+ *
+ *  RestFixture is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with RestFixture.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ *  If you want to contact the author please leave a comment here
+ *  http://smartrics.blogspot.com/2008/08/get-fitnesse-with-some-rest.html
+ */
+package smartrics.rest.client;
+
+import java.util.concurrent.Executor;
+
+import org.apache.commons.httpclient.HttpClient;
+import org.apache.commons.httpclient.params.HttpConnectionManagerParams;
+
+/**
+ * Builds a {@link RestClientImpl} running on a managed pool of connections.
+ *
+ * <pre>
+ * RestClientImpl client = new RestClientBuilder()
+ *         .setMaxTotalConnections(200)
+ *         .setMaxConnectionsPerRoute(50)
+ *         .setIdleConnectionTimeout(30000)
+ *         .setValidateAfterInactivity(2000)
+ *         .build();
+ * PoolStats stats = client.getPoolStats();
+ * </pre>
+ *
+ * A route is a target host, identified by scheme, host and port.
+ *
+ * See {@link smartrics.rest.client.PooledHttpConnectionManager}
+ */
+public class RestClientBuilder {
+
+    public static final int DEFAULT_MAX_TOTAL_CONNECTIONS = 100;
+
+    public static final int DEFAULT_MAX_CONNECTIONS_PER_ROUTE = 20;
+
+    private int maxTotalConnections = DEFAULT_MAX_TOTAL_CONNECTIONS;
+    private int maxConnectionsPerRoute = DEFAULT_MAX_CONNECTIONS_PER_ROUTE;
+    private long idleConnectionTimeout = -1;
+    private long validateAfterInactivity = -1;
+    private long connectionTimeToLive = -1;
+    private int connectTimeout;
+    private int socketTimeout;
+    private long connectionRequestTimeout;
+    private Executor asyncExecutor;
+    private boolean virtualThreads;
+    private String baseUrl;
+    private Compression compression;
+    private WireTap wireTap;
+
+    /**
+     * @param max the maximum number of connections in the pool
+     * @return this builder
+     */
+    public RestClientBuilder setMaxTotalConnections(int max) {
+        if (max < 1)
+            throw new IllegalArgumentException("Max total connections must be positive");
+        this.maxTotalConnections = max;
+        return this;
+    }
+
+    /**
+     * @param max the maximum number of connections to the same host
+     * @return this builder
+     */
+    public RestClientBuilder setMaxConnectionsPerRoute(int max) {
+        if (max < 1)
+            throw new IllegalArgumentException("Max connections per route must be positive");
+        this.maxConnectionsPerRoute = max;
+        return this;
+    }
+
+    /**
+     * @param millis the time after which idle connections are closed in the
+     *               background; non positive to keep them open
+     * @return this builder
+     */
+    public RestClientBuilder setIdleConnectionTimeout(long millis) {
+        this.idleConnectionTimeout = millis;
+        return this;
+    }
+
+    /**
+     * @param millis the inactivity after which a pooled connection is
+     *               checked for staleness before reuse; negative to check
+     *               before every request
+     * @return this builder
+     */
+    public RestClientBuilder setValidateAfterInactivity(long millis) {
+        this.validateAfterInactivity = millis;
+        return this;
+    }
+
+    /**
+     * @param millis the maximum age of a connection; non positive for no limit
+     * @return this builder
+     */
+    public RestClientBuilder setConnectionTimeToLive(long millis) {
+        this.connectionTimeToLive = millis;
+        return this;
+    }
+
+    /**
+     * @param millis the timeout to establish a connection; 0 for no timeout
+     * @return this builder
+     */
+    public RestClientBuilder setConnectTimeout(int millis) {
+        this.connectTimeout = millis;
+        return this;
+    }
+
+    /**
+     * @param millis the timeout waiting for data; 0 for no timeout
+     * @return this builder
+     */
+    public RestClientBuilder setSocketTimeout(int millis) {
+        this.socketTimeout = millis;
+        return this;
+    }
+
+    /**
+     * @param millis the timeout waiting for a connection from the pool; 0
+     *               for no timeout
+     * @return this builder
+     */
+    public RestClientBuilder setConnectionRequestTimeout(long millis) {
+        this.connectionRequestTimeout = millis;
+        return this;
+    }
+
+    /**
+     * @param executor the executor running the asynchronous calls
+     * @return this builder
+     */
+    public RestClientBuilder setAsyncExecutor(Executor executor) {
+        this.asyncExecutor = executor;
+        return this;
+    }
+
+    /**
+     * Runs the asynchronous calls on virtual threads, one per call, unless an
+     * executor is set. Virtual threads need JDK 21 or later; earlier JDKs use
+     * a pool of platform threads.
+     *
+     * @param enabled whether to run the asynchronous calls on virtual threads
+     * @return this builder
+     * @see smartrics.rest.client.VirtualThreads
+     */
+    public RestClientBuilder setVirtualThreads(boolean enabled) {
+        this.virtualThreads = enabled;
+        return this;
+    }
+
+    /**
+     * @param compression the compression settings, or null for no compression
+     * @return this builder
+     */
+    public RestClientBuilder setCompression(Compression compression) {
+        this.compression = compression;
+        return this;
+    }
+
+    /**
+     * @param tap the wire tap logging a sample of the calls, or null for none
+     * @return this builder
+     */
+    public RestClientBuilder setWireTap(WireTap tap) {
+        this.wireTap = tap;
+        return this;
+    }
+
+    /**
+     * @param baseUrl the base url of the client
+     * @return this builder
+     */
+    public RestClientBuilder setBaseUrl(String baseUrl) {
+        this.baseUrl = baseUrl;
+        return this;
+    }
+
+    /**
+     * @return a new connection manager configured as per this builder
+     */
+    public PooledHttpConnectionManager buildConnectionManager() {
+        PooledHttpConnectionManager manager = new PooledHttpConnectionManager();
+        HttpConnectionManagerParams params = manager.getParams();
+        params.setMaxTotalConnections(maxTotalConnections);
+        params.setDefaultMaxConnectionsPerHost(maxConnectionsPerRoute);
+        params.setConnectionTimeout(connectTimeout);
+        params.setSoTimeout(socketTimeout);
+        manager.setValidateAfterInactivity(validateAfterInactivity);
+        manager.setTimeToLive(connectionTimeToLive);
+        manager.setIdleConnectionTimeout(idleConnectionTimeout);
+        return manager;
+    }
+
+    /**
+     * @return a new client configured as per this builder
+     */
+    public RestClientImpl build() {
+        HttpClient client = new HttpClient(buildConnectionManager());
+        client.getParams().setConnectionManagerTimeout(connectionRequestTimeout);
+        Executor executor = asyncExecutor == null && virtualThreads ? VirtualThreads.newExecutor("RestClient-async") : asyncExecutor;
+        RestClientImpl restClient = executor == null ? new RestClientImpl(client) : new RestClientImpl(client, executor);
+        restClient.setBaseUrl(baseUrl);
+        ((HttpClient3Transport) restClient.getTransport()).setCompression(compression).setWireTap(wireTap);
+        return restClient;
+    }
+}
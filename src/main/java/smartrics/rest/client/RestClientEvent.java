@@ -0,0 +1,82 @@
+/*  Copyright 2008 Fabrizio Cannizzo
+ *
+ *  This file is part of RestFixture.
+ *
+ *  RestFixture (http://code.google.com/p/rest-fixture/) is free software:
+ *  you can redistribute it and/or modify it under the terms of the
+ *  GNU Lesser General Public License as published by the Free Software Foundation,
+ *  either version 3 of the License, or (at your option) any later version.
+ *
+ *  RestFixture is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with RestFixture.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ *  If you want to contact the author please leave a comment here
+ *  http://smartrics.blogspot.com/2008/08/get-fitnesse-with-some-rest.html
+ */
+package smartrics.rest.client;
+
+/**
+ * A call completed by a {@link RestClientImpl}; see
+ * {@link RestClientListener}.
+ */
+public final class RestClientEvent {
+
+    private final String hostAddr;
+    private final RestRequest request;
+    private final RestResponse response;
+    private final Throwable failure;
+    private final RequestTimings timings;
+
+    RestClientEvent(String hostAddr, RestRequest request, RestResponse response, Throwable failure, RequestTimings timings) {
+        this.hostAddr = hostAddr;
+        this.request = request;
+        this.response = response;
+        this.failure = failure;
+        this.timings = timings;
+    }
+
+    public Long getTransactionId() {
+        return request.getTransactionId();
+    }
+
+    public String getHostAddr() {
+        return hostAddr;
+    }
+
+    public RestRequest.Method getMethod() {
+        return request.getMethod();
+    }
+
+    public String getResource() {
+        return request.getResource();
+    }
+
+    /**
+     * @return the response status, or null if the call failed
+     */
+    public Integer getStatusCode() {
+        return response == null ? null : response.getStatusCode();
+    }
+
+    /**
+     * @return the failure of the call, or null if it got a response
+     */
+    public Throwable getFailure() {
+        return failure;
+    }
+
+    public RequestTimings getTimings() {
+        return timings;
+    }
+
+    @Override
+    public String toString() {
+        return "[" + getTransactionId() + "] " + getMethod() + " " + hostAddr + getResource() + " -> "
+                + (failure == null ? String.valueOf(getStatusCode()) : failure.toString()) + " " + timings;
+    }
+}
@@ -20,10 +20,12 @@
  */
 package smartrics.rest.client;
 
-import java.io.UnsupportedEncodingException;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
+import java.util.Locale;
 import java.util.Map;
 
 /**
@@ -75,34 +77,97 @@ public abstract class RestData {
 		}
 	}
 
+	private static final String NO_CHARSET = new String("none");
+
 	private final List<Header> headers = new ArrayList<Header>();
+	private final List<Header> headersView = Collections.unmodifiableList(headers);
+	private String mediaType;
+	private String charset;
+	private String resolvedCharsetName;
+	private Charset resolvedCharset;
+	private String decodedBody;
+	private Charset decodedCharset;
 	private byte raw[];
 	private String resource;
 	private Long transactionId;
 
 	/**
+	 * The body is decoded with the charset of this request/response on first
+	 * access and cached until the body or the charset change.
+	 *
 	 * @return the body of this http request/response
 	 */
 	public String getBody() {
+		byte[] raw = getRawBody();
 		if(raw == null) {
 			return null;
 		}
-		try {
-			return new String(raw, getCharset());
-		} catch (UnsupportedEncodingException e) {
-			throw new IllegalStateException("Unsupported encoding: " + getCharset());
+		Charset cs = getResolvedCharset();
+		if (decodedBody == null || decodedCharset != cs) {
+			decodedBody = new String(raw, cs);
+			decodedCharset = cs;
 		}
+		return decodedBody;
+	}
+
+	/**
+	 * Returns the body as a sequence of characters, for callers that only
+	 * scan it. For single byte charsets the sequence is a view over the raw
+	 * body, decoding characters as they are read; otherwise it is the
+	 * decoded body.
+	 *
+	 * @return the body characters, or null if there is no body
+	 */
+	public CharSequence getBodyChars() {
+		byte[] raw = getRawBody();
+		if (raw == null) {
+			return null;
+		}
+		Charset cs = getResolvedCharset();
+		if (decodedBody != null && decodedCharset == cs) {
+			return decodedBody;
+		}
+		if (StandardCharsets.ISO_8859_1.equals(cs)) {
+			return new ByteCharSequence(raw, 0, raw.length, false);
+		}
+		if (StandardCharsets.US_ASCII.equals(cs)) {
+			return new ByteCharSequence(raw, 0, raw.length, true);
+		}
+		return getBody();
+	}
+
+	private Charset getResolvedCharset() {
+		String name = getCharset();
+		if (resolvedCharset == null || !name.equals(resolvedCharsetName)) {
+			try {
+				resolvedCharset = Charset.forName(name);
+			} catch (IllegalArgumentException e) {
+				throw new IllegalStateException("Unsupported encoding: " + name);
+			}
+			resolvedCharsetName = name;
+		}
+		return resolvedCharset;
 	}
 
 	public byte[] getRawBody() {
 		return raw;
 	}
-	
+
+	/**
+	 * Sets the body, encoded with the charset of this request/response.
+	 *
+	 * @param body
+	 *            the body
+	 * @return this RestData
+	 */
 	public RestData setBody(String body) {
 		if(body == null) {
 			setRawBody(null);
 		} else {
-			setRawBody(body.getBytes());
+			Charset cs = getResolvedCharset();
+			setRawBody(body.getBytes(cs));
+			decodedBody = body;
+			decodedCharset = cs;
 		}
 		return this;
 	}
@@ -114,6 +179,8 @@ public abstract class RestData {
 	 */
 	public RestData setRawBody(byte[] rawBody) {
 		this.raw = rawBody;
+		this.decodedBody = null;
+		this.decodedCharset = null;
 		return this;
 	}
 
@@ -157,28 +224,36 @@ public abstract class RestData {
 	}
 
 	/**
-	 * @return the list of headers for this request/response
+	 * @return the list of headers for this request/response, in insertion order
 	 */
 	public List<Header> getHeaders() {
-		return Collections.unmodifiableList(headers);
+		return headersView;
 	}
 
 	/**
 	 *
 	 * @param name
-	 *            the header name
-	 * @return the sub-list of headers with the same name
+	 *            the header name, case insensitive
+	 * @return a new list of the headers with the same name, in insertion order
 	 */
 	public List<Header> getHeader(String name) {
-		List<Header> headersWithTheSameName = new ArrayList<Header>();
+		List<Header> headersWithTheSameName = new ArrayList<Header>(2);
 		for (Header h : headers) {
-			if (h.getName().equalsIgnoreCase(name)) {
+			if (isNamed(h, name)) {
 				headersWithTheSameName.add(h);
 			}
 		}
 		return headersWithTheSameName;
 	}
 
+	/**
+	 * Headers are few: a scan of the list beats an index built for every
+	 * request and response. Names are interned, so most match by identity.
+	 */
+	private static boolean isNamed(Header h, String name) {
+		return h.getName() == name || h.getName().equalsIgnoreCase(name);
+	}
+
 	/**
 	 * Adds an HTTP header to the current list.
 	 *
@@ -189,7 +264,14 @@ public abstract class RestData {
 	 * @return this RestData
 	 */
 	public RestData addHeader(String name, String value) {
-		this.headers.add(new Header(name, value));
+		if (name == null || value == null)
+			throw new IllegalArgumentException("Name or Value is null");
+		Header h = new Header(HeaderNames.intern(name), value);
+		this.headers.add(h);
+		if (isNamed(h, "Content-Type")) {
+			mediaType = null;
+			charset = null;
+		}
 		return this;
 	}
 
@@ -221,6 +303,24 @@ public abstract class RestData {
 		return this;
 	}
 
+	/**
+	 * Copies headers, body, resource and transaction id of this
+	 * {@code RestData} into the target. The body bytes are copied, so that
+	 * the two instances can be changed independently.
+	 *
+	 * @param target
+	 *            the instance to copy to
+	 */
+	protected void copyTo(RestData target) {
+		target.addHeaders(headers);
+		byte[] rawBody = getRawBody();
+		target.setRawBody(rawBody == null ? null : rawBody.clone());
+		target.decodedBody = decodedBody;
+		target.decodedCharset = decodedCharset;
+		target.resource = resource;
+		target.transactionId = transactionId;
+	}
+
 	/**
 	 * A visually easy to read representation of this {@code RestData}.
 	 * 
@@ -232,42 +332,87 @@ public abstract class RestData {
 		for (Header h : getHeaders()) {
 			builder.append(h).append(LINE_SEPARATOR);
 		}
+		appendBody(builder);
+		return builder.toString();
+	}
+
+	/**
+	 * Appends the body to the string representation of this {@code RestData}.
+	 *
+	 * @param builder
+	 *            the builder of the string representation
+	 */
+	protected void appendBody(StringBuilder builder) {
 		if (raw != null) {
 			builder.append(LINE_SEPARATOR);
 			builder.append(this.getBody());
 		} else {
 			builder.append("[empty/null body]");
 		}
-		return builder.toString();
 	}
 	
 	public String getContentType() {
 		return getHeaderValue("Content-Type");
 	}
 	
+	/**
+	 * @return the media type in the {@code Content-Type} header, lower case
+	 *         and without parameters, or null if the header is not set
+	 */
+	public String getMediaType() {
+		if (mediaType == null) {
+			String v = getContentType();
+			if (v == null) {
+				return null;
+			}
+			int pos = v.indexOf(';');
+			mediaType = (pos < 0 ? v : v.substring(0, pos)).trim().toLowerCase(Locale.ENGLISH);
+		}
+		return mediaType;
+	}
+
+	/**
+	 * @return the charset in the {@code Content-Type} header, or
+	 *         {@link #DEFAULT_ENCODING} if not specified
+	 */
 	public String getCharset() {
-		String v = getHeaderValue("Content-Type");
-		if(v == null || !v.contains("charset")) {
-			return DEFAULT_ENCODING;
+		String c = charset;
+		if (c == null) {
+			c = parseCharset(getContentType());
+			charset = c;
+		}
+		return c == NO_CHARSET ? DEFAULT_ENCODING : c;
+	}
+
+	private static String parseCharset(String contentType) {
+		if (contentType == null) {
+			return NO_CHARSET;
+		}
+		int pos = contentType.toLowerCase(Locale.ENGLISH).indexOf("charset");
+		if (pos < 0) {
+			return NO_CHARSET;
 		}
-		int pos = v.indexOf("charset");
-		pos = v.indexOf("=", pos);
-		try {
-			String substring = v.substring(pos + 1);
-			return substring.trim();
-		} catch(RuntimeException e) {
-			return DEFAULT_ENCODING;
+		pos = contentType.indexOf('=', pos);
+		if (pos < 0) {
+			return NO_CHARSET;
 		}
+		int end = contentType.indexOf(';', pos);
+		String value = (end < 0 ? contentType.substring(pos + 1) : contentType.substring(pos + 1, end)).trim();
+		if (value.length() > 1 && value.charAt(0) == '"' && value.charAt(value.length() - 1) == '"') {
+			value = value.substring(1, value.length() - 1);
+		}
+		return value.length() == 0 ? NO_CHARSET : value;
 	}
-	
+
 	public String getContentLength() {
 		return getHeaderValue("Content-Length");
 	}
 	
 	public String getHeaderValue(String name) {
-		List<Header> headers = getHeader(name);
-		if(headers.size() > 0) {
-			return headers.get(0).getValue();
+		for (Header h : headers) {
+			if (isNamed(h, name)) {
+				return h.getValue();
+			}
 		}
 		return null;
 	}
@@ -0,0 +1,219 @@
+/*  Copyright 2008 Fabrizio Cannizzo
+ *
+ *  This file is part of RestFixture.
+ *
+ *  RestFixture (http://code.google.com/p/rest-fixture/) is free software:
+ *  you can redistribute it and/or modify it under the terms of the
+ *  GNU Lesser General Public License as published by the Free Software Foundation,
+ *  either version 3 of the License, or (at your option) any later version.
+ *
+ *  RestFixture is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with RestFixture.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ *  If you want to contact the author please leave a comment here
+ *  http://smartrics.blogspot.com/2008/08/get-fitnesse-with-some-rest.html
+ */
+package smartrics.rest.client;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Executes requests concurrently with {@code RestClient.executeAsync}. A
+ * {@link RestClientImpl} built with
+ * {@link RestClientBuilder#setVirtualThreads(boolean)} runs each call on its
+ * own virtual thread (see {@link VirtualThreads}).
+ *
+ * The calls share a deadline. The first call to fail, or the deadline
+ * passing, cancels the other calls, and the calls not sent yet aren't;
+ * {@link RestClientImpl} aborts their Http calls, which unblocks their
+ * socket I/O on any thread.
+ * {@link #executeAll(Collection, long, TimeUnit)} returns by the deadline and
+ * doesn't wait for the cancelled calls to wind down: responses they still
+ * produce are closed.
+ *
+ * <pre>
+ * List&lt;RestResponse&gt; responses = new RestFanOut(client).executeAll(requests, 2, TimeUnit.SECONDS);
+ * </pre>
+ */
+public class RestFanOut {
+
+    private final RestClient client;
+
+    /**
+     * @param client the client
+     */
+    public RestFanOut(RestClient client) {
+        if (client == null)
+            throw new IllegalArgumentException("Null RestClient instance");
+        this.client = client;
+    }
+
+    /**
+     * Executes the requests against the base Url of the client.
+     *
+     * @param requests the requests
+     * @param timeout  the time to wait for all the calls
+     * @param unit     the unit of the timeout
+     * @return the responses, in the order of the requests
+     * @throws RestFanOutException if a call fails or the deadline passes
+     */
+    public List<RestResponse> executeAll(Collection<RestRequest> requests, long timeout, TimeUnit unit) {
+        return executeAll(client.getBaseUrl(), requests, timeout, unit);
+    }
+
+    /**
+     * Executes the requests against the base Url.
+     *
+     * @param baseUrl  the base Url
+     * @param requests the requests
+     * @param timeout  the time to wait for all the calls
+     * @param unit     the unit of the timeout
+     * @return the responses, in the order of the requests
+     * @throws RestFanOutException if a call fails or the deadline passes
+     */
+    public List<RestResponse> executeAll(String baseUrl, Collection<RestRequest> requests, long timeout, TimeUnit unit) {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        Scope scope = new Scope(new ArrayList<RestRequest>(requests));
+        try {
+            for (int i = 0; i < scope.requests.size() && !scope.isOver(deadline); i++) {
+                scope.start(i, baseUrl);
+            }
+            scope.await(deadline);
+        } finally {
+            scope.cancel();
+        }
+        return scope.result(unit.toMillis(timeout));
+    }
+
+    private class Scope {
+        private final List<RestRequest> requests;
+        private final RestResponse[] responses;
+        private final List<CompletableFuture<RestResponse>> calls;
+        private final ReentrantLock lock = new ReentrantLock();
+        private final Condition done = lock.newCondition();
+        private int remaining;
+        private boolean cancelled;
+        private int failed = -1;
+        private Throwable failure;
+
+        Scope(List<RestRequest> requests) {
+            this.requests = requests;
+            this.responses = new RestResponse[requests.size()];
+            this.calls = new ArrayList<CompletableFuture<RestResponse>>(requests.size());
+            this.remaining = requests.size();
+        }
+
+        void start(final int index, String baseUrl) {
+            CompletableFuture<RestResponse> call;
+            try {
+                call = client.executeAsync(baseUrl, requests.get(index));
+            } catch (RuntimeException e) {
+                call = new CompletableFuture<RestResponse>();
+                call.completeExceptionally(e);
+            }
+            calls.add(call);
+            call.whenComplete((response, t) -> completed(index, response, t));
+        }
+
+        /**
+         * @return whether a call failed or the deadline passed
+         */
+        boolean isOver(long deadline) {
+            lock.lock();
+            try {
+                return failure != null || deadline - System.nanoTime() <= 0;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        private void completed(int index, RestResponse response, Throwable t) {
+            if (t instanceof CompletionException && t.getCause() != null) {
+                t = t.getCause();
+            }
+            lock.lock();
+            try {
+                remaining--;
+                if (cancelled) {
+                    if (response != null) {
+                        response.close();
+                    }
+                } else if (t == null) {
+                    responses[index] = response;
+                } else if (failure == null) {
+                    failure = t;
+                    failed = index;
+                }
+                done.signalAll();
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        void await(long deadline) {
+            lock.lock();
+            try {
+                while (remaining > 0 && failure == null) {
+                    long nanos = deadline - System.nanoTime();
+                    if (nanos <= 0) {
+                        return;
+                    }
+                    done.awaitNanos(nanos);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("Interrupted while waiting for the calls", e);
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        void cancel() {
+            lock.lock();
+            try {
+                cancelled = remaining > 0;
+            } finally {
+                lock.unlock();
+            }
+            if (cancelled) {
+                for (CompletableFuture<RestResponse> call : calls) {
+                    call.cancel(true);
+                }
+            }
+        }
+
+        List<RestResponse> result(long timeoutMillis) {
+            lock.lock();
+            try {
+                if (failure == null && !cancelled) {
+                    return Arrays.asList(responses);
+                }
+                for (RestResponse r : responses) {
+                    if (r != null) {
+                        r.close();
+                    }
+                }
+                if (failure != null) {
+                    throw new RestFanOutException("Call " + failed + " of " + requests.size() + " failed: " + failure.getMessage(), requests.get(failed), failure);
+                }
+                throw new RestFanOutException("Deadline of " + timeoutMillis + "ms exceeded", null, new TimeoutException());
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+}
@@ -0,0 +1,51 @@
+/*  Copyright 2008 Fabrizio Cannizzo
+ *
+ *  This file is part of RestFixture.
+ *
+ *  RestFixture (http://code.google.com/p/rest-fixture/) is free software:
+ *  you can redistribute it and/or modify it under the terms of the
+ *  GNU Lesser General Public License as published by the Free Software Foundation,
+ *  either version 3 of the License, or (at your option) any later version.
+ *
+ *  RestFixture is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with RestFixture.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ *  If you want to contact the author please leave a comment here
+ *  http://smartrics.blogspot.com/2008/08/get-fitnesse-with-some-rest.html
+ */
+package smartrics.rest.client;
+
+/**
+ * Thrown by a {@link RestFanOut} when one of its calls fails, or when its
+ * deadline passes, once the other calls have been cancelled.
+ */
+public class RestFanOutException extends IllegalStateException {
+
+    private static final long serialVersionUID = 1L;
+
+    private final transient RestRequest request;
+
+    public RestFanOutException(String message, RestRequest request, Throwable cause) {
+        super(message, cause);
+        this.request = request;
+    }
+
+    /**
+     * @return the request whose call failed, or null if the deadline passed
+     */
+    public RestRequest getRequest() {
+        return request;
+    }
+
+    /**
+     * @return whether the deadline passed before all the calls completed
+     */
+    public boolean isDeadlineExceeded() {
+        return request == null;
+    }
+}
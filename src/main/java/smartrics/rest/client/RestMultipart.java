@@ -16,6 +16,8 @@ public class RestMultipart {
     private String value;
     private String contentType;
     private String charset;
+    private long offset;
+    private long length = -1;
 
     /**
      *
@@ -96,6 +98,41 @@ public class RestMultipart {
         return this;
     }
 
+    /**
+     * @return the position in the file of the first byte to upload. Defaults to 0.
+     */
+    public long getOffset() {
+        return offset;
+    }
+
+    /**
+     * @return the number of bytes of the file to upload, or -1 for all the
+     *         bytes from the offset to the end of the file. Defaults to -1.
+     */
+    public long getLength() {
+        return length;
+    }
+
+    /**
+     * Sets the range of the file uploaded by a {@code FILE} part.
+     *
+     * @param offset
+     *            the position in the file of the first byte to upload
+     * @param length
+     *            the number of bytes to upload, or -1 for all the bytes from
+     *            offset to the end of the file
+     * @return this restMultipart
+     */
+    public RestMultipart setRange(long offset, long length) {
+        if (offset < 0)
+            throw new IllegalArgumentException("Negative offset: " + offset);
+        if (length < -1)
+            throw new IllegalArgumentException("Invalid length: " + length);
+        this.offset = offset;
+        this.length = length;
+        return this;
+    }
+
     public RestMultipartType getType() {
         return type;
     }
@@ -112,6 +149,7 @@ public class RestMultipart {
         RestMultipart that = (RestMultipart) o;
 
         if (!value.equals(that.value)) return false;
+        if (offset != that.offset || length != that.length) return false;
         if (contentType != null ? !contentType.equals(that.contentType) : that.contentType != null) return false;
         return charset != null ? charset.equals(that.charset) : that.charset == null;
 
@@ -124,6 +162,8 @@ public class RestMultipart {
         int result = value.hashCode();
         result = 31 * result + (contentType != null ? contentType.hashCode() : 0);
         result = 31 * result + (charset != null ? charset.hashCode() : 0);
+        result = 31 * result + Long.hashCode(offset);
+        result = 31 * result + Long.hashCode(length);
         return result;
     }
 
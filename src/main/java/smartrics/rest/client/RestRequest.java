@@ -37,6 +37,8 @@ public class RestRequest extends RestData {
 
     private static final String FILE = "file";
     private String fileName;
+    private long fileOffset;
+    private long fileLength = -1;
     @Deprecated
     private String multipartFileName;
     @Deprecated
@@ -45,6 +47,8 @@ public class RestRequest extends RestData {
     private String query;
     private Method method;
     private boolean followRedirect = true;
+    private boolean streamingResponse = false;
+    private RestRequestBody bodySource;
     private boolean resourceUriEscaped = false;
 
     /**
@@ -93,6 +97,21 @@ public class RestRequest extends RestData {
         return fileName;
     }
 
+    /**
+     * @return the position in the upload file of the first byte to send. Defaults to 0.
+     */
+    public long getFileOffset() {
+        return fileOffset;
+    }
+
+    /**
+     * @return the number of bytes of the upload file to send, or -1 for all
+     *         the bytes from the offset to the end of the file. Defaults to -1.
+     */
+    public long getFileLength() {
+        return fileLength;
+    }
+
 //    /**
 //     * @return the multipart upload file name for this request
 //     */
@@ -213,6 +232,30 @@ public class RestRequest extends RestData {
     public boolean isFollowRedirect() {
     	return followRedirect;
     }
+
+    /**
+     * Sets whether the response body of this request is streamed.
+     *
+     * A streamed body is not read when the response is returned: it is
+     * available via {@link smartrics.rest.client.RestResponse#getBodyStream()}
+     * and the connection is released when the response or its body stream is
+     * closed.
+     *
+     * @param v
+     *            true to stream the response body
+     * @return this request
+     */
+    public RestRequest setStreamingResponse(boolean v) {
+        this.streamingResponse = v;
+        return this;
+    }
+
+    /**
+     * @return whether the response body of this request is streamed. Defaults to false.
+     */
+    public boolean isStreamingResponse() {
+        return streamingResponse;
+    }
     
     /**
      * Sets the upload file name for this request.
@@ -222,10 +265,62 @@ public class RestRequest extends RestData {
      * @return this request
      */
     public RestRequest setFileName(String fileName) {
+        return setFileName(fileName, 0, -1);
+    }
+
+    /**
+     * Sets the upload file name for this request, sending only a range of the
+     * file.
+     *
+     * @param fileName
+     *            the upload file name
+     * @param offset
+     *            the position in the file of the first byte to send
+     * @param length
+     *            the number of bytes to send, or -1 for all the bytes from
+     *            offset to the end of the file
+     * @return this request
+     */
+    public RestRequest setFileName(String fileName, long offset, long length) {
+        if (offset < 0)
+            throw new IllegalArgumentException("Negative offset: " + offset);
+        if (length < -1)
+            throw new IllegalArgumentException("Invalid length: " + length);
         this.fileName = fileName;
+        this.fileOffset = offset;
+        this.fileLength = length;
         return this;
     }
 
+    /**
+     * Sets the source of the body bytes for this request, taking precedence
+     * over the body set via {@link #setBody(String)} or {@link #setRawBody(byte[])}.
+     *
+     * @param source
+     *            the body source
+     * @return this request
+     * @see smartrics.rest.client.RestRequestBody
+     */
+    public RestRequest setBodySource(RestRequestBody source) {
+        this.bodySource = source;
+        return this;
+    }
+
+    /**
+     * @return the source of the body bytes set for this request, or null
+     */
+    public RestRequestBody getBodySource() {
+        return bodySource;
+    }
+
+    /**
+     * @return the source of the bytes to send as body of this request: the
+     *         body source if set, otherwise the raw body
+     */
+    public RestRequestBody getEffectiveBodySource() {
+        return bodySource != null ? bodySource : RestRequestBody.of(getRawBody());
+    }
+
     /**
      * Checks validity of this request.
      * 
@@ -238,6 +333,30 @@ public class RestRequest extends RestData {
         return getMethod() != null && getResource() != null;
     }
 
+    /**
+     * Creates a copy of this request. The body source, if any, is shared with
+     * the copy.
+     *
+     * @return the copy
+     */
+    public RestRequest copy() {
+        RestRequest copy = new RestRequest();
+        copyTo(copy);
+        copy.fileName = fileName;
+        copy.fileOffset = fileOffset;
+        copy.fileLength = fileLength;
+        copy.multipartFileName = multipartFileName;
+        copy.multipartFileParameterName = multipartFileParameterName;
+        copy.multipartFileByParamName.putAll(multipartFileByParamName);
+        copy.query = query;
+        copy.method = method;
+        copy.followRedirect = followRedirect;
+        copy.streamingResponse = streamingResponse;
+        copy.bodySource = bodySource;
+        copy.resourceUriEscaped = resourceUriEscaped;
+        return copy;
+    }
+
 	/**
 	 * @return whether resource uri is % escaped (true) or not (false). Defaults to false.
 	 */
@@ -255,6 +374,16 @@ public class RestRequest extends RestData {
 	}
 	
     
+    @Override
+    protected void appendBody(StringBuilder builder) {
+        if (bodySource != null) {
+            builder.append(LINE_SEPARATOR);
+            builder.append(bodySource);
+        } else {
+            super.appendBody(builder);
+        }
+    }
+
     /**
      * String representation of this request.
      * 
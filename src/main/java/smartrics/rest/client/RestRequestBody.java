@@ -0,0 +1,271 @@
+/*  Copyright 2008 Fabrizio Cannizzo
+ *
+ *  This file is part of RestFixture.
+ *
+ *  RestFixture (http://code.google.com/p/rest-fixture/) is free software:
+ *  you can redistribute it and/or modify it under the terms of the
+ *  GNU Lesser General Public License as published by the Free Software Foundation,
+ *  either version 3 of the License, or (at your option) any later version.
+ *
+ *  RestFixture is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with RestFixture.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ *  If you want to contact the author please leave a comment here
+ *  http://smartrics.blogspot.com/2008/08/get-fitnesse-with-some-rest.html
+ */
+package smartrics.rest.client;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.file.Path;
+
+/**
+ * The source of the bytes of a request body.
+ *
+ * Bodies are written to the connection as bytes, without any character
+ * decoding or encoding. A body of unknown length is sent with chunked
+ * transfer encoding.
+ */
+public abstract class RestRequestBody {
+
+    private static final int BUFFER_SIZE = 8192;
+
+    /**
+     * @param bytes the body bytes
+     * @return a body backed by the array, which is not copied
+     */
+    public static RestRequestBody of(byte[] bytes) {
+        return new ByteBufferBody(ByteBuffer.wrap(bytes == null ? new byte[0] : bytes));
+    }
+
+    /**
+     * @param buffer the body bytes, from position to limit
+     * @return a body backed by the buffer, which is not copied
+     */
+    public static RestRequestBody of(ByteBuffer buffer) {
+        if (buffer == null)
+            throw new IllegalArgumentException("Null ByteBuffer");
+        return new ByteBufferBody(buffer.slice());
+    }
+
+    /**
+     * @param stream the body stream
+     * @return a body of unknown length, sent with chunked transfer encoding. The body can only be sent once.
+     */
+    public static RestRequestBody of(InputStream stream) {
+        return of(stream, -1);
+    }
+
+    /**
+     * @param stream the body stream
+     * @param length the number of bytes in the stream, or -1 if unknown
+     * @return a body reading the stream. The body can only be sent once.
+     */
+    public static RestRequestBody of(InputStream stream, long length) {
+        if (stream == null)
+            throw new IllegalArgumentException("Null InputStream");
+        return new StreamBody(stream, length);
+    }
+
+    /**
+     * @param path the file with the body
+     * @return a body reading the file each time it is sent
+     */
+    public static RestRequestBody of(Path path) {
+        return new PathBody(FileRegion.of(path, 0, -1));
+    }
+
+    /**
+     * @param path   the file with the body
+     * @param offset the position in the file of the first byte of the body
+     * @param length the number of bytes of the body, or -1 for all the bytes
+     *               from offset to the end of the file
+     * @return a body reading the range of the file each time it is sent
+     */
+    public static RestRequestBody of(Path path, long offset, long length) {
+        return new PathBody(FileRegion.of(path, offset, length));
+    }
+
+    /**
+     * @return the length of the body in bytes, or -1 if unknown
+     */
+    public abstract long getContentLength();
+
+    /**
+     * @return whether the body can be sent more than once
+     */
+    public abstract boolean isRepeatable();
+
+    /**
+     * Writes the body bytes to the stream.
+     *
+     * @param out the stream
+     * @throws IOException if the body cannot be read or written
+     */
+    public abstract void writeTo(OutputStream out) throws IOException;
+
+    /**
+     * @return a stream with the body bytes
+     * @throws IOException if the body cannot be read
+     */
+    public abstract InputStream openStream() throws IOException;
+
+    /**
+     * @return a view of the body for in memory bodies, null otherwise. The
+     *         view shares the body bytes and must not be modified.
+     */
+    public ByteBuffer asByteBuffer() {
+        return null;
+    }
+
+    /**
+     * @return the file with the body for file bodies, null otherwise
+     */
+    public Path getPath() {
+        return null;
+    }
+
+    /**
+     * @return the range of the file with the body for file bodies, null otherwise
+     */
+    FileRegion getFileRegion() {
+        return null;
+    }
+
+    private static class ByteBufferBody extends RestRequestBody {
+        private final ByteBuffer buffer;
+
+        ByteBufferBody(ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        public long getContentLength() {
+            return buffer.remaining();
+        }
+
+        public boolean isRepeatable() {
+            return true;
+        }
+
+        public void writeTo(OutputStream out) throws IOException {
+            if (buffer.hasArray()) {
+                out.write(buffer.array(), buffer.arrayOffset() + buffer.position(), buffer.remaining());
+            } else {
+                Channels.newChannel(out).write(buffer.duplicate());
+            }
+        }
+
+        public InputStream openStream() {
+            if (buffer.hasArray()) {
+                return new ByteArrayInputStream(buffer.array(), buffer.arrayOffset() + buffer.position(), buffer.remaining());
+            }
+            final ByteBuffer b = buffer.duplicate();
+            return new InputStream() {
+                public int read() {
+                    return b.hasRemaining() ? b.get() & 0xff : -1;
+                }
+
+                public int read(byte[] dst, int off, int len) {
+                    if (!b.hasRemaining())
+                        return -1;
+                    int n = Math.min(len, b.remaining());
+                    b.get(dst, off, n);
+                    return n;
+                }
+            };
+        }
+
+        @Override
+        public ByteBuffer asByteBuffer() {
+            return buffer.duplicate();
+        }
+
+        @Override
+        public String toString() {
+            return "[" + buffer.remaining() + " bytes]";
+        }
+    }
+
+    private static class StreamBody extends RestRequestBody {
+        private final InputStream stream;
+        private final long length;
+
+        StreamBody(InputStream stream, long length) {
+            this.stream = stream;
+            this.length = length;
+        }
+
+        public long getContentLength() {
+            return length;
+        }
+
+        public boolean isRepeatable() {
+            return false;
+        }
+
+        public void writeTo(OutputStream out) throws IOException {
+            byte[] buffer = new byte[BUFFER_SIZE];
+            int read;
+            while ((read = stream.read(buffer)) != -1) {
+                out.write(buffer, 0, read);
+            }
+        }
+
+        public InputStream openStream() {
+            return stream;
+        }
+
+        @Override
+        public String toString() {
+            return length < 0 ? "[streamed body]" : "[streamed body of " + length + " bytes]";
+        }
+    }
+
+    private static class PathBody extends RestRequestBody {
+        private final FileRegion region;
+
+        PathBody(FileRegion region) {
+            this.region = region;
+        }
+
+        public long getContentLength() {
+            return region.getLength();
+        }
+
+        public boolean isRepeatable() {
+            return true;
+        }
+
+        public void writeTo(OutputStream out) throws IOException {
+            region.writeTo(out);
+        }
+
+        public InputStream openStream() throws IOException {
+            return region.openStream();
+        }
+
+        @Override
+        public Path getPath() {
+            return region.getPath();
+        }
+
+        @Override
+        FileRegion getFileRegion() {
+            return region;
+        }
+
+        @Override
+        public String toString() {
+            return "[file " + region + "]";
+        }
+    }
+}
@@ -0,0 +1,63 @@
+/*  Copyright 2008 Fabrizio Cannizzo
+ *
+ *  This file is part of RestFixture.
+ *
+ *  RestFixture (http://code.google.com/p/rest-fixture/) is free software:
+ *  you can redistribute it and/or modify it under the terms of the
+ *  GNU Lesser General Public License as published by the Free Software Foundation,
+ *  either version 3 of the License, or (at your option) any later version.
+ *
+ *  RestFixture is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with RestFixture.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ *  If you want to contact the author please leave a comment here
+ *  http://smartrics.blogspot.com/2008/08/get-fitnesse-with-some-rest.html
+ */
+package smartrics.rest.client;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+import org.apache.commons.httpclient.methods.RequestEntity;
+
+/**
+ * An HttpClient 3.1 {@code RequestEntity} writing a {@code RestRequestBody}
+ * straight to the connection.
+ *
+ * Bodies of unknown length are sent with chunked transfer encoding.
+ */
+class RestRequestBodyEntity implements RequestEntity {
+
+    private final RestRequestBody body;
+    private final String contentType;
+
+    RestRequestBodyEntity(RestRequestBody body, String contentType) {
+        this.body = body;
+        this.contentType = contentType;
+    }
+
+    public boolean isRepeatable() {
+        return body.isRepeatable();
+    }
+
+    public void writeRequest(OutputStream out) throws IOException {
+        body.writeTo(out);
+    }
+
+    public long getContentLength() {
+        return body.getContentLength();
+    }
+
+    public String getContentType() {
+        return contentType;
+    }
+
+    RestRequestBody getBody() {
+        return body;
+    }
+}
@@ -20,12 +20,40 @@
  */
 package smartrics.rest.client;
 
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
 /**
  * Wraps a REST response object
+ *
+ * The body of a response to a request with
+ * {@link smartrics.rest.client.RestRequest#setStreamingResponse(boolean)}
+ * set is backed by the live connection: it is read on first access to
+ * {@link #getRawBody()} or {@link #getBody()}, or can be consumed via
+ * {@link #getBodyStream()}. Such responses must be closed to release the
+ * connection.
  */
-public class RestResponse extends RestData {
+public class RestResponse extends RestData implements Closeable {
+	private static final int TRANSFER_BUFFER_SIZE = 64 * 1024;
+
+	/**
+	 * The buffers of the body transfers, reused across calls and threads.
+	 */
+	private static final BlockingQueue<ByteBuffer> TRANSFER_BUFFERS = new ArrayBlockingQueue<ByteBuffer>(
+			Runtime.getRuntime().availableProcessors() * 2);
+
 	private String statusText;
 	private Integer statusCode;
+	private InputStream bodyStream;
+	private boolean bodyStreamTaken;
 
 	/**
 	 * @return the status code of this response
@@ -59,6 +87,170 @@ public class RestResponse extends RestData {
 		return this;
 	}
 
+	/**
+	 * Sets the live stream of the body of this response. Closing the stream
+	 * must release the underlying connection.
+	 *
+	 * @param stream the body stream
+	 * @return this response
+	 */
+	public RestResponse setBodyStream(InputStream stream) {
+		closeBodyStream();
+		super.setRawBody(null);
+		this.bodyStream = stream;
+		this.bodyStreamTaken = false;
+		return this;
+	}
+
+	/**
+	 * Returns the body of this response as a stream. For a streamed response
+	 * the stream reads from the connection and can only be obtained once; the
+	 * caller must close it.
+	 *
+	 * @return the body stream, or null if the response has no body
+	 */
+	public InputStream getBodyStream() {
+		if (bodyStream != null) {
+			if (bodyStreamTaken)
+				throw new IllegalStateException("The body stream has already been consumed");
+			bodyStreamTaken = true;
+			return bodyStream;
+		}
+		byte[] raw = super.getRawBody();
+		return raw == null ? null : new ByteArrayInputStream(raw);
+	}
+
+	/**
+	 * @return the body of this response as a channel, or null if the response has no body
+	 * See {@link #getBodyStream()}
+	 */
+	public ReadableByteChannel getBodyChannel() {
+		InputStream stream = getBodyStream();
+		return stream == null ? null : Channels.newChannel(stream);
+	}
+
+	/**
+	 * Writes the body of this response to the channel through a fixed size
+	 * buffer, without reading it whole in memory. A streamed body is
+	 * consumed, and its stream closed.
+	 *
+	 * The body is read through a channel into a pooled direct buffer, the one
+	 * the target writes from, so that transfers allocate no buffer. The target
+	 * must be blocking: a channel accepting no bytes fails the transfer.
+	 *
+	 * @param target the channel
+	 * @return the number of bytes written
+	 * @throws IOException if the body can't be read or the channel written
+	 */
+	public long transferBodyTo(WritableByteChannel target) throws IOException {
+		InputStream source = getBodyStream();
+		if (source == null)
+			return 0;
+		ByteBuffer buffer = TRANSFER_BUFFERS.poll();
+		if (buffer == null)
+			buffer = ByteBuffer.allocateDirect(TRANSFER_BUFFER_SIZE);
+		try {
+			ReadableByteChannel in = Channels.newChannel(source);
+			long transferred = 0;
+			buffer.clear();
+			while (in.read(buffer) >= 0) {
+				buffer.flip();
+				while (buffer.hasRemaining()) {
+					int written = target.write(buffer);
+					if (written == 0)
+						throw new IOException("The channel accepted no bytes: is it non-blocking?");
+					transferred += written;
+				}
+				buffer.clear();
+			}
+			return transferred;
+		} finally {
+			TRANSFER_BUFFERS.offer(buffer);
+			source.close();
+			bodyStream = null;
+		}
+	}
+
+	/**
+	 * @return whether the body of this response is still to be read from the connection
+	 */
+	public boolean isBodyStreamed() {
+		return bodyStream != null;
+	}
+
+	/**
+	 * Returns the raw body, reading and buffering it first if it is streamed.
+	 */
+	@Override
+	public byte[] getRawBody() {
+		if (bodyStream != null) {
+			if (bodyStreamTaken)
+				throw new IllegalStateException("The body stream has been consumed via getBodyStream()");
+			InputStream stream = bodyStream;
+			try {
+				super.setRawBody(stream.readAllBytes());
+			} catch (IOException e) {
+				throw new IllegalStateException("Unable to read the response body", e);
+			} finally {
+				bodyStream = null;
+				closeQuietly(stream);
+			}
+		}
+		return super.getRawBody();
+	}
+
+	@Override
+	public RestData setRawBody(byte[] rawBody) {
+		closeBodyStream();
+		return super.setRawBody(rawBody);
+	}
+
+	/**
+	 * Creates a copy of this response, buffering the body first if it is
+	 * streamed.
+	 *
+	 * @return the copy
+	 */
+	public RestResponse copy() {
+		RestResponse copy = new RestResponse();
+		copyTo(copy);
+		copy.statusCode = statusCode;
+		copy.statusText = statusText;
+		return copy;
+	}
+
+	/**
+	 * Closes the body stream of this response, if any, releasing the connection.
+	 */
+	public void close() {
+		closeBodyStream();
+	}
+
+	private void closeBodyStream() {
+		InputStream stream = bodyStream;
+		bodyStream = null;
+		closeQuietly(stream);
+	}
+
+	private static void closeQuietly(Closeable c) {
+		if (c != null) {
+			try {
+				c.close();
+			} catch (IOException e) {
+				// nothing to do
+			}
+		}
+	}
+
+	@Override
+	protected void appendBody(StringBuilder builder) {
+		if (bodyStream != null) {
+			builder.append("[streamed body]");
+		} else {
+			super.appendBody(builder);
+		}
+	}
+
 	/**
 	 * @return string representation of this response
 	 */
@@ -0,0 +1,468 @@
+/*  Copyright 2008 Fabrizio Cannizzo
+ *
+ *  This file is part of RestFixture.
+ *
+ *  RestFixture (http://code.google.com/p/rest-fixture/) is free software:
+ *  you can redistribute it and/or modify it under the terms of the
+ *  GNU Lesser General Public License as published by the Free Software Foundation,
+ *  either version 3 of the License, or (at your option) any later version.
+ *
+ *  RestFixture is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with RestFixture.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ *  If you want to contact the author please leave a comment here
+ *  http://smartrics.blogspot.com/2008/08/get-fitnesse-with-some-rest.html
+ */
+package smartrics.rest.client;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.apache.commons.httpclient.util.DateParseException;
+import org.apache.commons.httpclient.util.DateUtil;
+
+import smartrics.rest.client.RestData.Header;
+
+/**
+ * An in memory store of {@code RestResponse}s, evicting the least recently
+ * used entries when the total size exceeds a byte budget.
+ *
+ * Entries are keyed by method and Url, and hold what is needed to decide
+ * their freshness and to revalidate them, as per RFC 7234 for a private
+ * cache.
+ *
+ * See {@link smartrics.rest.client.CachingRestClient}
+ */
+public class RestResponseCache {
+
+    /**
+     * Heuristic freshness of responses with a Last-Modified header but no
+     * explicit expiration is a tenth of their age, capped at a day.
+     */
+    private static final long MAX_HEURISTIC_LIFETIME = 24L * 3600 * 1000;
+
+    private static final long ENTRY_OVERHEAD = 256;
+
+    private static final Set<Integer> CACHEABLE_STATUSES = new HashSet<Integer>(Arrays.asList(200, 203, 204, 300, 301, 404, 405, 410, 414, 501));
+
+    private static final Set<String> NOT_UPDATED_ON_304 = new HashSet<String>(Arrays.asList("content-length", "content-encoding", "transfer-encoding", "content-range"));
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<String, Entry>(16, 0.75f, true);
+    private final long maxBytes;
+    private long bytes;
+    private long evictions;
+
+    /**
+     * @param maxBytes the byte budget of this cache
+     */
+    public RestResponseCache(long maxBytes) {
+        if (maxBytes <= 0)
+            throw new IllegalArgumentException("The cache size must be positive");
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * @return the byte budget of this cache
+     */
+    public long getMaxBytes() {
+        return maxBytes;
+    }
+
+    /**
+     * @return the estimated size of the cached responses, in bytes
+     */
+    public long getBytes() {
+        lock.lock();
+        try {
+            return bytes;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return the number of cached responses
+     */
+    public int size() {
+        lock.lock();
+        try {
+            return entries.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return the number of responses evicted to stay within the byte budget
+     */
+    public long getEvictions() {
+        lock.lock();
+        try {
+            return evictions;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Removes all the cached responses.
+     */
+    public void clear() {
+        lock.lock();
+        try {
+            entries.clear();
+            bytes = 0;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    Entry get(String key) {
+        lock.lock();
+        try {
+            return entries.get(key);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    void put(String key, Entry entry) {
+        lock.lock();
+        try {
+            remove(key);
+            if (entry.size > maxBytes) {
+                return;
+            }
+            entries.put(key, entry);
+            bytes += entry.size;
+            Iterator<Entry> it = entries.values().iterator();
+            while (bytes > maxBytes && it.hasNext()) {
+                Entry eldest = it.next();
+                it.remove();
+                bytes -= eldest.size;
+                evictions++;
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    void remove(String key) {
+        lock.lock();
+        try {
+            Entry e = entries.remove(key);
+            if (e != null) {
+                bytes -= e.size;
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @param method   the method
+     * @param hostAddr the base url
+     * @param resource the resource
+     * @param query    the query, possibly null
+     * @return the key of a cached response
+     */
+    static String key(RestRequest.Method method, String hostAddr, String resource, String query) {
+        StringBuilder b = new StringBuilder(64);
+        b.append(method.name()).append(' ').append(hostAddr).append(resource);
+        if (query != null && query.length() > 0) {
+            b.append('?').append(query);
+        }
+        return b.toString();
+    }
+
+    /**
+     * Creates the entry for a response, or returns null if the response is
+     * not storable.
+     */
+    static Entry newEntry(RestRequest request, RestResponse response, long requestTime, long responseTime) {
+        Integer status = response.getStatusCode();
+        if (status == null || !CACHEABLE_STATUSES.contains(status)) {
+            return null;
+        }
+        CacheControl cc = CacheControl.of(response);
+        if (cc.noStore || CacheControl.of(request).noStore) {
+            return null;
+        }
+        Map<String, String> varying = varyingHeaders(request, response);
+        if (varying == null) {
+            return null;
+        }
+        Entry e = new Entry(response.copy(), varying, requestTime, responseTime);
+        if (e.lifetime <= 0 && !e.hasValidators()) {
+            return null;
+        }
+        return e;
+    }
+
+    private static Map<String, String> varyingHeaders(RestRequest request, RestResponse response) {
+        List<Header> vary = response.getHeader("Vary");
+        if (vary.isEmpty()) {
+            return Collections.emptyMap();
+        }
+        Map<String, String> varying = new LinkedHashMap<String, String>();
+        for (Header h : vary) {
+            for (String name : h.getValue().split(",")) {
+                name = name.trim();
+                if ("*".equals(name)) {
+                    return null;
+                }
+                if (name.length() > 0) {
+                    varying.put(name, joinedValues(request, name));
+                }
+            }
+        }
+        return varying;
+    }
+
+    private static String joinedValues(RestData data, String name) {
+        List<Header> headers = data.getHeader(name);
+        if (headers.isEmpty()) {
+            return null;
+        }
+        if (headers.size() == 1) {
+            return headers.get(0).getValue();
+        }
+        StringBuilder b = new StringBuilder();
+        for (Header h : headers) {
+            if (b.length() > 0) {
+                b.append(", ");
+            }
+            b.append(h.getValue());
+        }
+        return b.toString();
+    }
+
+    private static long parseDate(String value) {
+        if (value == null) {
+            return -1;
+        }
+        try {
+            return DateUtil.parseDate(value).getTime();
+        } catch (DateParseException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * A cached response.
+     */
+    static class Entry {
+        private final RestResponse response;
+        private final Map<String, String> varying;
+        private final long responseTime;
+        private final long initialAge;
+        private final long lifetime;
+        private final long size;
+
+        Entry(RestResponse response, Map<String, String> varying, long requestTime, long responseTime) {
+            this.response = response;
+            this.varying = varying;
+            this.responseTime = responseTime;
+            long date = parseDate(response.getHeaderValue("Date"));
+            if (date < 0) {
+                date = responseTime;
+            }
+            long apparentAge = Math.max(0, responseTime - date);
+            long correctedAge = ageHeader(response) + (responseTime - requestTime);
+            this.initialAge = Math.max(apparentAge, correctedAge);
+            this.lifetime = lifetime(response, date);
+            this.size = size(response);
+        }
+
+        private static long ageHeader(RestResponse response) {
+            String age = response.getHeaderValue("Age");
+            if (age != null) {
+                try {
+                    return Math.max(0, Long.parseLong(age.trim())) * 1000;
+                } catch (NumberFormatException e) {
+                    // ignored, as per RFC 7234
+                }
+            }
+            return 0;
+        }
+
+        private static long lifetime(RestResponse response, long date) {
+            CacheControl cc = CacheControl.of(response);
+            if (cc.noCache) {
+                return 0;
+            }
+            if (cc.maxAge >= 0) {
+                return cc.maxAge * 1000;
+            }
+            if (response.getHeaderValue("Expires") != null) {
+                long expires = parseDate(response.getHeaderValue("Expires"));
+                return expires < 0 ? 0 : Math.max(0, expires - date);
+            }
+            long lastModified = parseDate(response.getHeaderValue("Last-Modified"));
+            if (lastModified >= 0 && lastModified < date) {
+                return Math.min((date - lastModified) / 10, MAX_HEURISTIC_LIFETIME);
+            }
+            return 0;
+        }
+
+        private static long size(RestResponse response) {
+            long size = ENTRY_OVERHEAD;
+            byte[] raw = response.getRawBody();
+            if (raw != null) {
+                size += raw.length;
+            }
+            for (Header h : response.getHeaders()) {
+                size += 2 * (h.getName().length() + h.getValue().length());
+            }
+            return size;
+        }
+
+        boolean matches(RestRequest request) {
+            for (Map.Entry<String, String> v : varying.entrySet()) {
+                String value = joinedValues(request, v.getKey());
+                if (value == null ? v.getValue() != null : !value.equals(v.getValue())) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        long currentAge(long now) {
+            return initialAge + Math.max(0, now - responseTime);
+        }
+
+        boolean isFresh(RestRequest request, long now) {
+            CacheControl cc = CacheControl.of(request);
+            if (cc.noCache || request.getHeaderValue("Pragma") != null && request.getHeaderValue("Pragma").contains("no-cache")) {
+                return false;
+            }
+            long age = currentAge(now);
+            if (cc.maxAge >= 0 && age > cc.maxAge * 1000) {
+                return false;
+            }
+            long minFresh = cc.minFresh > 0 ? cc.minFresh * 1000 : 0;
+            return age + minFresh < lifetime;
+        }
+
+        boolean hasValidators() {
+            return response.getHeaderValue("ETag") != null || response.getHeaderValue("Last-Modified") != null;
+        }
+
+        /**
+         * Adds to the request the conditional headers validating this entry.
+         */
+        void addConditions(RestRequest request) {
+            String etag = response.getHeaderValue("ETag");
+            if (etag != null) {
+                request.addHeader("If-None-Match", etag);
+            }
+            String lastModified = response.getHeaderValue("Last-Modified");
+            if (lastModified != null) {
+                request.addHeader("If-Modified-Since", lastModified);
+            }
+        }
+
+        /**
+         * @return the entry updated with the headers of a 304 response
+         */
+        Entry revalidated(RestResponse notModified, long requestTime, long responseTime) {
+            Set<String> updated = new HashSet<String>();
+            for (Header h : notModified.getHeaders()) {
+                String name = h.getName().toLowerCase(Locale.ROOT);
+                if (!NOT_UPDATED_ON_304.contains(name)) {
+                    updated.add(name);
+                }
+            }
+            RestResponse merged = new RestResponse();
+            merged.setStatusCode(response.getStatusCode());
+            merged.setStatusText(response.getStatusText());
+            List<Header> headers = new ArrayList<Header>(response.getHeaders().size());
+            for (Header h : response.getHeaders()) {
+                if (!updated.contains(h.getName().toLowerCase(Locale.ROOT))) {
+                    headers.add(h);
+                }
+            }
+            for (Header h : notModified.getHeaders()) {
+                if (updated.contains(h.getName().toLowerCase(Locale.ROOT))) {
+                    headers.add(h);
+                }
+            }
+            merged.addHeaders(headers);
+            merged.setRawBody(response.getRawBody());
+            merged.setResource(response.getResource());
+            merged.setTransactionId(notModified.getTransactionId());
+            return new Entry(merged, varying, requestTime, responseTime);
+        }
+
+        /**
+         * @return a copy of the cached response, for the caller to own
+         */
+        RestResponse toResponse(RestRequest request) {
+            RestResponse copy = response.copy();
+            copy.setTransactionId(request.getTransactionId());
+            return copy;
+        }
+    }
+
+    /**
+     * The directives of a Cache-Control header relevant to a private cache.
+     */
+    static class CacheControl {
+        private static final CacheControl NONE = new CacheControl();
+
+        private boolean noStore;
+        private boolean noCache;
+        private long maxAge = -1;
+        private long minFresh = -1;
+
+        static CacheControl of(RestData data) {
+            List<Header> headers = data.getHeader("Cache-Control");
+            if (headers.isEmpty()) {
+                return NONE;
+            }
+            CacheControl cc = new CacheControl();
+            for (Header h : headers) {
+                for (String directive : h.getValue().split(",")) {
+                    directive = directive.trim().toLowerCase(Locale.ROOT);
+                    if (directive.equals("no-store")) {
+                        cc.noStore = true;
+                    } else if (directive.startsWith("no-cache")) {
+                        cc.noCache = true;
+                    } else if (directive.startsWith("max-age=")) {
+                        cc.maxAge = seconds(directive.substring(8));
+                    } else if (directive.startsWith("min-fresh=")) {
+                        cc.minFresh = seconds(directive.substring(10));
+                    }
+                }
+            }
+            return cc;
+        }
+
+        private static long seconds(String value) {
+            try {
+                return Math.max(0, Long.parseLong(value.replace("\"", "").trim()));
+            } catch (NumberFormatException e) {
+                return 0;
+            }
+        }
+
+        boolean isNoStore() {
+            return noStore;
+        }
+    }
+}
@@ -0,0 +1,96 @@
+/*  Copyright 2008 Fabrizio Cannizzo
+ *
+ *  This file is part of RestFixture.
+ *
+ *  RestFixture (http://code.google.com/p/rest-fixture/) is free software:
+ *  you can redistribute it and/or modify it under the terms of the
+ *  GNU Lesser General Public License as published by the Free Software Foundation,
+ *  either version 3 of the License, or (at your option) any later version.
+ *
+ *  RestFixture is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with RestFixture.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ *  If you want to contact the author please leave a comment here
+ *  http://smartrics.blogspot.com/2008/08/get-fitnesse-with-some-rest.html
+ */
+package smartrics.rest.client;
+
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * The engine that carries a {@code RestRequest} over the wire and turns the
+ * Http response into a {@code RestResponse}.
+ *
+ * Implementations wrap a concrete Http client library; {@code RestClientImpl}
+ * delegates to a transport so that engines can be swapped without affecting
+ * callers coding against {@code RestClient}.
+ *
+ * Transports signal failures with the same exceptions as
+ * {@link smartrics.rest.client.RestClient#execute(String, RestRequest)}:
+ * {@code IllegalArgumentException} for invalid requests and
+ * {@code IllegalStateException} for failed calls.
+ */
+public interface RestTransport {
+
+    /**
+     * Executes a request, blocking until the whole response is available.
+     *
+     * @param hostAddr
+     *            the base Url the request resource is appended to. May be null
+     *            if the transport has a default host.
+     * @param request
+     *            the request to be executed
+     * @return the response
+     */
+    RestResponse execute(String hostAddr, RestRequest request);
+
+    /**
+     * Executes a request asynchronously. Cancelling the returned future aborts
+     * the call.
+     *
+     * @param hostAddr
+     *            the base Url the request resource is appended to
+     * @param request
+     *            the request to be executed
+     * @return the future response
+     */
+    CompletableFuture<RestResponse> executeAsync(String hostAddr, RestRequest request);
+
+    /**
+     * Executes a request recording the durations of the phases of the call
+     * the transport can observe. By default, none.
+     *
+     * @param hostAddr
+     *            the base Url the request resource is appended to
+     * @param request
+     *            the request to be executed
+     * @param timings
+     *            the timings of the call
+     * @return the response
+     */
+    default RestResponse execute(String hostAddr, RestRequest request, RequestTimings timings) {
+        return execute(hostAddr, request);
+    }
+
+    /**
+     * Executes a request asynchronously recording the durations of the
+     * phases of the call the transport can observe. By default, none.
+     *
+     * @param hostAddr
+     *            the base Url the request resource is appended to
+     * @param request
+     *            the request to be executed
+     * @param timings
+     *            the timings of the call
+     * @return the future response
+     */
+    default CompletableFuture<RestResponse> executeAsync(String hostAddr, RestRequest request, RequestTimings timings) {
+        return executeAsync(hostAddr, request);
+    }
+
+}
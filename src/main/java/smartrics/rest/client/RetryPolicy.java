@@ -0,0 +1,262 @@
+/*  Copyright 2008 Fabrizio Cannizzo
+ *
+ *  This file is part of RestFixture.
+ *
+ *  RestFixture (http://code.google.com/p/rest-fixture/) is free software:
+ *  you can redistribute it and/or modify it under the terms of the
+ *  GNU Lesser General Public License as published by the Free Software Foundation,
+ *  either version 3 of the License, or (at your option) any later version.
+ *
+ *  RestFixture is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with RestFixture.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ *  If you want to contact the author please leave a comment here
+ *  http://smartrics.blogspot.com/2008/08/get-fitnesse-with-some-rest.html
+ */
+package smartrics.rest.client;
+
+import java.net.ConnectException;
+import java.net.NoRouteToHostException;
+import java.net.UnknownHostException;
+import java.net.http.HttpConnectTimeoutException;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ThreadLocalRandom;
+
+import org.apache.commons.httpclient.ConnectTimeoutException;
+import org.apache.commons.httpclient.util.DateParseException;
+import org.apache.commons.httpclient.util.DateUtil;
+
+/**
+ * When and how often a {@link RetryingRestClient} retries a call.
+ *
+ * A call is retried, up to the maximum number of attempts, when
+ * <ul>
+ * <li>the connection can't be established: the request hasn't been sent, so
+ * calls of any method are retried;</li>
+ * <li>the call fails for any other IO failure, or the response has one of
+ * the retryable status codes (by default 429 and 503): only calls with an
+ * idempotent method are retried, unless non idempotent calls are opted
+ * in.</li>
+ * </ul>
+ * Requests whose body can't be sent twice are only retried on connect
+ * failures.
+ *
+ * Retries are delayed by an exponential backoff with jitter, or by the time
+ * in the {@code Retry-After} header of the response, if longer. Responses
+ * asking to retry after more than {@link #getMaxRetryAfter()} are returned
+ * to the caller.
+ */
+public class RetryPolicy {
+
+    private static final Set<RestRequest.Method> IDEMPOTENT_METHODS = new HashSet<RestRequest.Method>(Arrays.asList(RestRequest.Method.Get,
+            RestRequest.Method.Head, RestRequest.Method.Put, RestRequest.Method.Delete, RestRequest.Method.Options, RestRequest.Method.Trace));
+
+    private int maxAttempts = 3;
+    private long initialBackoff = 100;
+    private long maxBackoff = 10000;
+    private double multiplier = 2;
+    private double jitter = 0.5;
+    private long maxRetryAfter = 60000;
+    private Set<Integer> retryableStatusCodes = new HashSet<Integer>(Arrays.asList(429, 503));
+    private boolean retryNonIdempotent;
+
+    /**
+     * @param maxAttempts the maximum number of attempts, including the first
+     * @return this policy
+     */
+    public RetryPolicy setMaxAttempts(int maxAttempts) {
+        if (maxAttempts < 1)
+            throw new IllegalArgumentException("Max attempts must be positive");
+        this.maxAttempts = maxAttempts;
+        return this;
+    }
+
+    /**
+     * @return the maximum number of attempts, including the first
+     */
+    public int getMaxAttempts() {
+        return maxAttempts;
+    }
+
+    /**
+     * @param initialMillis the delay before the first retry
+     * @param maxMillis     the maximum delay between attempts
+     * @return this policy
+     */
+    public RetryPolicy setBackoff(long initialMillis, long maxMillis) {
+        if (initialMillis < 0 || maxMillis < initialMillis)
+            throw new IllegalArgumentException("Invalid backoff: " + initialMillis + "/" + maxMillis);
+        this.initialBackoff = initialMillis;
+        this.maxBackoff = maxMillis;
+        return this;
+    }
+
+    /**
+     * @param multiplier the growth of the delay at each retry
+     * @return this policy
+     */
+    public RetryPolicy setBackoffMultiplier(double multiplier) {
+        if (multiplier < 1)
+            throw new IllegalArgumentException("The backoff multiplier must be at least 1");
+        this.multiplier = multiplier;
+        return this;
+    }
+
+    /**
+     * @param jitter the fraction of each delay that is randomised, from 0
+     *               (no jitter) to 1 (full jitter)
+     * @return this policy
+     */
+    public RetryPolicy setJitter(double jitter) {
+        if (jitter < 0 || jitter > 1)
+            throw new IllegalArgumentException("The jitter must be between 0 and 1");
+        this.jitter = jitter;
+        return this;
+    }
+
+    /**
+     * @param maxMillis the longest {@code Retry-After} honoured
+     * @return this policy
+     */
+    public RetryPolicy setMaxRetryAfter(long maxMillis) {
+        this.maxRetryAfter = maxMillis;
+        return this;
+    }
+
+    /**
+     * @return the longest {@code Retry-After} honoured, in millis
+     */
+    public long getMaxRetryAfter() {
+        return maxRetryAfter;
+    }
+
+    /**
+     * @param codes the status codes of the responses to retry
+     * @return this policy
+     */
+    public RetryPolicy setRetryableStatusCodes(int... codes) {
+        Set<Integer> set = new HashSet<Integer>();
+        for (int c : codes) {
+            set.add(c);
+        }
+        this.retryableStatusCodes = set;
+        return this;
+    }
+
+    /**
+     * @param retry whether calls with non idempotent methods, like
+     *              {@code Post}, are retried on failures other than connect
+     *              failures
+     * @return this policy
+     */
+    public RetryPolicy setRetryNonIdempotent(boolean retry) {
+        this.retryNonIdempotent = retry;
+        return this;
+    }
+
+    /**
+     * @param method the method
+     * @return whether the method is idempotent
+     */
+    public static boolean isIdempotent(RestRequest.Method method) {
+        return IDEMPOTENT_METHODS.contains(method);
+    }
+
+    /**
+     * @param request the request
+     * @param attempt the attempt that failed, starting from 1
+     * @param failure the failure
+     * @return whether the call is to be retried
+     */
+    public boolean shouldRetry(RestRequest request, int attempt, Throwable failure) {
+        if (attempt >= maxAttempts) {
+            return false;
+        }
+        Throwable cause = rootCause(failure);
+        if (isConnectFailure(cause)) {
+            return true;
+        }
+        return cause instanceof java.io.IOException && isReplayable(request);
+    }
+
+    /**
+     * @param request  the request
+     * @param attempt  the attempt, starting from 1
+     * @param response the response
+     * @return whether the call is to be retried
+     */
+    public boolean shouldRetry(RestRequest request, int attempt, RestResponse response) {
+        if (attempt >= maxAttempts || response.getStatusCode() == null || !retryableStatusCodes.contains(response.getStatusCode())) {
+            return false;
+        }
+        return isReplayable(request) && retryAfter(response) <= maxRetryAfter;
+    }
+
+    private boolean isReplayable(RestRequest request) {
+        if (!retryNonIdempotent && !isIdempotent(request.getMethod())) {
+            return false;
+        }
+        return request.getBodySource() == null || request.getBodySource().isRepeatable();
+    }
+
+    /**
+     * @param attempt the attempt that failed, starting from 1
+     * @return the delay before the next attempt, in millis
+     */
+    public long backoff(int attempt) {
+        double delay = initialBackoff * Math.pow(multiplier, attempt - 1);
+        long capped = (long) Math.min(delay, maxBackoff);
+        long randomised = (long) (capped * jitter);
+        return capped - randomised + (randomised > 0 ? ThreadLocalRandom.current().nextLong(randomised + 1) : 0);
+    }
+
+    /**
+     * @param attempt  the attempt, starting from 1
+     * @param response the response to retry, possibly null
+     * @return the delay before the next attempt, in millis
+     */
+    public long delay(int attempt, RestResponse response) {
+        long backoff = backoff(attempt);
+        return response == null ? backoff : Math.max(backoff, retryAfter(response));
+    }
+
+    /**
+     * @return the delay in the {@code Retry-After} header, in millis; 0 if absent or invalid
+     */
+    static long retryAfter(RestResponse response) {
+        String value = response.getHeaderValue("Retry-After");
+        if (value == null) {
+            return 0;
+        }
+        value = value.trim();
+        try {
+            return Math.max(0, Long.parseLong(value) * 1000);
+        } catch (NumberFormatException e) {
+            try {
+                return Math.max(0, DateUtil.parseDate(value).getTime() - System.currentTimeMillis());
+            } catch (DateParseException e1) {
+                return 0;
+            }
+        }
+    }
+
+    private static boolean isConnectFailure(Throwable t) {
+        return t instanceof ConnectException || t instanceof NoRouteToHostException || t instanceof UnknownHostException
+                || t instanceof ConnectTimeoutException || t instanceof HttpConnectTimeoutException;
+    }
+
+    private static Throwable rootCause(Throwable t) {
+        while ((t instanceof CompletionException || t instanceof IllegalStateException) && t.getCause() != null) {
+            t = t.getCause();
+        }
+        return t;
+    }
+}
@@ -0,0 +1,190 @@
+/*  Copyright 2008 Fabrizio Cannizzo
+ *
+ *  This file is part of RestFixture.
+ *
+ *  RestFixture (http://code.google.com/p/rest-fixture/) is free software:
+ *  you can redistribute it and/or modify it under the terms of the
+ *  GNU Lesser General Public License as published by the Free Software Foundation,
+ *  either version 3 of the License, or (at your option) any later version.
+ *
+ *  RestFixture is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with RestFixture.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ *  If you want to contact the author please leave a comment here
+ *  http://smartrics.blogspot.com/2008/08/get-fitnesse-with-some-rest.html
+ */
+package smartrics.rest.client;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A {@code RestClient} retrying the calls of the client it wraps as per a
+ * {@link RetryPolicy}.
+ *
+ * Each attempt executes the request afresh, so file uploads and multipart
+ * bodies are sent again from their files; bodies from a stream are not
+ * replayable and are only retried on connect failures.
+ *
+ * <pre>
+ * RestClient client = new RetryingRestClient(new RestClientImpl(httpClient), new RetryPolicy().setMaxAttempts(5));
+ * </pre>
+ *
+ * Asynchronous calls wait between attempts without holding a thread.
+ */
+public class RetryingRestClient implements RestClient {
+
+    private static Logger LOG = LoggerFactory.getLogger(RetryingRestClient.class);
+
+    private final RestClient delegate;
+    private final RetryPolicy policy;
+    private final AtomicLong retries = new AtomicLong();
+
+    /**
+     * @param delegate the client executing the requests
+     * @param policy   the retry policy
+     */
+    public RetryingRestClient(RestClient delegate, RetryPolicy policy) {
+        if (delegate == null)
+            throw new IllegalArgumentException("Null RestClient instance");
+        if (policy == null)
+            throw new IllegalArgumentException("Null RetryPolicy instance");
+        this.delegate = delegate;
+        this.policy = policy;
+    }
+
+    /**
+     * @return the retry policy of this client
+     */
+    public RetryPolicy getPolicy() {
+        return policy;
+    }
+
+    /**
+     * @return the number of attempts made after the first
+     */
+    public long getRetries() {
+        return retries.get();
+    }
+
+    public void setBaseUrl(String bUrl) {
+        delegate.setBaseUrl(bUrl);
+    }
+
+    public String getBaseUrl() {
+        return delegate.getBaseUrl();
+    }
+
+    public RestResponse execute(RestRequest request) {
+        return execute(getBaseUrl(), request);
+    }
+
+    public RestResponse execute(String hostAddr, RestRequest request) {
+        for (int attempt = 1;; attempt++) {
+            long delay;
+            try {
+                RestResponse response = delegate.execute(hostAddr, request);
+                if (!policy.shouldRetry(request, attempt, response)) {
+                    return response;
+                }
+                delay = policy.delay(attempt, response);
+                response.close();
+                LOG.debug("retrying {} in {}ms after status {}", new Object[] { request.getResource(), delay, response.getStatusCode() });
+            } catch (RuntimeException e) {
+                if (!policy.shouldRetry(request, attempt, e)) {
+                    throw e;
+                }
+                delay = policy.delay(attempt, null);
+                LOG.debug("retrying {} in {}ms after {}", new Object[] { request.getResource(), delay, e.toString() });
+            }
+            sleep(delay);
+            retries.incrementAndGet();
+        }
+    }
+
+    private static void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting to retry", e);
+        }
+    }
+
+    public CompletableFuture<RestResponse> executeAsync(RestRequest request) {
+        return executeAsync(getBaseUrl(), request);
+    }
+
+    public CompletableFuture<RestResponse> executeAsync(String hostAddr, RestRequest request) {
+        AsyncCall call = new AsyncCall(hostAddr, request);
+        call.attempt(1);
+        return call.result;
+    }
+
+    /**
+     * The attempts of an asynchronous call. Cancelling the result cancels the
+     * attempt in flight.
+     */
+    private class AsyncCall {
+        private final String hostAddr;
+        private final RestRequest request;
+        private final CompletableFuture<RestResponse> result = new CompletableFuture<RestResponse>();
+        private volatile CompletableFuture<RestResponse> current;
+
+        AsyncCall(String hostAddr, RestRequest request) {
+            this.hostAddr = hostAddr;
+            this.request = request;
+            result.whenComplete((r, e) -> {
+                CompletableFuture<RestResponse> c = current;
+                if (result.isCancelled() && c != null) {
+                    c.cancel(true);
+                }
+            });
+        }
+
+        void attempt(final int attempt) {
+            if (result.isDone()) {
+                return;
+            }
+            CompletableFuture<RestResponse> f;
+            try {
+                f = delegate.executeAsync(hostAddr, request);
+            } catch (RuntimeException e) {
+                f = new CompletableFuture<RestResponse>();
+                f.completeExceptionally(e);
+            }
+            current = f;
+            f.whenComplete((response, failure) -> {
+                if (failure != null) {
+                    Throwable cause = failure instanceof CompletionException && failure.getCause() != null ? failure.getCause() : failure;
+                    if (policy.shouldRetry(request, attempt, cause)) {
+                        retry(attempt, policy.delay(attempt, null));
+                    } else {
+                        result.completeExceptionally(cause);
+                    }
+                } else if (policy.shouldRetry(request, attempt, response)) {
+                    response.close();
+                    retry(attempt, policy.delay(attempt, response));
+                } else if (!result.complete(response)) {
+                    response.close();
+                }
+            });
+        }
+
+        private void retry(final int attempt, long delay) {
+            LOG.debug("retrying {} in {}ms", request.getResource(), delay);
+            retries.incrementAndGet();
+            CompletableFuture.runAsync(() -> attempt(attempt + 1), CompletableFuture.delayedExecutor(delay, TimeUnit.MILLISECONDS));
+        }
+    }
+}
@@ -0,0 +1,137 @@
+/*  Copyright 2008 Fabrizio Cannizzo
+ *
+ *  This file is part of RestFixture.
+ *
+ *  RestFixture (http://code.google.com/p/rest-fixture/) is free software:
+ *  you can redistribute it and/or modify it under the terms of the
+ *  GNU Lesser General Public License as published by the Free Software Foundation,
+ *  either version 3 of the License, or (at your option) any later version.
+ *
+ *  RestFixture is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with RestFixture.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ *  If you want to contact the author please leave a comment here
+ *  http://smartrics.blogspot.com/2008/08/get-fitnesse-with-some-rest.html
+ */
+package smartrics.rest.client;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The default {@link TransactionIdGenerator}: ids are made of the time in
+ * milliseconds since 2020-01-01 UTC (41 bits), a node id (10 bits) and a
+ * sequence number within the millisecond (12 bits), so that ids of
+ * different processes don't collide and ids of a process increase.
+ *
+ * Up to 4096 ids per millisecond are generated with a compare-and-set on a
+ * single {@code AtomicLong}; beyond that, and if the clock goes backwards,
+ * the generator moves on to the next millisecond ahead of the clock rather
+ * than waiting.
+ *
+ * The node id is read from the system property {@code restclient.nodeId},
+ * from 0 to 1023; if not set, it's derived from the host name and process
+ * id. Derived ids are hashed to 10 bits, so processes do collide: the odds
+ * are about 4% with 10 JVMs, and 50% past 37. Set {@code restclient.nodeId}
+ * to a distinct value in each process where ids must be unique.
+ */
+public class TimeBasedTransactionIdGenerator implements TransactionIdGenerator {
+
+    /**
+     * 2020-01-01T00:00:00Z.
+     */
+    public static final long EPOCH = 1577836800000L;
+
+    public static final int NODE_BITS = 10;
+
+    public static final int SEQUENCE_BITS = 12;
+
+    private static final long SEQUENCE_MASK = (1L << SEQUENCE_BITS) - 1;
+
+    private static final int MAX_NODE = (1 << NODE_BITS) - 1;
+
+    private final long node;
+
+    /**
+     * The last time (in milliseconds since the epoch) and sequence issued,
+     * as {@code time << SEQUENCE_BITS | sequence}.
+     */
+    private final AtomicLong last = new AtomicLong();
+
+    /**
+     * Uses the node id from {@code restclient.nodeId}, or one derived from
+     * the host name and process id.
+     */
+    public TimeBasedTransactionIdGenerator() {
+        this(defaultNodeId());
+    }
+
+    /**
+     * @param nodeId the id of this node, from 0 to 1023
+     */
+    public TimeBasedTransactionIdGenerator(int nodeId) {
+        if (nodeId < 0 || nodeId > MAX_NODE)
+            throw new IllegalArgumentException("The node id must be between 0 and " + MAX_NODE);
+        this.node = nodeId;
+    }
+
+    public int getNodeId() {
+        return (int) node;
+    }
+
+    public Long nextId() {
+        long now = (System.currentTimeMillis() - EPOCH) << SEQUENCE_BITS;
+        while (true) {
+            long current = last.get();
+            long next = now > current ? now : current + 1;
+            if (last.compareAndSet(current, next)) {
+                return Long.valueOf((next >>> SEQUENCE_BITS) << (NODE_BITS + SEQUENCE_BITS) | node << SEQUENCE_BITS | (next & SEQUENCE_MASK));
+            }
+        }
+    }
+
+    /**
+     * @param id an id generated by this class
+     * @return the time of the id, in milliseconds since 1970-01-01 UTC
+     */
+    public static long timestampOf(long id) {
+        return (id >>> (NODE_BITS + SEQUENCE_BITS)) + EPOCH;
+    }
+
+    /**
+     * @param id an id generated by this class
+     * @return the node id of the id
+     */
+    public static int nodeOf(long id) {
+        return (int) ((id >>> SEQUENCE_BITS) & MAX_NODE);
+    }
+
+    static int defaultNodeId() {
+        String configured = System.getProperty("restclient.nodeId");
+        if (configured != null) {
+            int nodeId;
+            try {
+                nodeId = Integer.parseInt(configured.trim());
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Invalid restclient.nodeId '" + configured + "': must be a number between 0 and " + MAX_NODE, e);
+            }
+            if (nodeId < 0 || nodeId > MAX_NODE)
+                throw new IllegalArgumentException("Invalid restclient.nodeId '" + configured + "': must be between 0 and " + MAX_NODE);
+            return nodeId;
+        }
+        String host;
+        try {
+            host = InetAddress.getLocalHost().getHostName();
+        } catch (UnknownHostException e) {
+            host = "";
+        }
+        long h = host.hashCode() * 0x9E3779B97F4A7C15L ^ ProcessHandle.current().pid() * 0xC2B2AE3D27D4EB4FL;
+        return (int) ((h ^ (h >>> 29) ^ (h >>> 47)) & MAX_NODE);
+    }
+}
@@ -0,0 +1,119 @@
+/*  Copyright 2008 Fabrizio Cannizzo
+ *
+ *  This file is part of RestFixture.
+ *
+ *  RestFixture (http://code.google.com/p/rest-fixture/) is free software:
+ *  you can redistribute it and/or modify it under the terms of the
+ *  GNU Lesser General Public License as published by the Free Software Foundation,
+ *  either version 3 of the License, or (at your option) any later version.
+ *
+ *  RestFixture is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with RestFixture.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ *  If you want to contact the author please leave a comment here
+ *  http://smartrics.blogspot.com/2008/08/get-fitnesse-with-some-rest.html
+ */
+package smartrics.rest.client;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Creates virtual threads on JDK 21 or later, and daemon platform threads on
+ * earlier JDKs.
+ *
+ * Virtual threads make the blocking {@code RestClient.execute} scale to many
+ * concurrent calls without a platform thread per call: a virtual thread
+ * blocked on the socket, or waiting for a pooled connection, releases its
+ * carrier thread. Neither transport holds a monitor while doing socket I/O,
+ * so carriers aren't pinned.
+ *
+ * The library targets Java 11, so the JDK 21 API is looked up reflectively.
+ */
+public final class VirtualThreads {
+
+    private static Logger LOG = LoggerFactory.getLogger(VirtualThreads.class);
+
+    private static final Method OF_VIRTUAL = lookup();
+
+    private VirtualThreads() {
+    }
+
+    private static Method lookup() {
+        try {
+            Method ofVirtual = Thread.class.getMethod("ofVirtual");
+            // fails on the JDKs where virtual threads are a preview feature not enabled
+            ofVirtual.invoke(null);
+            return ofVirtual;
+        } catch (NoSuchMethodException e) {
+            return null;
+        } catch (IllegalAccessException | InvocationTargetException | RuntimeException e) {
+            LOG.info("Virtual threads not available: {}", e.toString());
+            return null;
+        }
+    }
+
+    /**
+     * @return whether threads are virtual
+     */
+    public static boolean isAvailable() {
+        return OF_VIRTUAL != null;
+    }
+
+    /**
+     * @param name the prefix of the names of the threads, numbered from 1
+     * @return a factory of virtual threads, or of daemon platform threads if
+     *         virtual threads aren't available
+     */
+    public static ThreadFactory newThreadFactory(final String name) {
+        if (OF_VIRTUAL != null) {
+            try {
+                Object builder = OF_VIRTUAL.invoke(null);
+                Class<?> builderType = Class.forName("java.lang.Thread$Builder");
+                builder = builderType.getMethod("name", String.class, long.class).invoke(builder, name + "-", 1L);
+                return (ThreadFactory) builderType.getMethod("factory").invoke(builder);
+            } catch (ReflectiveOperationException e) {
+                throw new IllegalStateException("Unable to create a virtual thread factory", e);
+            }
+        }
+        return new ThreadFactory() {
+            private final AtomicInteger count = new AtomicInteger();
+
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, name + "-" + count.incrementAndGet());
+                t.setDaemon(true);
+                return t;
+            }
+        };
+    }
+
+    /**
+     * @param name the prefix of the names of the threads
+     * @return an executor starting a new virtual thread per task, or a cached
+     *         pool of daemon platform threads if virtual threads aren't
+     *         available
+     */
+    public static ExecutorService newExecutor(String name) {
+        ThreadFactory factory = newThreadFactory(name);
+        if (OF_VIRTUAL != null) {
+            try {
+                return (ExecutorService) Executors.class.getMethod("newThreadPerTaskExecutor", ThreadFactory.class).invoke(null, factory);
+            } catch (ReflectiveOperationException e) {
+                throw new IllegalStateException("Unable to create a virtual thread executor", e);
+            }
+        }
+        return Executors.newCachedThreadPool(factory);
+    }
+}
@@ -0,0 +1,448 @@
+/*  Copyright 2008 Fabrizio Cannizzo
+ *
+ *  This file is part of RestFixture.
+ *
+ *  RestFixture (http://code.google.com/p/rest-fixture/) is free software:
+ *  you can redistribute it and/or modify it under the terms of the
+ *  GNU Lesser General Public License as published by the Free Software Foundation,
+ *  either version 3 of the License, or (at your option) any later version.
+ *
+ *  RestFixture is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with RestFixture.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ *  If you want to contact the author please leave a comment here
+ *  http://smartrics.blogspot.com/2008/08/get-fitnesse-with-some-rest.html
+ */
+package smartrics.rest.client;
+
+import java.io.FilterInputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Consumer;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Logs a sample of the requests and responses of a transport, with their
+ * bodies up to a size.
+ *
+ * Bodies are copied as they stream through the transport, up to
+ * {@link #setMaxBodyBytes(int)}; longer bodies are logged truncated, with
+ * their full size. The calls are handed off to a bounded ring buffer and
+ * formatted and written by a background thread, so that tapping doesn't
+ * hold up the calls; when the buffer is full, records are dropped and
+ * counted.
+ *
+ * <pre>
+ * transport.setWireTap(new WireTap().setSampleRate(0.01).setMaxBodyBytes(2048));
+ * </pre>
+ *
+ * By default records are logged at INFO level by the logger of this class.
+ * The writer thread is started with the first record, and sleeps while the
+ * buffer is empty; {@link #close()} stops it.
+ */
+public class WireTap {
+
+    private static Logger LOG = LoggerFactory.getLogger(WireTap.class);
+
+    private final RingBuffer<Capture> buffer;
+    private final AtomicLong dropped = new AtomicLong();
+    private final AtomicLong written = new AtomicLong();
+    private final AtomicLong published = new AtomicLong();
+    private final AtomicReference<Thread> writer = new AtomicReference<Thread>();
+    private volatile double sampleRate = 1;
+    private volatile int maxBodyBytes = 4096;
+    private volatile Consumer<String> sink = LOG::info;
+    private volatile boolean closed;
+
+    /**
+     * A tap buffering up to 1024 records.
+     */
+    public WireTap() {
+        this(1024);
+    }
+
+    /**
+     * @param capacity the records buffered before new ones are dropped
+     */
+    public WireTap(int capacity) {
+        if (capacity < 1)
+            throw new IllegalArgumentException("The capacity must be positive");
+        this.buffer = new RingBuffer<Capture>(capacity);
+    }
+
+    /**
+     * @param rate the fraction of the calls tapped, from 0 to 1
+     * @return this tap
+     */
+    public WireTap setSampleRate(double rate) {
+        if (rate < 0 || rate > 1)
+            throw new IllegalArgumentException("The sample rate must be between 0 and 1");
+        this.sampleRate = rate;
+        return this;
+    }
+
+    public double getSampleRate() {
+        return sampleRate;
+    }
+
+    /**
+     * @param bytes the bytes of each body logged
+     * @return this tap
+     */
+    public WireTap setMaxBodyBytes(int bytes) {
+        if (bytes < 0)
+            throw new IllegalArgumentException("The body bytes can't be negative");
+        this.maxBodyBytes = bytes;
+        return this;
+    }
+
+    public int getMaxBodyBytes() {
+        return maxBodyBytes;
+    }
+
+    /**
+     * @param sink the destination of the records, called by the writer thread
+     * @return this tap
+     */
+    public WireTap setSink(Consumer<String> sink) {
+        if (sink == null)
+            throw new IllegalArgumentException("Null sink");
+        this.sink = sink;
+        return this;
+    }
+
+    /**
+     * @return the records dropped because the buffer was full
+     */
+    public long getDropped() {
+        return dropped.get();
+    }
+
+    /**
+     * @return the records written to the sink
+     */
+    public long getWritten() {
+        return written.get();
+    }
+
+    /**
+     * Waits for the records buffered to be written.
+     *
+     * @param timeout the maximum wait
+     * @param unit    the unit of the timeout
+     * @return whether all the records were written
+     */
+    public boolean flush(long timeout, TimeUnit unit) {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        long target = published.get();
+        while (written.get() + dropped.get() < target) {
+            if (System.nanoTime() > deadline) {
+                return false;
+            }
+            LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(1));
+        }
+        return true;
+    }
+
+    /**
+     * Stops the writer thread once the records buffered are written. Must be
+     * called when the tap is no longer used.
+     */
+    public void close() {
+        closed = true;
+        Thread t = writer.get();
+        if (t != null) {
+            LockSupport.unpark(t);
+        }
+    }
+
+    /**
+     * @return the writer thread, or null until the first record
+     */
+    Thread getWriter() {
+        return writer.get();
+    }
+
+    /**
+     * @return whether to tap the next call
+     */
+    boolean sample() {
+        double rate = sampleRate;
+        return !closed && (rate >= 1 || rate > 0 && ThreadLocalRandom.current().nextDouble() < rate);
+    }
+
+    /**
+     * @param txId      the transaction id of the call
+     * @param direction {@code ">>"} for requests, {@code "<<"} for responses
+     * @param head      the request or status line and the headers
+     * @return the capture of the body
+     */
+    Capture capture(Long txId, String direction, String head) {
+        return new Capture(this, txId, direction, head, maxBodyBytes);
+    }
+
+    private void publish(Capture c) {
+        published.incrementAndGet();
+        if (!buffer.offer(c)) {
+            dropped.incrementAndGet();
+            return;
+        }
+        Thread t = writer.get();
+        if (t == null) {
+            t = new Thread(this::drain, "RestClient-wiretap");
+            t.setDaemon(true);
+            if (writer.compareAndSet(null, t)) {
+                t.start();
+                return;
+            }
+            t = writer.get();
+        }
+        LockSupport.unpark(t);
+    }
+
+    private void drain() {
+        while (true) {
+            Capture c = buffer.poll();
+            if (c == null) {
+                if (closed) {
+                    return;
+                }
+                // woken by publish, or by close
+                LockSupport.park(this);
+                continue;
+            }
+            try {
+                sink.accept(c.format());
+            } catch (RuntimeException e) {
+                LOG.warn("Unable to write wire tap record", e);
+            }
+            written.incrementAndGet();
+        }
+    }
+
+    /**
+     * The head and the first bytes of the body of a request or a response.
+     * Written by one thread; published once, at the end of the body.
+     */
+    static final class Capture {
+        private final WireTap tap;
+        private final Long txId;
+        private final String direction;
+        private final String head;
+        private final int max;
+        private final AtomicBoolean done = new AtomicBoolean();
+        private byte[] body;
+        private int size;
+        private long total;
+
+        private Capture(WireTap tap, Long txId, String direction, String head, int max) {
+            this.tap = tap;
+            this.txId = txId;
+            this.direction = direction;
+            this.head = head;
+            this.max = max;
+        }
+
+        void write(byte[] b, int off, int len) {
+            total += len;
+            int n = Math.min(len, max - size);
+            if (n > 0) {
+                ensureCapacity(n);
+                System.arraycopy(b, off, body, size, n);
+                size += n;
+            }
+        }
+
+        void write(ByteBuffer b) {
+            int len = b.remaining();
+            total += len;
+            int n = Math.min(len, max - size);
+            if (n > 0) {
+                ensureCapacity(n);
+                b.duplicate().get(body, size, n);
+                size += n;
+            }
+        }
+
+        private void ensureCapacity(int n) {
+            if (body == null) {
+                body = new byte[Math.min(max, Math.max(n, 256))];
+            } else if (size + n > body.length) {
+                byte[] bigger = new byte[Math.min(max, Math.max(size + n, body.length * 2))];
+                System.arraycopy(body, 0, bigger, 0, size);
+                body = bigger;
+            }
+        }
+
+        /**
+         * Hands the capture off to the writer, once.
+         */
+        void publish() {
+            if (done.compareAndSet(false, true)) {
+                tap.publish(this);
+            }
+        }
+
+        String format() {
+            StringBuilder b = new StringBuilder(head.length() + size + 64);
+            b.append('[').append(txId).append("] ").append(direction).append(' ').append(head);
+            if (total > 0) {
+                b.append('\n').append(new String(body, 0, size, StandardCharsets.UTF_8));
+                if (total > size) {
+                    b.append("...[truncated, ").append(total).append(" bytes]");
+                }
+            }
+            return b.toString();
+        }
+    }
+
+    /**
+     * Copies the bytes read to a capture, published at the end of the
+     * stream or when the stream is closed.
+     */
+    static final class TappingInputStream extends FilterInputStream {
+        private final Capture capture;
+
+        TappingInputStream(InputStream in, Capture capture) {
+            super(in);
+            this.capture = capture;
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b < 0) {
+                capture.publish();
+            } else {
+                capture.write(new byte[] { (byte) b }, 0, 1);
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int n = super.read(b, off, len);
+            if (n < 0) {
+                capture.publish();
+            } else {
+                capture.write(b, off, n);
+            }
+            return n;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            byte[] skipped = new byte[(int) Math.min(n, 8192)];
+            int read = read(skipped, 0, skipped.length);
+            return read < 0 ? 0 : read;
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                super.close();
+            } finally {
+                capture.publish();
+            }
+        }
+    }
+
+    /**
+     * Copies the bytes written to a capture.
+     */
+    static final class TappingOutputStream extends FilterOutputStream {
+        private final Capture capture;
+
+        TappingOutputStream(OutputStream out, Capture capture) {
+            super(out);
+            this.capture = capture;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            capture.write(new byte[] { (byte) b }, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            capture.write(b, off, len);
+        }
+    }
+
+    /**
+     * A bounded multi-producer queue over an array, without locks (after
+     * D. Vyukov's bounded MPMC queue).
+     */
+    private static final class RingBuffer<T> {
+        private final AtomicReferenceArray<T> items;
+        private final AtomicLongArray sequences;
+        private final int mask;
+        private final AtomicLong head = new AtomicLong();
+        private final AtomicLong tail = new AtomicLong();
+
+        RingBuffer(int capacity) {
+            int size = capacity <= 2 ? 2 : Integer.highestOneBit(capacity - 1) << 1;
+            this.items = new AtomicReferenceArray<T>(size);
+            this.sequences = new AtomicLongArray(size);
+            this.mask = size - 1;
+            for (int i = 0; i < size; i++) {
+                sequences.set(i, i);
+            }
+        }
+
+        boolean offer(T item) {
+            while (true) {
+                long pos = tail.get();
+                int i = (int) (pos & mask);
+                long diff = sequences.get(i) - pos;
+                if (diff == 0) {
+                    if (tail.compareAndSet(pos, pos + 1)) {
+                        items.set(i, item);
+                        sequences.set(i, pos + 1);
+                        return true;
+                    }
+                } else if (diff < 0) {
+                    return false;
+                }
+            }
+        }
+
+        T poll() {
+            while (true) {
+                long pos = head.get();
+                int i = (int) (pos & mask);
+                long diff = sequences.get(i) - (pos + 1);
+                if (diff == 0) {
+                    if (head.compareAndSet(pos, pos + 1)) {
+                        T item = items.getAndSet(i, null);
+                        sequences.set(i, pos + mask + 1);
+                        return item;
+                    }
+                } else if (diff < 0) {
+                    return null;
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,240 @@
+/*  Copyright 2008 Fabrizio Cannizzo
+ *
+ *  This file is part of RestFixture.
+ *
+ *  RestFixture (http://code.google.com/p/rest-fixture/) is free software:
+ *  you can redistribute it and/or modify it under the terms of the
+ *  GNU Lesser General Public License as published by the Free Software Foundation,
+ *  either version 3 of the License, or (at your option) any later version.
+ *
+ *  RestFixture is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with RestFixture.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ *  If you want to contact the author please leave a comment here
+ *  http://smartrics.blogspot.com/2008/08/get-fitnesse-with-some-rest.html
+ */
+package smartrics.rest.client;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+import org.apache.commons.httpclient.util.DateUtil;
+import org.junit.Before;
+import org.junit.Test;
+
+public class CachingRestClientTest {
+
+    private static final String BASE_URL = "http://localhost:8080";
+
+    /**
+     * Returns the scripted responses in order, recording the requests.
+     */
+    private static class ScriptedRestClient implements RestClient {
+        private final Deque<RestResponse> responses = new ArrayDeque<RestResponse>();
+        private final List<RestRequest> requests = new ArrayList<RestRequest>();
+        private String baseUrl;
+
+        public void setBaseUrl(String bUrl) {
+            this.baseUrl = bUrl;
+        }
+
+        public String getBaseUrl() {
+            return baseUrl;
+        }
+
+        public RestResponse execute(RestRequest request) {
+            return execute(baseUrl, request);
+        }
+
+        public RestResponse execute(String hostAddr, RestRequest request) {
+            requests.add(request);
+            return responses.removeFirst();
+        }
+
+        public CompletableFuture<RestResponse> executeAsync(RestRequest request) {
+            return executeAsync(baseUrl, request);
+        }
+
+        public CompletableFuture<RestResponse> executeAsync(String hostAddr, RestRequest request) {
+            return CompletableFuture.completedFuture(execute(hostAddr, request));
+        }
+    }
+
+    private ScriptedRestClient server;
+    private CachingRestClient client;
+
+    @Before
+    public void setUp() {
+        server = new ScriptedRestClient();
+        client = new CachingRestClient(server, 1024 * 1024);
+        client.setBaseUrl(BASE_URL);
+    }
+
+    private static RestResponse response(int status, String body, String... headers) {
+        RestResponse r = new RestResponse();
+        r.setStatusCode(status);
+        for (int i = 0; i < headers.length; i += 2) {
+            r.addHeader(headers[i], headers[i + 1]);
+        }
+        r.setBody(body);
+        return r;
+    }
+
+    private static RestRequest get(String resource) {
+        RestRequest request = new RestRequest().setMethod(RestRequest.Method.Get);
+        request.setResource(resource);
+        return request;
+    }
+
+    @Test
+    public void shouldServeFreshResponsesFromTheCache() {
+        server.responses.add(response(200, "v1", "Cache-Control", "max-age=60"));
+        assertEquals("v1", client.execute(get("/ref")).getBody());
+        RestResponse cached = client.execute(get("/ref"));
+        assertEquals("v1", cached.getBody());
+        assertEquals(Integer.valueOf(200), cached.getStatusCode());
+        assertEquals(1, server.requests.size());
+        assertEquals(1, client.getHits());
+    }
+
+    @Test
+    public void shouldReturnCopiesOfTheCachedResponse() {
+        server.responses.add(response(200, "v1", "Cache-Control", "max-age=60"));
+        client.execute(get("/ref")).setBody("changed");
+        RestResponse r1 = client.execute(get("/ref"));
+        RestResponse r2 = client.execute(get("/ref"));
+        assertEquals("v1", r1.getBody());
+        assertNotSame(r1.getRawBody(), r2.getRawBody());
+    }
+
+    @Test
+    public void shouldKeyOnTheQuery() {
+        server.responses.add(response(200, "a", "Cache-Control", "max-age=60"));
+        server.responses.add(response(200, "b", "Cache-Control", "max-age=60"));
+        client.execute(get("/ref").setQuery("a=1"));
+        assertEquals("b", client.execute(get("/ref").setQuery("a=2")).getBody());
+        assertEquals(2, server.requests.size());
+    }
+
+    @Test
+    public void shouldRevalidateStaleResponsesWithTheirValidators() {
+        server.responses.add(response(200, "v1", "Cache-Control", "no-cache", "ETag", "\"abc\"", "Last-Modified", "Mon, 05 Oct 2026 10:00:00 GMT", "X-Version", "1"));
+        server.responses.add(response(304, null, "ETag", "\"abc\"", "X-Version", "2"));
+        client.execute(get("/ref"));
+        RestResponse revalidated = client.execute(get("/ref"));
+        RestRequest conditional = server.requests.get(1);
+        assertEquals("\"abc\"", conditional.getHeaderValue("If-None-Match"));
+        assertEquals("Mon, 05 Oct 2026 10:00:00 GMT", conditional.getHeaderValue("If-Modified-Since"));
+        assertEquals(Integer.valueOf(200), revalidated.getStatusCode());
+        assertEquals("v1", revalidated.getBody());
+        assertEquals("2", revalidated.getHeaderValue("X-Version"));
+        assertEquals(1, revalidated.getHeader("X-Version").size());
+        assertEquals(1, client.getRevalidations());
+    }
+
+    @Test
+    public void shouldNotAddConditionsToTheCallerRequest() {
+        server.responses.add(response(200, "v1", "Cache-Control", "max-age=0", "ETag", "\"abc\""));
+        server.responses.add(response(304, null));
+        RestRequest request = get("/ref");
+        client.execute(request);
+        client.execute(request);
+        assertNull(request.getHeaderValue("If-None-Match"));
+    }
+
+    @Test
+    public void shouldHonourExpires() {
+        String now = DateUtil.formatDate(new Date());
+        String past = DateUtil.formatDate(new Date(System.currentTimeMillis() - 60000));
+        server.responses.add(response(200, "v1", "Date", now, "Expires", past));
+        server.responses.add(response(200, "v2", "Date", now, "Expires", DateUtil.formatDate(new Date(System.currentTimeMillis() + 60000))));
+        client.execute(get("/ref"));
+        assertEquals("v2", client.execute(get("/ref")).getBody());
+        assertEquals("v2", client.execute(get("/ref")).getBody());
+        assertEquals(2, server.requests.size());
+    }
+
+    @Test
+    public void shouldHonourRequestDirectives() {
+        server.responses.add(response(200, "v1", "Cache-Control", "max-age=60"));
+        server.responses.add(response(200, "v2", "Cache-Control", "max-age=60"));
+        client.execute(get("/ref"));
+        RestRequest noCache = get("/ref");
+        noCache.addHeader("Cache-Control", "no-cache");
+        assertEquals("v2", client.execute(noCache).getBody());
+    }
+
+    @Test
+    public void shouldNotStoreNoStoreResponses() {
+        server.responses.add(response(200, "v1", "Cache-Control", "no-store, max-age=60"));
+        server.responses.add(response(200, "v2", "Cache-Control", "max-age=60"));
+        client.execute(get("/ref"));
+        assertEquals("v2", client.execute(get("/ref")).getBody());
+        assertEquals(0, client.getHits());
+    }
+
+    @Test
+    public void shouldMatchOnVaryingHeaders() {
+        server.responses.add(response(200, "json", "Cache-Control", "max-age=60", "Vary", "Accept"));
+        server.responses.add(response(200, "xml", "Cache-Control", "max-age=60", "Vary", "Accept"));
+        client.execute((RestRequest) get("/ref").addHeader("Accept", "application/json"));
+        assertEquals("xml", client.execute((RestRequest) get("/ref").addHeader("Accept", "application/xml")).getBody());
+        assertEquals("xml", client.execute((RestRequest) get("/ref").addHeader("Accept", "application/xml")).getBody());
+        assertEquals(2, server.requests.size());
+    }
+
+    @Test
+    public void shouldInvalidateOnUnsafeMethods() {
+        server.responses.add(response(200, "v1", "Cache-Control", "max-age=60"));
+        server.responses.add(response(204, null));
+        server.responses.add(response(200, "v2", "Cache-Control", "max-age=60"));
+        client.execute(get("/ref"));
+        RestRequest put = new RestRequest().setMethod(RestRequest.Method.Put);
+        put.setResource("/ref");
+        client.execute(put);
+        assertEquals("v2", client.execute(get("/ref")).getBody());
+    }
+
+    @Test
+    public void shouldEvictLeastRecentlyUsedWithinTheByteBudget() {
+        client = new CachingRestClient(server, 2000);
+        char[] chars = new char[500];
+        java.util.Arrays.fill(chars, 'x');
+        String body = new String(chars);
+        server.responses.add(response(200, body, "Cache-Control", "max-age=60"));
+        server.responses.add(response(200, body, "Cache-Control", "max-age=60"));
+        server.responses.add(response(200, body, "Cache-Control", "max-age=60"));
+        client.execute(BASE_URL, get("/a"));
+        client.execute(BASE_URL, get("/b"));
+        client.execute(BASE_URL, get("/a"));
+        client.execute(BASE_URL, get("/c"));
+        RestResponseCache cache = client.getCache();
+        assertEquals(2, cache.size());
+        assertEquals(1, cache.getEvictions());
+        assertTrue(cache.getBytes() <= 2000);
+        client.execute(BASE_URL, get("/a"));
+        assertEquals(3, server.requests.size());
+    }
+
+    @Test
+    public void shouldServeHitsAsynchronously() throws Exception {
+        server.responses.add(response(200, "v1", "Cache-Control", "max-age=60"));
+        client.executeAsync(get("/ref")).get();
+        assertEquals("v1", client.executeAsync(get("/ref")).get().getBody());
+        assertEquals(1, server.requests.size());
+    }
+}
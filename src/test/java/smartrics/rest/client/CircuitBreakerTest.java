@@ -0,0 +1,228 @@
+/*  Copyright 2008 Fabrizio Cannizzo
+ *
+ *  This file is part of RestFixture.
+ *
+ *  RestFixture (http://code.google.com/p/rest-fixture/) is free software:
+ *  you can redistribute it and/or modify it under the terms of the
+ *  GNU Lesser General Public License as published by the Free Software Foundation,
+ *  either version 3 of the License, or (at your option) any later version.
+ *
+ *  RestFixture is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with RestFixture.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ *  If you want to contact the author please leave a comment here
+ *  http://smartrics.blogspot.com/2008/08/get-fitnesse-with-some-rest.html
+ */
+package smartrics.rest.client;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class CircuitBreakerTest {
+
+    /**
+     * Answers with the status set, or fails for IO if the status is 0, or
+     * rejects the request if the status is -1.
+     */
+    private static class StatusTransport implements RestTransport {
+        private final AtomicInteger calls = new AtomicInteger();
+        private volatile int status = 200;
+        private volatile long sleep;
+
+        public RestResponse execute(String hostAddr, RestRequest request) {
+            calls.incrementAndGet();
+            if (sleep > 0) {
+                try {
+                    Thread.sleep(sleep);
+                } catch (InterruptedException e) {
+                    throw new IllegalStateException(e);
+                }
+            }
+            if (status == 0) {
+                throw new IllegalStateException("Http call failed for IO failure", new IOException("connection reset"));
+            }
+            if (status == -1) {
+                throw new IllegalArgumentException("File not found: /missing");
+            }
+            RestResponse response = new RestResponse();
+            response.setStatusCode(status);
+            return response;
+        }
+
+        public CompletableFuture<RestResponse> executeAsync(String hostAddr, RestRequest request) {
+            return CompletableFuture.supplyAsync(() -> execute(hostAddr, request));
+        }
+    }
+
+    private StatusTransport transport;
+    private RestClientImpl client;
+
+    @Before
+    public void setUp() {
+        transport = new StatusTransport();
+        client = RestClientImpl.create(transport).setCircuitBreakers(
+                new CircuitBreakerConfig().setWindowSize(10).setMinimumCalls(4).setOpenDuration(50).setHalfOpenCalls(2));
+        client.setBaseUrl("http://localhost:8080");
+    }
+
+    private static RestRequest get() {
+        return (RestRequest) new RestRequest().setMethod(RestRequest.Method.Get).setResource("/r");
+    }
+
+    @Test
+    public void breakerStaysClosedBelowMinimumCalls() {
+        transport.status = 500;
+        for (int i = 0; i < 3; i++) {
+            assertEquals(Integer.valueOf(500), client.execute(get()).getStatusCode());
+        }
+        assertEquals(CircuitBreaker.State.CLOSED, client.getCircuitBreaker("http://localhost:8080").getState());
+    }
+
+    @Test
+    public void breakerOpensOnFailureRateAndRejectsCalls() {
+        transport.status = 0;
+        for (int i = 0; i < 4; i++) {
+            try {
+                client.execute(get());
+                fail("should have failed");
+            } catch (IllegalStateException e) {
+                assertFalse(e instanceof CircuitBreakerOpenException);
+            }
+        }
+        assertEquals(CircuitBreaker.State.OPEN, client.getCircuitBreaker("http://localhost:8080").getState());
+        try {
+            client.execute(get());
+            fail("should have been rejected");
+        } catch (CircuitBreakerOpenException e) {
+            assertEquals("localhost:8080", e.getHost());
+        }
+        assertEquals(4, transport.calls.get());
+    }
+
+    @Test
+    public void invalidRequestsDontOpenTheBreaker() {
+        transport.status = -1;
+        for (int i = 0; i < 6; i++) {
+            try {
+                client.execute(get());
+                fail("should have failed");
+            } catch (IllegalArgumentException e) {
+                assertEquals("File not found: /missing", e.getMessage());
+            }
+        }
+        assertEquals(CircuitBreaker.State.CLOSED, client.getCircuitBreaker("http://localhost:8080").getState());
+        assertEquals(6, transport.calls.get());
+    }
+
+    @Test
+    public void breakerClosesAfterSuccessfulHalfOpenCalls() throws Exception {
+        transport.status = 503;
+        for (int i = 0; i < 4; i++) {
+            client.execute(get());
+        }
+        CircuitBreaker breaker = client.getCircuitBreaker("http://localhost:8080");
+        assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+        Thread.sleep(80);
+        transport.status = 200;
+        client.execute(get());
+        assertEquals(CircuitBreaker.State.HALF_OPEN, breaker.getState());
+        client.execute(get());
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+    }
+
+    @Test
+    public void breakerReopensOnFailedHalfOpenCalls() throws Exception {
+        transport.status = 503;
+        for (int i = 0; i < 4; i++) {
+            client.execute(get());
+        }
+        CircuitBreaker breaker = client.getCircuitBreaker("http://localhost:8080");
+        Thread.sleep(80);
+        client.execute(get());
+        client.execute(get());
+        assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+    }
+
+    @Test
+    public void halfOpenBreakerLimitsTrialCalls() throws Exception {
+        CircuitBreaker breaker = new CircuitBreaker("h", new CircuitBreakerConfig().setMinimumCalls(1).setOpenDuration(0).setHalfOpenCalls(2));
+        assertTrue(breaker.tryAcquire());
+        breaker.onFailure(0);
+        assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+        assertTrue(breaker.tryAcquire());
+        assertTrue(breaker.tryAcquire());
+        assertFalse(breaker.tryAcquire());
+        breaker.onIgnored();
+        assertTrue(breaker.tryAcquire());
+    }
+
+    @Test
+    public void breakerOpensOnSlowCallRate() {
+        client.setCircuitBreakers(new CircuitBreakerConfig().setWindowSize(10).setMinimumCalls(2).setSlowCallRateThreshold(50).setSlowCallDuration(10));
+        transport.sleep = 20;
+        client.execute(get());
+        CircuitBreaker breaker = client.getCircuitBreaker("http://localhost:8080");
+        assertEquals(100.0, breaker.getSlowCallRate(), 0.001);
+        assertEquals(0.0, breaker.getFailureRate(), 0.001);
+        client.execute(get());
+        assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+    }
+
+    @Test
+    public void breakersAreKeyedOnHost() {
+        assertSame(client.getCircuitBreaker("http://LocalHost:8080/a"), client.getCircuitBreaker("http://localhost:8080/b"));
+        assertNotSame(client.getCircuitBreaker("http://localhost:8080"), client.getCircuitBreaker("http://localhost:8081"));
+    }
+
+    @Test
+    public void baseUrlsAreCachedUpToABound() {
+        CircuitBreakers breakers = new CircuitBreakers(new CircuitBreakerConfig());
+        CircuitBreaker first = breakers.get("http://localhost:8080/items/0");
+        for (int i = 1; i < 5000; i++) {
+            assertSame(first, breakers.get("http://localhost:8080/items/" + i));
+        }
+        assertEquals(1024, breakers.getCachedBaseUrls());
+    }
+
+    @Test
+    public void asyncCallsAreRecordedAndRejected() throws Exception {
+        transport.status = 500;
+        for (int i = 0; i < 4; i++) {
+            assertEquals(Integer.valueOf(500), client.executeAsync(get()).get().getStatusCode());
+        }
+        CircuitBreaker breaker = client.getCircuitBreaker("http://localhost:8080");
+        long deadline = System.currentTimeMillis() + 1000;
+        while (breaker.getState() != CircuitBreaker.State.OPEN && System.currentTimeMillis() < deadline) {
+            Thread.sleep(5);
+        }
+        assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+        try {
+            client.executeAsync(get()).get();
+            fail("should have been rejected");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof CircuitBreakerOpenException);
+        }
+    }
+
+    @Test
+    public void breakersAreDisabledByDefault() {
+        assertEquals(null, RestClientImpl.create(transport).getCircuitBreaker("http://localhost:8080"));
+    }
+}
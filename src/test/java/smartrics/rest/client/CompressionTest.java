@@ -0,0 +1,232 @@
+/*  Copyright 2008 Fabrizio Cannizzo
+ *
+ *  This file is part of RestFixture.
+ *
+ *  RestFixture (http://code.google.com/p/rest-fixture/) is free software:
+ *  you can redistribute it and/or modify it under the terms of the
+ *  GNU Lesser General Public License as published by the Free Software Foundation,
+ *  either version 3 of the License, or (at your option) any later version.
+ *
+ *  RestFixture is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with RestFixture.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ *  If you want to contact the author please leave a comment here
+ *  http://smartrics.blogspot.com/2008/08/get-fitnesse-with-some-rest.html
+ */
+package smartrics.rest.client;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import org.apache.commons.httpclient.HttpClient;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+public class CompressionTest {
+
+    private static final String PAYLOAD;
+
+    static {
+        StringBuilder b = new StringBuilder();
+        for (int i = 0; i < 500; i++) {
+            b.append("{\"id\":").append(i).append(",\"name\":\"item\"},");
+        }
+        PAYLOAD = b.toString();
+    }
+
+    private HttpServer server;
+    private String baseUrl;
+
+    @Before
+    public void setUp() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        // responds with the payload, encoded as requested; echoes the decoded request body otherwise
+        server.createContext("/", exchange -> {
+            String accept = exchange.getRequestHeaders().getFirst("Accept-Encoding");
+            byte[] body;
+            if ("POST".equals(exchange.getRequestMethod())) {
+                InputStream in = exchange.getRequestBody();
+                if ("gzip".equals(exchange.getRequestHeaders().getFirst("Content-Encoding"))) {
+                    in = new GZIPInputStream(in);
+                }
+                body = (exchange.getRequestHeaders().getFirst("Content-Encoding") + " " + new String(in.readAllBytes(), "UTF-8")).getBytes("UTF-8");
+                accept = null;
+            } else {
+                body = PAYLOAD.getBytes("UTF-8");
+            }
+            exchange.getResponseHeaders().add("X-Accept-Encoding", String.valueOf(accept));
+            if (accept != null && accept.contains("gzip")) {
+                body = gzip(body);
+                exchange.getResponseHeaders().add("Content-Encoding", "gzip");
+            } else if (accept != null && accept.contains("deflate")) {
+                body = deflate(body);
+                exchange.getResponseHeaders().add("Content-Encoding", "deflate");
+            }
+            send(exchange, body);
+        });
+        server.start();
+        baseUrl = "http://127.0.0.1:" + server.getAddress().getPort();
+    }
+
+    @After
+    public void tearDown() {
+        server.stop(0);
+    }
+
+    private static void send(HttpExchange exchange, byte[] body) throws IOException {
+        exchange.sendResponseHeaders(200, body.length);
+        OutputStream out = exchange.getResponseBody();
+        out.write(body);
+        out.close();
+    }
+
+    private static byte[] gzip(byte[] bytes) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        GZIPOutputStream gz = new GZIPOutputStream(out);
+        gz.write(bytes);
+        gz.close();
+        return out.toByteArray();
+    }
+
+    private static byte[] deflate(byte[] bytes) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        DeflaterOutputStream d = new DeflaterOutputStream(out);
+        d.write(bytes);
+        d.close();
+        return out.toByteArray();
+    }
+
+    private RestClient httpClient3(Compression compression) {
+        return new RestClientBuilder().setBaseUrl(baseUrl).setCompression(compression).build();
+    }
+
+    private RestClient jdk(Compression compression) {
+        RestClient client = RestClientImpl.create(new JdkHttpTransport().setCompression(compression));
+        client.setBaseUrl(baseUrl);
+        return client;
+    }
+
+    private static RestRequest get() {
+        RestRequest request = new RestRequest().setMethod(RestRequest.Method.Get);
+        request.setResource("/items");
+        return request;
+    }
+
+    private void assertDecoded(RestClient client, String acceptEncoding) {
+        RestResponse response = client.execute(get());
+        assertEquals(acceptEncoding, response.getHeaderValue("X-Accept-Encoding"));
+        assertNull(response.getHeaderValue("Content-Encoding"));
+        assertNull(response.getHeaderValue("Content-Length"));
+        assertEquals(PAYLOAD, response.getBody());
+    }
+
+    @Test
+    public void shouldAdvertiseAndDecodeGzip() {
+        assertDecoded(httpClient3(new Compression()), "gzip, deflate");
+        assertDecoded(jdk(new Compression()), "gzip, deflate");
+    }
+
+    @Test
+    public void shouldDecodeDeflate() {
+        RestRequest request = get();
+        request.addHeader("Accept-Encoding", "deflate");
+        assertEquals(PAYLOAD, httpClient3(new Compression()).execute(request).getBody());
+        assertEquals(PAYLOAD, jdk(new Compression()).execute(request).getBody());
+    }
+
+    @Test
+    public void shouldDecodeStreamedResponses() throws IOException {
+        for (RestClient client : new RestClient[] { httpClient3(new Compression()), jdk(new Compression()) }) {
+            RestResponse response = client.execute(get().setStreamingResponse(true));
+            InputStream body = response.getBodyStream();
+            assertEquals(PAYLOAD, new String(body.readAllBytes(), "UTF-8"));
+            body.close();
+        }
+    }
+
+    @Test
+    public void shouldDecodeAsynchronousResponses() throws Exception {
+        for (RestClient client : new RestClient[] { httpClient3(new Compression()), jdk(new Compression()) }) {
+            RestResponse response = client.executeAsync(get()).get(5, TimeUnit.SECONDS);
+            assertNull(response.getHeaderValue("Content-Encoding"));
+            assertEquals(PAYLOAD, response.getBody());
+        }
+    }
+
+    @Test
+    public void shouldLeaveResponsesAloneWithoutCompression() {
+        RestResponse response = new RestClientImpl(new HttpClient()).execute(baseUrl, get());
+        assertEquals("null", response.getHeaderValue("X-Accept-Encoding"));
+        assertEquals(PAYLOAD, response.getBody());
+    }
+
+    @Test
+    public void shouldGzipRequestBodiesAboveTheThreshold() {
+        Compression compression = new Compression().setRequestCompressionThreshold(1024);
+        for (RestClient client : new RestClient[] { httpClient3(compression), jdk(compression) }) {
+            RestRequest small = new RestRequest().setMethod(RestRequest.Method.Post);
+            small.setResource("/items");
+            small.setBody("small");
+            assertEquals("null small", client.execute(small).getBody());
+            RestRequest large = new RestRequest().setMethod(RestRequest.Method.Post);
+            large.setResource("/items");
+            large.setBody(PAYLOAD);
+            assertEquals("gzip " + PAYLOAD, client.execute(large).getBody());
+            RestRequest stream = new RestRequest().setMethod(RestRequest.Method.Post).setBodySource(RestRequestBody.of(new ByteArrayInputStream(PAYLOAD.getBytes())));
+            stream.setResource("/items");
+            assertEquals("gzip " + PAYLOAD, client.execute(stream).getBody());
+        }
+    }
+
+    @Test
+    public void shouldPlugInDecoders() throws IOException {
+        ContentDecoder reversing = new ContentDecoder() {
+            public String getEncoding() {
+                return "rev";
+            }
+
+            public InputStream decode(InputStream encoded) throws IOException {
+                byte[] b = encoded.readAllBytes();
+                for (int i = 0; i < b.length / 2; i++) {
+                    byte t = b[i];
+                    b[i] = b[b.length - 1 - i];
+                    b[b.length - 1 - i] = t;
+                }
+                return new ByteArrayInputStream(b);
+            }
+        };
+        Compression compression = new Compression().addDecoder(reversing);
+        assertEquals("rev, gzip, deflate", compression.getAcceptEncoding());
+        InputStream decoded = compression.decode("rev, gzip", new ByteArrayInputStream(gzip("cba".getBytes())));
+        assertArrayEquals("abc".getBytes(), decoded.readAllBytes());
+    }
+
+    @Test
+    public void shouldGzipStreamsAsTheyAreRead() throws IOException {
+        byte[] payload = PAYLOAD.getBytes("UTF-8");
+        RestRequestBody gzipped = Compression.gzip(RestRequestBody.of(new ByteArrayInputStream(payload)));
+        assertEquals(-1, gzipped.getContentLength());
+        assertArrayEquals(payload, new GZIPInputStream(gzipped.openStream()).readAllBytes());
+    }
+}
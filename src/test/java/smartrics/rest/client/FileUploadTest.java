@@ -0,0 +1,253 @@
+/*  Copyright 2008 Fabrizio Cannizzo
+ *
+ *  This file is part of RestFixture.
+ *
+ *  RestFixture (http://code.google.com/p/rest-fixture/) is free software:
+ *  you can redistribute it and/or modify it under the terms of the
+ *  GNU Lesser General Public License as published by the Free Software Foundation,
+ *  either version 3 of the License, or (at your option) any later version.
+ *
+ *  RestFixture is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with RestFixture.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ *  If you want to contact the author please leave a comment here
+ *  http://smartrics.blogspot.com/2008/08/get-fitnesse-with-some-rest.html
+ */
+package smartrics.rest.client;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Flow;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.sun.net.httpserver.HttpServer;
+
+public class FileUploadTest {
+
+    private HttpServer server;
+    private String baseUrl;
+    private Path file;
+    private byte[] content;
+    private volatile byte[] received;
+    private volatile String receivedContentType;
+
+    @Before
+    public void setUp() throws Exception {
+        content = new byte[FileRegion.MAPPED_CHUNK_SIZE + 10000];
+        new Random(42).nextBytes(content);
+        file = Files.createTempFile("upload", ".bin");
+        Files.write(file, content);
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/", exchange -> {
+            receivedContentType = exchange.getRequestHeaders().getFirst("Content-Type");
+            received = exchange.getRequestBody().readAllBytes();
+            exchange.sendResponseHeaders(200, -1);
+            exchange.close();
+        });
+        server.start();
+        baseUrl = "http://127.0.0.1:" + server.getAddress().getPort();
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        server.stop(0);
+        Files.deleteIfExists(file);
+    }
+
+    private RestRequest post() {
+        return (RestRequest) new RestRequest().setMethod(RestRequest.Method.Post).setResource("/upload");
+    }
+
+    private byte[] slice(int offset, int length) {
+        return Arrays.copyOfRange(content, offset, offset + length);
+    }
+
+    @Test
+    public void uploadsARangeOfAFileOverAPooledConnection() {
+        RestClientImpl client = new RestClientBuilder().setBaseUrl(baseUrl).build();
+        RestResponse response = client.execute(post().setFileName(file.toString(), 1000, FileRegion.MAPPED_CHUNK_SIZE + 5000));
+        assertEquals(Integer.valueOf(200), response.getStatusCode());
+        assertArrayEquals(slice(1000, FileRegion.MAPPED_CHUNK_SIZE + 5000), received);
+        assertEquals("application/octet-stream", receivedContentType);
+    }
+
+    @Test
+    public void uploadsAWholeFileOverAPooledConnection() {
+        RestClientImpl client = new RestClientBuilder().setBaseUrl(baseUrl).build();
+        client.execute(post().setFileName(file.toString()));
+        assertArrayEquals(content, received);
+    }
+
+    @Test
+    public void uploadsARangeOfAFileWithTheJdkTransport() {
+        RestClientImpl client = RestClientImpl.create(new JdkHttpTransport());
+        client.setBaseUrl(baseUrl);
+        client.execute(post().setFileName(file.toString(), 7, FileRegion.MAPPED_CHUNK_SIZE + 3));
+        assertArrayEquals(slice(7, FileRegion.MAPPED_CHUNK_SIZE + 3), received);
+    }
+
+    @Test
+    public void uploadsABodySourceRangeWithTheJdkTransport() {
+        RestClientImpl client = RestClientImpl.create(new JdkHttpTransport());
+        client.setBaseUrl(baseUrl);
+        client.execute(post().setBodySource(RestRequestBody.of(file, 10, 20)));
+        assertArrayEquals(slice(10, 20), received);
+    }
+
+    @Test
+    public void uploadsMultipartFileRangesWithBothTransports() {
+        RestClientImpl[] clients = { new RestClientBuilder().setBaseUrl(baseUrl).build(), RestClientImpl.create(new JdkHttpTransport()) };
+        clients[1].setBaseUrl(baseUrl);
+        for (RestClientImpl client : clients) {
+            received = null;
+            RestRequest request = post().addMultipart("part", new RestMultipart(RestMultipart.RestMultipartType.FILE, file.toString()).setRange(100, 50));
+            request.addMultipart("text", new RestMultipart(RestMultipart.RestMultipartType.STRING, "hello"));
+            client.execute(request);
+            assertTrue(receivedContentType, receivedContentType.startsWith("multipart/form-data; boundary="));
+            assertTrue(receivedContentType, receivedContentType.length() - "multipart/form-data; boundary=".length() >= 30);
+            String body = new String(received, StandardCharsets.ISO_8859_1);
+            String part = new String(slice(100, 50), StandardCharsets.ISO_8859_1);
+            assertTrue(body.contains("filename=\"" + file.getFileName() + "\"\r\n"));
+            assertTrue(body.contains("\r\n\r\n" + part + "\r\n--"));
+            assertTrue(body.contains("hello"));
+            assertEquals(50 + body.length() - part.length(), received.length);
+        }
+    }
+
+    @Test
+    public void transfersMakingNoProgressFallBackToACopy() throws Exception {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        WritableByteChannel stalling = new WritableByteChannel() {
+            private boolean stalled;
+
+            public int write(ByteBuffer src) {
+                if (!stalled) {
+                    stalled = true;
+                    return 0;
+                }
+                int n = src.remaining();
+                byte[] bytes = new byte[n];
+                src.get(bytes);
+                out.write(bytes, 0, n);
+                return n;
+            }
+
+            public boolean isOpen() {
+                return true;
+            }
+
+            public void close() {
+            }
+        };
+        FileRegion.of(file, 5, 1000).transferTo(stalling);
+        assertArrayEquals(slice(5, 1000), out.toByteArray());
+    }
+
+    @Test
+    public void rangesBeyondTheEndOfTheFileAreRejected() {
+        try {
+            RestRequestBody.of(file, content.length - 1, 2);
+            fail("range beyond the end accepted");
+        } catch (IllegalArgumentException e) {
+            assertTrue(e.getMessage(), e.getMessage().startsWith("Range"));
+        }
+        try {
+            new RestRequest().setFileName(file.toString(), -1, 2);
+            fail("negative offset accepted");
+        } catch (IllegalArgumentException e) {
+            assertEquals("Negative offset: -1", e.getMessage());
+        }
+    }
+
+    @Test
+    public void regionsAreCopiedFromTheMappedFileToStreams() throws IOException {
+        FileRegion region = FileRegion.of(file, 3, FileRegion.MAPPED_CHUNK_SIZE + 1);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        region.writeTo(out);
+        assertArrayEquals(slice(3, FileRegion.MAPPED_CHUNK_SIZE + 1), out.toByteArray());
+        try (InputStream in = region.openStream()) {
+            assertArrayEquals(slice(3, FileRegion.MAPPED_CHUNK_SIZE + 1), in.readAllBytes());
+        }
+    }
+
+    @Test
+    public void regionsAreTransferredToChannelsAfterTheBufferedBytes() throws IOException {
+        ByteArrayOutputStream target = new ByteArrayOutputStream();
+        OutputStream out = new FileRegion.ChannelOutputStream(new BufferedOutputStream(target), Channels.newChannel(target));
+        out.write("head".getBytes(StandardCharsets.US_ASCII));
+        FileRegion.of(file, 5, 10).writeTo(out);
+        out.write("tail".getBytes(StandardCharsets.US_ASCII));
+        out.flush();
+        ByteArrayOutputStream expected = new ByteArrayOutputStream();
+        expected.write("head".getBytes(StandardCharsets.US_ASCII));
+        expected.write(slice(5, 10));
+        expected.write("tail".getBytes(StandardCharsets.US_ASCII));
+        assertArrayEquals(expected.toByteArray(), target.toByteArray());
+    }
+
+    @Test
+    public void theWholeFileIsPublishedInMappedChunks() throws Exception {
+        MappedBodyPublisher publisher = MappedBodyPublisher.of(FileRegion.of(file, 0, -1));
+        assertEquals(content.length, publisher.contentLength());
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        CountDownLatch completed = new CountDownLatch(1);
+        int[] chunks = new int[1];
+        publisher.subscribe(new Flow.Subscriber<ByteBuffer>() {
+            public void onSubscribe(Flow.Subscription subscription) {
+                subscription.request(Long.MAX_VALUE);
+            }
+
+            public void onNext(ByteBuffer item) {
+                assertTrue(item.isDirect());
+                chunks[0]++;
+                byte[] bytes = new byte[item.remaining()];
+                item.get(bytes);
+                out.write(bytes, 0, bytes.length);
+            }
+
+            public void onError(Throwable throwable) {
+            }
+
+            public void onComplete() {
+                completed.countDown();
+            }
+        });
+        assertTrue(completed.await(5, TimeUnit.SECONDS));
+        assertEquals(2, chunks[0]);
+        assertArrayEquals(content, out.toByteArray());
+    }
+
+    @Test(expected = IOException.class)
+    public void filesTruncatedAfterTheRangeIsSetFailTheUpload() throws IOException {
+        FileRegion region = FileRegion.of(file, 0, 100);
+        Files.write(file, new byte[10]);
+        region.writeTo(new ByteArrayOutputStream());
+    }
+}
@@ -0,0 +1,238 @@
+/*  Copyright 2008 Fabrizio Cannizzo
+ *
+ *  This file is part of RestFixture.
+ *
+ *  RestFixture (http://code.google.com/p/rest-fixture/) is free software:
+ *  you can redistribute it and/or modify it under the terms of the
+ *  GNU Lesser General Public License as published by the Free Software Foundation,
+ *  either version 3 of the License, or (at your option) any later version.
+ *
+ *  RestFixture is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with RestFixture.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ *  If you want to contact the author please leave a comment here
+ *  http://smartrics.blogspot.com/2008/08/get-fitnesse-with-some-rest.html
+ */
+package smartrics.rest.client;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.lang.reflect.Field;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class HedgingRestClientTest {
+
+    private static final String PRIMARY = "http://primary";
+    private static final String REPLICA = "http://replica";
+
+    private final ScheduledExecutorService scheduler = Executors.newScheduledThreadPool(2);
+
+    /**
+     * Responds after the delay set for the base url, with the base url as body.
+     * Base urls with a negative delay fail.
+     */
+    private class DelayedRestClient implements RestClient {
+        private final Map<String, Long> delays = new ConcurrentHashMap<String, Long>();
+        private final AtomicInteger calls = new AtomicInteger();
+        private final AtomicInteger cancelled = new AtomicInteger();
+
+        public void setBaseUrl(String bUrl) {
+        }
+
+        public String getBaseUrl() {
+            return PRIMARY;
+        }
+
+        public RestResponse execute(RestRequest request) {
+            return executeAsync(request).join();
+        }
+
+        public RestResponse execute(String hostAddr, RestRequest request) {
+            return executeAsync(hostAddr, request).join();
+        }
+
+        public CompletableFuture<RestResponse> executeAsync(RestRequest request) {
+            return executeAsync(getBaseUrl(), request);
+        }
+
+        public CompletableFuture<RestResponse> executeAsync(final String hostAddr, RestRequest request) {
+            calls.incrementAndGet();
+            final CompletableFuture<RestResponse> f = new CompletableFuture<RestResponse>();
+            long delay = delays.get(hostAddr);
+            scheduler.schedule(() -> {
+                if (delay < 0) {
+                    f.completeExceptionally(new IllegalStateException("Http call failed for IO failure"));
+                } else {
+                    RestResponse r = new RestResponse();
+                    r.setStatusCode(200);
+                    r.setBody(hostAddr);
+                    f.complete(r);
+                }
+            }, Math.abs(delay), TimeUnit.MILLISECONDS);
+            f.whenComplete((r, e) -> {
+                if (f.isCancelled()) {
+                    cancelled.incrementAndGet();
+                }
+            });
+            return f;
+        }
+    }
+
+    private DelayedRestClient server;
+    private HedgingRestClient client;
+
+    @Before
+    public void setUp() {
+        server = new DelayedRestClient();
+        client = new HedgingRestClient(server).setHedgeDelay(50).setAlternateBaseUrls(REPLICA);
+    }
+
+    @After
+    public void tearDown() {
+        scheduler.shutdownNow();
+    }
+
+    /**
+     * Losers are cancelled after the winner completes the call.
+     */
+    private int awaitCancelled(int expected) {
+        long deadline = System.currentTimeMillis() + 1000;
+        while (server.cancelled.get() < expected && System.currentTimeMillis() < deadline) {
+            Thread.yield();
+        }
+        return server.cancelled.get();
+    }
+
+    private static RestRequest get() {
+        RestRequest request = new RestRequest().setMethod(RestRequest.Method.Get);
+        request.setResource("/res");
+        return request;
+    }
+
+    @Test
+    public void shouldNotHedgeFastCalls() throws Exception {
+        server.delays.put(PRIMARY, 5L);
+        server.delays.put(REPLICA, 5L);
+        assertEquals(PRIMARY, client.execute(get()).getBody());
+        Thread.sleep(100);
+        assertEquals(1, server.calls.get());
+        assertEquals(0, client.getHedges());
+    }
+
+    @Test
+    public void shouldTakeTheHedgeWhenFirstAndCancelThePrimary() {
+        server.delays.put(PRIMARY, 2000L);
+        server.delays.put(REPLICA, 5L);
+        long start = System.currentTimeMillis();
+        assertEquals(REPLICA, client.execute(get()).getBody());
+        assertTrue(System.currentTimeMillis() - start < 1000);
+        assertEquals(1, client.getHedges());
+        assertEquals(1, client.getHedgesWon());
+        assertEquals(1, awaitCancelled(1));
+    }
+
+    @Test
+    public void shouldKeepThePrimaryWhenFirst() {
+        server.delays.put(PRIMARY, 100L);
+        server.delays.put(REPLICA, 2000L);
+        assertEquals(PRIMARY, client.execute(get()).getBody());
+        assertEquals(1, client.getHedges());
+        assertEquals(0, client.getHedgesWon());
+        assertEquals(1, awaitCancelled(1));
+    }
+
+    @Test
+    public void shouldNotHedgeNonIdempotentCalls() {
+        server.delays.put(PRIMARY, 100L);
+        RestRequest post = new RestRequest().setMethod(RestRequest.Method.Post);
+        post.setResource("/res");
+        assertEquals(PRIMARY, client.execute(post).getBody());
+        assertEquals(1, server.calls.get());
+    }
+
+    @Test
+    public void shouldFailWhenThePrimaryFailsBeforeTheHedge() throws Exception {
+        server.delays.put(PRIMARY, -5L);
+        server.delays.put(REPLICA, 5L);
+        try {
+            client.execute(get());
+            fail("should have failed");
+        } catch (IllegalStateException e) {
+            Thread.sleep(100);
+            assertEquals(0, client.getHedges());
+        }
+    }
+
+    @Test
+    public void shouldWaitForTheHedgeWhenThePrimaryFailsAfterIt() {
+        server.delays.put(PRIMARY, -100L);
+        server.delays.put(REPLICA, 200L);
+        assertEquals(REPLICA, client.execute(get()).getBody());
+    }
+
+    @Test
+    public void shouldHedgeAtTheObservedPercentile() {
+        server.delays.put(PRIMARY, 1L);
+        client.setHedgeDelayPercentile(95, 16);
+        assertEquals(50, client.getHedgeDelay(get()));
+        for (int i = 0; i < 16; i++) {
+            client.execute(get());
+        }
+        long delay = client.getHedgeDelay(get());
+        assertTrue("delay " + delay, delay >= 1 && delay < 50);
+    }
+
+    @Test
+    public void shouldKeepTheHedgeDelayUnderASteadySlowTail() {
+        server.delays.put(PRIMARY, 60L);
+        server.delays.put(REPLICA, 1L);
+        client.setHedgeDelay(30).setHedgeDelayPercentile(95, 5);
+        for (int i = 0; i < 20; i++) {
+            assertEquals(REPLICA, client.execute(get()).getBody());
+            long delay = client.getHedgeDelay(get());
+            assertTrue("delay " + delay, delay >= 30);
+        }
+        assertEquals(20, client.getHedgesWon());
+    }
+
+    @Test
+    public void shouldComputePercentiles() {
+        LatencyWindow window = new LatencyWindow(128, 95);
+        for (int i = 1; i <= 160; i++) {
+            window.record(i);
+        }
+        // the last 128 samples: 33..160
+        assertEquals(154, window.get(160));
+        assertEquals(-1, window.get(161));
+    }
+
+    @Test
+    public void shouldKeepRecordingPastTwoToTheThirtyOneSamples() throws Exception {
+        LatencyWindow window = new LatencyWindow(100, 50);
+        Field count = LatencyWindow.class.getDeclaredField("count");
+        count.setAccessible(true);
+        ((AtomicLong) count.get(window)).set(Integer.MAX_VALUE - 8L);
+        for (int i = 0; i < 32; i++) {
+            window.record(7);
+        }
+        assertTrue(window.get(1) >= 0);
+    }
+}
@@ -0,0 +1,220 @@
+/*  Copyright 2008 Fabrizio Cannizzo
+ *
+ *  This file is part of RestFixture.
+ *
+ *  RestFixture (http://code.google.com/p/rest-fixture/) is free software:
+ *  you can redistribute it and/or modify it under the terms of the
+ *  GNU Lesser General Public License as published by the Free Software Foundation,
+ *  either version 3 of the License, or (at your option) any later version.
+ *
+ *  RestFixture is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with RestFixture.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ *  If you want to contact the author please leave a comment here
+ *  http://smartrics.blogspot.com/2008/08/get-fitnesse-with-some-rest.html
+ */
+package smartrics.rest.client;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.util.concurrent.ExecutionException;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+public class JdkHttpTransportTest {
+
+    private HttpServer server;
+    private String baseUrl;
+    private RestClient client;
+
+    @Before
+    public void setUp() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/", new HttpHandler() {
+            public void handle(HttpExchange exchange) throws IOException {
+                byte[] requestBody = readAll(exchange.getRequestBody());
+                String echo = exchange.getRequestMethod() + " " + exchange.getRequestURI() + " " + exchange.getRequestHeaders().getFirst("X-Test") + " " + new String(requestBody, "UTF-8");
+                byte[] body = echo.getBytes("UTF-8");
+                exchange.getResponseHeaders().add("Content-Type", "text/plain; charset=UTF-8");
+                exchange.sendResponseHeaders(200, body.length);
+                OutputStream out = exchange.getResponseBody();
+                out.write(body);
+                out.close();
+            }
+        });
+        server.start();
+        baseUrl = "http://127.0.0.1:" + server.getAddress().getPort();
+        client = RestClientImpl.create(new JdkHttpTransport());
+        client.setBaseUrl(baseUrl);
+    }
+
+    @After
+    public void tearDown() {
+        server.stop(0);
+    }
+
+    @Test
+    public void shouldExecuteAGetWithQueryAndHeaders() {
+        RestRequest request = new RestRequest().setMethod(RestRequest.Method.Get).setQuery("a=1&b=2");
+        request.setResource("/a/resource").addHeader("X-Test", "hdr");
+        RestResponse response = client.execute(request);
+        assertEquals(Integer.valueOf(200), response.getStatusCode());
+        assertEquals("OK", response.getStatusText());
+        assertEquals("GET /a/resource?a=1&b=2 hdr ", response.getBody());
+        assertEquals(request.getTransactionId(), response.getTransactionId());
+        assertTrue(response.getContentType().startsWith("text/plain"));
+    }
+
+    @Test
+    public void shouldSendEscapedResourcesAsTheyAre() {
+        RestRequest request = new RestRequest().setMethod(RestRequest.Method.Get).setQuery("a=1").setResourceUriEscaped(true);
+        request.setResource("/a%20b");
+        assertEquals("GET /a%20b?a=1 null ", client.execute(request).getBody());
+    }
+
+    @Test
+    public void shouldSkipHeadersManagedByTheJdkClient() {
+        RestRequest request = new RestRequest().setMethod(RestRequest.Method.Get);
+        request.setResource("/managed").addHeader("Connection", "close").addHeader("Via", "1.1 proxy").addHeader("X-Test", "hdr");
+        assertEquals("GET /managed hdr ", client.execute(request).getBody());
+    }
+
+    @Test
+    public void shouldNotSendCredentialsOnRedirectsToAnotherOrigin() throws IOException {
+        server.createContext("/moved", exchange -> {
+            exchange.getResponseHeaders().add("Location", exchange.getRequestURI().getQuery());
+            exchange.sendResponseHeaders(302, -1);
+            exchange.close();
+        });
+        HttpServer other = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        other.createContext("/", exchange -> {
+            byte[] body = (exchange.getRequestHeaders().getFirst("Authorization") + " " + exchange.getRequestHeaders().getFirst("X-Test")).getBytes("UTF-8");
+            exchange.sendResponseHeaders(200, body.length);
+            exchange.getResponseBody().write(body);
+            exchange.close();
+        });
+        other.start();
+        try {
+            RestRequest request = new RestRequest().setMethod(RestRequest.Method.Get).setQuery("http://127.0.0.1:" + other.getAddress().getPort() + "/target");
+            request.setResource("/moved").addHeader("Authorization", "Basic c2VjcmV0").addHeader("X-Test", "hdr");
+            assertEquals("null hdr", client.execute(request).getBody());
+            request.setQuery(baseUrl + "/target");
+            assertEquals("GET /target hdr ", client.execute(request).getBody());
+        } finally {
+            other.stop(0);
+        }
+    }
+
+    @Test
+    public void shouldSendTheRawBodyOfAPost() {
+        RestRequest request = new RestRequest().setMethod(RestRequest.Method.Post);
+        request.setResource("/post").setBody("<x>body</x>");
+        RestResponse response = client.execute(request);
+        assertEquals("POST /post null <x>body</x>", response.getBody());
+    }
+
+    @Test
+    public void shouldSendBodySources() throws Exception {
+        RestRequest request = new RestRequest().setMethod(RestRequest.Method.Put);
+        request.setResource("/put");
+        ByteBuffer direct = ByteBuffer.allocateDirect(6);
+        direct.put("direct".getBytes("UTF-8")).flip();
+        request.setBodySource(RestRequestBody.of(direct));
+        assertEquals("PUT /put null direct", client.execute(request).getBody());
+
+        request.setBodySource(RestRequestBody.of(new ByteArrayInputStream("chunked".getBytes("UTF-8"))));
+        assertEquals("PUT /put null chunked", client.execute(request).getBody());
+
+        File f = File.createTempFile("body", null);
+        f.deleteOnExit();
+        Files.write(f.toPath(), "file".getBytes("UTF-8"));
+        request.setBodySource(RestRequestBody.of(f.toPath()));
+        assertEquals("PUT /put null file", client.execute(request).getBody());
+    }
+
+    @Test
+    public void shouldExecuteAsynchronously() throws Exception {
+        RestRequest request = new RestRequest().setMethod(RestRequest.Method.Delete);
+        request.setResource("/async");
+        RestResponse response = client.executeAsync(request).get();
+        assertEquals("DELETE /async null ", response.getBody());
+    }
+
+    @Test
+    public void http2TransportShouldFallBackToHttp11WhenTheServerDoesNotSupportIt() {
+        RestClient http2Client = RestClientImpl.create(JdkHttpTransport.http2());
+        RestRequest request = new RestRequest().setMethod(RestRequest.Method.Get);
+        request.setResource("/h2");
+        RestResponse response = http2Client.execute(baseUrl, request);
+        assertEquals(Integer.valueOf(200), response.getStatusCode());
+        assertEquals("GET /h2 null ", response.getBody());
+    }
+
+    @Test
+    public void shouldStreamTheResponseBody() throws Exception {
+        RestRequest request = new RestRequest().setMethod(RestRequest.Method.Get).setStreamingResponse(true);
+        request.setResource("/stream");
+        RestResponse response = client.execute(request);
+        assertTrue(response.isBodyStreamed());
+        InputStream body = response.getBodyStream();
+        assertEquals("GET /stream null ", new String(readAll(body), "UTF-8"));
+        response.close();
+    }
+
+    @Test
+    public void shouldBufferAStreamedBodyOnFirstAccess() {
+        RestRequest request = new RestRequest().setMethod(RestRequest.Method.Get).setStreamingResponse(true);
+        request.setResource("/lazy");
+        RestResponse response = client.execute(request);
+        assertEquals("GET /lazy null ", response.getBody());
+        assertEquals("GET /lazy null ", response.getBody());
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void shouldNotifyCallerThatNullHostAddressesAreNotHandled() {
+        client.execute(null, (RestRequest) new RestRequest().setMethod(RestRequest.Method.Get).setResource("/a"));
+    }
+
+    @Test
+    public void shouldNotifyCallerOfIoFailuresViaTheFuture() throws Exception {
+        server.stop(0);
+        try {
+            client.executeAsync((RestRequest) new RestRequest().setMethod(RestRequest.Method.Get).setResource("/a")).get();
+            fail("expected failure");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof IllegalStateException);
+        }
+    }
+
+    private static byte[] readAll(InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[4096];
+        int read;
+        while ((read = in.read(buffer)) != -1) {
+            out.write(buffer, 0, read);
+        }
+        return out.toByteArray();
+    }
+}
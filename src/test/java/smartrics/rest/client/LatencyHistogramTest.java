@@ -0,0 +1,198 @@
+/*  Copyright 2008 Fabrizio Cannizzo
+ *
+ *  This file is part of RestFixture.
+ *
+ *  RestFixture (http://code.google.com/p/rest-fixture/) is free software:
+ *  you can redistribute it and/or modify it under the terms of the
+ *  GNU Lesser General Public License as published by the Free Software Foundation,
+ *  either version 3 of the License, or (at your option) any later version.
+ *
+ *  RestFixture is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with RestFixture.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ *  If you want to contact the author please leave a comment here
+ *  http://smartrics.blogspot.com/2008/08/get-fitnesse-with-some-rest.html
+ */
+package smartrics.rest.client;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayOutputStream;
+import java.io.StringReader;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.Deflater;
+
+import org.junit.Test;
+
+public class LatencyHistogramTest {
+
+    @Test
+    public void percentilesAreWithinPrecision() {
+        LatencyHistogram h = new LatencyHistogram(TimeUnit.HOURS.toMicros(1), 2);
+        for (int i = 1; i <= 10000; i++) {
+            h.record(i * 10L);
+        }
+        assertEquals(10000, h.getCount());
+        assertWithin(50000, h.getValueAtPercentile(50), 0.01);
+        assertWithin(99000, h.getValueAtPercentile(99), 0.01);
+        assertWithin(99900, h.getValueAtPercentile(99.9), 0.01);
+        assertWithin(100000, h.getMax(), 0.01);
+        assertEquals(10, h.getMin());
+        assertWithin(50005, (long) h.getMean(), 0.01);
+    }
+
+    @Test
+    public void smallValuesAreExact() {
+        LatencyHistogram h = new LatencyHistogram(1000, 3);
+        h.record(7);
+        h.record(3);
+        assertEquals(3, h.getValueAtPercentile(50));
+        assertEquals(7, h.getMax());
+    }
+
+    @Test
+    public void valuesAboveTheHighestTrackableAreClamped() {
+        LatencyHistogram h = new LatencyHistogram(1000, 2);
+        h.record(1000000);
+        assertWithin(1000, h.getMax(), 0.01);
+    }
+
+    @Test
+    public void concurrentRecordingLosesNoValues() throws Exception {
+        final LatencyHistogram h = new LatencyHistogram(1000000, 2);
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        for (int t = 0; t < 4; t++) {
+            executor.execute(() -> {
+                for (int i = 0; i < 100000; i++) {
+                    h.record(i % 5000);
+                }
+            });
+        }
+        executor.shutdown();
+        assertTrue(executor.awaitTermination(10, TimeUnit.SECONDS));
+        assertEquals(400000, h.getCount());
+    }
+
+    @Test
+    public void intervalSnapshotsMoveTheCounts() {
+        LatencyHistogram h = new LatencyHistogram(1000000, 2);
+        h.record(100);
+        h.record(200);
+        LatencyHistogram first = h.intervalSnapshot();
+        h.record(300);
+        LatencyHistogram second = h.intervalSnapshot();
+        assertEquals(2, first.getCount());
+        assertEquals(1, second.getCount());
+        assertEquals(0, h.getCount());
+        assertEquals(3, first.copy().add(second).getCount());
+    }
+
+    @Test
+    public void histogramsSurviveEncoding() {
+        LatencyHistogram h = new LatencyHistogram(1000000, 3);
+        for (int i = 0; i < 1000; i++) {
+            h.record(i * i);
+        }
+        LatencyHistogram decoded = LatencyHistogram.decode(h.encode());
+        assertEquals(h.getCount(), decoded.getCount());
+        assertEquals(h.getValueAtPercentile(99), decoded.getValueAtPercentile(99));
+        assertEquals(3, decoded.getSignificantDigits());
+    }
+
+    /**
+     * @return a histogram encoded as {@link LatencyHistogram#encode()} does, from its raw fields
+     */
+    private static String encode(long... fields) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        for (long value : fields) {
+            while ((value & ~0x7FL) != 0) {
+                out.write((int) ((value & 0x7F) | 0x80));
+                value >>>= 7;
+            }
+            out.write((int) value);
+        }
+        Deflater deflater = new Deflater();
+        deflater.setInput(out.toByteArray());
+        deflater.finish();
+        byte[] buffer = new byte[1024];
+        int n = deflater.deflate(buffer);
+        deflater.end();
+        return Base64.getEncoder().encodeToString(Arrays.copyOf(buffer, n));
+    }
+
+    @Test
+    public void corruptEncodingsAreRejected() {
+        assertEquals(2, LatencyHistogram.decode(encode(1, 3, 1000000, 5, 2)).getCount());
+        String[] corrupt = { encode(1, 3, 1000000, 1L << 40, 1), encode(1, 3, 1000000, 5, 2, -1, 1), encode(1, 3, 1000000, 5, -2), encode(1, 9, 1000000),
+                encode(1, 3, 1000000, 5) };
+        for (String encoded : corrupt) {
+            try {
+                LatencyHistogram.decode(encoded);
+                fail("should have failed");
+            } catch (IllegalArgumentException e) {
+                assertTrue(e.getMessage(), e.getMessage().contains("histogram"));
+            }
+        }
+    }
+
+    @Test
+    public void recorderKeysOnMethodTemplateAndStatusClass() throws Exception {
+        LatencyRecorder recorder = new LatencyRecorder();
+        recorder.requestCompleted(event("/users/42?x=1", 200, 1500));
+        recorder.requestCompleted(event("/users/7", 201, 2500));
+        recorder.requestCompleted(event("/users/7", 404, 500));
+        recorder.requestCompleted(event("/users/123e4567-e89b-12d3-a456-426614174000/orders", null, 500));
+        Map<String, LatencyHistogram> histograms = recorder.getHistograms();
+        assertEquals(3, histograms.size());
+        assertEquals(2, histograms.get("Get /users/{id} 2xx").getCount());
+        assertEquals(1, histograms.get("Get /users/{id} 4xx").getCount());
+        assertEquals(1, histograms.get("Get /users/{id}/orders failed").getCount());
+        assertTrue(histograms.get("Get /users/{id} 2xx").getMax() >= 2000);
+    }
+
+    @Test
+    public void logsOfSeveralRecordersMerge() throws Exception {
+        LatencyRecorder a = new LatencyRecorder();
+        LatencyRecorder b = new LatencyRecorder();
+        a.requestCompleted(event("/r", 200, 1000));
+        b.requestCompleted(event("/r", 200, 3000));
+        b.requestCompleted(event("/s", 500, 3000));
+        StringBuilder log = new StringBuilder();
+        a.writeLog(log);
+        b.writeLog(log);
+        assertEquals(0, a.getHistograms().get("Get /r 2xx").getCount());
+        Map<String, LatencyHistogram> merged = LatencyRecorder.readLog(new StringReader(log.toString()));
+        assertEquals(2, merged.get("Get /r 2xx").getCount());
+        assertEquals(1, merged.get("Get /s 5xx").getCount());
+        assertTrue(LatencyRecorder.report(merged).contains("Get /r 2xx"));
+    }
+
+    private static RestClientEvent event(String resource, Integer status, long micros) throws Exception {
+        RestRequest request = (RestRequest) new RestRequest().setMethod(RestRequest.Method.Get).setResource(resource);
+        RestResponse response = null;
+        if (status != null) {
+            response = new RestResponse();
+            response.setStatusCode(status);
+        }
+        RequestTimings timings = new RequestTimings();
+        Thread.sleep(TimeUnit.MICROSECONDS.toMillis(micros));
+        timings.end();
+        return new RestClientEvent("http://localhost", request, response, status == null ? new IllegalStateException() : null, timings);
+    }
+
+    private static void assertWithin(long expected, long actual, double precision) {
+        assertTrue("expected " + expected + " but was " + actual, Math.abs(expected - actual) <= expected * precision);
+    }
+}
@@ -0,0 +1,186 @@
+/*  Copyright 2008 Fabrizio Cannizzo
+ *
+ *  This file is part of RestFixture.
+ *
+ *  RestFixture (http://code.google.com/p/rest-fixture/) is free software:
+ *  you can redistribute it and/or modify it under the terms of the
+ *  GNU Lesser General Public License as published by the Free Software Foundation,
+ *  either version 3 of the License, or (at your option) any later version.
+ *
+ *  RestFixture is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with RestFixture.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ *  If you want to contact the author please leave a comment here
+ *  http://smartrics.blogspot.com/2008/08/get-fitnesse-with-some-rest.html
+ */
+package smartrics.rest.client;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.OutputStream;
+import java.io.StringReader;
+import java.net.InetSocketAddress;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import com.sun.net.httpserver.HttpServer;
+
+public class LoadGeneratorTest {
+
+    private static final String SCENARIO = "# test scenario\n"
+            + "base-url http://localhost:8080\n"
+            + "transport jdk\n"
+            + "rate 100 1\n"
+            + "rate 200 1\n"
+            + "request Get /users/{seq}?q={random:10} 3\n"
+            + "header Accept: application/json\n"
+            + "request Post /users\n"
+            + "body {\"name\": \"user{seq}\"}\n";
+
+    @Test
+    public void scenariosAreParsed() throws Exception {
+        LoadScenario s = LoadScenario.parse(new StringReader(SCENARIO));
+        assertEquals("http://localhost:8080", s.getBaseUrl());
+        assertEquals("jdk", s.getTransport());
+        assertEquals(2, s.getSteps().size());
+        assertEquals(200.0, s.getSteps().get(1).getRate(), 0.0);
+        assertEquals(2, s.getTemplates().size());
+        RestRequest get = s.getTemplates().get(0).newRequest(7, new Random());
+        assertEquals("/users/7", get.getResource());
+        assertTrue(get.getQuery().matches("q=[0-9]"));
+        assertEquals("application/json", get.getHeader("Accept").get(0).getValue());
+        RestRequest post = s.getTemplates().get(1).newRequest(8, new Random());
+        assertEquals(RestRequest.Method.Post, post.getMethod());
+        assertEquals("{\"name\": \"user8\"}", post.getBody());
+        assertNull(post.getQuery());
+    }
+
+    @Test
+    public void invalidLinesAreReported() throws Exception {
+        try {
+            LoadScenario.parse(new StringReader("rate 100\n"));
+            fail("should have failed");
+        } catch (IllegalArgumentException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains("line 1"));
+        }
+    }
+
+    @Test
+    public void randomPlaceholdersWithoutAPositiveBoundAreReported() throws Exception {
+        String[] scenarios = { "request Get /a/{random:0}\n", "request Get /a\nheader X-Id: {random:0}\n", "request Post /a\nbody {\"id\":{random:00}}\n",
+                "request Get /a/{random:99999999999}\n" };
+        int[] lines = { 1, 2, 2, 1 };
+        for (int i = 0; i < scenarios.length; i++) {
+            try {
+                LoadScenario.parse(new StringReader(scenarios[i]));
+                fail("should have failed: " + scenarios[i]);
+            } catch (IllegalArgumentException e) {
+                assertTrue(e.getMessage(), e.getMessage().contains("line " + lines[i]));
+                assertTrue(e.getMessage(), e.getMessage().contains("{random:"));
+            }
+        }
+    }
+
+    @Test
+    public void callsAreSentAtTheScenarioRates() throws Exception {
+        HttpServer server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/", exchange -> {
+            exchange.getRequestBody().readAllBytes();
+            byte[] body = "ok".getBytes("UTF-8");
+            exchange.sendResponseHeaders(exchange.getRequestMethod().equals("POST") ? 201 : 200, body.length);
+            OutputStream out = exchange.getResponseBody();
+            out.write(body);
+            out.close();
+        });
+        server.start();
+        try {
+            LoadScenario s = LoadScenario.parse(new StringReader(SCENARIO));
+            s.setBaseUrl("http://127.0.0.1:" + server.getAddress().getPort());
+            LoadReport report = new LoadGenerator(LoadGenerator.newClient(s), s).run();
+            assertEquals(2, report.getSteps().size());
+            LoadReport.StepResult first = report.getSteps().get(0);
+            assertEquals(100, first.getSent());
+            assertEquals(100, first.getCompleted());
+            assertEquals(100, first.getResponses(2));
+            assertEquals(200, report.getSteps().get(1).getCompleted());
+            assertTrue(first.getCorrected().getValueAtPercentile(99) >= first.getUncorrected().getValueAtPercentile(99));
+            assertTrue(report.toString().contains("p99.9"));
+        } finally {
+            server.stop(0);
+        }
+    }
+
+    /**
+     * @return a client whose calls complete after the delay, or never if negative
+     */
+    private static RestClientImpl clientAnsweringAfter(final long delayMillis) {
+        return RestClientImpl.create(new RestTransport() {
+            public RestResponse execute(String hostAddr, RestRequest request) {
+                throw new UnsupportedOperationException();
+            }
+
+            public CompletableFuture<RestResponse> executeAsync(String hostAddr, RestRequest request) {
+                if (delayMillis < 0) {
+                    return new CompletableFuture<RestResponse>();
+                }
+                return CompletableFuture.supplyAsync(() -> new RestResponse().setStatusCode(200),
+                        CompletableFuture.delayedExecutor(delayMillis, TimeUnit.MILLISECONDS));
+            }
+        });
+    }
+
+    @Test
+    public void callsBeyondMaxInFlightWaitAndCountTheWait() throws Exception {
+        LoadScenario s = new LoadScenario().setMaxInFlight(5).addStep(new LoadScenario.Step(100, 1))
+                .addTemplate(new LoadScenario.Template(RestRequest.Method.Get, "/", 1));
+        LoadReport.StepResult step = new LoadGenerator(clientAnsweringAfter(100), s).run().getSteps().get(0);
+        assertEquals(100, step.getSent());
+        assertEquals(100, step.getCompleted());
+        assertTrue(step.getOverloaded() > 50);
+        assertTrue(step.getCorrected().getMax() >= 900000);
+        assertTrue(step.getUncorrected().getMax() < 900000);
+    }
+
+    @Test
+    public void callsInFlightAtTheEndAreCountedAsUnfinished() throws Exception {
+        LoadScenario s = new LoadScenario().addStep(new LoadScenario.Step(10, 1)).addTemplate(new LoadScenario.Template(RestRequest.Method.Get, "/", 1));
+        LoadReport.StepResult step = new LoadGenerator(clientAnsweringAfter(-1), s).setDrainTimeout(100, TimeUnit.MILLISECONDS).run().getSteps().get(0);
+        assertEquals(10, step.getSent());
+        assertEquals(0, step.getCompleted());
+        assertEquals(10, step.getUnfinished());
+        assertEquals(10, step.getCorrected().getCount());
+        assertTrue(step.getCorrected().getMax() >= 100000);
+    }
+
+    @Test
+    public void warmupCallsDontUseTheBudgetOfTheFirstStep() throws Exception {
+        LoadScenario s = new LoadScenario().setWarmupSeconds(1).setMaxInFlight(10).addStep(new LoadScenario.Step(10, 1))
+                .addTemplate(new LoadScenario.Template(RestRequest.Method.Get, "/", 1));
+        LoadReport.StepResult step = new LoadGenerator(clientAnsweringAfter(-1), s).setDrainTimeout(100, TimeUnit.MILLISECONDS).run().getSteps().get(0);
+        assertEquals(10, step.getSent());
+        assertEquals(0, step.getOverloaded());
+    }
+
+    @Test
+    public void aStuckServerFailsTheRun() throws Exception {
+        LoadScenario s = new LoadScenario().setMaxInFlight(2).addStep(new LoadScenario.Step(10, 1))
+                .addTemplate(new LoadScenario.Template(RestRequest.Method.Get, "/", 1));
+        try {
+            new LoadGenerator(clientAnsweringAfter(-1), s).setDrainTimeout(100, TimeUnit.MILLISECONDS).run();
+            fail("should have failed");
+        } catch (IllegalStateException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains("2 calls in flight"));
+        }
+    }
+}
@@ -22,9 +22,11 @@ package smartrics.rest.client;
 
 import static org.junit.Assert.assertTrue;
 
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+
 import org.apache.commons.httpclient.Header;
 import org.apache.commons.httpclient.methods.EntityEnclosingMethod;
-import org.apache.commons.httpclient.methods.FileRequestEntity;
 import org.apache.commons.httpclient.methods.multipart.MultipartRequestEntity;
 
 public class MockHttpMethod extends EntityEnclosingMethod {
@@ -32,6 +34,7 @@ public class MockHttpMethod extends EntityEnclosingMethod {
     private String name;
     private int statusCode;
     private boolean connectionReleased = false;
+    private byte[] responseBody;
 
     public MockHttpMethod(String name) {
         this.name = name;
@@ -49,6 +52,18 @@ public class MockHttpMethod extends EntityEnclosingMethod {
         return "response";
     }
 
+    public void setResponseBody(byte[] body) {
+        this.responseBody = body;
+    }
+
+    public byte[] getResponseBody() {
+        return responseBody;
+    }
+
+    public InputStream getResponseBodyAsStream() {
+        return responseBody == null ? null : new ByteArrayInputStream(responseBody);
+    }
+
     public void setStatusCode(int rc) {
         this.statusCode = rc;
     }
@@ -72,11 +87,15 @@ public class MockHttpMethod extends EntityEnclosingMethod {
         assertTrue("connection not released on mock http method", connectionReleased);
     }
 
+    public boolean isConnectionReleased() {
+        return connectionReleased;
+    }
+
     public boolean isMultipartRequest() {
         return getRequestEntity().getClass().equals(MultipartRequestEntity.class);
     }
 
     public boolean isFileRequest() {
-        return getRequestEntity().getClass().equals(FileRequestEntity.class);
+        return getRequestEntity().getClass().equals(FileRegionEntity.class);
     }
 }
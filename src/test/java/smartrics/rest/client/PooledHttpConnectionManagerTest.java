@@ -0,0 +1,176 @@
+/*  Copyright 2008 Fabrizio Cannizzo
+ *
+ *  This file is part of RestFixture.
+ *
+ *  RestFixture (http://code.google.com/p/rest-fixture/) is free software:
+ *  you can redistribute it and/or modify it under the terms of the
+ *  GNU Lesser General Public License as published by the Free Software Foundation,
+ *  either version 3 of the License, or (at your option) any later version.
+ *
+ *  RestFixture is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with RestFixture.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ *  If you want to contact the author please leave a comment here
+ *  http://smartrics.blogspot.com/2008/08/get-fitnesse-with-some-rest.html
+ */
+package smartrics.rest.client;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.ref.WeakReference;
+import java.net.InetSocketAddress;
+
+import org.apache.commons.httpclient.ConnectionPoolTimeoutException;
+import org.apache.commons.httpclient.HostConfiguration;
+import org.apache.commons.httpclient.HttpClient;
+import org.apache.commons.httpclient.HttpConnection;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.sun.net.httpserver.HttpServer;
+
+public class PooledHttpConnectionManagerTest {
+
+    private HttpServer server;
+    private String baseUrl;
+    private HostConfiguration host;
+
+    @Before
+    public void setUp() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/", exchange -> {
+            byte[] body = "ok".getBytes("UTF-8");
+            exchange.sendResponseHeaders(200, body.length);
+            OutputStream out = exchange.getResponseBody();
+            out.write(body);
+            out.close();
+        });
+        server.start();
+        baseUrl = "http://127.0.0.1:" + server.getAddress().getPort();
+        host = new HostConfiguration();
+        host.setHost("127.0.0.1", server.getAddress().getPort());
+    }
+
+    @After
+    public void tearDown() {
+        server.stop(0);
+    }
+
+    @Test
+    public void shouldReuseReleasedConnections() {
+        PooledHttpConnectionManager manager = new PooledHttpConnectionManager();
+        HttpConnection c1 = manager.getConnection(host);
+        manager.releaseConnection(c1);
+        HttpConnection c2 = manager.getConnection(host);
+        assertSame(c1, c2);
+        PoolStats stats = manager.getStats();
+        assertEquals(1, stats.getLeased());
+        assertEquals(0, stats.getAvailable());
+        assertEquals(2, stats.getAcquisitions());
+        manager.releaseConnection(c2);
+        assertEquals(1, manager.getStats().getAvailable());
+        assertEquals(0, manager.getStats().getLeased());
+    }
+
+    @Test
+    public void shouldTimeOutWhenThePerRouteLimitIsReached() throws Exception {
+        PooledHttpConnectionManager manager = new RestClientBuilder().setMaxConnectionsPerRoute(1).buildConnectionManager();
+        manager.getConnection(host);
+        try {
+            manager.getConnectionWithTimeout(host, 50);
+            fail("should have timed out");
+        } catch (ConnectionPoolTimeoutException e) {
+            assertEquals(0, manager.getStats().getPending());
+        }
+    }
+
+    @Test
+    public void shouldHandOverReleasedConnectionsToWaiters() throws Exception {
+        final PooledHttpConnectionManager manager = new RestClientBuilder().setMaxTotalConnections(1).buildConnectionManager();
+        final HttpConnection c1 = manager.getConnection(host);
+        Thread releaser = new Thread(() -> {
+            while (manager.getStats().getPending() == 0) {
+                Thread.yield();
+            }
+            manager.releaseConnection(c1);
+        });
+        releaser.start();
+        HttpConnection c2 = manager.getConnectionWithTimeout(host, 5000);
+        releaser.join();
+        assertSame(c1, c2);
+        assertTrue(manager.getStats().getMaxWaitMillis() > 0);
+    }
+
+    @Test
+    public void shouldCloseConnectionsOlderThanTheTimeToLive() throws Exception {
+        PooledHttpConnectionManager manager = new PooledHttpConnectionManager();
+        manager.setTimeToLive(1);
+        HttpConnection c1 = manager.getConnection(host);
+        Thread.sleep(5);
+        manager.releaseConnection(c1);
+        assertEquals(0, manager.getStats().getAvailable());
+        assertNotSame(c1, manager.getConnection(host));
+    }
+
+    @Test
+    public void shouldEvictIdleConnections() throws Exception {
+        PooledHttpConnectionManager manager = new PooledHttpConnectionManager();
+        manager.releaseConnection(manager.getConnection(host));
+        Thread.sleep(5);
+        manager.closeIdleConnections(1);
+        assertEquals(0, manager.getStats().getAvailable());
+    }
+
+    @Test
+    public void shouldBuildAPooledClient() {
+        RestClientImpl client = new RestClientBuilder().setBaseUrl(baseUrl).setMaxConnectionsPerRoute(2).setValidateAfterInactivity(0).build();
+        for (int i = 0; i < 5; i++) {
+            RestResponse response = client.execute((RestRequest) new RestRequest().setMethod(RestRequest.Method.Get).setResource("/"));
+            assertEquals(Integer.valueOf(200), response.getStatusCode());
+            assertEquals("ok", response.getBody());
+        }
+        PoolStats stats = client.getPoolStats();
+        assertEquals(0, stats.getLeased());
+        assertEquals(1, stats.getAvailable());
+        assertEquals(5, stats.getAcquisitions());
+    }
+
+    @Test
+    public void shouldNotReportStatsForUnpooledClients() {
+        assertNull(new RestClientImpl(new HttpClient()).getPoolStats());
+    }
+
+    @Test
+    public void shouldNotKeepUnreachablePoolsWithAnIdleTimeoutAlive() throws Exception {
+        PooledHttpConnectionManager manager = new RestClientBuilder().setIdleConnectionTimeout(60000).buildConnectionManager();
+        WeakReference<PooledHttpConnectionManager> ref = new WeakReference<PooledHttpConnectionManager>(manager);
+        manager = null;
+        for (int i = 0; i < 100 && ref.get() != null; i++) {
+            System.gc();
+            Thread.sleep(50);
+        }
+        assertNull(ref.get());
+    }
+
+    @Test
+    public void closingTheClientShouldShutThePoolDown() {
+        RestClientImpl client = new RestClientBuilder().setBaseUrl(baseUrl).setIdleConnectionTimeout(60000).build();
+        client.execute((RestRequest) new RestRequest().setMethod(RestRequest.Method.Get).setResource("/"));
+        assertEquals(1, client.getPoolStats().getAvailable());
+        client.close();
+        assertEquals(0, client.getPoolStats().getAvailable());
+    }
+}
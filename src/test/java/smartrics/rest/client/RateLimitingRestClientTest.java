@@ -0,0 +1,177 @@
+/*  Copyright 2008 Fabrizio Cannizzo
+ *
+ *  This file is part of RestFixture.
+ *
+ *  RestFixture (http://code.google.com/p/rest-fixture/) is free software:
+ *  you can redistribute it and/or modify it under the terms of the
+ *  GNU Lesser General Public License as published by the Free Software Foundation,
+ *  either version 3 of the License, or (at your option) any later version.
+ *
+ *  RestFixture is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with RestFixture.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ *  If you want to contact the author please leave a comment here
+ *  http://smartrics.blogspot.com/2008/08/get-fitnesse-with-some-rest.html
+ */
+package smartrics.rest.client;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class RateLimitingRestClientTest {
+
+    private static class CountingTransport implements RestTransport {
+        private final AtomicInteger calls = new AtomicInteger();
+
+        public RestResponse execute(String hostAddr, RestRequest request) {
+            calls.incrementAndGet();
+            RestResponse response = new RestResponse();
+            response.setStatusCode(200);
+            return response;
+        }
+
+        public CompletableFuture<RestResponse> executeAsync(String hostAddr, RestRequest request) {
+            return CompletableFuture.completedFuture(execute(hostAddr, request));
+        }
+    }
+
+    private CountingTransport transport;
+    private RateLimitingRestClient client;
+
+    @Before
+    public void setUp() {
+        transport = new CountingTransport();
+        client = new RateLimitingRestClient(RestClientImpl.create(transport));
+        client.setBaseUrl("http://localhost:8080");
+    }
+
+    private static RestRequest get(String resource) {
+        return (RestRequest) new RestRequest().setMethod(RestRequest.Method.Get).setResource(resource);
+    }
+
+    @Test
+    public void limiterAllowsBurstThenRejects() {
+        RateLimiter limiter = new RateLimiter(1, 3);
+        assertTrue(limiter.tryAcquire());
+        assertTrue(limiter.tryAcquire());
+        assertTrue(limiter.tryAcquire());
+        assertFalse(limiter.tryAcquire());
+    }
+
+    @Test
+    public void limiterPacesWaitingCallers() {
+        RateLimiter limiter = new RateLimiter(100, 1);
+        long start = System.nanoTime();
+        for (int i = 0; i < 6; i++) {
+            limiter.acquire();
+        }
+        long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        assertTrue("elapsed " + elapsed, elapsed >= 45);
+    }
+
+    @Test
+    public void limiterTimesOut() {
+        RateLimiter limiter = new RateLimiter(1, 1);
+        assertTrue(limiter.tryAcquire(0, TimeUnit.MILLISECONDS));
+        assertFalse(limiter.tryAcquire(10, TimeUnit.MILLISECONDS));
+    }
+
+    @Test
+    public void callsToLimitedHostAreRejectedBeyondMaxWait() {
+        client.setRateLimit("http://LOCALHOST:8080/", 1, 2).setMaxWait(0);
+        client.execute(get("/a"));
+        client.execute(get("/b"));
+        try {
+            client.execute(get("/c"));
+            fail("should have been rejected");
+        } catch (RateLimitExceededException e) {
+            assertEquals(2, transport.calls.get());
+        }
+        assertEquals(1, client.getRejected());
+        client.execute("http://localhost:8081", get("/a"));
+        assertEquals(3, transport.calls.get());
+        assertNull(client.getRateLimiter("http://localhost:8081"));
+    }
+
+    @Test
+    public void callsRejectedByTheHostLimitGiveBackTheResourcePermits() {
+        client.setRateLimit("http://localhost:8080", 1, 1).setRateLimit("http://localhost:8080", "/search.*", 1, 2).setMaxWait(0);
+        client.execute(get("/search/1"));
+        try {
+            client.execute(get("/search/2"));
+            fail("should have been rejected");
+        } catch (RateLimitExceededException e) {
+            assertEquals(1, transport.calls.get());
+        }
+        // lift the host limit: the resource permit the rejected call took is still there
+        client.setRateLimit("http://localhost:8080", 1000, 1000);
+        client.execute(get("/search/3"));
+        assertEquals(2, transport.calls.get());
+        assertEquals(1, client.getRejected());
+    }
+
+    @Test
+    public void callsToLimitedResourcesTakeBothPermits() {
+        client.setRateLimit("http://localhost:8080", 1000, 1000).setRateLimit("http://localhost:8080", "/search.*", 1, 1).setMaxWait(0);
+        client.execute(get("/search?q=1"));
+        client.execute(get("/other"));
+        client.execute(get("/other"));
+        try {
+            client.execute(get("/search/2"));
+            fail("should have been rejected");
+        } catch (RateLimitExceededException e) {
+        }
+    }
+
+    @Test
+    public void callsWaitForPermits() {
+        client.setRateLimit("http://localhost:8080", 50, 1);
+        long start = System.nanoTime();
+        client.execute(get("/a"));
+        client.execute(get("/a"));
+        client.execute(get("/a"));
+        long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        assertTrue("elapsed " + elapsed, elapsed >= 35);
+        assertEquals(2, client.getDelayed());
+    }
+
+    @Test
+    public void asyncCallsWaitForPermits() throws Exception {
+        client.setRateLimit("http://localhost:8080", 50, 1);
+        long start = System.nanoTime();
+        CompletableFuture<RestResponse> first = client.executeAsync(get("/a"));
+        CompletableFuture<RestResponse> second = client.executeAsync(get("/a"));
+        assertEquals(Integer.valueOf(200), first.get().getStatusCode());
+        assertEquals(Integer.valueOf(200), second.get().getStatusCode());
+        long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        assertTrue("elapsed " + elapsed, elapsed >= 15);
+    }
+
+    @Test
+    public void asyncCallsAreRejectedBeyondMaxWait() throws Exception {
+        client.setRateLimit("http://localhost:8080", 1, 1).setMaxWait(10);
+        client.executeAsync(get("/a")).get();
+        try {
+            client.executeAsync(get("/a")).get();
+            fail("should have been rejected");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof RateLimitExceededException);
+        }
+    }
+}
@@ -0,0 +1,237 @@
+/*  Copyright 2008 Fabrizio Cannizzo
+ *
+ *  This file is part of RestFixture.
+ *
+ *  RestFixture (http://code.google.com/p/rest-fixture/) is free software:
+ *  you can redistribute it and/or modify it under the terms of the
+ *  GNU Lesser General Public License as published by the Free Software Foundation,
+ *  either version 3 of the License, or (at your option) any later version.
+ *
+ *  RestFixture is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with RestFixture.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ *  If you want to contact the author please leave a comment here
+ *  http://smartrics.blogspot.com/2008/08/get-fitnesse-with-some-rest.html
+ */
+package smartrics.rest.client;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class RequestCoalescerTest {
+
+    /**
+     * Holds every call until released.
+     */
+    private static class GatedTransport implements RestTransport {
+        private final CountDownLatch gate = new CountDownLatch(1);
+        private final AtomicInteger calls = new AtomicInteger();
+        private volatile boolean fail;
+        private volatile Error error;
+        private volatile CompletableFuture<RestResponse> lastAsync;
+
+        public RestResponse execute(String hostAddr, RestRequest request) {
+            calls.incrementAndGet();
+            try {
+                gate.await(5, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                throw new IllegalStateException(e);
+            }
+            if (fail) {
+                throw new IllegalStateException("Http call failed for IO failure");
+            }
+            if (error != null) {
+                throw error;
+            }
+            RestResponse response = new RestResponse();
+            response.setStatusCode(200);
+            response.setBody(request.getResource() + "?" + request.getQuery());
+            return response;
+        }
+
+        public CompletableFuture<RestResponse> executeAsync(String hostAddr, RestRequest request) {
+            lastAsync = CompletableFuture.supplyAsync(() -> execute(hostAddr, request));
+            return lastAsync;
+        }
+    }
+
+    private final ExecutorService executor = Executors.newCachedThreadPool();
+    private GatedTransport transport;
+    private RestClientImpl client;
+
+    @Before
+    public void setUp() {
+        transport = new GatedTransport();
+        client = RestClientImpl.create(transport).setRequestCoalescing(true);
+        client.setBaseUrl("http://localhost:8080");
+    }
+
+    @After
+    public void tearDown() {
+        executor.shutdownNow();
+    }
+
+    private static RestRequest get(String query) {
+        RestRequest request = new RestRequest().setMethod(RestRequest.Method.Get).setQuery(query);
+        request.setResource("/ref");
+        return request;
+    }
+
+    private List<Future<RestResponse>> submit(int n, final String query) {
+        List<Future<RestResponse>> futures = new ArrayList<Future<RestResponse>>();
+        for (int i = 0; i < n; i++) {
+            futures.add(executor.submit(() -> client.execute(get(query))));
+        }
+        return futures;
+    }
+
+    private void awaitCoalesced(long n) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (client.getCoalescedRequests() < n && System.currentTimeMillis() < deadline) {
+            Thread.sleep(1);
+        }
+    }
+
+    @Test
+    public void shouldSendIdenticalRequestsInFlightOnce() throws Exception {
+        List<Future<RestResponse>> futures = submit(8, "a=1");
+        awaitCoalesced(7);
+        transport.gate.countDown();
+        Map<RestResponse, Boolean> distinct = new IdentityHashMap<RestResponse, Boolean>();
+        for (Future<RestResponse> f : futures) {
+            RestResponse r = f.get();
+            assertEquals("/ref?a=1", r.getBody());
+            distinct.put(r, Boolean.TRUE);
+        }
+        assertEquals(1, transport.calls.get());
+        assertEquals(8, distinct.size());
+    }
+
+    @Test
+    public void shouldGiveFollowersTheirOwnBody() throws Exception {
+        List<Future<RestResponse>> futures = submit(2, "a=1");
+        awaitCoalesced(1);
+        transport.gate.countDown();
+        assertNotSame(futures.get(0).get().getRawBody(), futures.get(1).get().getRawBody());
+    }
+
+    @Test
+    public void shouldNotCoalesceDifferentRequests() throws Exception {
+        List<Future<RestResponse>> futures = submit(1, "a=1");
+        futures.addAll(submit(1, "a=2"));
+        long deadline = System.currentTimeMillis() + 5000;
+        while (transport.calls.get() < 2 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(1);
+        }
+        transport.gate.countDown();
+        assertEquals("/ref?a=2", futures.get(1).get().getBody());
+        assertEquals(2, transport.calls.get());
+        assertEquals(0, client.getCoalescedRequests());
+    }
+
+    @Test
+    public void shouldPropagateFailuresToFollowers() throws Exception {
+        transport.fail = true;
+        List<Future<RestResponse>> futures = submit(3, "a=1");
+        awaitCoalesced(2);
+        transport.gate.countDown();
+        for (Future<RestResponse> f : futures) {
+            try {
+                f.get();
+                fail("should have failed");
+            } catch (ExecutionException e) {
+                assertTrue(e.getCause() instanceof IllegalStateException);
+            }
+        }
+        assertEquals(1, transport.calls.get());
+    }
+
+    @Test
+    public void shouldCoalesceAsynchronousRequests() throws Exception {
+        CompletableFuture<RestResponse> f1 = client.executeAsync(get("a=1"));
+        CompletableFuture<RestResponse> f2 = client.executeAsync(get("a=1"));
+        transport.gate.countDown();
+        assertEquals("/ref?a=1", f1.get().getBody());
+        assertEquals("/ref?a=1", f2.get().getBody());
+        assertEquals(1, transport.calls.get());
+        assertEquals(1, client.getCoalescedRequests());
+    }
+
+    @Test
+    public void shouldReleaseTheKeyWhenTheLeaderThrowsAnError() {
+        transport.gate.countDown();
+        transport.error = new AssertionError("boom");
+        try {
+            client.execute(get("a=1"));
+            fail("should have failed");
+        } catch (AssertionError e) {
+            assertEquals("boom", e.getMessage());
+        }
+        transport.error = null;
+        assertEquals("/ref?a=1", client.execute(get("a=1")).getBody());
+        assertEquals(2, transport.calls.get());
+    }
+
+    @Test
+    public void shouldCancelTheCallWhenTheLeaderIsCancelled() {
+        CompletableFuture<RestResponse> f = client.executeAsync(get("a=1"));
+        f.cancel(true);
+        assertTrue(transport.lastAsync.isCancelled());
+        transport.gate.countDown();
+    }
+
+    @Test
+    public void shouldGiveFollowersTheResponseWhenTheLeaderIsCancelled() throws Exception {
+        CompletableFuture<RestResponse> leader = client.executeAsync(get("a=1"));
+        CompletableFuture<RestResponse> follower = client.executeAsync(get("a=1"));
+        leader.cancel(true);
+        assertFalse(transport.lastAsync.isCancelled());
+        transport.gate.countDown();
+        assertEquals("/ref?a=1", follower.get(5, TimeUnit.SECONDS).getBody());
+        assertEquals(1, transport.calls.get());
+    }
+
+    @Test
+    public void shouldCancelTheCallWhenEveryRequestIsCancelled() {
+        CompletableFuture<RestResponse> leader = client.executeAsync(get("a=1"));
+        CompletableFuture<RestResponse> follower = client.executeAsync(get("a=1"));
+        follower.cancel(true);
+        assertFalse(transport.lastAsync.isCancelled());
+        leader.cancel(true);
+        assertTrue(transport.lastAsync.isCancelled());
+        transport.gate.countDown();
+    }
+
+    @Test
+    public void shouldSendRequestsAgainOnceCompleted() {
+        transport.gate.countDown();
+        client.execute(get("a=1"));
+        client.execute(get("a=1"));
+        assertEquals(2, transport.calls.get());
+    }
+}
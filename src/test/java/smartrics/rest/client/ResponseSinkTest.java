@@ -0,0 +1,165 @@
+/*  Copyright 2008 Fabrizio Cannizzo
+ *
+ *  This file is part of RestFixture.
+ *
+ *  RestFixture (http://code.google.com/p/rest-fixture/) is free software:
+ *  you can redistribute it and/or modify it under the terms of the
+ *  GNU Lesser General Public License as published by the Free Software Foundation,
+ *  either version 3 of the License, or (at your option) any later version.
+ *
+ *  RestFixture is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with RestFixture.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ *  If you want to contact the author please leave a comment here
+ *  http://smartrics.blogspot.com/2008/08/get-fitnesse-with-some-rest.html
+ */
+package smartrics.rest.client;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.sun.net.httpserver.HttpServer;
+
+public class ResponseSinkTest {
+
+    private HttpServer server;
+    private String baseUrl;
+    private byte[] content;
+    private Path dir;
+
+    @Before
+    public void setUp() throws Exception {
+        content = new byte[3 * 1024 * 1024 + 17];
+        new Random(7).nextBytes(content);
+        dir = Files.createTempDirectory("sink");
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/artefact", exchange -> {
+            exchange.getResponseHeaders().add("Content-Type", "application/octet-stream");
+            exchange.sendResponseHeaders(200, content.length);
+            OutputStream out = exchange.getResponseBody();
+            out.write(content);
+            out.close();
+        });
+        server.createContext("/missing", exchange -> {
+            byte[] body = "not here".getBytes("UTF-8");
+            exchange.sendResponseHeaders(404, body.length);
+            OutputStream out = exchange.getResponseBody();
+            out.write(body);
+            out.close();
+        });
+        server.start();
+        baseUrl = "http://127.0.0.1:" + server.getAddress().getPort();
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        server.stop(0);
+        Files.deleteIfExists(dir.resolve("artefact"));
+        Files.deleteIfExists(dir);
+    }
+
+    private RestClient[] clients() {
+        RestClientImpl jdk = RestClientImpl.create(new JdkHttpTransport());
+        jdk.setBaseUrl(baseUrl);
+        return new RestClient[] { new RestClientBuilder().setBaseUrl(baseUrl).build(), jdk };
+    }
+
+    private static RestRequest get(String resource) {
+        return (RestRequest) new RestRequest().setMethod(RestRequest.Method.Get).setResource(resource);
+    }
+
+    @Test
+    public void bodiesAreWrittenToFilesAndResponsesCarryStatusAndHeadersOnly() throws IOException {
+        for (RestClient client : clients()) {
+            Path file = dir.resolve("artefact");
+            RestRequest request = get("/artefact");
+            RestResponse response = client.execute(request, file);
+            assertEquals(Integer.valueOf(200), response.getStatusCode());
+            assertEquals("application/octet-stream", response.getHeaderValue("Content-Type"));
+            assertNull(response.getRawBody());
+            assertFalse(response.isBodyStreamed());
+            assertFalse(request.isStreamingResponse());
+            assertArrayEquals(content, Files.readAllBytes(file));
+        }
+    }
+
+    @Test
+    public void bodiesAreWrittenToStreamsAndChannels() {
+        for (RestClient client : clients()) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            client.execute(get("/artefact"), out);
+            assertArrayEquals(content, out.toByteArray());
+            out.reset();
+            client.execute(get("/artefact"), Channels.newChannel(out));
+            assertArrayEquals(content, out.toByteArray());
+        }
+    }
+
+    @Test
+    public void unsuccessfulResponsesKeepTheirBodyAndLeaveTheFileAlone() {
+        for (RestClient client : clients()) {
+            Path file = dir.resolve("artefact");
+            RestResponse response = client.execute(get("/missing"), file);
+            assertEquals(Integer.valueOf(404), response.getStatusCode());
+            assertEquals("not here", response.getBody());
+            assertFalse(Files.exists(file));
+        }
+    }
+
+    @Test
+    public void bufferedBodiesAreTransferredToo() throws IOException {
+        RestResponse response = new RestResponse();
+        response.setRawBody(content);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        assertEquals(content.length, response.transferBodyTo(Channels.newChannel(out)));
+        assertArrayEquals(content, out.toByteArray());
+    }
+
+    @Test
+    public void transfersFailOnChannelsAcceptingNoBytes() {
+        RestResponse response = new RestResponse();
+        response.setRawBody(content);
+        WritableByteChannel full = new WritableByteChannel() {
+            public int write(ByteBuffer src) {
+                return 0;
+            }
+
+            public boolean isOpen() {
+                return true;
+            }
+
+            public void close() {
+            }
+        };
+        try {
+            response.transferBodyTo(full);
+            fail("should have failed");
+        } catch (IOException e) {
+            assertTrue(e.getMessage().contains("non-blocking"));
+        }
+    }
+}
@@ -0,0 +1,187 @@
+/*  Copyright 2008 Fabrizio Cannizzo
+ *
+ *  This file is part of RestFixture.
+ *
+ *  RestFixture (http://code.google.com/p/rest-fixture/) is free software:
+ *  you can redistribute it and/or modify it under the terms of the
+ *  GNU Lesser General Public License as published by the Free Software Foundation,
+ *  either version 3 of the License, or (at your option) any later version.
+ *
+ *  RestFixture is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with RestFixture.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ *  If you want to contact the author please leave a comment here
+ *  http://smartrics.blogspot.com/2008/08/get-fitnesse-with-some-rest.html
+ */
+package smartrics.rest.client;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Test;
+
+public class RestBatchExecutorTest {
+
+    private final ScheduledExecutorService scheduler = Executors.newScheduledThreadPool(4);
+
+    @After
+    public void tearDown() {
+        scheduler.shutdownNow();
+    }
+
+    /**
+     * Completes each call after a few millis, recording the calls in flight.
+     * Requests to a resource containing "fail" fail.
+     */
+    private class DelayedRestClient implements RestClient {
+        private final AtomicInteger inFlight = new AtomicInteger();
+        private final AtomicInteger maxInFlight = new AtomicInteger();
+        private final Map<String, AtomicInteger> inFlightByHost = new ConcurrentHashMap<String, AtomicInteger>();
+        private final AtomicInteger maxInFlightPerHost = new AtomicInteger();
+        private String baseUrl;
+
+        public void setBaseUrl(String bUrl) {
+            this.baseUrl = bUrl;
+        }
+
+        public String getBaseUrl() {
+            return baseUrl;
+        }
+
+        public RestResponse execute(RestRequest request) {
+            return executeAsync(request).join();
+        }
+
+        public RestResponse execute(String baseUrl, RestRequest request) {
+            return executeAsync(baseUrl, request).join();
+        }
+
+        public CompletableFuture<RestResponse> executeAsync(RestRequest request) {
+            return executeAsync(baseUrl, request);
+        }
+
+        public CompletableFuture<RestResponse> executeAsync(final String baseUrl, final RestRequest request) {
+            final CompletableFuture<RestResponse> f = new CompletableFuture<RestResponse>();
+            final AtomicInteger host = inFlightByHost.computeIfAbsent(baseUrl, k -> new AtomicInteger());
+            maxInFlight.accumulateAndGet(inFlight.incrementAndGet(), Math::max);
+            maxInFlightPerHost.accumulateAndGet(host.incrementAndGet(), Math::max);
+            scheduler.schedule(() -> {
+                inFlight.decrementAndGet();
+                host.decrementAndGet();
+                if (request.getResource().contains("fail")) {
+                    f.completeExceptionally(new IllegalStateException("failed " + request.getResource()));
+                } else {
+                    f.complete((RestResponse) new RestResponse().setStatusCode(200).setResource(request.getResource()));
+                }
+            }, 5, TimeUnit.MILLISECONDS);
+            return f;
+        }
+    }
+
+    private static List<RestRequest> requests(int n) {
+        List<RestRequest> requests = new ArrayList<RestRequest>();
+        for (int i = 0; i < n; i++) {
+            requests.add((RestRequest) new RestRequest().setMethod(RestRequest.Method.Get).setResource(i % 7 == 3 ? "/fail/" + i : "/r/" + i));
+        }
+        return requests;
+    }
+
+    @Test
+    public void resultsShouldBeInInputOrderAndFailuresShouldNotAbortTheBatch() {
+        DelayedRestClient client = new DelayedRestClient();
+        List<RestRequest> requests = requests(30);
+        List<RestBatchResult> results = new RestBatchExecutor(client, 4, 4).executeAll("http://host:8080", requests);
+        assertEquals(30, results.size());
+        for (int i = 0; i < 30; i++) {
+            RestBatchResult r = results.get(i);
+            assertEquals(i, r.getIndex());
+            assertEquals(requests.get(i), r.getRequest());
+            if (i % 7 == 3) {
+                assertFalse(r.isSuccess());
+                assertTrue(r.getFailure() instanceof IllegalStateException);
+            } else {
+                assertEquals(requests.get(i).getResource(), r.getResponse().getResource());
+            }
+        }
+        assertTrue(client.maxInFlight.get() <= 4);
+    }
+
+    @Test
+    public void shouldHonourThePerHostLimit() {
+        DelayedRestClient client = new DelayedRestClient();
+        RestBatchExecutor executor = new RestBatchExecutor(client, 10, 2);
+        List<CompletableFuture<RestResponse>> futures = new ArrayList<CompletableFuture<RestResponse>>();
+        for (RestRequest r : requests(20)) {
+            futures.add(executor.submit("http://a:80", r));
+            futures.add(executor.submit("http://b:80", r));
+        }
+        CompletableFuture.allOf(futures.toArray(new CompletableFuture[0])).exceptionally(t -> null).join();
+        assertTrue(client.maxInFlightPerHost.get() <= 2);
+        assertEquals(0, executor.getInFlight());
+        assertEquals(0, executor.getPending());
+    }
+
+    @Test
+    public void shouldNotifyResultsAsTheyComplete() {
+        DelayedRestClient client = new DelayedRestClient();
+        final List<RestBatchResult> completed = Collections.synchronizedList(new ArrayList<RestBatchResult>());
+        new RestBatchExecutor(client, 3, 3).executeAll("http://host:8080", requests(10), completed::add);
+        assertEquals(10, completed.size());
+    }
+
+    @Test(timeout = 30000)
+    public void callsCompletingSynchronouslyShouldNotNestDispatches() {
+        RestClient client = new RestClient() {
+            public void setBaseUrl(String bUrl) {
+            }
+
+            public String getBaseUrl() {
+                return "http://host";
+            }
+
+            public RestResponse execute(RestRequest request) {
+                return execute(getBaseUrl(), request);
+            }
+
+            public RestResponse execute(String baseUrl, RestRequest request) {
+                return executeAsync(baseUrl, request).join();
+            }
+
+            public CompletableFuture<RestResponse> executeAsync(String baseUrl, RestRequest request) {
+                RestResponse response = new RestResponse().setStatusCode(200);
+                if (!request.getResource().equals("/r/0")) {
+                    return CompletableFuture.completedFuture(response);
+                }
+                CompletableFuture<RestResponse> slow = new CompletableFuture<RestResponse>();
+                scheduler.schedule(() -> slow.complete(response), 100, TimeUnit.MILLISECONDS);
+                return slow;
+            }
+        };
+        RestBatchExecutor executor = new RestBatchExecutor(client, 1, 1);
+        List<RestBatchResult> results = executor.executeAll(requests(50000));
+        assertEquals(50000, results.size());
+        for (RestBatchResult r : results) {
+            assertTrue(r.isSuccess());
+        }
+        assertEquals(0, executor.getInFlight());
+        assertEquals(0, executor.getPending());
+    }
+}
@@ -0,0 +1,162 @@
+/*  Copyright 2008 Fabrizio Cannizzo
+ *
+ *  This file is part of RestFixture.
+ *
+ *  RestFixture (http://code.google.com/p/rest-fixture/) is free software:
+ *  you can redistribute it and/or modify it under the terms of the
+ *  GNU Lesser General Public License as published by the Free Software Foundation,
+ *  either version 3 of the License, or (at your option) any later version.
+ *
+ *  RestFixture is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with RestFixture.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ *  If you want to contact the author please leave a comment here
+ *  http://smartrics.blogspot.com/2008/08/get-fitnesse-with-some-rest.html
+ */
+package smartrics.rest.client;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import smartrics.rest.client.RequestTimings.Phase;
+
+import com.sun.net.httpserver.HttpServer;
+
+public class RestClientListenerTest {
+
+    private HttpServer server;
+    private String baseUrl;
+    private final List<RestClientEvent> events = new CopyOnWriteArrayList<RestClientEvent>();
+
+    @Before
+    public void setUp() throws Exception {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/", exchange -> {
+            byte[] body = "ok".getBytes("UTF-8");
+            exchange.sendResponseHeaders(exchange.getRequestURI().getPath().equals("/missing") ? 404 : 200, body.length);
+            OutputStream out = exchange.getResponseBody();
+            out.write(body);
+            out.close();
+        });
+        server.start();
+        baseUrl = "http://127.0.0.1:" + server.getAddress().getPort();
+    }
+
+    @After
+    public void tearDown() {
+        server.stop(0);
+    }
+
+    private static RestRequest get(String resource) {
+        return (RestRequest) new RestRequest().setMethod(RestRequest.Method.Get).setResource(resource);
+    }
+
+    @Test
+    public void pooledClientReportsAllPhases() {
+        RestClientImpl client = new RestClientBuilder().setBaseUrl(baseUrl).build().addListener(events::add);
+        RestRequest request = get("/missing");
+        request.setTransactionId(42L);
+        client.execute(request);
+        client.execute(get("/"));
+        assertEquals(2, events.size());
+        RestClientEvent first = events.get(0);
+        assertEquals(Long.valueOf(42), first.getTransactionId());
+        assertEquals(RestRequest.Method.Get, first.getMethod());
+        assertEquals("/missing", first.getResource());
+        assertEquals(Integer.valueOf(404), first.getStatusCode());
+        assertNull(first.getFailure());
+        RequestTimings t = first.getTimings();
+        for (Phase p : new Phase[] { Phase.POOL_WAIT, Phase.DNS, Phase.CONNECT, Phase.WRITE, Phase.FIRST_BYTE, Phase.BODY_READ }) {
+            assertTrue(p + " in " + t, t.get(p) >= 0);
+        }
+        assertEquals(-1, t.get(Phase.TLS));
+        assertTrue(t.getTotal() >= t.get(Phase.FIRST_BYTE) + t.get(Phase.BODY_READ));
+        RequestTimings reused = events.get(1).getTimings();
+        assertEquals("connection reused: " + reused, -1, reused.get(Phase.CONNECT));
+        assertTrue(reused.get(Phase.FIRST_BYTE) >= 0);
+    }
+
+    @Test
+    public void jdkTransportReportsFirstByteAndBody() throws Exception {
+        RestClientImpl client = RestClientImpl.create(new JdkHttpTransport()).addListener(events::add);
+        client.setBaseUrl(baseUrl);
+        client.executeAsync(get("/")).get();
+        RestClientEvent event = events.get(0);
+        assertEquals(Integer.valueOf(200), event.getStatusCode());
+        assertTrue(event.getTimings().get(Phase.FIRST_BYTE) >= 0);
+        assertTrue(event.getTimings().get(Phase.BODY_READ) >= 0);
+        assertEquals(-1, event.getTimings().get(Phase.CONNECT));
+    }
+
+    @Test
+    public void customTransportsRecordTheirPhases() {
+        RestTransport transport = new RestTransport() {
+            public RestResponse execute(String hostAddr, RestRequest request) {
+                return new RestResponse().setStatusCode(200);
+            }
+
+            public RestResponse execute(String hostAddr, RestRequest request, RequestTimings timings) {
+                long sent = System.nanoTime();
+                RestResponse response = execute(hostAddr, request);
+                timings.add(Phase.CONNECT, 5);
+                timings.headersReceived(sent, sent + 7);
+                return response;
+            }
+
+            public CompletableFuture<RestResponse> executeAsync(String hostAddr, RestRequest request) {
+                throw new UnsupportedOperationException();
+            }
+        };
+        RestClientImpl client = RestClientImpl.create(transport).addListener(events::add);
+        client.execute(baseUrl, get("/"));
+        assertEquals(5, events.get(0).getTimings().get(Phase.CONNECT));
+        assertEquals(7, events.get(0).getTimings().get(Phase.FIRST_BYTE));
+    }
+
+    @Test
+    public void failedCallsAreReported() {
+        RestClientImpl client = new RestClientBuilder().build().addListener(events::add);
+        server.stop(0);
+        try {
+            client.execute(baseUrl, get("/"));
+            fail("should have failed");
+        } catch (IllegalStateException e) {
+            assertEquals(1, events.size());
+            assertNull(events.get(0).getStatusCode());
+            assertNotNull(events.get(0).getFailure());
+            assertTrue(events.get(0).getTimings().getTotal() >= 0);
+        }
+    }
+
+    @Test
+    public void failingListenersDontFailCalls() {
+        RestClientImpl client = new RestClientBuilder().setBaseUrl(baseUrl).build();
+        RestClientListener failing = e -> {
+            throw new IllegalStateException("listener failure");
+        };
+        client.addListener(failing).addListener(events::add);
+        assertEquals(Integer.valueOf(200), client.execute(get("/")).getStatusCode());
+        assertEquals(1, events.size());
+        client.removeListener(failing);
+        client.execute(get("/"));
+        assertEquals(2, events.size());
+    }
+}
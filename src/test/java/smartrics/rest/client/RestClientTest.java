@@ -22,6 +22,9 @@ package smartrics.rest.client;
 
 import java.io.*;
 import java.util.Arrays;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
 
 import org.apache.commons.httpclient.Header;
 import org.apache.commons.httpclient.HttpClient;
@@ -175,6 +178,86 @@ public class RestClientTest {
         assertEquals(Integer.valueOf(200), restResponse.getStatusCode());
     }
 
+    @Test
+    public void asyncResponseShouldContainTheResultCodeOfASuccessfullHttpCall() throws Exception {
+        RestResponse restResponse = mockRestClientAlwaysOK.executeAsync(validRestRequest).get();
+        mockHttpMethod.verifyConnectionReleased();
+        assertEquals(Integer.valueOf(200), restResponse.getStatusCode());
+    }
+
+    @Test
+    public void asyncMustNotifyCallerIfHttpCallFailsDueToAnIoFailure() throws Exception {
+        try {
+            mockRestClientAlwaysThrowsIOException.executeAsync(validRestRequest).get();
+            fail("expected failure");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof IllegalStateException);
+        }
+    }
+
+    @Test
+    public void asyncMustNotifyCallerOfAnInvalidRequestViaTheFuture() {
+        CompletableFuture<RestResponse> f = mockRestClientAlwaysOK.executeAsync(new RestRequest());
+        assertTrue(f.isCompletedExceptionally());
+    }
+
+    @Test
+    public void asyncCancellationShouldAbortTheHttpMethod() {
+        RestClientImpl client = new RestClientImpl(new MockHttpClient(200), new Executor() {
+            public void execute(Runnable command) {
+                // never runs: the call stays in flight
+            }
+        }) {
+            @Override
+            protected HttpMethod createHttpClientMethod(RestRequest request) {
+                mockHttpMethod = new MockHttpMethod(request.getMethod().name());
+                return mockHttpMethod;
+            }
+        };
+        CompletableFuture<RestResponse> f = client.executeAsync("http://alwaysok:8080", validRestRequest);
+        assertTrue(f.cancel(true));
+        assertTrue(f.isCancelled());
+        assertTrue(mockHttpMethod.isAborted());
+    }
+
+    @Test
+    public void streamedResponseShouldReleaseTheConnectionWhenClosed() throws Exception {
+        RestClientImpl client = new RestClientImpl(new MockHttpClient(200)) {
+            @Override
+            protected HttpMethod createHttpClientMethod(RestRequest request) {
+                mockHttpMethod = new MockHttpMethod(request.getMethod().name());
+                mockHttpMethod.setResponseBody("streamed".getBytes());
+                return mockHttpMethod;
+            }
+        };
+        validRestRequest.setStreamingResponse(true);
+        RestResponse restResponse = client.execute("http://alwaysok:8080", validRestRequest);
+        assertTrue(restResponse.isBodyStreamed());
+        assertFalse(mockHttpMethod.isConnectionReleased());
+        InputStream body = restResponse.getBodyStream();
+        assertEquals('s', body.read());
+        body.close();
+        mockHttpMethod.verifyConnectionReleased();
+    }
+
+    @Test
+    public void streamedResponseShouldBeBufferedOnFirstAccessToTheBody() {
+        RestClientImpl client = new RestClientImpl(new MockHttpClient(200)) {
+            @Override
+            protected HttpMethod createHttpClientMethod(RestRequest request) {
+                mockHttpMethod = new MockHttpMethod(request.getMethod().name());
+                mockHttpMethod.setResponseBody("streamed".getBytes());
+                return mockHttpMethod;
+            }
+        };
+        validRestRequest.setStreamingResponse(true);
+        RestResponse restResponse = client.execute("http://alwaysok:8080", validRestRequest);
+        assertEquals("streamed", restResponse.getBody());
+        mockHttpMethod.verifyConnectionReleased();
+        assertFalse(restResponse.isBodyStreamed());
+        assertEquals("streamed", restResponse.getBody());
+    }
+
     @Test(expected = IllegalStateException.class)
     public void shouldNotifyCallerThatNullHostAddressesAreNotHandled() {
         mockRestClientAlwaysOK.execute(null, validRestRequest);
@@ -350,6 +433,30 @@ public class RestClientTest {
         assertTrue(mockHttpMethod.isFileRequest());
     }
 
+    @Test
+    public void shouldCreateAByteEntityWritingTheRawBody() throws Exception {
+        byte[] raw = "caf\u00e9".getBytes("UTF-8");
+        mockHttpMethod = new MockHttpMethod("mock");
+        validRestRequest.setRawBody(raw);
+        RestClientImpl client = new RestClientImpl(new MockHttpClient(200));
+        client.configureHttpMethod(mockHttpMethod, "localhost", validRestRequest);
+        assertEquals(raw.length, mockHttpMethod.getRequestEntity().getContentLength());
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        mockHttpMethod.getRequestEntity().writeRequest(out);
+        assertArrayEquals(raw, out.toByteArray());
+        assertEquals("text/xml", mockHttpMethod.getRequestEntity().getContentType());
+    }
+
+    @Test
+    public void shouldCreateAChunkedEntityForStreamBodySources() throws Exception {
+        mockHttpMethod = new MockHttpMethod("mock");
+        validRestRequest.setBodySource(RestRequestBody.of(new ByteArrayInputStream("stream".getBytes())));
+        RestClientImpl client = new RestClientImpl(new MockHttpClient(200));
+        client.configureHttpMethod(mockHttpMethod, "localhost", validRestRequest);
+        assertEquals(-1, mockHttpMethod.getRequestEntity().getContentLength());
+        assertFalse(mockHttpMethod.getRequestEntity().isRepeatable());
+    }
+
     @Test(expected = IllegalArgumentException.class)
     public void shouldThrowExeptionIfFileNameDoesNotExist() throws Exception {
         mockHttpMethod = new MockHttpMethod("mock");
@@ -358,4 +465,33 @@ public class RestClientTest {
         RestClientImpl client = new RestClientImpl(new MockHttpClient(200));
         client.configureHttpMethod(mockHttpMethod, "localhost", validRestRequest);
     }
+
+    @Test
+    public void executeAsyncDefaultsToExecuteForClientsImplementingOnlyTheBlockingCalls() throws Exception {
+        RestClient client = new RestClient() {
+            private String baseUrl;
+
+            public void setBaseUrl(String bUrl) {
+                this.baseUrl = bUrl;
+            }
+
+            public String getBaseUrl() {
+                return baseUrl;
+            }
+
+            public RestResponse execute(RestRequest request) {
+                return execute(baseUrl, request);
+            }
+
+            public RestResponse execute(String baseUrl, RestRequest request) {
+                RestResponse response = new RestResponse().setStatusCode(200);
+                response.setBody(baseUrl + request.getResource());
+                return response;
+            }
+        };
+        client.setBaseUrl("http://host");
+        RestRequest request = (RestRequest) new RestRequest().setMethod(Method.Get).setResource("/r");
+        assertEquals("http://host/r", client.executeAsync(request).get().getBody());
+        assertEquals("http://other/r", client.executeAsync("http://other", request).get().getBody());
+    }
 }
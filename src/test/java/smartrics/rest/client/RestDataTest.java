@@ -0,0 +1,126 @@
+/*  Copyright 2008 Fabrizio Cannizzo
+ *
+ *  This file is part of RestFixture.
+ *
+ *  RestFixture (http://code.google.com/p/rest-fixture/) is free software:
+ *  you can redistribute it and/or modify it under the terms of the
+ *  GNU Lesser General Public License as published by the Free Software Foundation,
+ *  either version 3 of the License, or (at your option) any later version.
+ *
+ *  RestFixture is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with RestFixture.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ *  If you want to contact the author please leave a comment here
+ *  http://smartrics.blogspot.com/2008/08/get-fitnesse-with-some-rest.html
+ */
+package smartrics.rest.client;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.List;
+
+import org.junit.Test;
+
+public class RestDataTest {
+
+    @Test
+    public void headersShouldBeLookedUpIgnoringCase() {
+        RestResponse r = new RestResponse();
+        r.addHeader("X-Name", "v1").addHeader("Other", "o").addHeader("x-name", "v2");
+        List<RestData.Header> values = r.getHeader("X-NAME");
+        assertEquals(2, values.size());
+        assertEquals("v1", values.get(0).getValue());
+        assertEquals("v2", values.get(1).getValue());
+        assertEquals("v1", r.getHeaderValue("x-Name"));
+        assertTrue(r.getHeader("missing").isEmpty());
+        assertNull(r.getHeaderValue("missing"));
+    }
+
+    @Test
+    public void headersShouldKeepInsertionOrder() {
+        RestResponse r = new RestResponse();
+        r.addHeader("b", "1").addHeader("a", "2").addHeader("B", "3");
+        assertEquals("[b:1, a:2, B:3]", r.getHeaders().toString());
+    }
+
+    @Test
+    public void headerListsShouldBeCopies() {
+        RestResponse r = new RestResponse();
+        r.addHeader("a", "1");
+        List<RestData.Header> values = r.getHeader("a");
+        values.clear();
+        assertEquals("1", r.getHeaderValue("a"));
+        r.addHeader("A", "2");
+        assertTrue(values.isEmpty());
+    }
+
+    @Test
+    public void charsetShouldBeParsedFromTheContentType() {
+        RestResponse r = new RestResponse();
+        assertEquals(RestData.DEFAULT_ENCODING, r.getCharset());
+        assertNull(r.getMediaType());
+        r.addHeader("Content-Type", "Application/JSON; charset=\"ISO-8859-1\"; q=1");
+        assertEquals("ISO-8859-1", r.getCharset());
+        assertEquals("application/json", r.getMediaType());
+    }
+
+    @Test
+    public void cachedCharsetShouldBeInvalidatedWhenTheContentTypeIsAdded() {
+        RestResponse r = new RestResponse();
+        r.addHeader("Accept", "text/plain");
+        assertEquals(RestData.DEFAULT_ENCODING, r.getCharset());
+        r.addHeader("content-type", "text/plain;charset=UTF-16");
+        assertEquals("UTF-16", r.getCharset());
+        assertEquals("text/plain", r.getMediaType());
+    }
+
+    @Test
+    public void decodedBodyShouldBeCachedUntilTheBodyChanges() throws Exception {
+        RestResponse r = new RestResponse();
+        r.setRawBody("caf\u00e9".getBytes("UTF-8"));
+        String body = r.getBody();
+        assertEquals("caf\u00e9", body);
+        assertSame(body, r.getBody());
+        r.setRawBody("tea".getBytes("UTF-8"));
+        assertEquals("tea", r.getBody());
+    }
+
+    @Test
+    public void decodedBodyShouldFollowTheCharset() throws Exception {
+        RestResponse r = new RestResponse();
+        r.setRawBody("caf\u00e9".getBytes("ISO-8859-1"));
+        r.addHeader("Content-Type", "text/plain; charset=ISO-8859-1");
+        assertEquals("caf\u00e9", r.getBody());
+    }
+
+    @Test
+    public void bodyCharsShouldBeAViewForSingleByteCharsets() throws Exception {
+        RestResponse r = new RestResponse();
+        r.addHeader("Content-Type", "text/plain; charset=ISO-8859-1");
+        r.setRawBody("caf\u00e9 au lait".getBytes("ISO-8859-1"));
+        CharSequence chars = r.getBodyChars();
+        assertFalse(chars instanceof String);
+        assertEquals(12, chars.length());
+        assertEquals('\u00e9', chars.charAt(3));
+        assertEquals("au", chars.subSequence(5, 7).toString());
+        assertEquals("caf\u00e9 au lait", chars.toString());
+    }
+
+    @Test
+    public void setBodyShouldEncodeWithTheCharset() throws Exception {
+        RestRequest r = new RestRequest();
+        r.addHeader("Content-Type", "text/plain; charset=ISO-8859-1");
+        r.setBody("caf\u00e9");
+        assertArrayEquals("caf\u00e9".getBytes("ISO-8859-1"), r.getRawBody());
+    }
+}
@@ -0,0 +1,231 @@
+/*  Copyright 2008 Fabrizio Cannizzo
+ *
+ *  This file is part of RestFixture.
+ *
+ *  RestFixture (http://code.google.com/p/rest-fixture/) is free software:
+ *  you can redistribute it and/or modify it under the terms of the
+ *  GNU Lesser General Public License as published by the Free Software Foundation,
+ *  either version 3 of the License, or (at your option) any later version.
+ *
+ *  RestFixture is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with RestFixture.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ *  If you want to contact the author please leave a comment here
+ *  http://smartrics.blogspot.com/2008/08/get-fitnesse-with-some-rest.html
+ */
+package smartrics.rest.client;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+import com.sun.net.httpserver.HttpServer;
+
+public class RestFanOutTest {
+
+    private final AtomicInteger interrupted = new AtomicInteger();
+    private final AtomicInteger finished = new AtomicInteger();
+    private final List<Thread> threads = new CopyOnWriteArrayList<Thread>();
+
+    /**
+     * Answers /slow after 10s, fails /fail after 50ms, answers /stuck after
+     * 3s whatever happens, answers the others after the number of ms in their
+     * resource.
+     */
+    private final RestTransport transport = new RestTransport() {
+        public RestResponse execute(String hostAddr, RestRequest request) {
+            threads.add(Thread.currentThread());
+            String resource = request.getResource();
+            try {
+                if (resource.equals("/slow")) {
+                    Thread.sleep(10000);
+                } else if (resource.equals("/fail")) {
+                    Thread.sleep(50);
+                    throw new IllegalStateException("boom");
+                } else if (resource.equals("/stuck")) {
+                    long end = System.nanoTime() + TimeUnit.SECONDS.toNanos(3);
+                    while (System.nanoTime() < end) {
+                        try {
+                            Thread.sleep(10);
+                        } catch (InterruptedException e) {
+                            // as a socket read ignoring interrupts
+                        }
+                    }
+                } else {
+                    Thread.sleep(Long.parseLong(resource.substring(1)));
+                }
+                RestResponse response = new RestResponse().setStatusCode(200);
+                response.setBody(resource);
+                return response;
+            } catch (InterruptedException e) {
+                interrupted.incrementAndGet();
+                throw new IllegalStateException("interrupted", e);
+            } finally {
+                finished.incrementAndGet();
+            }
+        }
+
+        /**
+         * Runs the call on its own thread, interrupted when the future is
+         * cancelled as an aborted Http method would be.
+         */
+        public CompletableFuture<RestResponse> executeAsync(final String hostAddr, final RestRequest request) {
+            final Thread[] thread = new Thread[1];
+            final CompletableFuture<RestResponse> future = new CompletableFuture<RestResponse>() {
+                @Override
+                public boolean cancel(boolean mayInterruptIfRunning) {
+                    boolean cancelled = super.cancel(mayInterruptIfRunning);
+                    if (cancelled) {
+                        thread[0].interrupt();
+                    }
+                    return cancelled;
+                }
+            };
+            thread[0] = new Thread(() -> {
+                try {
+                    future.complete(execute(hostAddr, request));
+                } catch (RuntimeException e) {
+                    future.completeExceptionally(e);
+                }
+            }, "RestClient-async-" + request.getResource());
+            thread[0].setDaemon(true);
+            thread[0].start();
+            return future;
+        }
+    };
+
+    private void awaitFinished(int n) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (finished.get() < n && System.currentTimeMillis() < deadline) {
+            Thread.sleep(1);
+        }
+    }
+
+    private static List<RestRequest> requests(String... resources) {
+        List<RestRequest> requests = new ArrayList<RestRequest>();
+        for (String r : resources) {
+            requests.add((RestRequest) new RestRequest().setMethod(RestRequest.Method.Get).setResource(r));
+        }
+        return requests;
+    }
+
+    @Test
+    public void responsesAreInTheOrderOfTheRequests() {
+        List<RestResponse> responses = new RestFanOut(RestClientImpl.create(transport)).executeAll(requests("/60", "/0", "/30"), 5, TimeUnit.SECONDS);
+        assertEquals(Arrays.asList("/60", "/0", "/30"), Arrays.asList(responses.get(0).getBody(), responses.get(1).getBody(), responses.get(2).getBody()));
+    }
+
+    @Test
+    public void theFirstFailureCancelsTheOtherCalls() throws Exception {
+        long start = System.nanoTime();
+        try {
+            new RestFanOut(RestClientImpl.create(transport)).executeAll(requests("/slow", "/fail", "/slow"), 5, TimeUnit.SECONDS);
+            fail("failure not reported");
+        } catch (RestFanOutException e) {
+            assertEquals("/fail", e.getRequest().getResource());
+            assertEquals("boom", e.getCause().getMessage());
+            assertTrue(!e.isDeadlineExceeded());
+        }
+        assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) < 5000);
+        awaitFinished(3);
+        assertEquals(2, interrupted.get());
+        assertEquals(3, finished.get());
+    }
+
+    @Test
+    public void noCallIsSentOnceOneFailed() {
+        List<RestRequest> requests = requests("/0", "/0");
+        requests.add(0, new RestRequest().setMethod(RestRequest.Method.Get));
+        try {
+            new RestFanOut(RestClientImpl.create(transport)).executeAll(requests, 5, TimeUnit.SECONDS);
+            fail("failure not reported");
+        } catch (RestFanOutException e) {
+            assertSame(requests.get(0), e.getRequest());
+        }
+        assertEquals(0, threads.size());
+    }
+
+    @Test
+    public void theDeadlineCancelsAllTheCalls() throws Exception {
+        try {
+            new RestFanOut(RestClientImpl.create(transport)).executeAll(requests("/slow", "/slow", "/0"), 100, TimeUnit.MILLISECONDS);
+            fail("deadline not reported");
+        } catch (RestFanOutException e) {
+            assertTrue(e.isDeadlineExceeded());
+            assertEquals("Deadline of 100ms exceeded", e.getMessage());
+        }
+        awaitFinished(3);
+        assertEquals(2, interrupted.get());
+        assertEquals(3, finished.get());
+    }
+
+    @Test
+    public void theDeadlineIsKeptByCallsIgnoringCancellation() {
+        long start = System.nanoTime();
+        try {
+            new RestFanOut(RestClientImpl.create(transport)).executeAll(requests("/stuck", "/0"), 100, TimeUnit.MILLISECONDS);
+            fail("deadline not reported");
+        } catch (RestFanOutException e) {
+            assertTrue(e.isDeadlineExceeded());
+        }
+        assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) < 2000);
+    }
+
+    @Test
+    public void callsRunOnTheAsyncExecutorOfTheClient() {
+        new RestFanOut(RestClientImpl.create(transport)).executeAll(requests("/0", "/0"), 5, TimeUnit.SECONDS);
+        assertEquals(2, threads.size());
+        for (Thread t : threads) {
+            assertTrue(t.getName(), t.getName().startsWith("RestClient-async-"));
+        }
+        assertEquals(Runtime.version().feature() >= 21, VirtualThreads.isAvailable());
+    }
+
+    @Test
+    public void fansOutOverPooledConnections() throws Exception {
+        HttpServer server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.setExecutor(Executors.newFixedThreadPool(8));
+        server.createContext("/", exchange -> {
+            byte[] body = exchange.getRequestURI().getPath().getBytes("UTF-8");
+            exchange.sendResponseHeaders(200, body.length);
+            OutputStream out = exchange.getResponseBody();
+            out.write(body);
+            out.close();
+        });
+        server.start();
+        try {
+            RestClientImpl client = new RestClientBuilder().setBaseUrl("http://127.0.0.1:" + server.getAddress().getPort())
+                    .setMaxConnectionsPerRoute(10).setVirtualThreads(true).build();
+            String[] resources = new String[200];
+            for (int i = 0; i < resources.length; i++) {
+                resources[i] = "/r" + i;
+            }
+            List<RestResponse> responses = new RestFanOut(client).executeAll(requests(resources), 30, TimeUnit.SECONDS);
+            for (int i = 0; i < resources.length; i++) {
+                assertEquals(resources[i], responses.get(i).getBody());
+            }
+            assertEquals("/async", client.executeAsync(requests("/async").get(0)).get(5, TimeUnit.SECONDS).getBody());
+        } finally {
+            server.stop(0);
+        }
+    }
+}
@@ -0,0 +1,277 @@
+/*  Copyright 2008 Fabrizio Cannizzo
+ *
+ *  This file is part of RestFixture.
+ *
+ *  RestFixture (http://code.google.com/p/rest-fixture/) is free software:
+ *  you can redistribute it and/or modify it under the terms of the
+ *  GNU Lesser General Public License as published by the Free Software Foundation,
+ *  either version 3 of the License, or (at your option) any later version.
+ *
+ *  RestFixture is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with RestFixture.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ *  If you want to contact the author please leave a comment here
+ *  http://smartrics.blogspot.com/2008/08/get-fitnesse-with-some-rest.html
+ */
+package smartrics.rest.client;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.ConnectException;
+import java.net.InetSocketAddress;
+import java.net.SocketException;
+import java.nio.file.Files;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.commons.httpclient.HttpClient;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.sun.net.httpserver.HttpServer;
+
+public class RetryingRestClientTest {
+
+    /**
+     * Returns or throws the scripted outcomes in order.
+     */
+    private static class ScriptedRestClient implements RestClient {
+        private final Deque<Object> outcomes = new ArrayDeque<Object>();
+        private int calls;
+
+        public void setBaseUrl(String bUrl) {
+        }
+
+        public String getBaseUrl() {
+            return "http://localhost:8080";
+        }
+
+        public RestResponse execute(RestRequest request) {
+            return execute(getBaseUrl(), request);
+        }
+
+        public RestResponse execute(String hostAddr, RestRequest request) {
+            calls++;
+            Object outcome = outcomes.removeFirst();
+            if (outcome instanceof RuntimeException) {
+                throw (RuntimeException) outcome;
+            }
+            return (RestResponse) outcome;
+        }
+
+        public CompletableFuture<RestResponse> executeAsync(RestRequest request) {
+            return executeAsync(getBaseUrl(), request);
+        }
+
+        public CompletableFuture<RestResponse> executeAsync(String hostAddr, RestRequest request) {
+            CompletableFuture<RestResponse> f = new CompletableFuture<RestResponse>();
+            try {
+                f.complete(execute(hostAddr, request));
+            } catch (RuntimeException e) {
+                f.completeExceptionally(e);
+            }
+            return f;
+        }
+    }
+
+    private ScriptedRestClient server;
+    private RetryingRestClient client;
+
+    @Before
+    public void setUp() {
+        server = new ScriptedRestClient();
+        client = new RetryingRestClient(server, new RetryPolicy().setBackoff(1, 5));
+    }
+
+    private static RestResponse status(int code, String... headers) {
+        RestResponse r = new RestResponse();
+        r.setStatusCode(code);
+        for (int i = 0; i < headers.length; i += 2) {
+            r.addHeader(headers[i], headers[i + 1]);
+        }
+        return r;
+    }
+
+    private static RestRequest request(RestRequest.Method method) {
+        RestRequest r = new RestRequest().setMethod(method);
+        r.setResource("/res");
+        return r;
+    }
+
+    private static IllegalStateException ioFailure(IOException cause) {
+        return new IllegalStateException("Http call failed for IO failure", cause);
+    }
+
+    @Test
+    public void shouldRetryRetryableStatusCodes() {
+        server.outcomes.add(status(503));
+        server.outcomes.add(status(429, "Retry-After", "0"));
+        server.outcomes.add(status(200));
+        assertEquals(Integer.valueOf(200), client.execute(request(RestRequest.Method.Get)).getStatusCode());
+        assertEquals(3, server.calls);
+        assertEquals(2, client.getRetries());
+    }
+
+    @Test
+    public void shouldStopAtMaxAttempts() {
+        server.outcomes.add(status(503));
+        server.outcomes.add(status(503));
+        server.outcomes.add(status(503));
+        assertEquals(Integer.valueOf(503), client.execute(request(RestRequest.Method.Get)).getStatusCode());
+        assertEquals(3, server.calls);
+    }
+
+    @Test
+    public void shouldNotRetryOtherStatusCodes() {
+        server.outcomes.add(status(500));
+        assertEquals(Integer.valueOf(500), client.execute(request(RestRequest.Method.Get)).getStatusCode());
+        assertEquals(1, server.calls);
+    }
+
+    @Test
+    public void shouldNotRetryNonIdempotentMethodsUnlessOptedIn() {
+        server.outcomes.add(status(503));
+        assertEquals(Integer.valueOf(503), client.execute(request(RestRequest.Method.Post)).getStatusCode());
+        client.getPolicy().setRetryNonIdempotent(true);
+        server.outcomes.add(status(503));
+        server.outcomes.add(status(201));
+        assertEquals(Integer.valueOf(201), client.execute(request(RestRequest.Method.Post)).getStatusCode());
+        assertEquals(3, server.calls);
+    }
+
+    @Test
+    public void shouldRetryConnectFailuresForAnyMethod() {
+        server.outcomes.add(ioFailure(new ConnectException("Connection refused")));
+        server.outcomes.add(status(201));
+        assertEquals(Integer.valueOf(201), client.execute(request(RestRequest.Method.Post)).getStatusCode());
+    }
+
+    @Test
+    public void shouldRetryOtherIOFailuresForIdempotentMethodsOnly() {
+        server.outcomes.add(ioFailure(new SocketException("Connection reset")));
+        server.outcomes.add(status(200));
+        assertEquals(Integer.valueOf(200), client.execute(request(RestRequest.Method.Put)).getStatusCode());
+        server.outcomes.add(ioFailure(new SocketException("Connection reset")));
+        try {
+            client.execute(request(RestRequest.Method.Post));
+            fail("should have failed");
+        } catch (IllegalStateException e) {
+            assertTrue(e.getCause() instanceof SocketException);
+        }
+    }
+
+    @Test
+    public void shouldNotRetryInvalidRequests() {
+        server.outcomes.add(new IllegalArgumentException("Invalid request"));
+        try {
+            client.execute(request(RestRequest.Method.Get));
+            fail("should have failed");
+        } catch (IllegalArgumentException e) {
+            assertEquals(1, server.calls);
+        }
+    }
+
+    @Test
+    public void shouldNotReplayStreamBodies() {
+        RestRequest put = request(RestRequest.Method.Put).setBodySource(RestRequestBody.of(new ByteArrayInputStream(new byte[10])));
+        server.outcomes.add(status(503));
+        assertEquals(Integer.valueOf(503), client.execute(put).getStatusCode());
+    }
+
+    @Test
+    public void shouldNotWaitLongerThanTheMaxRetryAfter() {
+        client.getPolicy().setMaxRetryAfter(1000);
+        server.outcomes.add(status(503, "Retry-After", "120"));
+        assertEquals(Integer.valueOf(503), client.execute(request(RestRequest.Method.Get)).getStatusCode());
+        assertEquals(1, server.calls);
+    }
+
+    @Test
+    public void shouldHonourRetryAfter() {
+        assertEquals(2000, RetryPolicy.retryAfter(status(503, "Retry-After", "2")));
+        assertEquals(0, RetryPolicy.retryAfter(status(503, "Retry-After", "soon")));
+        assertTrue(new RetryPolicy().setBackoff(1, 5).delay(1, status(503, "Retry-After", "2")) >= 2000);
+    }
+
+    @Test
+    public void shouldBackOffExponentiallyWithJitter() {
+        RetryPolicy policy = new RetryPolicy().setBackoff(100, 1000).setJitter(0.5);
+        for (int i = 0; i < 100; i++) {
+            long first = policy.backoff(1);
+            assertTrue(first >= 50 && first <= 100);
+            long third = policy.backoff(3);
+            assertTrue(third >= 200 && third <= 400);
+            long capped = policy.backoff(10);
+            assertTrue(capped >= 500 && capped <= 1000);
+        }
+        assertEquals(400, new RetryPolicy().setBackoff(100, 1000).setJitter(0).backoff(3));
+    }
+
+    @Test
+    public void shouldRetryAsynchronously() throws Exception {
+        server.outcomes.add(ioFailure(new ConnectException("Connection refused")));
+        server.outcomes.add(status(503));
+        server.outcomes.add(status(200));
+        assertEquals(Integer.valueOf(200), client.executeAsync(request(RestRequest.Method.Get)).get().getStatusCode());
+        assertEquals(3, server.calls);
+    }
+
+    @Test
+    public void shouldFailAsynchronouslyWhenAttemptsAreOver() throws Exception {
+        server.outcomes.add(ioFailure(new ConnectException("1")));
+        server.outcomes.add(ioFailure(new ConnectException("2")));
+        server.outcomes.add(ioFailure(new ConnectException("3")));
+        try {
+            client.executeAsync(request(RestRequest.Method.Get)).get();
+            fail("should have failed");
+        } catch (ExecutionException e) {
+            assertEquals("3", e.getCause().getCause().getMessage());
+        }
+    }
+
+    @Test
+    public void shouldReplayFileUploads() throws IOException {
+        final AtomicInteger calls = new AtomicInteger();
+        HttpServer http = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        http.createContext("/", exchange -> {
+            byte[] body = exchange.getRequestBody().readAllBytes();
+            if (calls.incrementAndGet() == 1) {
+                exchange.sendResponseHeaders(503, -1);
+            } else {
+                exchange.sendResponseHeaders(200, body.length);
+                OutputStream out = exchange.getResponseBody();
+                out.write(body);
+            }
+            exchange.close();
+        });
+        http.start();
+        File file = File.createTempFile("upload", ".txt");
+        try {
+            Files.write(file.toPath(), "file content".getBytes("UTF-8"));
+            RestClient retrying = new RetryingRestClient(new RestClientImpl(new HttpClient()), new RetryPolicy().setBackoff(1, 5));
+            retrying.setBaseUrl("http://127.0.0.1:" + http.getAddress().getPort());
+            RestRequest put = request(RestRequest.Method.Put).setFileName(file.getAbsolutePath());
+            RestResponse response = retrying.execute(put);
+            assertEquals(Integer.valueOf(200), response.getStatusCode());
+            assertEquals("file content", response.getBody());
+            assertEquals(2, calls.get());
+        } finally {
+            file.delete();
+            http.stop(0);
+        }
+    }
+}
@@ -0,0 +1,130 @@
+/*  Copyright 2008 Fabrizio Cannizzo
+ *
+ *  This file is part of RestFixture.
+ *
+ *  RestFixture (http://code.google.com/p/rest-fixture/) is free software:
+ *  you can redistribute it and/or modify it under the terms of the
+ *  GNU Lesser General Public License as published by the Free Software Foundation,
+ *  either version 3 of the License, or (at your option) any later version.
+ *
+ *  RestFixture is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with RestFixture.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ *  If you want to contact the author please leave a comment here
+ *  http://smartrics.blogspot.com/2008/08/get-fitnesse-with-some-rest.html
+ */
+package smartrics.rest.client;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+public class TransactionIdGeneratorTest {
+
+    @Test
+    public void idsAreUniqueAcrossThreads() throws Exception {
+        final TimeBasedTransactionIdGenerator generator = new TimeBasedTransactionIdGenerator(1);
+        final Set<Long> ids = ConcurrentHashMap.newKeySet();
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        for (int t = 0; t < 8; t++) {
+            executor.execute(() -> {
+                for (int i = 0; i < 50000; i++) {
+                    ids.add(generator.nextId());
+                }
+            });
+        }
+        executor.shutdown();
+        assertTrue(executor.awaitTermination(20, TimeUnit.SECONDS));
+        assertEquals(400000, ids.size());
+    }
+
+    @Test
+    public void idsIncreaseAndCarryTimeAndNode() {
+        TimeBasedTransactionIdGenerator generator = new TimeBasedTransactionIdGenerator(1023);
+        long before = System.currentTimeMillis();
+        long previous = 0;
+        for (int i = 0; i < 10000; i++) {
+            long id = generator.nextId();
+            assertTrue(id > previous);
+            previous = id;
+        }
+        long first = generator.nextId();
+        assertEquals(1023, TimeBasedTransactionIdGenerator.nodeOf(first));
+        assertTrue(TimeBasedTransactionIdGenerator.timestampOf(first) >= before);
+        assertTrue(TimeBasedTransactionIdGenerator.timestampOf(first) <= System.currentTimeMillis() + 10);
+    }
+
+    @Test
+    public void nodesDontCollide() {
+        TimeBasedTransactionIdGenerator a = new TimeBasedTransactionIdGenerator(1);
+        TimeBasedTransactionIdGenerator b = new TimeBasedTransactionIdGenerator(2);
+        Set<Long> ids = ConcurrentHashMap.newKeySet();
+        for (int i = 0; i < 10000; i++) {
+            ids.add(a.nextId());
+            ids.add(b.nextId());
+        }
+        assertEquals(20000, ids.size());
+    }
+
+    @Test
+    public void nodeIdsAreValidated() {
+        try {
+            new TimeBasedTransactionIdGenerator(1024);
+            fail("should have failed");
+        } catch (IllegalArgumentException e) {
+        }
+    }
+
+    @Test
+    public void configuredNodeIdsAreValidated() {
+        for (String nodeId : new String[] { "1024", "node-1" }) {
+            System.setProperty("restclient.nodeId", nodeId);
+            try {
+                TimeBasedTransactionIdGenerator.defaultNodeId();
+                fail("should have failed");
+            } catch (IllegalArgumentException e) {
+                assertTrue(e.getMessage().contains("restclient.nodeId '" + nodeId + "'"));
+            } finally {
+                System.clearProperty("restclient.nodeId");
+            }
+        }
+        System.setProperty("restclient.nodeId", " 12 ");
+        try {
+            assertEquals(12, new TimeBasedTransactionIdGenerator().getNodeId());
+        } finally {
+            System.clearProperty("restclient.nodeId");
+        }
+    }
+
+    @Test
+    public void clientUsesTheGenerator() {
+        RestClientImpl client = RestClientImpl.create(new RestTransport() {
+            public RestResponse execute(String hostAddr, RestRequest request) {
+                return new RestResponse();
+            }
+
+            public CompletableFuture<RestResponse> executeAsync(String hostAddr, RestRequest request) {
+                return CompletableFuture.completedFuture(execute(hostAddr, request));
+            }
+        });
+        assertTrue(client.getTransactionIdGenerator() instanceof TimeBasedTransactionIdGenerator);
+        client.setTransactionIdGenerator(() -> 7L);
+        RestRequest request = (RestRequest) new RestRequest().setMethod(RestRequest.Method.Get).setResource("/");
+        client.execute("http://localhost", request);
+        assertEquals(Long.valueOf(7), request.getTransactionId());
+    }
+}
@@ -0,0 +1,172 @@
+/*  Copyright 2008 Fabrizio Cannizzo
+ *
+ *  This file is part of RestFixture.
+ *
+ *  RestFixture (http://code.google.com/p/rest-fixture/) is free software:
+ *  you can redistribute it and/or modify it under the terms of the
+ *  GNU Lesser General Public License as published by the Free Software Foundation,
+ *  either version 3 of the License, or (at your option) any later version.
+ *
+ *  RestFixture is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with RestFixture.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ *  If you want to contact the author please leave a comment here
+ *  http://smartrics.blogspot.com/2008/08/get-fitnesse-with-some-rest.html
+ */
+package smartrics.rest.client;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.sun.net.httpserver.HttpServer;
+
+public class WireTapTest {
+
+    private HttpServer server;
+    private String baseUrl;
+    private final List<String> records = new CopyOnWriteArrayList<String>();
+    private WireTap tap;
+
+    @Before
+    public void setUp() throws Exception {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/", exchange -> {
+            byte[] body = exchange.getRequestBody().readAllBytes();
+            if (body.length == 0) {
+                body = "hello".getBytes("UTF-8");
+            }
+            exchange.getResponseHeaders().add("Content-Type", "text/plain");
+            exchange.sendResponseHeaders(200, body.length);
+            OutputStream out = exchange.getResponseBody();
+            out.write(body);
+            out.close();
+        });
+        server.start();
+        baseUrl = "http://127.0.0.1:" + server.getAddress().getPort();
+        tap = new WireTap().setSink(records::add);
+    }
+
+    @After
+    public void tearDown() {
+        tap.close();
+        server.stop(0);
+    }
+
+    private static RestRequest post(String body) {
+        RestRequest request = (RestRequest) new RestRequest().setMethod(RestRequest.Method.Post).setResource("/echo").setBody(body);
+        request.setTransactionId(7L);
+        return request;
+    }
+
+    @Test
+    public void requestsAndResponsesAreTappedWithTheirBodies() {
+        RestClientImpl client = new RestClientBuilder().setBaseUrl(baseUrl).setWireTap(tap).build();
+        assertEquals("ping", client.execute(post("ping")).getBody());
+        assertTrue(tap.flush(2, TimeUnit.SECONDS));
+        assertEquals(2, records.size());
+        String request = records.get(0);
+        assertTrue(request, request.startsWith("[7] >> POST " + baseUrl + "/echo"));
+        assertTrue(request, request.endsWith("\nping"));
+        String response = records.get(1);
+        assertTrue(response, response.startsWith("[7] << HTTP/1.1 200 OK"));
+        assertTrue(response, response.toLowerCase().contains("content-type: text/plain"));
+        assertTrue(response, response.endsWith("\nping"));
+    }
+
+    @Test
+    public void bodiesAreTruncated() {
+        tap.setMaxBodyBytes(4);
+        RestClientImpl client = new RestClientBuilder().setBaseUrl(baseUrl).setWireTap(tap).build();
+        client.execute(post("0123456789"));
+        assertTrue(tap.flush(2, TimeUnit.SECONDS));
+        assertTrue(records.get(0), records.get(0).endsWith("\n0123...[truncated, 10 bytes]"));
+        assertTrue(records.get(1), records.get(1).endsWith("\n0123...[truncated, 10 bytes]"));
+    }
+
+    @Test
+    public void jdkTransportIsTapped() throws Exception {
+        RestClientImpl client = RestClientImpl.create(new JdkHttpTransport().setWireTap(tap));
+        client.setBaseUrl(baseUrl);
+        client.executeAsync(post("pong")).get();
+        RestRequest get = (RestRequest) new RestRequest().setMethod(RestRequest.Method.Get).setResource("/");
+        get.setTransactionId(8L);
+        RestRequest streaming = (RestRequest) new RestRequest().setMethod(RestRequest.Method.Get).setResource("/");
+        streaming.setTransactionId(9L);
+        streaming.setStreamingResponse(true);
+        client.execute(get);
+        assertEquals("hello", client.execute(streaming).getBody());
+        assertTrue(tap.flush(2, TimeUnit.SECONDS));
+        assertEquals(6, records.size());
+        assertTrue(records.get(0), records.get(0).startsWith("[7] >> POST") && records.get(0).endsWith("\npong"));
+        assertTrue(records.contains("[8] >> GET " + baseUrl + "/"));
+        assertTrue(records.toString(), records.stream().anyMatch(r -> r.startsWith("[9] << 200") && r.endsWith("\nhello")));
+    }
+
+    @Test
+    public void callsAreSampled() {
+        tap.setSampleRate(0);
+        RestClientImpl client = new RestClientBuilder().setBaseUrl(baseUrl).setWireTap(tap).build();
+        client.execute(post("ping"));
+        assertTrue(tap.flush(2, TimeUnit.SECONDS));
+        assertEquals(0, records.size());
+    }
+
+    @Test
+    public void theWriterStartsWithTheFirstRecordAndSleepsWhileIdle() throws Exception {
+        assertNull(tap.getWriter());
+        tap.capture(1L, ">>", "GET /").publish();
+        assertTrue(tap.flush(2, TimeUnit.SECONDS));
+        Thread writer = tap.getWriter();
+        for (int i = 0; i < 200 && writer.getState() != Thread.State.WAITING; i++) {
+            Thread.sleep(5);
+        }
+        assertEquals(Thread.State.WAITING, writer.getState());
+        tap.capture(2L, ">>", "GET /").publish();
+        assertTrue(tap.flush(2, TimeUnit.SECONDS));
+        assertEquals(2, records.size());
+        tap.close();
+        writer.join(2000);
+        assertFalse(writer.isAlive());
+    }
+
+    @Test
+    public void recordsAreDroppedWhenTheBufferIsFull() throws Exception {
+        final CountDownLatch blocked = new CountDownLatch(1);
+        WireTap small = new WireTap(2).setSink(r -> {
+            try {
+                blocked.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        try {
+            for (int i = 0; i < 10; i++) {
+                small.capture((long) i, ">>", "GET /").publish();
+            }
+            assertTrue(small.getDropped() >= 7);
+            blocked.countDown();
+            assertTrue(small.flush(2, TimeUnit.SECONDS));
+            assertEquals(10, small.getWritten() + small.getDropped());
+        } finally {
+            small.close();
+        }
+    }
+}